@@ -32,6 +32,11 @@ public interface ParsingContext extends Cloneable {
 
 	boolean isStrict();
 
+	/**
+	 * Whether XML data should be parsed directly from StAX stream into XNodes, i.e. without creating DOM tree.
+	 */
+	boolean isStreamingXml();
+
 	void warn(Trace logger, String message);
 
 	void warnOrThrow(Trace logger, String message) throws SchemaException;
@@ -49,4 +54,6 @@ public interface ParsingContext extends Cloneable {
 	ParsingContext strict();
 
 	ParsingContext compat();
+
+	ParsingContext streamingXml();
 }
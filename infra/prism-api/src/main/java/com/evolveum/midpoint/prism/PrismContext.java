@@ -62,6 +62,12 @@ public interface PrismContext extends ProtectorCreator {
 	String LANG_JSON = "json";
 	String LANG_YAML = "yaml";
 
+	/**
+	 * Compact binary representation of XNode tree. Not human readable; intended for storage.
+	 * For serialization use {@link #binarySerializer()}.
+	 */
+	String LANG_BINARY = "binary";
+
 	/**
 	 * Initializes the prism context, e.g. loads and parses all the schemas.
 	 */
@@ -216,6 +222,13 @@ public interface PrismContext extends ProtectorCreator {
 	@NotNull
 	PrismSerializer<RootXNode> xnodeSerializer();
 
+	/**
+	 * Creates a serializer for compact binary representation (see {@link #LANG_BINARY}).
+	 * @return The serializer.
+	 */
+	@NotNull
+	PrismSerializer<byte[]> binarySerializer();
+
 	@Deprecated // use serializerFor + serialize instead
 	<O extends Objectable> String serializeObjectToString(PrismObject<O> object, String language) throws SchemaException;
 
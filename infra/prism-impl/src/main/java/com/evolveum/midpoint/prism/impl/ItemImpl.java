@@ -59,7 +59,7 @@ public abstract class ItemImpl<V extends PrismValue, D extends ItemDefinition> i
     protected ItemName elementName;
     protected PrismContainerValue<?> parent;
     protected D definition;
-    @NotNull protected final List<V> values = new ArrayList<>();
+    @NotNull protected final List<V> values = new ValueList();
     private transient Map<String,Object> userData = new HashMap<>();;
 
     protected EquivalenceStrategy defaultEquivalenceStrategy;
@@ -69,6 +69,9 @@ public abstract class ItemImpl<V extends PrismValue, D extends ItemDefinition> i
 
     protected transient PrismContext prismContext;          // beware, this one can easily be null
 
+    // Auxiliary index of values, created lazily for large items (see PrismContextImpl.getValueIndexThreshold).
+    private transient volatile ItemValueIndex<V> valueIndex;
+
     /**
      * This is used for definition-less construction, e.g. in JAXB beans.
      *
@@ -331,6 +334,19 @@ public abstract class ItemImpl<V extends PrismValue, D extends ItemDefinition> i
 
 	@Override
     public V findValue(V value, @NotNull EquivalenceStrategy strategy) {
+	    Collection<V> candidates = getValueCandidates(value, strategy);
+	    if (candidates != null) {
+	    	List<V> matching = new ArrayList<>(1);
+		    for (V candidate : candidates) {
+			    if (candidate.equals(value, strategy)) {
+			    	matching.add(candidate);
+			    }
+		    }
+		    if (matching.size() <= 1) {
+		    	return matching.isEmpty() ? null : matching.get(0);
+		    }
+		    // more matching values: the first one in the list has to be returned
+	    }
         for (V myVal : getValues()) {
             if (myVal.equals(value, strategy)) {
                 return myVal;
@@ -366,7 +382,8 @@ public abstract class ItemImpl<V extends PrismValue, D extends ItemDefinition> i
     }
 
     public boolean contains(V value, @NotNull EquivalenceStrategy strategy) {
-	    for (V myValue: getValues()) {
+	    Collection<V> candidates = getValueCandidates(value, strategy);
+	    for (V myValue: candidates != null ? candidates : getValues()) {
 		    if (strategy.equals(myValue, value)) {
 			    return true;
 		    }
@@ -458,45 +475,43 @@ public abstract class ItemImpl<V extends PrismValue, D extends ItemDefinition> i
 
 	public boolean removeAll(Collection<V> newValues) {
 		checkMutability();
-    	boolean changed = false;
+		// values are first collected and then removed at once, to avoid repeated shifting of the list
+		Set<V> toRemove = Collections.newSetFromMap(new IdentityHashMap<>());
     	for (V val: newValues) {
-    		if (remove(val)) {
-    			changed = true;
-    		}
+    		collectValuesToRemove(val, EquivalenceStrategy.REAL_VALUE_CONSIDER_DIFFERENT_IDS, toRemove);
     	}
-    	return changed;
+    	return removeValues(toRemove);
     }
 
     public boolean remove(V newValue) {
-	    checkMutability();
-    	boolean changed = false;
-    	Iterator<V> iterator = values.iterator();
-    	while (iterator.hasNext()) {
-    		V val = iterator.next();
-			// the same algorithm as when deleting the item value from delete delta
-			if (val.representsSameValue(newValue, false) || val.equals(newValue, EquivalenceStrategy.REAL_VALUE_CONSIDER_DIFFERENT_IDS)) {
-    			iterator.remove();
-    			val.setParent(null);
-    			changed = true;
-    		}
-    	}
-    	return changed;
+		// the same algorithm as when deleting the item value from delete delta
+		return remove(newValue, EquivalenceStrategy.REAL_VALUE_CONSIDER_DIFFERENT_IDS);
     }
 
 	@Override
 	public boolean remove(V value, @NotNull EquivalenceStrategy strategy) {
 		checkMutability();
-		boolean changed = false;
-		Iterator<V> iterator = values.iterator();
-		while (iterator.hasNext()) {
-			V val = iterator.next();
+		Set<V> toRemove = Collections.newSetFromMap(new IdentityHashMap<>());
+		collectValuesToRemove(value, strategy, toRemove);
+		return removeValues(toRemove);
+	}
+
+	private void collectValuesToRemove(V value, @NotNull EquivalenceStrategy strategy, Set<V> toRemove) {
+		Collection<V> candidates = getValueCandidates(value, strategy);
+		for (V val : candidates != null ? candidates : values) {
 			if (val.representsSameValue(value, false) || val.equals(value, strategy)) {
-				iterator.remove();
-				val.setParent(null);
-				changed = true;
+				toRemove.add(val);
 			}
 		}
-		return changed;
+	}
+
+	private boolean removeValues(Set<V> toRemove) {
+		if (toRemove.isEmpty()) {
+			return false;
+		}
+		values.removeIf(toRemove::contains);
+		toRemove.forEach(val -> val.setParent(null));
+		return true;
 	}
 
 	public V remove(int index) {
@@ -983,4 +998,186 @@ public abstract class ItemImpl<V extends PrismValue, D extends ItemDefinition> i
 
 	@Override
 	public abstract Item<V,D> clone();
+
+	//region Value index
+
+	/**
+	 * Whether values of this item can be indexed. If true, {@link #getValueIndexKey(PrismValue)} has to be implemented.
+	 */
+	protected boolean isValueIndexSupported() {
+		return false;
+	}
+
+	/**
+	 * Returns the index key of the value. Values that are equal under any (parameterized) equivalence strategy must have
+	 * equal keys. The key must not change unless the value notifies its parent about the change (see
+	 * {@link PrismValueImpl#checkMutability()}). Null means that the key cannot be determined.
+	 */
+	protected Object getValueIndexKey(V value) {
+		return null;
+	}
+
+	/**
+	 * Returns values that can be equal to the given one under given strategy, or null if the index cannot be used.
+	 */
+	@Nullable
+	private Collection<V> getValueCandidates(V value, EquivalenceStrategy strategy) {
+		if (value == null || !(strategy instanceof ParameterizedEquivalenceStrategy) || !isValueIndexSupported()) {
+			return null;
+		}
+		ItemValueIndex<V> index = valueIndex;
+		if (index == null) {
+			int threshold = PrismContextImpl.getValueIndexThreshold();
+			if (threshold <= 0 || values.size() < threshold) {
+				return null;
+			}
+			index = ItemValueIndex.create(values, this::getValueIndexKey);
+			if (index == null) {
+				return null;
+			}
+			valueIndex = index;
+		}
+		return index.getCandidates(value);
+	}
+
+	void valueChanging(PrismValue value) {
+		ItemValueIndex<V> index = valueIndex;
+		if (index != null) {
+			//noinspection unchecked
+			index.valueChanging((V) value);
+		}
+	}
+
+	private void valueAdded(V value) {
+		ItemValueIndex<V> index = valueIndex;
+		if (index != null && !index.add(value)) {
+			valueIndex = null;
+		}
+	}
+
+	private void valueRemoved(V value) {
+		ItemValueIndex<V> index = valueIndex;
+		if (index != null) {
+			index.remove(value);
+		}
+	}
+
+	private void dropValueIndex() {
+		valueIndex = null;
+	}
+
+	/**
+	 * List of values that keeps the value index (if present) up to date. Operations that are not easily reflected
+	 * in the index simply drop it; it is re-created on the next lookup.
+	 */
+	private class ValueList extends ArrayList<V> {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public boolean add(V value) {
+			super.add(value);
+			valueAdded(value);
+			return true;
+		}
+
+		@Override
+		public void add(int index, V value) {
+			super.add(index, value);
+			valueAdded(value);
+		}
+
+		@Override
+		public boolean addAll(Collection<? extends V> c) {
+			List<V> added = new ArrayList<>(c);
+			boolean changed = super.addAll(added);
+			added.forEach(ItemImpl.this::valueAdded);
+			return changed;
+		}
+
+		@Override
+		public boolean addAll(int index, Collection<? extends V> c) {
+			List<V> added = new ArrayList<>(c);
+			boolean changed = super.addAll(index, added);
+			added.forEach(ItemImpl.this::valueAdded);
+			return changed;
+		}
+
+		@Override
+		public V set(int index, V value) {
+			V old = super.set(index, value);
+			valueRemoved(old);
+			valueAdded(value);
+			return old;
+		}
+
+		@Override
+		public V remove(int index) {
+			V removed = super.remove(index);
+			valueRemoved(removed);
+			return removed;
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			int index = indexOf(o);
+			if (index < 0) {
+				return false;
+			}
+			remove(index);
+			return true;
+		}
+
+		@Override
+		public boolean removeIf(java.util.function.Predicate<? super V> filter) {
+			List<V> removed = new ArrayList<>();
+			boolean changed = super.removeIf(v -> {
+				if (filter.test(v)) {
+					removed.add(v);
+					return true;
+				} else {
+					return false;
+				}
+			});
+			removed.forEach(ItemImpl.this::valueRemoved);
+			return changed;
+		}
+
+		@Override
+		public boolean removeAll(Collection<?> c) {
+			dropValueIndex();
+			return super.removeAll(c);
+		}
+
+		@Override
+		public boolean retainAll(Collection<?> c) {
+			dropValueIndex();
+			return super.retainAll(c);
+		}
+
+		@Override
+		public void clear() {
+			dropValueIndex();
+			super.clear();
+		}
+
+		@Override
+		public void replaceAll(java.util.function.UnaryOperator<V> operator) {
+			dropValueIndex();
+			super.replaceAll(operator);
+		}
+
+		@Override
+		protected void removeRange(int fromIndex, int toIndex) {
+			dropValueIndex();
+			super.removeRange(fromIndex, toIndex);
+		}
+
+		@Override
+		public List<V> subList(int fromIndex, int toIndex) {
+			dropValueIndex();           // the sublist can be used to modify this list
+			return super.subList(fromIndex, toIndex);
+		}
+	}
+	//endregion
 }
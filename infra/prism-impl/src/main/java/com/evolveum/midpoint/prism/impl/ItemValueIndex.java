@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism.impl;
+
+import com.evolveum.midpoint.prism.PrismValue;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Auxiliary hash index of values of a large multi-valued item.
+ *
+ * Values are indexed by a key provided by the item. The key must be the same for all values that are equal
+ * under any (parameterized) equivalence strategy; values for which such a key cannot be determined (e.g. raw
+ * values) are kept aside and are always considered as candidates. So the index only pre-selects candidates
+ * for the comparison, it never decides about the equality by itself.
+ *
+ * Values that are modified after being indexed are removed from the index and re-indexed on the next lookup,
+ * because the modification notification comes before the change itself.
+ *
+ * Not thread safe. (Immutable items are never modified, so their index is only read.)
+ */
+class ItemValueIndex<V extends PrismValue> {
+
+	private static final Object NO_KEY = new Object();
+
+	@NotNull private final Function<V, Object> keyFunction;
+	@NotNull private final Map<Object, List<V>> valuesByKey = new HashMap<>();
+	@NotNull private final Map<V, Object> keys = new IdentityHashMap<>();
+	@NotNull private final Set<V> valuesWithoutKey = Collections.newSetFromMap(new IdentityHashMap<>());
+	@NotNull private final Set<V> changedValues = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	private ItemValueIndex(@NotNull Function<V, Object> keyFunction) {
+		this.keyFunction = keyFunction;
+	}
+
+	/**
+	 * @return null if the values cannot be indexed (e.g. the same value instance is present more times)
+	 */
+	@Nullable
+	static <V extends PrismValue> ItemValueIndex<V> create(@NotNull Collection<V> values, @NotNull Function<V, Object> keyFunction) {
+		ItemValueIndex<V> index = new ItemValueIndex<>(keyFunction);
+		for (V value : values) {
+			if (!index.add(value)) {
+				return null;
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * @return false if the value cannot be indexed, so the whole index has to be discarded
+	 */
+	boolean add(@NotNull V value) {
+		if (keys.containsKey(value) || changedValues.contains(value)) {
+			return false;
+		}
+		Object key = keyFunction.apply(value);
+		if (key != null) {
+			keys.put(value, key);
+			valuesByKey.computeIfAbsent(key, k -> new ArrayList<>(1)).add(value);
+		} else {
+			keys.put(value, NO_KEY);
+			valuesWithoutKey.add(value);
+		}
+		return true;
+	}
+
+	void remove(@NotNull V value) {
+		changedValues.remove(value);
+		Object key = keys.remove(value);
+		if (key == NO_KEY) {
+			valuesWithoutKey.remove(value);
+		} else if (key != null) {
+			List<V> valuesWithKey = valuesByKey.get(key);
+			valuesWithKey.removeIf(v -> v == value);
+			if (valuesWithKey.isEmpty()) {
+				valuesByKey.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Called before the value is modified. So we cannot compute the new key now.
+	 */
+	void valueChanging(@NotNull V value) {
+		if (keys.containsKey(value)) {
+			remove(value);
+			changedValues.add(value);
+		}
+	}
+
+	/**
+	 * Returns values that can be equal to the given one, or null if the value cannot be looked up using the index
+	 * (so all the values have to be checked).
+	 */
+	@Nullable
+	Collection<V> getCandidates(@NotNull V value) {
+		if (!changedValues.isEmpty()) {
+			List<V> toReindex = new ArrayList<>(changedValues);
+			changedValues.clear();
+			toReindex.forEach(this::add);
+		}
+		Object key = keyFunction.apply(value);
+		if (key == null) {
+			return null;
+		}
+		// a copy is returned because comparing values might cause their modification (e.g. parsing raw values)
+		List<V> valuesWithKey = valuesByKey.get(key);
+		List<V> candidates = new ArrayList<>(valuesWithoutKey);
+		if (valuesWithKey != null) {
+			candidates.addAll(valuesWithKey);
+		}
+		return candidates;
+	}
+}
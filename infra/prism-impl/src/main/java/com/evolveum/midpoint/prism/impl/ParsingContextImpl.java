@@ -31,6 +31,7 @@ public class ParsingContextImpl implements ParsingContext {
 
 	private XNodeProcessorEvaluationMode evaluationMode = XNodeProcessorEvaluationMode.STRICT;
 	private boolean allowMissingRefTypes;
+	private boolean streamingXml;
 	private final List<String> warnings = new ArrayList<>();
 
 	ParsingContextImpl() {
@@ -82,6 +83,10 @@ public class ParsingContextImpl implements ParsingContext {
 		return evaluationMode == XNodeProcessorEvaluationMode.STRICT;
 	}
 
+	public boolean isStreamingXml() {
+		return streamingXml;
+	}
+
 	public void warn(Trace logger, String message) {
 		logger.warn("{}", message);
 		warn(message);
@@ -121,6 +126,7 @@ public class ParsingContextImpl implements ParsingContext {
 		}
 		clone.evaluationMode = evaluationMode;
 		clone.allowMissingRefTypes = allowMissingRefTypes;
+		clone.streamingXml = streamingXml;
 		clone.warnings.addAll(warnings);
 		return clone;
 	}
@@ -134,4 +140,9 @@ public class ParsingContextImpl implements ParsingContext {
 		this.setEvaluationMode(XNodeProcessorEvaluationMode.COMPAT);
 		return this;
 	}
+
+	public ParsingContext streamingXml() {
+		this.streamingXml = true;
+		return this;
+	}
 }
@@ -79,6 +79,7 @@ public class PrismContextImpl implements PrismContext {
 
     private static boolean allowSchemalessSerialization = true;
 	private static boolean extraValidation = false;										// TODO replace by something serious
+	private static int valueIndexThreshold = 100;										// 0 means no value indexing
 
 	@NotNull private final SchemaRegistryImpl schemaRegistry;
 	@NotNull private final QueryConverterImpl queryConverter;
@@ -203,6 +204,18 @@ public class PrismContextImpl implements PrismContext {
 		return extraValidation;
 	}
 
+	/**
+	 * Minimal number of values of a property or reference that causes its values to be indexed
+	 * (to speed up value lookups). Zero means no indexing.
+	 */
+	public static int getValueIndexThreshold() {
+		return valueIndexThreshold;
+	}
+
+	public static void setValueIndexThreshold(int valueIndexThreshold) {
+		PrismContextImpl.valueIndexThreshold = valueIndexThreshold;
+	}
+
 	@Override
 	public XmlEntityResolver getEntityResolver() {
 		return schemaRegistry.getEntityResolver();
@@ -475,6 +488,12 @@ public class PrismContextImpl implements PrismContext {
 		return new PrismSerializerImpl<>(new SerializerXNodeTarget(this), null, null, null, this);
 	}
 
+	@NotNull
+	@Override
+	public PrismSerializer<byte[]> binarySerializer() {
+		return new PrismSerializerImpl<>(new SerializerBinaryTarget(this), null, null, null, this);
+	}
+
     @Override
 	public boolean canSerialize(Object value) {
         return prismMarshaller.canSerialize(value);
@@ -23,6 +23,7 @@ import com.evolveum.midpoint.prism.equivalence.ParameterizedEquivalenceStrategy;
 import com.evolveum.midpoint.prism.equivalence.EquivalenceStrategy;
 import com.evolveum.midpoint.prism.impl.delta.PropertyDeltaImpl;
 import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.prism.util.PrismPrettyPrinter;
 import com.evolveum.midpoint.prism.impl.xnode.PrimitiveXNodeImpl;
 import com.evolveum.midpoint.util.*;
@@ -32,6 +33,8 @@ import org.jetbrains.annotations.NotNull;
 
 import javax.xml.namespace.QName;
 import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
@@ -378,6 +381,33 @@ public class PrismPropertyImpl<T> extends ItemImpl<PrismPropertyValue<T>, PrismP
 		}
 	}
 
+	@Override
+	protected boolean isValueIndexSupported() {
+		return true;
+	}
+
+	/**
+	 * Only immutable real values with well-behaved equals/hashCode are indexed. Other values (raw ones, DOM elements,
+	 * JAXB beans, ...) are compared in a special way, so they are always checked.
+	 */
+	@Override
+	protected Object getValueIndexKey(PrismPropertyValue<T> value) {
+		if (value.isRaw()) {
+			return null;
+		}
+		Object realValue = value.getValue();
+		if (realValue instanceof String || realValue instanceof Integer || realValue instanceof Long
+				|| realValue instanceof Short || realValue instanceof Byte || realValue instanceof BigInteger
+				|| realValue instanceof BigDecimal || realValue instanceof Boolean || realValue instanceof Enum
+				|| realValue instanceof QName) {
+			return realValue;
+		} else if (realValue instanceof PolyString) {
+			return ((PolyString) realValue).getOrig();
+		} else {
+			return null;
+		}
+	}
+
 	@Override
     public PrismProperty<T> clone() {
         return cloneComplex(CloneStrategy.LITERAL);
@@ -155,6 +155,7 @@ public class PrismPropertyValueImpl<T> extends PrismValueImpl implements DebugDu
 	}
 
 	public void setRawElement(XNode rawElement) {
+		valueChanging();
 		this.rawElement = (XNodeImpl) rawElement;
 	}
 
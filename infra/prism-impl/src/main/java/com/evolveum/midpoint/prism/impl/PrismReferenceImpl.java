@@ -223,6 +223,20 @@ public class PrismReferenceImpl extends ItemImpl<PrismReferenceValue, PrismRefer
 		}
 	}
 
+	@Override
+	protected boolean isValueIndexSupported() {
+		return true;
+	}
+
+	/**
+	 * Values are indexed by OID. An OID taken from the embedded object can change without notice, so such values
+	 * are not indexed.
+	 */
+	@Override
+	protected Object getValueIndexKey(PrismReferenceValue value) {
+		return value.getObject() == null ? value.getOid() : null;
+	}
+
 	@Override
     public PrismReferenceImpl clone() {
 		return cloneComplex(CloneStrategy.LITERAL);
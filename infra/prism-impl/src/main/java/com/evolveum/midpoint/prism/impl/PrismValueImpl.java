@@ -347,6 +347,16 @@ public abstract class PrismValueImpl implements PrismValue {
 		if (immutable) {
 			throw new IllegalStateException("An attempt to modify an immutable value of " + toHumanReadableString());
 		}
+		valueChanging();
+	}
+
+	/**
+	 * Lets the parent item know that this value is going to be changed (e.g. to keep its value index up to date).
+	 */
+	protected void valueChanging() {
+		if (parent instanceof ItemImpl) {
+			((ItemImpl<?, ?>) parent).valueChanging(this);
+		}
 	}
 
 	public abstract String toHumanReadableString();
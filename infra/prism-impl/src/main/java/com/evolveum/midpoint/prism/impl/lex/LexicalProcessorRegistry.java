@@ -18,6 +18,7 @@ package com.evolveum.midpoint.prism.impl.lex;
 
 import com.evolveum.midpoint.prism.*;
 import com.evolveum.midpoint.prism.impl.ParserElementSource;
+import com.evolveum.midpoint.prism.impl.lex.binary.BinaryLexicalProcessor;
 import com.evolveum.midpoint.prism.impl.lex.dom.DomLexicalProcessor;
 import com.evolveum.midpoint.prism.impl.lex.json.JsonLexicalProcessor;
 import com.evolveum.midpoint.prism.impl.lex.json.NullLexicalProcessor;
@@ -32,6 +33,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
+import static com.evolveum.midpoint.prism.PrismContext.LANG_BINARY;
 import static com.evolveum.midpoint.prism.PrismContext.LANG_JSON;
 import static com.evolveum.midpoint.prism.PrismContext.LANG_XML;
 import static com.evolveum.midpoint.prism.PrismContext.LANG_YAML;
@@ -54,6 +56,7 @@ public class LexicalProcessorRegistry {
 		parserMap.put(LANG_XML, domLexicalProcessor);
 		parserMap.put(LANG_JSON, new JsonLexicalProcessor(schemaRegistry));
 		parserMap.put(LANG_YAML, new YamlLexicalProcessor(schemaRegistry));
+		parserMap.put(LANG_BINARY, new BinaryLexicalProcessor());
 	}
 
 	@NotNull
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism.impl.lex.binary;
+
+import com.evolveum.midpoint.prism.ParserSource;
+import com.evolveum.midpoint.prism.ParsingContext;
+import com.evolveum.midpoint.prism.SerializationContext;
+import com.evolveum.midpoint.prism.impl.lex.LexicalProcessor;
+import com.evolveum.midpoint.prism.impl.xnode.RootXNodeImpl;
+import com.evolveum.midpoint.prism.impl.xnode.XNodeImpl;
+import com.evolveum.midpoint.prism.xnode.RootXNode;
+import com.evolveum.midpoint.prism.xnode.XNode;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.xml.namespace.QName;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compact binary representation of XNode trees. It is meant for machine-to-machine storage
+ * (e.g. repository full object column), not for humans: it is not pretty, but it is
+ * smaller and much cheaper to read than XML.
+ *
+ * Format (version 1):
+ *
+ * - signature byte (0x00) and format version byte,
+ * - number of root nodes,
+ * - root nodes.
+ *
+ * Each node starts with a header byte: node kind in lower 3 bits, flags telling which of the optional
+ * parts (type name, explicit type declaration, element name, maxOccurs, comment) follow in upper bits.
+ * QNames and namespaces are interned: each distinct one is written only once per document, further
+ * occurrences are written as references. Numbers are written as variable-length integers.
+ *
+ * Primitive values are stored either as QNames, item paths (with forced namespace declarations)
+ * or as text - exactly the same text that would be put into XML. Unparsed values keep their relevant
+ * namespace declarations. So the values are parsed lazily, using the same rules as for XML.
+ */
+public class BinaryLexicalProcessor implements LexicalProcessor<byte[]> {
+
+	static final int SIGNATURE = 0x00;
+	static final int FORMAT_VERSION = 1;
+
+	// node kinds
+	static final int KIND_NULL = 0;
+	static final int KIND_ROOT = 1;
+	static final int KIND_MAP = 2;
+	static final int KIND_LIST = 3;
+	static final int KIND_PRIMITIVE = 4;
+	static final int KIND_SCHEMA = 5;
+	static final int KIND_MASK = 0x07;
+
+	// node flags
+	static final int FLAG_TYPE = 0x08;
+	static final int FLAG_EXPLICIT_TYPE = 0x10;
+	static final int FLAG_ELEMENT_NAME = 0x20;
+	static final int FLAG_MAX_OCCURS = 0x40;
+	static final int FLAG_COMMENT = 0x80;
+
+	// primitive value kinds
+	static final int VALUE_EMPTY = 0;
+	static final int VALUE_TEXT = 1;
+	static final int VALUE_TEXT_WITH_NAMESPACES = 2;
+	static final int VALUE_QNAME = 3;
+	static final int VALUE_ITEM_PATH = 4;
+	static final int VALUE_KIND_MASK = 0x0f;
+	static final int VALUE_FLAG_ATTRIBUTE = 0x80;
+
+	/**
+	 * Returns true if the data look like (start of) binary XNode representation.
+	 */
+	public static boolean isBinary(byte[] data) {
+		return data != null && data.length >= 2 && data[0] == SIGNATURE && data[1] == FORMAT_VERSION;
+	}
+
+	@NotNull
+	@Override
+	public RootXNodeImpl read(@NotNull ParserSource source, @NotNull ParsingContext parsingContext) throws SchemaException, IOException {
+		List<RootXNodeImpl> roots = readObjects(source, parsingContext);
+		if (roots.size() != 1) {
+			throw new SchemaException("Expected exactly one object, got " + roots.size());
+		}
+		return roots.get(0);
+	}
+
+	@NotNull
+	@Override
+	public List<RootXNodeImpl> readObjects(@NotNull ParserSource source, @NotNull ParsingContext parsingContext) throws SchemaException, IOException {
+		InputStream is = source.getInputStream();
+		try {
+			return new BinaryXNodeReader(is).readDocument(null);
+		} finally {
+			if (source.closeStreamAfterParsing()) {
+				IOUtils.closeQuietly(is);
+			}
+		}
+	}
+
+	@Override
+	public void readObjectsIteratively(@NotNull ParserSource source, @NotNull ParsingContext parsingContext, RootXNodeHandler handler) throws SchemaException, IOException {
+		InputStream is = source.getInputStream();
+		try {
+			new BinaryXNodeReader(is).readDocument(handler);
+		} finally {
+			if (source.closeStreamAfterParsing()) {
+				IOUtils.closeQuietly(is);
+			}
+		}
+	}
+
+	@Override
+	public boolean canRead(@NotNull File file) throws IOException {
+		try (InputStream is = new FileInputStream(file)) {
+			byte[] start = new byte[2];
+			return IOUtils.read(is, start) == start.length && isBinary(start);
+		}
+	}
+
+	@Override
+	public boolean canRead(@NotNull String dataString) {
+		return false;
+	}
+
+	@NotNull
+	@Override
+	public byte[] write(@NotNull RootXNode xnode, @Nullable SerializationContext serializationContext) throws SchemaException {
+		return write(Collections.singletonList((RootXNodeImpl) xnode), null, serializationContext);
+	}
+
+	@NotNull
+	@Override
+	public byte[] write(@NotNull XNode xnode, @NotNull QName rootElementName, @Nullable SerializationContext serializationContext) throws SchemaException {
+		RootXNodeImpl root = xnode instanceof RootXNodeImpl ? (RootXNodeImpl) xnode : new RootXNodeImpl(rootElementName, (XNodeImpl) xnode);
+		return write(root, serializationContext);
+	}
+
+	@NotNull
+	@Override
+	public byte[] write(@NotNull List<RootXNodeImpl> roots, @Nullable QName aggregateElementName, @Nullable SerializationContext context) throws SchemaException {
+		return new BinaryXNodeWriter().writeDocument(roots);
+	}
+}
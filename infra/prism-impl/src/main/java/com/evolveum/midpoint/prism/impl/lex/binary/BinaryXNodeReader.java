@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism.impl.lex.binary;
+
+import com.evolveum.midpoint.prism.impl.lex.LexicalProcessor.RootXNodeHandler;
+import com.evolveum.midpoint.prism.impl.lex.dom.TextValueParser;
+import com.evolveum.midpoint.prism.impl.marshaller.ItemPathHolder;
+import com.evolveum.midpoint.prism.impl.xnode.*;
+import com.evolveum.midpoint.util.DOMUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.prism.xml.ns._public.types_3.ItemPathType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.xml.namespace.QName;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static com.evolveum.midpoint.prism.impl.lex.binary.BinaryLexicalProcessor.*;
+
+/**
+ * Reads XNode trees in the binary format described in {@link BinaryLexicalProcessor}.
+ * Not thread safe; a new instance is to be used for each document.
+ *
+ * QNames are shared among all places where they occur in the document.
+ */
+class BinaryXNodeReader {
+
+	private final InputStream in;
+
+	private final List<String> namespaces = new ArrayList<>();
+	private final List<QName> qnames = new ArrayList<>();
+
+	BinaryXNodeReader(@NotNull InputStream in) {
+		// we read byte by byte, so e.g. decompressing streams should be buffered
+		this.in = in instanceof ByteArrayInputStream || in instanceof BufferedInputStream ? in : new BufferedInputStream(in);
+	}
+
+	/**
+	 * Reads all root nodes. If handler is specified, nodes are passed to it (and not returned).
+	 */
+	@NotNull
+	List<RootXNodeImpl> readDocument(@Nullable RootXNodeHandler handler) throws SchemaException, IOException {
+		int signature = readByte();
+		int version = readByte();
+		if (signature != SIGNATURE || version != FORMAT_VERSION) {
+			throw new SchemaException("Unsupported binary format: signature " + signature + ", version " + version);
+		}
+		int count = readInt();
+		List<RootXNodeImpl> roots = new ArrayList<>(handler == null ? count : 0);
+		for (int i = 0; i < count; i++) {
+			XNodeImpl node = readNode();
+			if (!(node instanceof RootXNodeImpl)) {
+				throw new SchemaException("Expected root node, got " + node);
+			}
+			if (handler == null) {
+				roots.add((RootXNodeImpl) node);
+			} else if (!handler.handleData((RootXNodeImpl) node)) {
+				break;
+			}
+		}
+		return roots;
+	}
+
+	private XNodeImpl readNode() throws SchemaException, IOException {
+		int header = readByte();
+		int kind = header & KIND_MASK;
+		if (kind == KIND_NULL) {
+			return null;
+		}
+		QName typeName = (header & FLAG_TYPE) != 0 ? readQName() : null;
+		QName elementName = (header & FLAG_ELEMENT_NAME) != 0 ? readQName() : null;
+		Integer maxOccurs = (header & FLAG_MAX_OCCURS) != 0 ? readInt() - 1 : null;
+		String comment = (header & FLAG_COMMENT) != 0 ? readString() : null;
+
+		XNodeImpl node;
+		switch (kind) {
+			case KIND_ROOT:
+				QName rootElementName = readQName();
+				RootXNodeImpl root = new RootXNodeImpl(rootElementName);
+				root.setSubnode(readNode());
+				node = root;
+				break;
+			case KIND_MAP:
+				MapXNodeImpl map = new MapXNodeImpl();
+				int entries = readInt();
+				for (int i = 0; i < entries; i++) {
+					QName key = readQName();
+					map.put(key, readNode());
+				}
+				node = map;
+				break;
+			case KIND_LIST:
+				ListXNodeImpl list = new ListXNodeImpl();
+				int items = readInt();
+				for (int i = 0; i < items; i++) {
+					list.add(readNode());
+				}
+				node = list;
+				break;
+			case KIND_PRIMITIVE:
+				node = readPrimitive();
+				break;
+			case KIND_SCHEMA:
+				SchemaXNodeImpl schema = new SchemaXNodeImpl();
+				String schemaText = readString();
+				if (schemaText != null) {
+					schema.setSchemaElement(DOMUtil.parseDocument(schemaText).getDocumentElement());
+				}
+				node = schema;
+				break;
+			default:
+				throw new SchemaException("Unknown node kind " + kind + " in binary data");
+		}
+		if (typeName != null) {
+			node.setTypeQName(typeName);
+		}
+		if ((header & FLAG_EXPLICIT_TYPE) != 0) {
+			node.setExplicitTypeDeclaration(true);
+		}
+		node.setElementName(elementName);
+		node.setMaxOccurs(maxOccurs);
+		node.setComment(comment);
+		return node;
+	}
+
+	private PrimitiveXNodeImpl<?> readPrimitive() throws SchemaException, IOException {
+		int valueHeader = readByte();
+		boolean attribute = (valueHeader & VALUE_FLAG_ATTRIBUTE) != 0;
+		PrimitiveXNodeImpl<Object> primitive;
+		switch (valueHeader & VALUE_KIND_MASK) {
+			case VALUE_EMPTY:
+				primitive = new PrimitiveXNodeImpl<>();
+				break;
+			case VALUE_TEXT:
+				primitive = new PrimitiveXNodeImpl<>();
+				primitive.setValueParser(new TextValueParser<>(readString(), Collections.emptyMap(), attribute));
+				break;
+			case VALUE_TEXT_WITH_NAMESPACES:
+				String text = readString();
+				int declarations = readInt();
+				Map<String, String> namespaceMap = new HashMap<>();
+				for (int i = 0; i < declarations; i++) {
+					String prefix = readString();
+					namespaceMap.put(prefix, readNamespace());
+				}
+				primitive = new PrimitiveXNodeImpl<>();
+				primitive.setValueParser(new TextValueParser<>(text, namespaceMap, attribute));
+				break;
+			case VALUE_QNAME:
+				primitive = new PrimitiveXNodeImpl<>(readQName());
+				break;
+			case VALUE_ITEM_PATH:
+				primitive = new PrimitiveXNodeImpl<>(new ItemPathType(ItemPathHolder.parseFromString(readString())));
+				break;
+			default:
+				throw new SchemaException("Unknown primitive value kind " + valueHeader + " in binary data");
+		}
+		primitive.setAttribute(attribute);
+		return primitive;
+	}
+
+	private QName readQName() throws SchemaException, IOException {
+		int reference = readInt();
+		if (reference > 0) {
+			if (reference > qnames.size()) {
+				throw new SchemaException("Invalid QName reference " + reference + " in binary data");
+			}
+			return qnames.get(reference - 1);
+		}
+		String namespace = readNamespace();
+		String localPart = readString();
+		String prefix = readString();
+		QName qname = new QName(namespace, localPart, prefix != null ? prefix : "");
+		qnames.add(qname);
+		return qname;
+	}
+
+	private String readNamespace() throws SchemaException, IOException {
+		int reference = readInt();
+		if (reference > 0) {
+			if (reference > namespaces.size()) {
+				throw new SchemaException("Invalid namespace reference " + reference + " in binary data");
+			}
+			return namespaces.get(reference - 1);
+		}
+		String namespace = readString();
+		namespaces.add(namespace);
+		return namespace;
+	}
+
+	private String readString() throws IOException {
+		int length = readInt() - 1;
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		int offset = 0;
+		while (offset < length) {
+			int read = in.read(bytes, offset, length - offset);
+			if (read < 0) {
+				throw new EOFException();
+			}
+			offset += read;
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private int readInt() throws IOException {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			int b = readByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+
+	private int readByte() throws IOException {
+		int b = in.read();
+		if (b < 0) {
+			throw new EOFException();
+		}
+		return b;
+	}
+}
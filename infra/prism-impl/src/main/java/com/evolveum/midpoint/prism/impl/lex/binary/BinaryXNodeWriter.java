@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism.impl.lex.binary;
+
+import com.evolveum.midpoint.prism.impl.marshaller.ItemPathHolder;
+import com.evolveum.midpoint.prism.impl.xnode.*;
+import com.evolveum.midpoint.util.DOMUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.prism.xml.ns._public.types_3.ItemPathType;
+import org.jetbrains.annotations.NotNull;
+
+import javax.xml.namespace.QName;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.evolveum.midpoint.prism.impl.lex.binary.BinaryLexicalProcessor.*;
+
+/**
+ * Writes XNode trees in the binary format described in {@link BinaryLexicalProcessor}.
+ * Not thread safe; a new instance is to be used for each document.
+ */
+class BinaryXNodeWriter {
+
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+
+	private final Map<String, Integer> namespaces = new HashMap<>();
+	private final Map<QName, Integer> qnames = new HashMap<>();
+	private final List<QName> writtenQNames = new ArrayList<>();
+
+	@NotNull
+	byte[] writeDocument(@NotNull List<RootXNodeImpl> roots) throws SchemaException {
+		out.write(SIGNATURE);
+		out.write(FORMAT_VERSION);
+		writeInt(roots.size());
+		for (RootXNodeImpl root : roots) {
+			writeNode(root);
+		}
+		return out.toByteArray();
+	}
+
+	private void writeNode(XNodeImpl node) throws SchemaException {
+		if (node == null) {
+			out.write(KIND_NULL);
+			return;
+		}
+		int kind = getKind(node);
+		QName typeName = node.getTypeQName();
+		boolean explicitType = node.isExplicitTypeDeclaration();
+		QName elementName = node.getElementName();
+		Integer maxOccurs = node.getMaxOccurs();
+		String comment = node.getComment();
+		if (node instanceof RootXNodeImpl) {
+			// these are derived from the subnode (if not set on the root itself), so we store them only once
+			XNodeImpl subnode = ((RootXNodeImpl) node).getSubnode();
+			if (subnode != null && typeName != null && typeName.equals(subnode.getTypeQName())) {
+				typeName = null;
+			}
+			if (subnode != null && subnode.isExplicitTypeDeclaration()) {
+				explicitType = false;
+			}
+		}
+		int header = kind
+				| (typeName != null ? FLAG_TYPE : 0)
+				| (explicitType ? FLAG_EXPLICIT_TYPE : 0)
+				| (elementName != null ? FLAG_ELEMENT_NAME : 0)
+				| (maxOccurs != null ? FLAG_MAX_OCCURS : 0)
+				| (comment != null ? FLAG_COMMENT : 0);
+		out.write(header);
+		if (typeName != null) {
+			writeQName(typeName);
+		}
+		if (elementName != null) {
+			writeQName(elementName);
+		}
+		if (maxOccurs != null) {
+			writeInt(maxOccurs + 1);    // unbounded is -1
+		}
+		if (comment != null) {
+			writeString(comment);
+		}
+
+		switch (kind) {
+			case KIND_ROOT:
+				RootXNodeImpl root = (RootXNodeImpl) node;
+				writeQName(root.getRootElementName());
+				writeNode(root.getSubnode());
+				break;
+			case KIND_MAP:
+				MapXNodeImpl map = (MapXNodeImpl) node;
+				writeInt(map.size());
+				for (Map.Entry<QName, XNodeImpl> entry : map.entrySet()) {
+					writeQName(entry.getKey());
+					writeNode(entry.getValue());
+				}
+				break;
+			case KIND_LIST:
+				ListXNodeImpl list = (ListXNodeImpl) node;
+				writeInt(list.size());
+				for (XNodeImpl item : list) {
+					writeNode(item);
+				}
+				break;
+			case KIND_PRIMITIVE:
+				writePrimitiveValue((PrimitiveXNodeImpl<?>) node);
+				break;
+			case KIND_SCHEMA:
+				SchemaXNodeImpl schema = (SchemaXNodeImpl) node;
+				writeString(schema.getSchemaElement() != null ? DOMUtil.serializeDOMToString(schema.getSchemaElement()) : null);
+				break;
+			default:
+				throw new IllegalStateException("Unexpected node kind: " + kind);
+		}
+	}
+
+	private int getKind(XNodeImpl node) {
+		if (node instanceof RootXNodeImpl) {
+			return KIND_ROOT;
+		} else if (node instanceof MapXNodeImpl) {
+			return KIND_MAP;
+		} else if (node instanceof ListXNodeImpl) {
+			return KIND_LIST;
+		} else if (node instanceof PrimitiveXNodeImpl) {
+			return KIND_PRIMITIVE;
+		} else if (node instanceof SchemaXNodeImpl) {
+			return KIND_SCHEMA;
+		} else {
+			throw new SystemException("Unsupported XNode: " + node.getClass());
+		}
+	}
+
+	private void writePrimitiveValue(PrimitiveXNodeImpl<?> primitive) {
+		int attributeFlag = primitive.isAttribute() ? VALUE_FLAG_ATTRIBUTE : 0;
+		if (!primitive.isParsed()) {
+			// unparsed value: we keep the text as well as namespace declarations that are potentially needed to interpret it
+			Map<String, String> declarations = primitive.getRelevantNamespaceDeclarations();
+			out.write(VALUE_TEXT_WITH_NAMESPACES | attributeFlag);
+			writeString(primitive.getStringValue());
+			writeInt(declarations.size());
+			for (Map.Entry<String, String> declaration : declarations.entrySet()) {
+				writeString(declaration.getKey());
+				writeNamespace(declaration.getValue());
+			}
+			return;
+		}
+		Object value = primitive.getValue();
+		if (value == null) {
+			out.write(VALUE_EMPTY | attributeFlag);
+		} else if (value instanceof QName) {
+			out.write(VALUE_QNAME | attributeFlag);
+			writeQName((QName) value);
+		} else if (value instanceof ItemPathType) {
+			out.write(VALUE_ITEM_PATH | attributeFlag);
+			writeString(ItemPathHolder.serializeWithForcedDeclarations(((ItemPathType) value).getItemPath()));
+		} else {
+			out.write(VALUE_TEXT | attributeFlag);
+			writeString(primitive.getFormattedValue());
+		}
+	}
+
+	/**
+	 * QName is written either as a reference to already written one (index + 1),
+	 * or as 0 followed by namespace, local part and prefix.
+	 */
+	private void writeQName(QName qname) {
+		Integer index = qnames.get(qname);
+		// QName.equals ignores prefixes, so we have to check them explicitly
+		if (index != null && writtenQNames.get(index).getPrefix().equals(qname.getPrefix())) {
+			writeInt(index + 1);
+			return;
+		}
+		writeInt(0);
+		writeNamespace(qname.getNamespaceURI());
+		writeString(qname.getLocalPart());
+		writeString(qname.getPrefix());
+		qnames.put(qname, writtenQNames.size());
+		writtenQNames.add(qname);
+	}
+
+	private void writeNamespace(String namespace) {
+		Integer index = namespaces.get(namespace);
+		if (index != null) {
+			writeInt(index + 1);
+		} else {
+			writeInt(0);
+			writeString(namespace);
+			namespaces.put(namespace, namespaces.size());
+		}
+	}
+
+	/**
+	 * Strings are written as length + 1 (0 means null) followed by UTF-8 bytes.
+	 */
+	private void writeString(String string) {
+		if (string == null) {
+			writeInt(0);
+		} else {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			writeInt(bytes.length + 1);
+			out.write(bytes, 0, bytes.length);
+		}
+	}
+
+	/**
+	 * Non-negative integers are written in 7-bit groups, least significant first.
+	 */
+	private void writeInt(int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("Negative value: " + value);
+		}
+		while ((value & ~0x7f) != 0) {
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+}
@@ -83,6 +83,9 @@ public class DomLexicalProcessor implements LexicalProcessor<String> {
 
 		InputStream is = source.getInputStream();
 		try {
+			if (parsingContext.isStreamingXml()) {
+				return readStreaming(is);
+			}
 			Document document = DOMUtil.parse(is);
 			return read(document);
 		} finally {
@@ -92,6 +95,35 @@ public class DomLexicalProcessor implements LexicalProcessor<String> {
 		}
 	}
 
+	/**
+	 * Reads single object directly from StAX stream, skipping the DOM representation.
+	 */
+	@NotNull
+	private RootXNodeImpl readStreaming(InputStream is) throws SchemaException {
+		XMLStreamReader stream = null;
+		try {
+			stream = XMLInputFactory.newInstance().createXMLStreamReader(is);
+			int eventType = stream.nextTag();
+			if (eventType != XMLStreamConstants.START_ELEMENT) {
+				throw new SystemException("StAX Malfunction?");
+			}
+			return new StaxLexicalParser(schemaRegistry, stream).read(Collections.emptyMap());
+		} catch (XMLStreamException ex) {
+			String lineInfo = stream != null
+					? " on line " + stream.getLocation().getLineNumber()
+					: "";
+			throw new SchemaException("Exception while parsing XML" + lineInfo + ": " + ex.getMessage(), ex);
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (XMLStreamException e) {
+					LOGGER.trace("Couldn't close XML stream reader: {}", e.getMessage(), e);
+				}
+			}
+		}
+	}
+
 	@NotNull
 	@Override
 	public List<RootXNodeImpl> readObjects(@NotNull ParserSource source, @NotNull ParsingContext parsingContext) throws SchemaException, IOException {
@@ -488,7 +520,7 @@ public class DomLexicalProcessor implements LexicalProcessor<String> {
 		}
 	}
 
-	private static <T> T processIllegalArgumentException(String value, QName typeName, IllegalArgumentException e, XNodeProcessorEvaluationMode mode) {
+	static <T> T processIllegalArgumentException(String value, QName typeName, IllegalArgumentException e, XNodeProcessorEvaluationMode mode) {
 		if (mode != XNodeProcessorEvaluationMode.COMPAT) {
 			throw e;
 		}
@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism.impl.lex.dom;
+
+import com.evolveum.midpoint.prism.ComplexTypeDefinition;
+import com.evolveum.midpoint.prism.ItemDefinition;
+import com.evolveum.midpoint.prism.PrismConstants;
+import com.evolveum.midpoint.prism.impl.xnode.*;
+import com.evolveum.midpoint.prism.schema.SchemaRegistry;
+import com.evolveum.midpoint.util.DOMUtil;
+import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import org.apache.commons.lang.StringUtils;
+import org.codehaus.staxmate.dom.DOMConverter;
+import org.jetbrains.annotations.NotNull;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.util.*;
+
+/**
+ * Parses XML directly from StAX stream into XNode tree, without creating intermediate DOM.
+ *
+ * The resulting XNode tree should be the same as the one produced by {@link DomLexicalProcessor}
+ * from the DOM representation of the same document. The only exception is xsd:schema element that is
+ * still converted to DOM, because SchemaXNode requires it.
+ *
+ * Primitive values keep their text and namespace declarations visible at the place of the value,
+ * so they can be parsed lazily in the same way as DOM-based primitive values are.
+ *
+ * Not thread safe; a new instance is to be created for each document.
+ */
+class StaxLexicalParser {
+
+	private static final QName SCHEMA_ELEMENT_QNAME = DOMUtil.XSD_SCHEMA_ELEMENT;
+
+	private static final QName XSI_TYPE = DOMUtil.XSI_TYPE;
+	private static final QName XSI_NIL = DOMUtil.XSI_NIL;
+
+	private static final List<String> AUXILIARY_NAMESPACES = Arrays.asList(
+			XMLConstants.XMLNS_ATTRIBUTE_NS_URI, XMLConstants.XML_NS_URI, XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI);
+
+	@NotNull private final SchemaRegistry schemaRegistry;
+	@NotNull private final XMLStreamReader stream;
+
+	private DOMConverter domConverter;
+
+	StaxLexicalParser(@NotNull SchemaRegistry schemaRegistry, @NotNull XMLStreamReader stream) {
+		this.schemaRegistry = schemaRegistry;
+		this.stream = stream;
+	}
+
+	/**
+	 * Reads the element the stream is positioned at (START_ELEMENT). After return, the stream is positioned
+	 * at the corresponding END_ELEMENT.
+	 */
+	@NotNull
+	RootXNodeImpl read(Map<String, String> inheritedNamespaces) throws XMLStreamException, SchemaException {
+		ElementInfo root = readElement(inheritedNamespaces);
+		RootXNodeImpl xroot = new RootXNodeImpl(root.name);
+		if (root.typeName != null) {
+			xroot.setTypeQName(root.typeName);
+			xroot.setExplicitTypeDeclaration(true);
+		}
+		if (root.maxOccurs != null) {
+			xroot.setMaxOccurs(root.maxOccurs);
+		}
+		xroot.setSubnode(root.node);
+		return xroot;
+	}
+
+	/**
+	 * Everything we know about an element after reading it. Element name is kept aside from the node,
+	 * because DOM-based parser sets it only for list members.
+	 */
+	private static class ElementInfo {
+		private QName name;
+		private QName typeName;
+		private Integer maxOccurs;
+		private XNodeImpl node;
+	}
+
+	private ElementInfo readElement(Map<String, String> parentNamespaces) throws XMLStreamException, SchemaException {
+		ElementInfo info = new ElementInfo();
+		info.name = stream.getName();
+		Map<String, String> namespaces = collectNamespaces(parentNamespaces);
+
+		String xsiTypeString = null;
+		String hackedXsiTypeString = null;
+		String listString = null;
+		boolean nil = false;
+		String maxOccursString = null;
+		List<QName> attributeNames = null;
+		List<String> attributeValues = null;
+		for (int i = 0; i < stream.getAttributeCount(); i++) {
+			QName attrName = stream.getAttributeName(i);
+			String attrValue = stream.getAttributeValue(i);
+			String attrNamespace = attrName.getNamespaceURI();
+			if (XSI_TYPE.getNamespaceURI().equals(attrNamespace) && XSI_TYPE.getLocalPart().equals(attrName.getLocalPart())) {
+				xsiTypeString = attrValue;
+			} else if (XSI_NIL.getNamespaceURI().equals(attrNamespace) && XSI_NIL.getLocalPart().equals(attrName.getLocalPart())) {
+				nil = Boolean.parseBoolean(attrValue);
+			} else if (StringUtils.isEmpty(attrNamespace) && DOMUtil.HACKED_XSI_TYPE.equals(attrName.getLocalPart())) {
+				hackedXsiTypeString = attrValue;
+			} else if (StringUtils.isEmpty(attrNamespace) && DOMUtil.IS_LIST_ATTRIBUTE_NAME.equals(attrName.getLocalPart())) {
+				listString = attrValue;
+			}
+			if (PrismConstants.A_MAX_OCCURS.getNamespaceURI().equals(attrNamespace)
+					&& PrismConstants.A_MAX_OCCURS.getLocalPart().equals(attrName.getLocalPart())) {
+				maxOccursString = attrValue;
+			}
+			if (isApplicationAttribute(attrName)) {
+				if (attributeNames == null) {
+					attributeNames = new ArrayList<>();
+					attributeValues = new ArrayList<>();
+				}
+				attributeNames.add(attrName);
+				attributeValues.add(attrValue);
+			}
+		}
+		String typeString = StringUtils.isNotEmpty(xsiTypeString) ? xsiTypeString : hackedXsiTypeString;
+		if (StringUtils.isNotEmpty(typeString)) {
+			info.typeName = TextValueParser.resolveQName(typeString, namespaces);
+		}
+		if (StringUtils.isNotBlank(maxOccursString)) {
+			info.maxOccurs = parseMultiplicity(maxOccursString, info.name);
+		}
+
+		// Content
+		StringBuilder text = null;
+		List<ElementInfo> children = null;
+		for (;;) {
+			int event = stream.next();
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				break;
+			} else if (event == XMLStreamConstants.START_ELEMENT) {
+				if (children == null) {
+					children = new ArrayList<>();
+				}
+				if (SCHEMA_ELEMENT_QNAME.equals(stream.getName())) {
+					children.add(readSchemaElement(namespaces));
+				} else {
+					children.add(readElement(namespaces));
+				}
+			} else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+					|| event == XMLStreamConstants.SPACE || event == XMLStreamConstants.ENTITY_REFERENCE) {
+				if (children == null) {
+					if (text == null) {
+						text = new StringBuilder();
+					}
+					text.append(stream.getText());
+				}
+			} else if (event == XMLStreamConstants.END_DOCUMENT) {
+				throw new XMLStreamException("Unexpected end of document while reading element " + info.name);
+			}
+		}
+
+		if (nil) {
+			return info;		// node is null, as in DOM-based parser
+		}
+		XNodeImpl node;
+		if (children != null || attributeNames != null) {
+			if (isList(listString, info, children, attributeNames != null)) {
+				if (attributeNames != null) {
+					throw new SchemaException("List should have no application attributes: " + info.name);
+				}
+				node = parseElementList(children, true);
+			} else {
+				node = parseMap(children, attributeNames, attributeValues, namespaces);
+			}
+		} else {
+			node = parsePrimitive(text != null ? text.toString() : "", namespaces);
+		}
+		if (info.typeName != null) {
+			node.setTypeQName(info.typeName);
+			node.setExplicitTypeDeclaration(true);
+		}
+		if (info.maxOccurs != null) {
+			node.setMaxOccurs(info.maxOccurs);
+		}
+		info.node = node;
+		return info;
+	}
+
+	private Map<String, String> collectNamespaces(Map<String, String> parentNamespaces) {
+		int count = stream.getNamespaceCount();
+		if (count == 0) {
+			return parentNamespaces;
+		}
+		Map<String, String> namespaces = new HashMap<>(parentNamespaces);
+		for (int i = 0; i < count; i++) {
+			String prefix = stream.getNamespacePrefix(i);
+			namespaces.put(StringUtils.isEmpty(prefix) ? null : prefix, StringUtils.defaultString(stream.getNamespaceURI(i)));
+		}
+		return namespaces;
+	}
+
+	private boolean isApplicationAttribute(QName attrName) {
+		if (StringUtils.isEmpty(attrName.getNamespaceURI())) {
+			String name = attrName.getLocalPart();
+			return !DOMUtil.HACKED_XSI_TYPE.equals(name) && !DOMUtil.IS_LIST_ATTRIBUTE_NAME.equals(name);
+		} else {
+			return !AUXILIARY_NAMESPACES.contains(attrName.getNamespaceURI());
+		}
+	}
+
+	private int parseMultiplicity(String maxOccursString, QName elementName) throws SchemaException {
+		if (PrismConstants.MULTIPLICITY_UNBONUNDED.equals(maxOccursString)) {
+			return -1;
+		}
+		if (maxOccursString.startsWith("-")) {
+			return -1;
+		}
+		if (StringUtils.isNumeric(maxOccursString)) {
+			return Integer.valueOf(maxOccursString);
+		} else {
+			throw new SchemaException("Expected numeric value for " + PrismConstants.A_MAX_OCCURS.getLocalPart()
+					+ " attribute on " + elementName + " but got " + maxOccursString);
+		}
+	}
+
+	private ElementInfo readSchemaElement(Map<String, String> namespaces) throws XMLStreamException {
+		if (domConverter == null) {
+			domConverter = new DOMConverter();
+		}
+		ElementInfo info = new ElementInfo();
+		info.name = stream.getName();
+		Document schemaDoc = domConverter.buildDocument(stream);
+		Element schemaElement = DOMUtil.getFirstChildElement(schemaDoc);
+		DOMUtil.setNamespaceDeclarations(schemaElement, namespaces);
+		SchemaXNodeImpl xschema = new SchemaXNodeImpl();
+		xschema.setSchemaElement(schemaElement);
+		info.node = xschema;
+		return info;
+	}
+
+	// Mirrors DomLexicalProcessor.isList
+	private boolean isList(String listAttribute, ElementInfo info, List<ElementInfo> children, boolean hasApplicationAttributes) {
+		if (StringUtils.isNotEmpty(listAttribute)) {
+			return Boolean.valueOf(listAttribute);
+		}
+		if (info.typeName != null) {
+			Collection<? extends ComplexTypeDefinition> definitions = schemaRegistry
+					.findTypeDefinitionsByType(info.typeName, ComplexTypeDefinition.class);
+			if (definitions.isEmpty()) {
+				return false;
+			}
+			if (QNameUtil.hasNamespace(info.typeName)) {
+				if (!definitions.iterator().next().isListMarker()) {
+					return false;
+				}
+			} else if (!definitions.stream().allMatch(ComplexTypeDefinition::isListMarker)) {
+				return false;
+			}
+		} else {
+			Collection<? extends ComplexTypeDefinition> definitions =
+					schemaRegistry.findTypeDefinitionsByElementName(info.name, ComplexTypeDefinition.class);
+			if (definitions.stream().noneMatch(ComplexTypeDefinition::isListMarker)) {
+				return false;
+			}
+		}
+		if (hasApplicationAttributes) {
+			return false;
+		}
+		return elementsAreCompatible(children);
+	}
+
+	private boolean elementsAreCompatible(List<ElementInfo> elements) {
+		if (elements == null) {
+			return true;
+		}
+		QName unified = null;
+		for (ElementInfo element : elements) {
+			QName root = getHierarchyRoot(element.name);
+			if (unified == null) {
+				unified = root;
+			} else if (!QNameUtil.match(unified, root)) {
+				return false;
+			} else if (QNameUtil.noNamespace(unified) && QNameUtil.hasNamespace(root)) {
+				unified = root;
+			}
+		}
+		return true;
+	}
+
+	private QName getHierarchyRoot(QName name) {
+		ItemDefinition def = schemaRegistry.findItemDefinitionByElementName(name);
+		if (def == null || !def.isHeterogeneousListItem()) {
+			return name;
+		} else {
+			return def.getSubstitutionHead();
+		}
+	}
+
+	private ListXNodeImpl parseElementList(List<ElementInfo> elements, boolean storeElementNames) {
+		ListXNodeImpl xlist = new ListXNodeImpl();
+		if (elements != null) {
+			for (ElementInfo element : elements) {
+				if (storeElementNames && element.node != null) {
+					element.node.setElementName(element.name);
+				}
+				xlist.add(element.node);
+			}
+		}
+		return xlist;
+	}
+
+	private MapXNodeImpl parseMap(List<ElementInfo> children, List<QName> attributeNames, List<String> attributeValues,
+			Map<String, String> namespaces) throws SchemaException {
+		MapXNodeImpl xmap = new MapXNodeImpl();
+		if (attributeNames != null) {
+			for (int i = 0; i < attributeNames.size(); i++) {
+				PrimitiveXNodeImpl<Object> xattr = new PrimitiveXNodeImpl<>();
+				xattr.setValueParser(new TextValueParser<>(attributeValues.get(i), namespaces, true));
+				xattr.setAttribute(true);
+				xmap.put(attributeNames.get(i), xattr);
+			}
+		}
+		if (children == null) {
+			return xmap;
+		}
+		QName lastElementQName = null;
+		List<ElementInfo> lastElements = null;
+		for (ElementInfo child : children) {
+			if (lastElementQName != null && QNameUtil.match(child.name, lastElementQName)) {
+				lastElements.add(child);
+			} else {
+				putMapEntry(xmap, lastElementQName, lastElements);
+				lastElementQName = child.name;
+				lastElements = new ArrayList<>();
+				lastElements.add(child);
+			}
+		}
+		putMapEntry(xmap, lastElementQName, lastElements);
+		return xmap;
+	}
+
+	private void putMapEntry(MapXNodeImpl xmap, QName elementQName, List<ElementInfo> elements) throws SchemaException {
+		if (elements == null || elements.isEmpty()) {
+			return;
+		}
+		XNodeImpl xsub;
+		if (elementQName.equals(SCHEMA_ELEMENT_QNAME) && elements.size() > 1) {
+			throw new SchemaException("Too many schema elements");
+		} else if (elements.size() == 1) {
+			xsub = elements.get(0).node;
+		} else {
+			xsub = parseElementList(elements, false);
+		}
+		xmap.merge(elementQName, xsub);
+	}
+
+	private <T> PrimitiveXNodeImpl<T> parsePrimitive(String text, Map<String, String> namespaces) {
+		PrimitiveXNodeImpl<T> xnode = new PrimitiveXNodeImpl<>();
+		xnode.setValueParser(new TextValueParser<>(text, namespaces, false));
+		return xnode;
+	}
+}
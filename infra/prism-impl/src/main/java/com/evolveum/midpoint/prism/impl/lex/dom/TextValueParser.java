@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism.impl.lex.dom;
+
+import com.evolveum.midpoint.prism.impl.marshaller.ItemPathHolder;
+import com.evolveum.midpoint.prism.marshaller.XNodeProcessorEvaluationMode;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.prism.xml.XsdTypeMapper;
+import com.evolveum.midpoint.prism.xnode.ValueParser;
+import com.evolveum.midpoint.util.DOMUtil;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.prism.xml.ns._public.types_3.ItemPathType;
+import org.apache.commons.lang.StringUtils;
+
+import javax.xml.namespace.QName;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parses XML text content (of an element or attribute) that is available as a plain string
+ * together with namespace declarations in scope. Counterpart of DOM-based element and attribute
+ * value parsers; used by streaming and binary lexical processors.
+ *
+ * Namespace map can be shared among values from the same scope, so it must not be modified.
+ */
+public class TextValueParser<T> implements ValueParser<T>, Serializable {
+
+	private final String text;
+	private final Map<String, String> namespaces;
+	private final boolean attribute;
+
+	public TextValueParser(String text, Map<String, String> namespaces, boolean attribute) {
+		this.text = text;
+		this.namespaces = namespaces;
+		this.attribute = attribute;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public T parse(QName typeName, XNodeProcessorEvaluationMode mode) throws SchemaException {
+		try {
+			if (!attribute && ItemPathType.COMPLEX_TYPE.equals(typeName)) {
+				return (T) new ItemPathType(ItemPathHolder.parseFromString(text, namespaces));
+			} else if (DOMUtil.XSD_QNAME.equals(typeName)) {
+				return (T) resolveQName(text, namespaces);
+			} else if (XmlTypeConverter.canConvert(typeName)) {
+				return parseConvertible(typeName);
+			} else if (!attribute && DOMUtil.XSD_ANYTYPE.equals(typeName)) {
+				return (T) text;
+			} else {
+				throw new SchemaException("Cannot convert " + (attribute ? "attribute" : "element") + " value '"
+						+ text + "' to " + typeName);
+			}
+		} catch (IllegalArgumentException e) {
+			return DomLexicalProcessor.processIllegalArgumentException(text, typeName, e, mode);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private T parseConvertible(QName typeName) {
+		if (attribute) {
+			return XmlTypeConverter.toJavaValue(text, typeName);
+		}
+		Class<T> javaClass = XsdTypeMapper.getXsdToJavaMapping(typeName);
+		if (QName.class.equals(javaClass)) {
+			return (T) resolveQName(text, namespaces);
+		} else if (PolyString.class.isAssignableFrom(javaClass)) {
+			return (T) new PolyString(text);
+		}
+		T javaValue = XmlTypeConverter.toJavaValue(text, javaClass, false);
+		if (javaValue == null) {
+			throw new IllegalArgumentException("Unknown type for conversion: " + javaClass + "(value " + text + ")");
+		}
+		return javaValue;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return attribute ? StringUtils.isEmpty(text) : StringUtils.isBlank(text);
+	}
+
+	@Override
+	public String getStringValue() {
+		return text;
+	}
+
+	@Override
+	public Map<String, String> getPotentiallyRelevantNamespaces() {
+		return new HashMap<>(namespaces);
+	}
+
+	@Override
+	public String toString() {
+		return "ValueParser(text" + (attribute ? "a" : "e") + ", " + PrettyPrinter.prettyPrint(text) + ")";
+	}
+
+	/**
+	 * Resolves QName in the same way as DOMUtil.resolveQName does: a QName without prefix
+	 * is parsed to a QName without namespace, even if default namespace declaration is present.
+	 */
+	static QName resolveQName(String qnameStringRepresentation, Map<String, String> namespaces) {
+		if (StringUtils.isBlank(qnameStringRepresentation)) {
+			return null;
+		}
+		String[] qnameArray = qnameStringRepresentation.split(":");
+		if (qnameArray.length > 2) {
+			throw new IllegalArgumentException("Unsupported format: more than one colon in Qname: "
+					+ qnameStringRepresentation);
+		}
+		if (qnameArray.length == 1 || qnameArray[1] == null || qnameArray[1].isEmpty()) {
+			return new QName(null, qnameArray[0]);
+		}
+		String namespacePrefix = qnameArray[0];
+		String namespace = namespaces.get(namespacePrefix);
+		if (namespace == null) {
+			QNameUtil.reportUndeclaredNamespacePrefix(namespacePrefix, qnameStringRepresentation);
+			namespacePrefix = QNameUtil.markPrefixAsUndeclared(namespacePrefix);
+		}
+		return new QName(namespace, qnameArray[1], namespacePrefix);
+	}
+}
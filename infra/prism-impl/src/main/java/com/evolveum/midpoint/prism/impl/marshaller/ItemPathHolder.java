@@ -60,6 +60,12 @@ public class ItemPathHolder {
 		return new ItemPathHolder(path).toItemPath();
 	}
 
+	public static UniformItemPath parseFromString(String path, Map<String, String> namespaceMap) {
+		ItemPathHolder holder = new ItemPathHolder();
+		holder.parse(path, null, namespaceMap);
+		return holder.toItemPath();
+	}
+
 	public static UniformItemPath parseFromElement(Element element) {
 		return new ItemPathHolder(element).toItemPath();
 	}
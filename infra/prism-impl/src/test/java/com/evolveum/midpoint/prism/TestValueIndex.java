@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.prism.equivalence.EquivalenceStrategy;
+import com.evolveum.midpoint.prism.foo.UserType;
+import com.evolveum.midpoint.prism.impl.PrismContextImpl;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+
+/**
+ * Tests operations on items that are large enough to have their values indexed.
+ */
+public class TestValueIndex extends AbstractPrismTest {
+
+	private static final int VALUES = 500;
+
+	@Test
+	public void test100AddAndContainsProperty() throws Exception {
+		final String TEST_NAME = "test100AddAndContainsProperty";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		PrismObject<UserType> user = getUserTypeDefinition().instantiate();
+		PrismProperty<PolyString> namesProp = user.findOrCreateProperty(UserType.F_ADDITIONAL_NAMES);
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		for (int i = 0; i < VALUES; i++) {
+			assertTrue("Value " + i + " was not added", namesProp.add(createNameValue(i)));
+		}
+		boolean duplicateAdded = namesProp.add(createNameValue(42));
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertTrue("Item is too small to be indexed", namesProp.size() >= PrismContextImpl.getValueIndexThreshold());
+		assertFalse("Duplicate value was added", duplicateAdded);
+		assertEquals("Wrong # of values", VALUES, namesProp.size());
+		assertTrue("Existing value not found", namesProp.contains(createNameValue(VALUES - 1)));
+		assertFalse("Non-existing value found", namesProp.contains(createNameValue(VALUES)));
+		assertNotNull("Existing value not found", namesProp.findValue(createNameValue(7), EquivalenceStrategy.REAL_VALUE));
+		assertNull("Non-existing value found", namesProp.findValue(createNameValue(-1), EquivalenceStrategy.REAL_VALUE));
+	}
+
+	@Test
+	public void test110RemoveProperty() throws Exception {
+		final String TEST_NAME = "test110RemoveProperty";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		PrismObject<UserType> user = getUserTypeDefinition().instantiate();
+		PrismProperty<PolyString> namesProp = user.findOrCreateProperty(UserType.F_ADDITIONAL_NAMES);
+		for (int i = 0; i < VALUES; i++) {
+			namesProp.add(createNameValue(i));
+		}
+		namesProp.contains(createNameValue(0));         // creates the index
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		boolean removed = namesProp.remove(createNameValue(0));
+		boolean removedNonExisting = namesProp.remove(createNameValue(-1));
+		List<PrismPropertyValue<PolyString>> toRemove = new ArrayList<>();
+		for (int i = 1; i < 100; i++) {
+			toRemove.add(createNameValue(i));
+		}
+		boolean removedAll = namesProp.removeAll(toRemove);
+		Iterator<PrismPropertyValue<PolyString>> iterator = namesProp.getValues().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().getValue().getOrig().equals("name100")) {
+				iterator.remove();
+			}
+		}
+		namesProp.getValues().add(createNameValue(0));
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertTrue("Value was not removed", removed);
+		assertFalse("Non-existing value was removed", removedNonExisting);
+		assertTrue("Values were not removed", removedAll);
+		assertEquals("Wrong # of values", VALUES - 100, namesProp.size());
+		assertTrue("Value added via getValues() not found", namesProp.contains(createNameValue(0)));
+		for (int i = 1; i <= 100; i++) {
+			assertFalse("Removed value " + i + " found", namesProp.contains(createNameValue(i)));
+		}
+		assertTrue("Remaining value not found", namesProp.contains(createNameValue(101)));
+	}
+
+	@Test
+	public void test200ReferenceModifiedAfterAdd() throws Exception {
+		final String TEST_NAME = "test200ReferenceModifiedAfterAdd";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		PrismObject<UserType> user = getUserTypeDefinition().instantiate();
+		PrismReference parentOrgRef = user.findOrCreateReference(UserType.F_PARENT_ORG_REF);
+		List<PrismReferenceValue> refValues = new ArrayList<>();
+		for (int i = 0; i < VALUES; i++) {
+			PrismReferenceValue refValue = createReferenceValue(parentOrgRef, "oid" + i);
+			parentOrgRef.add(refValue);
+			refValues.add(refValue);
+		}
+		assertTrue("Existing reference not found", parentOrgRef.contains(createReferenceValue(parentOrgRef, "oid10")));
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		refValues.get(10).setOid("changed-oid");
+		boolean duplicateAdded = parentOrgRef.add(createReferenceValue(parentOrgRef, "changed-oid"));
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertFalse("Duplicate of a modified value was added", duplicateAdded);
+		assertFalse("Old value of a modified reference found", parentOrgRef.contains(createReferenceValue(parentOrgRef, "oid10")));
+		assertTrue("New value of a modified reference not found", parentOrgRef.contains(createReferenceValue(parentOrgRef, "changed-oid")));
+		assertTrue("Modified reference was not removed", parentOrgRef.remove(createReferenceValue(parentOrgRef, "changed-oid")));
+		assertEquals("Wrong # of values", VALUES - 1, parentOrgRef.size());
+	}
+
+	private PrismPropertyValue<PolyString> createNameValue(int i) {
+		return getPrismContext().itemFactory().createPropertyValue(createPolyString("name" + i));
+	}
+
+	private PrismReferenceValue createReferenceValue(PrismReference reference, String oid) {
+		return getPrismContext().itemFactory().createReferenceValue(oid, reference.getDefinition().getTargetTypeName());
+	}
+}
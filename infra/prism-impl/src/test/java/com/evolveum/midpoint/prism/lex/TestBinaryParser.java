@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism.lex;
+
+import com.evolveum.midpoint.prism.Objectable;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismInternalTestUtil;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.foo.UserType;
+import com.evolveum.midpoint.prism.impl.lex.binary.BinaryLexicalProcessor;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.prism.xnode.RootXNode;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+
+import static com.evolveum.midpoint.prism.PrismInternalTestUtil.*;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Checks that objects survive a round trip through the compact binary format.
+ */
+public class TestBinaryParser {
+
+	@BeforeSuite
+	public void setupDebug() throws Exception {
+		PrettyPrinter.setDefaultNamespacePrefix(DEFAULT_NAMESPACE_PREFIX);
+		PrismTestUtil.resetPrismContext(new PrismInternalTestUtil());
+	}
+
+	@Test
+	public void testRoundTripUserJack() throws Exception {
+		final String TEST_NAME = "testRoundTripUserJack";
+		displayTestTitle(TEST_NAME);
+
+		PrismObject<UserType> user = assertRoundTrip(USER_JACK_FILE_BASENAME);
+
+		assertUserJack(user, true);
+	}
+
+	@Test
+	public void testRoundTripUserJackAdhoc() throws Exception {
+		final String TEST_NAME = "testRoundTripUserJackAdhoc";
+		displayTestTitle(TEST_NAME);
+
+		assertRoundTrip(USER_JACK_ADHOC_BASENAME);
+	}
+
+	@Test
+	public void testRoundTripUserBarbossa() throws Exception {
+		final String TEST_NAME = "testRoundTripUserBarbossa";
+		displayTestTitle(TEST_NAME);
+
+		assertRoundTrip(USER_BARBOSSA_FILE_BASENAME);
+	}
+
+	@Test
+	public void testRoundTripUserWill() throws Exception {
+		final String TEST_NAME = "testRoundTripUserWill";
+		displayTestTitle(TEST_NAME);
+
+		assertRoundTrip(USER_WILL_FILE_BASENAME);
+	}
+
+	@Test
+	public void testRoundTripResourceRum() throws Exception {
+		final String TEST_NAME = "testRoundTripResourceRum";
+		displayTestTitle(TEST_NAME);
+
+		assertRoundTrip(RESOURCE_RUM_FILE_BASENAME);
+	}
+
+	private <O extends Objectable> PrismObject<O> assertRoundTrip(String basename) throws Exception {
+		PrismContext prismContext = PrismTestUtil.getPrismContext();
+		File file = new File(COMMON_DIR_XML, basename + ".xml");
+		PrismObject<O> original = prismContext.parseObject(file);
+
+		// WHEN
+		byte[] data = prismContext.binarySerializer().serialize(original);
+		PrismObject<O> reparsed = prismContext.parserFor(new ByteArrayInputStream(data))
+				.language(PrismContext.LANG_BINARY).parse();
+
+		// THEN
+		String xml = prismContext.xmlSerializer().serialize(original);
+		System.out.println("Binary size: " + data.length + ", XML size: " + xml.length());
+		System.out.println("Object parsed from binary form:");
+		System.out.println(reparsed.debugDump());
+		assertTrue("Binary data not recognized", BinaryLexicalProcessor.isBinary(data));
+		assertEquals("Object parsed from binary form differs", original, reparsed);
+
+		// unparsed XNode tree (as read from XML) should survive the round trip as well
+		RootXNode rawXNode = prismContext.parserFor(file).parseToXNode();
+		byte[] rawData = new BinaryLexicalProcessor().write(rawXNode, null);
+		PrismObject<O> reparsedRaw = prismContext.parserFor(new ByteArrayInputStream(rawData))
+				.language(PrismContext.LANG_BINARY).parse();
+		assertEquals("Object parsed from binary form of unparsed XNode differs", original, reparsedRaw);
+		return reparsed;
+	}
+}
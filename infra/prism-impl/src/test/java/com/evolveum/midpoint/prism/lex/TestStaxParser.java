@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism.lex;
+
+import com.evolveum.midpoint.prism.Objectable;
+import com.evolveum.midpoint.prism.ParserFileSource;
+import com.evolveum.midpoint.prism.ParsingContext;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismInternalTestUtil;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.foo.UserType;
+import com.evolveum.midpoint.prism.impl.lex.dom.DomLexicalProcessor;
+import com.evolveum.midpoint.prism.impl.xnode.RootXNodeImpl;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+
+import java.io.File;
+
+import static com.evolveum.midpoint.prism.PrismInternalTestUtil.*;
+import static com.evolveum.midpoint.prism.util.PrismTestUtil.createDefaultParsingContext;
+import static org.testng.AssertJUnit.assertEquals;
+
+/**
+ * Checks that streaming (StAX) XML parsing gives the same results as DOM-based parsing.
+ */
+public class TestStaxParser {
+
+	@BeforeSuite
+	public void setupDebug() throws Exception {
+		PrettyPrinter.setDefaultNamespacePrefix(DEFAULT_NAMESPACE_PREFIX);
+		PrismTestUtil.resetPrismContext(new PrismInternalTestUtil());
+	}
+
+	@Test
+	public void testParseUserJack() throws Exception {
+		final String TEST_NAME = "testParseUserJack";
+		displayTestTitle(TEST_NAME);
+
+		PrismObject<UserType> user = assertSameAsDom(USER_JACK_FILE_BASENAME);
+
+		assertUserJack(user, true);
+	}
+
+	@Test
+	public void testParseUserJackAdhoc() throws Exception {
+		final String TEST_NAME = "testParseUserJackAdhoc";
+		displayTestTitle(TEST_NAME);
+
+		assertSameAsDom(USER_JACK_ADHOC_BASENAME);
+	}
+
+	@Test
+	public void testParseUserBarbossa() throws Exception {
+		final String TEST_NAME = "testParseUserBarbossa";
+		displayTestTitle(TEST_NAME);
+
+		assertSameAsDom(USER_BARBOSSA_FILE_BASENAME);
+	}
+
+	@Test
+	public void testParseUserWill() throws Exception {
+		final String TEST_NAME = "testParseUserWill";
+		displayTestTitle(TEST_NAME);
+
+		assertSameAsDom(USER_WILL_FILE_BASENAME);
+	}
+
+	@Test
+	public void testParseResourceRum() throws Exception {
+		final String TEST_NAME = "testParseResourceRum";
+		displayTestTitle(TEST_NAME);
+
+		assertSameAsDom(RESOURCE_RUM_FILE_BASENAME);
+	}
+
+	private <O extends Objectable> PrismObject<O> assertSameAsDom(String basename) throws Exception {
+		PrismContext prismContext = PrismTestUtil.getPrismContext();
+		DomLexicalProcessor processor = new DomLexicalProcessor(PrismTestUtil.getSchemaRegistry());
+		File file = new File(COMMON_DIR_XML, basename + ".xml");
+
+		// WHEN
+		RootXNodeImpl domXNode = processor.read(new ParserFileSource(file), createDefaultParsingContext());
+		ParsingContext streamingContext = createDefaultParsingContext().clone().streamingXml();
+		RootXNodeImpl staxXNode = processor.read(new ParserFileSource(file), streamingContext);
+
+		// THEN
+		System.out.println("XNode after streaming parsing:");
+		System.out.println(staxXNode.debugDump());
+		assertEquals("Wrong root element name", domXNode.getRootElementName(), staxXNode.getRootElementName());
+
+		PrismObject<O> domObject = prismContext.parserFor(domXNode).parse();
+		PrismObject<O> staxObject = prismContext.parserFor(staxXNode).parse();
+		System.out.println("Parsed object:");
+		System.out.println(staxObject.debugDump());
+		assertEquals("Objects parsed by DOM and StAX differ", domObject, staxObject);
+
+		PrismObject<O> staxObjectFromParser = prismContext.parserFor(file).context(streamingContext).parse();
+		assertEquals("Object parsed by prism parser in streaming mode differs", domObject, staxObjectFromParser);
+		return staxObject;
+	}
+}
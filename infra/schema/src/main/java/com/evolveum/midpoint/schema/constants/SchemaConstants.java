@@ -353,6 +353,9 @@ public abstract class SchemaConstants {
 	public static final ItemName MODEL_EXTENSION_OBJECT_DELTA = new ItemName(NS_MODEL_EXTENSION, "objectDelta");
 	public static final ItemName MODEL_EXTENSION_OBJECT_DELTAS = new ItemName(NS_MODEL_EXTENSION, "objectDeltas");
 	public static final ItemName MODEL_EXTENSION_WORKER_THREADS = new ItemName(NS_MODEL_EXTENSION, "workerThreads");
+	public static final ItemName MODEL_EXTENSION_WORKER_THREADS_MAX = new ItemName(NS_MODEL_EXTENSION, "workerThreadsMax");
+	public static final ItemName MODEL_EXTENSION_MINOR_SUCCESS_SAMPLES = new ItemName(NS_MODEL_EXTENSION, "minorSuccessSamples");
+	public static final ItemName MODEL_EXTENSION_INDEX_ENTITLEMENT_MEMBERSHIP = new ItemName(NS_MODEL_EXTENSION, "indexEntitlementMembership");
 	public static final ItemName MODEL_EXTENSION_OPTION_RAW = new ItemName(NS_MODEL_EXTENSION, "optionRaw");
 	public static final ItemName MODEL_EXTENSION_EXECUTE_OPTIONS = new ItemName(NS_MODEL_EXTENSION, "executeOptions");
 
@@ -131,6 +131,17 @@ public class OperationResult implements Serializable, DebugDumpable, ShortDumpab
 	private boolean summarizeSuccesses;
 	private boolean minor = false;
 
+	/**
+	 * Low-overhead recording mode, intended for bulk tasks. If non-negative, only this number of successful
+	 * minor subresults is kept for each operation. The others are removed as soon as a next subresult is created,
+	 * and only their number and duration are kept (see {@link #getAggregatedMinorSuccesses()}). Other subresults
+	 * (errors, warnings, non-minor ones) are always kept intact. Subresults created by {@link #createSubresult(String)}
+	 * inherit this setting. Negative value (the default) means that everything is recorded.
+	 */
+	private int minorSuccessSamples = -1;
+	private Map<String, AggregatedMinorSuccesses> aggregatedMinorSuccesses;
+	private long startNanos;				// set only in low-overhead recording mode
+
 	/**
 	 * Reference to an asynchronous operation that can be used to retrieve
 	 * the status of the running operation. This may be a task identifier,
@@ -225,6 +236,11 @@ public class OperationResult implements Serializable, DebugDumpable, ShortDumpab
 
 	public OperationResult createSubresult(String operation) {
 		OperationResult subresult = new OperationResult(operation);
+		if (minorSuccessSamples >= 0) {
+			aggregateLastSubresultIfPossible();
+			subresult.minorSuccessSamples = minorSuccessSamples;
+			subresult.startNanos = System.nanoTime();
+		}
 		addSubresult(subresult);
 		return subresult;
 	}
@@ -338,6 +354,58 @@ public class OperationResult implements Serializable, DebugDumpable, ShortDumpab
 		this.summarizeSuccesses = summarizeSuccesses;
 	}
 
+	public int getMinorSuccessSamples() {
+		return minorSuccessSamples;
+	}
+
+	/**
+	 * Switches on (value &gt;= 0) or off (negative value) the low-overhead recording mode for this result
+	 * and subresults created from now on.
+	 */
+	public void setMinorSuccessSamples(int minorSuccessSamples) {
+		this.minorSuccessSamples = minorSuccessSamples;
+	}
+
+	/**
+	 * Returns the successful minor subresults that were not recorded because of low-overhead recording mode,
+	 * indexed by operation name.
+	 */
+	@NotNull
+	public Map<String, AggregatedMinorSuccesses> getAggregatedMinorSuccesses() {
+		return aggregatedMinorSuccesses != null ? Collections.unmodifiableMap(aggregatedMinorSuccesses) : Collections.emptyMap();
+	}
+
+	private boolean hasAggregatedMinorSuccesses() {
+		return aggregatedMinorSuccesses != null && !aggregatedMinorSuccesses.isEmpty();
+	}
+
+	/**
+	 * Called before a new subresult is created, so the last one should be complete now (except for rare cases
+	 * when results are not used in a strictly nested way; for them we would only lose a detail of a successful
+	 * minor operation, as failures are never aggregated).
+	 */
+	private void aggregateLastSubresultIfPossible() {
+		OperationResult last = getLastSubresult();
+		if (last == null || !last.minor || last.status != OperationResultStatus.SUCCESS
+				|| last.hasAggregatedMinorSuccesses() || last.representsHiddenRecords()) {
+			return;
+		}
+		if (aggregatedMinorSuccesses == null) {
+			aggregatedMinorSuccesses = new HashMap<>();
+		}
+		AggregatedMinorSuccesses aggregated = aggregatedMinorSuccesses
+				.computeIfAbsent(last.operation, k -> new AggregatedMinorSuccesses());
+		if (aggregated.samples < minorSuccessSamples) {
+			aggregated.samples++;
+		} else {
+			removeLastSubresult();
+			aggregated.count += last.count;
+			if (last.startNanos != 0) {
+				aggregated.nanos += System.nanoTime() - last.startNanos;
+			}
+		}
+	}
+
 	public boolean isEmpty() {
 		return (status == null || status == OperationResultStatus.UNKNOWN) &&
 				(subresults == null || subresults.isEmpty());
@@ -610,6 +678,9 @@ public class OperationResult implements Serializable, DebugDumpable, ShortDumpab
 			}
 		}
 
+		if (hasAggregatedMinorSuccesses()) {
+			allNotApplicable = false;
+		}
 		if (allNotApplicable && !getSubresults().isEmpty()) {
 			status = OperationResultStatus.NOT_APPLICABLE;
 		} else if (allSuccess && !getSubresults().isEmpty()) {
@@ -661,13 +732,13 @@ public class OperationResult implements Serializable, DebugDumpable, ShortDumpab
 	public void computeStatusComposite() {
 		if (getSubresults().isEmpty()) {
 			if (status == OperationResultStatus.UNKNOWN) {
-				status = OperationResultStatus.NOT_APPLICABLE;
+				status = hasAggregatedMinorSuccesses() ? OperationResultStatus.SUCCESS : OperationResultStatus.NOT_APPLICABLE;
 			}
 			return;
 		}
 
-		boolean allFatalError = true;
-		boolean allNotApplicable = true;
+		boolean allFatalError = !hasAggregatedMinorSuccesses();
+		boolean allNotApplicable = !hasAggregatedMinorSuccesses();
 		boolean hasInProgress = false;
 		boolean hasHandledError = false;
         boolean hasError = false;
@@ -1372,6 +1443,16 @@ public class OperationResult implements Serializable, DebugDumpable, ShortDumpab
 		for (OperationResult subResult : opResult.getSubresults()) {
 			resultType.getPartialResults().add(opResult.createOperationResultType(subResult, resolveKeys));
 		}
+		for (Map.Entry<String, AggregatedMinorSuccesses> entry : opResult.getAggregatedMinorSuccesses().entrySet()) {
+			AggregatedMinorSuccesses aggregated = entry.getValue();
+			if (aggregated.count > 0) {
+				OperationResult aggregatedRecordsEntry = new OperationResult(entry.getKey(), OperationResultStatus.SUCCESS,
+						aggregated.count + " successful minor record(s) were not recorded to save space. Total time: "
+								+ aggregated.getTotalTime() + " ms");
+				aggregatedRecordsEntry.setHiddenRecordsCount(aggregated.count);
+				resultType.getPartialResults().add(opResult.createOperationResultType(aggregatedRecordsEntry, resolveKeys));
+			}
+		}
 
 		return resultType;
 	}
@@ -1669,6 +1750,19 @@ public class OperationResult implements Serializable, DebugDumpable, ShortDumpab
 		for (OperationResult sub : getSubresults()) {
 			sub.dumpIndent(sb, indent + 1, printStackTrace);
 		}
+
+		for (Map.Entry<String, AggregatedMinorSuccesses> entry : getAggregatedMinorSuccesses().entrySet()) {
+			if (entry.getValue().count > 0) {
+				DebugUtil.indentDebugDump(sb, indent + 1);
+				sb.append("*aggregated* ");
+				sb.append(entry.getKey());
+				sb.append(", st: SUCCESS x");
+				sb.append(entry.getValue().count);
+				sb.append(", time: ");
+				sb.append(entry.getValue().getTotalTime());
+				sb.append(" ms\n");
+			}
+		}
 	}
 
 	private String dumpEntry(int indent, Collection<String> values) {
@@ -1791,6 +1885,35 @@ public class OperationResult implements Serializable, DebugDumpable, ShortDumpab
 		private int hiddenCount;		// how many entries will be hidden (after this wave of stripping)
 	}
 
+	/**
+	 * Successful minor subresults of given operation that were not recorded in low-overhead recording mode.
+	 */
+	public static class AggregatedMinorSuccesses implements Serializable {
+		private int samples;			// how many were kept as regular subresults
+		private int count;				// how many were not kept
+		private long nanos;				// total duration of those not kept
+
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * Total duration (in milliseconds) of the operations that were not recorded. It is measured from the creation
+		 * of the subresult to the creation of its next sibling, so it can be a bit higher than the real duration.
+		 */
+		public long getTotalTime() {
+			return nanos / 1000000;
+		}
+
+		private AggregatedMinorSuccesses copy() {
+			AggregatedMinorSuccesses clone = new AggregatedMinorSuccesses();
+			clone.samples = samples;
+			clone.count = count;
+			clone.nanos = nanos;
+			return clone;
+		}
+	}
+
     public OperationResult clone() {
         OperationResult clone = new OperationResult(operation);
 
@@ -1818,6 +1941,12 @@ public class OperationResult implements Serializable, DebugDumpable, ShortDumpab
         clone.summarizePartialErrors = summarizePartialErrors;
         clone.summarizeSuccesses = summarizeSuccesses;
         clone.minor = minor;
+        clone.minorSuccessSamples = minorSuccessSamples;
+        if (aggregatedMinorSuccesses != null) {
+            clone.aggregatedMinorSuccesses = new HashMap<>();
+            aggregatedMinorSuccesses.forEach((operation, aggregated) -> clone.aggregatedMinorSuccesses.put(operation, aggregated.copy()));
+        }
+        clone.startNanos = startNanos;
         clone.asynchronousOperationReference = asynchronousOperationReference;
 
         return clone;
@@ -32,6 +32,7 @@ import javax.xml.namespace.QName;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Pavol Mederly
@@ -43,17 +44,19 @@ public class EnvironmentalPerformanceInformation {
      * Updates are invoked in the context of the thread executing the task.
      * Queries are invoked either from this thread, or from some observer (task manager or GUI thread).
      *
-     * We ensure synchronization by making public methods synchronized. We don't expect much contention on this.
+     * The updates can come from many threads at once (e.g. when operations on projections are executed in parallel),
+     * so they do not lock: the data are kept in concurrent maps with lock-free counters (GenericStatisticsData).
+     * Queries work on a snapshot of the maps; they may miss an operation that is being recorded at the same moment.
      */
     private final EnvironmentalPerformanceInformationType startValue;        // this object is concurrently read (that is thread-safe), not written
 
-    private Map<ProvisioningStatisticsKey,ProvisioningStatisticsData> provisioningData = new HashMap<>();
-    private Map<NotificationsStatisticsKey,GenericStatisticsData> notificationsData = new HashMap<>();
-    private Map<MappingsStatisticsKey,GenericStatisticsData> mappingsData = new HashMap<>();
+    private final Map<ProvisioningStatisticsKey,ProvisioningStatisticsData> provisioningData = new ConcurrentHashMap<>();
+    private final Map<NotificationsStatisticsKey,GenericStatisticsData> notificationsData = new ConcurrentHashMap<>();
+    private final Map<MappingsStatisticsKey,GenericStatisticsData> mappingsData = new ConcurrentHashMap<>();
 
 	private static final int AGGREGATION_THRESHOLD = 50;
 
-    private StatusMessage lastMessage;
+    private volatile StatusMessage lastMessage;
 
     public EnvironmentalPerformanceInformation(EnvironmentalPerformanceInformationType value) {
         startValue = value;
@@ -67,12 +70,12 @@ public class EnvironmentalPerformanceInformation {
         return startValue;
     }
 
-    public synchronized EnvironmentalPerformanceInformationType getDeltaValue() {
+    public EnvironmentalPerformanceInformationType getDeltaValue() {
         EnvironmentalPerformanceInformationType rv = toEnvironmentalPerformanceInformationType();
         return rv;
     }
 
-    public synchronized EnvironmentalPerformanceInformationType getAggregatedValue() {
+    public EnvironmentalPerformanceInformationType getAggregatedValue() {
         EnvironmentalPerformanceInformationType delta = toEnvironmentalPerformanceInformationType();
         EnvironmentalPerformanceInformationType rv = aggregate(startValue, delta);
         return rv;
@@ -83,6 +86,7 @@ public class EnvironmentalPerformanceInformation {
         rv.setProvisioningStatistics(toProvisioningStatisticsType());
         rv.setMappingsStatistics(toMappingsStatisticsType());
         rv.setNotificationsStatistics(toNotificationsStatisticsType());
+        StatusMessage lastMessage = this.lastMessage;
         if (lastMessage != null) {
             rv.setLastMessageTimestamp(XmlTypeConverter.createXMLGregorianCalendar(lastMessage.getDate()));
             rv.setLastMessage(lastMessage.getMessage());
@@ -92,9 +96,6 @@ public class EnvironmentalPerformanceInformation {
 
     private NotificationsStatisticsType toNotificationsStatisticsType() {
         NotificationsStatisticsType rv = new NotificationsStatisticsType();
-        if (notificationsData == null) {
-            return rv;
-        }
         for (Map.Entry<NotificationsStatisticsKey, GenericStatisticsData> entry : notificationsData.entrySet()) {
             NotificationsStatisticsKey key = entry.getKey();
             String transport = key.getTransport();
@@ -112,9 +113,8 @@ public class EnvironmentalPerformanceInformation {
 
     private MappingsStatisticsType toMappingsStatisticsType() {
         final MappingsStatisticsType rv = new MappingsStatisticsType();
-        if (mappingsData == null) {
-            return rv;
-        }
+        // a snapshot, because the keys must not change between the two passes
+        final Map<MappingsStatisticsKey, GenericStatisticsData> mappingsData = new HashMap<>(this.mappingsData);
 		final Map<String,Integer> entriesPerType = new HashMap<>();
 		for (MappingsStatisticsKey key: mappingsData.keySet()) {
 			Integer current = entriesPerType.get(key.getObjectType());
@@ -142,9 +142,6 @@ public class EnvironmentalPerformanceInformation {
 
     private ProvisioningStatisticsType toProvisioningStatisticsType() {
         ProvisioningStatisticsType rv = new ProvisioningStatisticsType();
-        if (provisioningData == null) {
-            return rv;
-        }
         for (Map.Entry<ProvisioningStatisticsKey, ProvisioningStatisticsData> entry : provisioningData.entrySet()) {
             ProvisioningStatisticsKey key = entry.getKey();
             String resource = key.getResourceName();
@@ -450,42 +447,30 @@ public class EnvironmentalPerformanceInformation {
         return Math.max(a, b);
     }
 
-    public synchronized void recordProvisioningOperation(String resourceOid, String resourceName, QName objectClassName, ProvisioningOperation operation, boolean success, int count, long duration) {
+    public void recordProvisioningOperation(String resourceOid, String resourceName, QName objectClassName, ProvisioningOperation operation, boolean success, int count, long duration) {
         ProvisioningStatisticsKey key = new ProvisioningStatisticsKey(resourceOid, resourceName, objectClassName, operation, success);
-        ProvisioningStatisticsData data = provisioningData.get(key);
-        if (data == null) {
-            data = new ProvisioningStatisticsData();
-            provisioningData.put(key, data);
-        }
-        data.recordOperation(duration, count);
+        provisioningData.computeIfAbsent(key, k -> new ProvisioningStatisticsData())
+                .recordOperation(duration, count);
     }
 
-    public synchronized void recordNotificationOperation(String transportName, boolean success, long duration) {
+    public void recordNotificationOperation(String transportName, boolean success, long duration) {
         NotificationsStatisticsKey key = new NotificationsStatisticsKey(transportName, success);
-        GenericStatisticsData data = notificationsData.get(key);
-        if (data == null) {
-            data = new GenericStatisticsData();
-            notificationsData.put(key, data);
-        }
-        data.recordOperation(duration, 1);
+        notificationsData.computeIfAbsent(key, k -> new GenericStatisticsData())
+                .recordOperation(duration, 1);
     }
 
-    public synchronized void recordMappingOperation(String objectOid, String objectName, String objectTypeName, String mappingName, long duration) {
+    public void recordMappingOperation(String objectOid, String objectName, String objectTypeName, String mappingName, long duration) {
         // ignoring mapping name for now
         MappingsStatisticsKey key = new MappingsStatisticsKey(objectOid, objectName, objectTypeName);
-        GenericStatisticsData data = mappingsData.get(key);
-        if (data == null) {
-            data = new GenericStatisticsData();
-            mappingsData.put(key, data);
-        }
-        data.recordOperation(duration, 1);
+        mappingsData.computeIfAbsent(key, k -> new GenericStatisticsData())
+                .recordOperation(duration, 1);
     }
 
-    public synchronized StatusMessage getLastMessage() {
+    public StatusMessage getLastMessage() {
         return lastMessage;
     }
 
-    public synchronized void recordState(String message) {
+    public void recordState(String message) {
         lastMessage = new StatusMessage(message);
     }
 }
@@ -16,40 +16,45 @@
 
 package com.evolveum.midpoint.schema.statistics;
 
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
 /**
+ * Thread safe without locking: the data can be updated by many worker threads at once, so the counters are striped
+ * (LongAdder/LongAccumulator) and summed only when they are read. A reader may therefore see a slightly inconsistent
+ * combination of values (e.g. count already incremented but total duration not yet), which is fine for statistics.
+ *
  * @author Pavol Mederly
  */
 public class GenericStatisticsData {
 
-    private int count;
-    private long totalDuration;
-    private Long minDuration = null;
-    private Long maxDuration = null;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalDuration = new LongAdder();
+    private final LongAccumulator minDuration = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator maxDuration = new LongAccumulator(Math::max, Long.MIN_VALUE);
 
     public int getCount() {
-        return count;
+        return count.intValue();
     }
 
     public long getTotalDuration() {
-        return totalDuration;
+        return totalDuration.sum();
     }
 
     public long getMinDuration() {
-        return minDuration != null ? minDuration : 0;
+        long min = minDuration.get();
+        return min != Long.MAX_VALUE ? min : 0;
     }
 
     public long getMaxDuration() {
-        return maxDuration != null ? maxDuration : 0;
+        long max = maxDuration.get();
+        return max != Long.MIN_VALUE ? max : 0;
     }
 
     public void recordOperation(long duration, int count) {
-        this.count += count;
-        totalDuration += duration;
-        if (minDuration == null || minDuration > duration) {
-            minDuration = duration;
-        }
-        if (maxDuration == null || maxDuration < duration) {
-            maxDuration = duration;
-        }
+        this.count.add(count);
+        totalDuration.add(duration);
+        minDuration.accumulate(duration);
+        maxDuration.accumulate(duration);
     }
 }
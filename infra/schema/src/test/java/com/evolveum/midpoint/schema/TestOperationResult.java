@@ -206,6 +206,62 @@ public class TestOperationResult {
 		checkResultConversion(root, true);
 	}
 
+	@Test
+	public void testLowOverheadRecording() throws Exception {
+		System.out.println("===[ testLowOverheadRecording ]===");
+
+		// GIVEN
+
+		OperationResult root = new OperationResult("dummy");
+		root.setMinorSuccessSamples(2);
+		OperationResult level1 = root.createSubresult("level1");
+
+		// WHEN
+		for (int i = 1; i <= 30; i++) {
+			OperationResult level2 = level1.createMinorSubresult("level2");
+			level2.addParam("value", i);
+			if (i == 20) {
+				level2.recordFatalError("Fatal");
+			} else {
+				level2.recordSuccess();
+			}
+			OperationResult level2major = level1.createSubresult("level2major");
+			level2major.recordSuccess();
+		}
+		level1.createMinorSubresult("level2last").recordNotApplicableIfUnknown();
+		level1.computeStatus();
+		root.computeStatus();
+
+		// THEN
+		System.out.println(root.debugDump());
+		assertEquals("Wrong minorSuccessSamples in subresult", 2, level1.getMinorSuccessSamples());
+		// 2 samples + 1 error + 30 major + 1 last
+		assertEquals("Wrong # of level1 subresults", 34, level1.getSubresults().size());
+		assertEquals("Wrong # of aggregated level2 records", 27,
+				level1.getAggregatedMinorSuccesses().get("level2").getCount());
+		assertEquals("Wrong status of level1", OperationResultStatus.FATAL_ERROR, level1.getStatus());
+
+		OperationResultType resultType = root.createOperationResultType();
+		OperationResultType aggregatedType = resultType.getPartialResults().get(0).getPartialResults().get(34);
+		assertEquals("Wrong operation in aggregated record", "level2", aggregatedType.getOperation());
+		assertEquals("Wrong hidden records count in aggregated record", (Integer) 27, aggregatedType.getHiddenRecordsCount());
+	}
+
+	@Test
+	public void testLowOverheadRecordingStatus() throws Exception {
+		System.out.println("===[ testLowOverheadRecordingStatus ]===");
+
+		OperationResult root = new OperationResult("dummy");
+		root.setMinorSuccessSamples(0);
+		root.createMinorSubresult("success").recordSuccess();
+		root.createMinorSubresult("notApplicable").recordNotApplicableIfUnknown();
+
+		root.computeStatus();
+
+		assertEquals("Wrong # of subresults", 1, root.getSubresults().size());
+		assertEquals("Wrong status", OperationResultStatus.SUCCESS, root.getStatus());
+	}
+
 	private void checkResultConversion(OperationResult result, boolean assertEquals) throws SchemaException {
 		// WHEN
 		OperationResultType resultType = result.createOperationResultType();
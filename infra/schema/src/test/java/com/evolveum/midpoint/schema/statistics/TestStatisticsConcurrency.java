@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.schema.statistics;
+
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.constants.MidPointConstants;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import javax.xml.namespace.QName;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.testng.AssertJUnit.*;
+
+/**
+ * Records statistics from many threads at once (as worker threads of a task do) while an observer takes snapshots.
+ * Checks that no update is lost and that the snapshots never go backwards.
+ */
+public class TestStatisticsConcurrency {
+
+	private static final int THREADS = 8;
+	private static final int OPERATIONS = 5000;
+
+	private static final QName OBJECT_CLASS = new QName(MidPointConstants.NS_RI, "AccountObjectClass");
+
+	@BeforeSuite
+	public void setup() throws SchemaException, SAXException, IOException {
+		PrettyPrinter.setDefaultNamespacePrefix(MidPointConstants.NS_MIDPOINT_PUBLIC_PREFIX);
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+	}
+
+	@Test
+	public void test100GenericStatisticsData() throws Exception {
+		System.out.println("===[ test100GenericStatisticsData ]===");
+
+		GenericStatisticsData data = new GenericStatisticsData();
+		List<Integer> counts = new ArrayList<>();
+
+		runConcurrently(
+				thread -> {
+					for (int i = 1; i <= OPERATIONS; i++) {
+						data.recordOperation(i + thread, 1);
+					}
+				},
+				() -> counts.add(data.getCount()));
+
+		assertEquals("Wrong count", THREADS * OPERATIONS, data.getCount());
+		assertEquals("Wrong total duration", expectedTotalDuration(), data.getTotalDuration());
+		assertEquals("Wrong min duration", 1, data.getMinDuration());
+		assertEquals("Wrong max duration", OPERATIONS + THREADS - 1, data.getMaxDuration());
+		assertNonDecreasing("count", counts);
+	}
+
+	@Test
+	public void test200IterativeTaskInformation() throws Exception {
+		System.out.println("===[ test200IterativeTaskInformation ]===");
+
+		IterativeTaskInformationType startValue = new IterativeTaskInformationType();
+		startValue.setTotalSuccessCount(10);
+		startValue.setTotalFailureCount(1);
+		IterativeTaskInformation info = new IterativeTaskInformation(startValue);
+		List<Integer> counts = new ArrayList<>();
+
+		runConcurrently(
+				thread -> {
+					for (int i = 0; i < OPERATIONS; i++) {
+						String name = "object-" + thread + "-" + i;
+						info.recordOperationStart(name, null, UserType.COMPLEX_TYPE, null);
+						Throwable exception = i % 10 == 0 ? new IllegalStateException("failure of " + name) : null;
+						info.recordOperationEnd(name, null, UserType.COMPLEX_TYPE, null, System.currentTimeMillis(), exception);
+					}
+				},
+				() -> {
+					IterativeTaskInformationType snapshot = info.getAggregatedValue();
+					counts.add(snapshot.getTotalSuccessCount() + snapshot.getTotalFailureCount());
+				});
+
+		IterativeTaskInformationType aggregated = info.getAggregatedValue();
+		int failures = THREADS * OPERATIONS / 10;
+		assertEquals("Wrong success count", 10 + THREADS * OPERATIONS - failures, aggregated.getTotalSuccessCount());
+		assertEquals("Wrong failure count", 1 + failures, aggregated.getTotalFailureCount());
+		assertNotNull("No last success", aggregated.getLastSuccessObjectName());
+		assertTrue("Wrong last failure: " + aggregated.getLastFailureExceptionMessage(),
+				aggregated.getLastFailureExceptionMessage().endsWith("failure of " + aggregated.getLastFailureObjectName()));
+		assertNull("Current object is set after all operations ended", aggregated.getCurrentObjectName());
+		assertEquals("Wrong # of last failures", IterativeTaskInformation.LAST_FAILURES_KEPT, info.getLastFailures().size());
+
+		IterativeTaskInformationType delta = info.getDeltaValue();
+		assertEquals("Wrong success count in delta", THREADS * OPERATIONS - failures, delta.getTotalSuccessCount());
+		assertNonDecreasing("processed objects", counts);
+	}
+
+	@Test
+	public void test300SynchronizationInformation() throws Exception {
+		System.out.println("===[ test300SynchronizationInformation ]===");
+
+		SynchronizationInformation info = new SynchronizationInformation();
+		List<Integer> counts = new ArrayList<>();
+
+		runConcurrently(
+				thread -> {
+					for (int i = 0; i < OPERATIONS; i++) {
+						SynchronizationInformation.Record before = new SynchronizationInformation.Record();
+						SynchronizationInformation.Record after = new SynchronizationInformation.Record();
+						if (i % 2 == 0) {
+							before.setCountUnmatched(1);
+							after.setCountLinked(1);
+						} else {
+							before.setCountLinked(1);
+							after.setCountLinked(1);
+						}
+						info.recordSynchronizationOperationEnd("object-" + thread + "-" + i, null, ShadowType.COMPLEX_TYPE,
+								null, System.currentTimeMillis(), null, before, after);
+					}
+				},
+				() -> {
+					SynchronizationInformationType snapshot = info.getAggregatedValue();
+					counts.add(snapshot.getCountLinkedAfter());
+				});
+
+		SynchronizationInformationType aggregated = info.getAggregatedValue();
+		assertEquals("Wrong unmatched count", THREADS * OPERATIONS / 2, aggregated.getCountUnmatched());
+		assertEquals("Wrong linked count", THREADS * OPERATIONS / 2, aggregated.getCountLinked());
+		assertEquals("Wrong linked count after", THREADS * OPERATIONS, aggregated.getCountLinkedAfter());
+		assertEquals("Wrong unmatched count after", 0, aggregated.getCountUnmatchedAfter());
+		assertNonDecreasing("linked objects", counts);
+	}
+
+	@Test
+	public void test400EnvironmentalPerformanceInformation() throws Exception {
+		System.out.println("===[ test400EnvironmentalPerformanceInformation ]===");
+
+		EnvironmentalPerformanceInformation info = new EnvironmentalPerformanceInformation();
+		List<Integer> counts = new ArrayList<>();
+
+		runConcurrently(
+				thread -> {
+					for (int i = 1; i <= OPERATIONS; i++) {
+						long duration = i + thread;
+						info.recordProvisioningOperation("oid-1", "resource-1", OBJECT_CLASS, ProvisioningOperation.ICF_GET,
+								i % 5 != 0, 1, duration);
+						info.recordMappingOperation("user-" + thread, "user-" + thread, "UserType", "mapping", duration);
+						info.recordNotificationOperation("mail", true, duration);
+						if (i == OPERATIONS) {
+							info.recordState("thread " + thread + " at " + i);
+						}
+					}
+				},
+				() -> {
+					ProvisioningStatisticsType snapshot = info.getAggregatedValue().getProvisioningStatistics();
+					counts.add(snapshot.getEntry().isEmpty() ? 0 :
+							snapshot.getEntry().get(0).getGetSuccess() + snapshot.getEntry().get(0).getGetFailure());
+				});
+
+		EnvironmentalPerformanceInformationType aggregated = info.getAggregatedValue();
+
+		List<ProvisioningStatisticsEntryType> provisioning = aggregated.getProvisioningStatistics().getEntry();
+		assertEquals("Wrong # of provisioning entries", 1, provisioning.size());
+		ProvisioningStatisticsEntryType provisioningEntry = provisioning.get(0);
+		int failures = THREADS * OPERATIONS / 5;
+		assertEquals("Wrong get success count", THREADS * OPERATIONS - failures, provisioningEntry.getGetSuccess());
+		assertEquals("Wrong get failure count", failures, provisioningEntry.getGetFailure());
+		assertEquals("Wrong provisioning total time", expectedTotalDuration(), provisioningEntry.getTotalTime());
+		assertEquals("Wrong provisioning min time", Long.valueOf(1), provisioningEntry.getMinTime());
+		assertEquals("Wrong provisioning max time", Long.valueOf(OPERATIONS + THREADS - 1), provisioningEntry.getMaxTime());
+
+		List<MappingsStatisticsEntryType> mappings = aggregated.getMappingsStatistics().getEntry();
+		assertEquals("Wrong # of mappings entries", THREADS, mappings.size());
+		for (MappingsStatisticsEntryType mappingsEntry : mappings) {
+			assertEquals("Wrong mappings count for " + mappingsEntry.getObject(), OPERATIONS, mappingsEntry.getCount());
+		}
+
+		List<NotificationsStatisticsEntryType> notifications = aggregated.getNotificationsStatistics().getEntry();
+		assertEquals("Wrong # of notifications entries", 1, notifications.size());
+		NotificationsStatisticsEntryType notificationsEntry = notifications.get(0);
+		assertEquals("Wrong notifications count", THREADS * OPERATIONS, notificationsEntry.getCountSuccess());
+		assertEquals("Wrong notifications total time", expectedTotalDuration(), notificationsEntry.getTotalTime());
+		assertEquals("Wrong notifications min time", Long.valueOf(1), notificationsEntry.getMinTime());
+		assertEquals("Wrong notifications max time", Long.valueOf(OPERATIONS + THREADS - 1), notificationsEntry.getMaxTime());
+
+		assertTrue("Wrong last message: " + aggregated.getLastMessage(),
+				aggregated.getLastMessage().endsWith(" at " + OPERATIONS));
+		assertNonDecreasing("provisioning operations", counts);
+	}
+
+	@FunctionalInterface
+	private interface Recorder {
+		void record(int thread) throws Exception;
+	}
+
+	/**
+	 * Runs the recorder in THREADS threads at once; the observer is called repeatedly until all of them finish.
+	 */
+	private void runConcurrently(Recorder recorder, Runnable observer) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			AtomicBoolean finished = new AtomicBoolean();
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < THREADS; i++) {
+				int thread = i;
+				futures.add(executor.submit(() -> {
+					start.await();
+					recorder.record(thread);
+					return null;
+				}));
+			}
+			start.countDown();
+			Thread checker = new Thread(() -> {
+				while (!finished.get()) {
+					observer.run();
+				}
+			});
+			checker.start();
+			for (Future<?> future : futures) {
+				future.get(60, TimeUnit.SECONDS);
+			}
+			finished.set(true);
+			checker.join();
+			observer.run();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private long expectedTotalDuration() {
+		long total = 0;
+		for (int thread = 0; thread < THREADS; thread++) {
+			for (int i = 1; i <= OPERATIONS; i++) {
+				total += i + thread;
+			}
+		}
+		return total;
+	}
+
+	private void assertNonDecreasing(String what, List<Integer> values) {
+		System.out.println("Snapshots of " + what + ": " + values.size());
+		for (int i = 1; i < values.size(); i++) {
+			assertTrue("Snapshot of " + what + " went backwards: " + values.get(i - 1) + " -> " + values.get(i),
+					values.get(i) >= values.get(i - 1));
+		}
+	}
+}
@@ -56,4 +56,13 @@ public interface ScriptEvaluator {
 	 */
 	String getLanguageUrl();
 
+	/**
+	 * Prepares the script for evaluation (e.g. compiles it), if the evaluator supports that.
+	 *
+	 * @return true if the script was precompiled now, false if it was not necessary or not supported
+	 */
+	default boolean precompile(String code, String contextDescription) throws ExpressionEvaluationException {
+		return false;
+	}
+
 }
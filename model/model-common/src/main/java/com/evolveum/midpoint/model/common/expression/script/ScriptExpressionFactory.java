@@ -18,11 +18,14 @@ package com.evolveum.midpoint.model.common.expression.script;
 import java.util.*;
 
 import javax.annotation.PostConstruct;
+import javax.xml.bind.JAXBElement;
 
 import com.evolveum.midpoint.model.common.expression.functions.CustomFunctions;
 import com.evolveum.midpoint.model.common.expression.functions.FunctionLibrary;
 import com.evolveum.midpoint.prism.ItemDefinition;
 import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismPropertyValue;
+import com.evolveum.midpoint.prism.Visitor;
 import com.evolveum.midpoint.prism.crypto.Protector;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.common.CacheRegistry;
@@ -36,10 +39,16 @@ import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.constants.MidPointConstants;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.util.exception.ExpressionEvaluationException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ExpressionType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.FunctionLibraryType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectTemplateType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ScriptExpressionEvaluatorType;
 
 /**
@@ -53,6 +62,14 @@ public class ScriptExpressionFactory implements Cacheable{
 
 	public static String DEFAULT_LANGUAGE = "http://midpoint.evolveum.com/xml/ns/public/expression/language#Groovy";
 
+	private static final String OP_PRECOMPILE_SCRIPTS = ScriptExpressionFactory.class.getName() + ".precompileScripts";
+
+	/**
+	 * Objects whose scripts are precompiled by {@link #precompileScripts(OperationResult)}.
+	 */
+	private static final List<Class<? extends ObjectType>> PRECOMPILED_OBJECT_TYPES =
+			Arrays.asList(ObjectTemplateType.class, ResourceType.class, RoleType.class);
+
 	private Map<String,ScriptEvaluator> evaluatorMap = new HashMap<>();
 	private ObjectResolver objectResolver;
 	private final PrismContext prismContext;
@@ -180,6 +197,83 @@ public class ScriptExpressionFactory implements Cacheable{
 		return DEFAULT_LANGUAGE;
 	}
 
+	/**
+	 * Compiles all the scripts found in object templates, resources and roles, so their first evaluation
+	 * does not have to wait for the compilation. Intended to be called at system startup (or on demand,
+	 * e.g. after a bulk import of roles). Scripts that cannot be compiled are skipped; they will fail
+	 * in the usual way when evaluated.
+	 *
+	 * @return number of scripts compiled
+	 */
+	public int precompileScripts(OperationResult parentResult) {
+		OperationResult result = parentResult.createSubresult(OP_PRECOMPILE_SCRIPTS);
+		try {
+			if (repositoryService == null) {
+				result.recordNotApplicableIfUnknown();
+				return 0;
+			}
+			long start = System.currentTimeMillis();
+			int compiled = 0;
+			int failed = 0;
+			for (Class<? extends ObjectType> type : PRECOMPILED_OBJECT_TYPES) {
+				List<ScriptExpressionEvaluatorType> scripts = collectScripts(type, result);
+				for (ScriptExpressionEvaluatorType script : scripts) {
+					ScriptEvaluator evaluator = evaluatorMap.get(getLanguage(script));
+					if (evaluator == null) {
+						continue;
+					}
+					try {
+						if (evaluator.precompile(script.getCode(), "precompiled script in " + type.getSimpleName())) {
+							compiled++;
+						}
+					} catch (ExpressionEvaluationException | RuntimeException e) {
+						LOGGER.debug("Couldn't precompile script: {}", e.getMessage(), e);
+						failed++;
+					}
+				}
+			}
+			LOGGER.info("Precompiled {} scripts in {} ms ({} could not be compiled)", compiled,
+					System.currentTimeMillis() - start, failed);
+			result.addReturn("compiled", compiled);
+			result.addReturn("failed", failed);
+			result.recordSuccess();
+			return compiled;
+		} catch (SchemaException | RuntimeException e) {
+			LOGGER.warn("Couldn't precompile scripts: {}", e.getMessage(), e);
+			result.recordPartialError("Couldn't precompile scripts", e);
+			return 0;
+		}
+	}
+
+	private <O extends ObjectType> List<ScriptExpressionEvaluatorType> collectScripts(Class<O> type, OperationResult result)
+			throws SchemaException {
+		List<ScriptExpressionEvaluatorType> scripts = new ArrayList<>();
+		Visitor collector = createScriptCollector(scripts);
+		ResultHandler<O> handler = (object, lResult) -> {
+			object.accept(collector);
+			return true;
+		};
+		repositoryService.searchObjectsIterative(type, null, handler,
+				SelectorOptions.createCollection(GetOperationOptions.createReadOnly()), true, result);
+		return scripts;
+	}
+
+	private Visitor createScriptCollector(List<ScriptExpressionEvaluatorType> scripts) {
+		return visitable -> {
+			if (!(visitable instanceof PrismPropertyValue) || ((PrismPropertyValue<?>) visitable).isRaw()) {
+				return;
+			}
+			Object realValue = ((PrismPropertyValue<?>) visitable).getRealValue();
+			if (realValue instanceof ExpressionType) {
+				for (JAXBElement<?> evaluator : ((ExpressionType) realValue).getExpressionEvaluator()) {
+					if (evaluator.getValue() instanceof ScriptExpressionEvaluatorType) {
+						scripts.add((ScriptExpressionEvaluatorType) evaluator.getValue());
+					}
+				}
+			}
+		};
+	}
+
 	@Override
 	public void clearCache() {
 		customFunctionLibraryCache = null;		
@@ -17,9 +17,10 @@ package com.evolveum.midpoint.model.common.expression.script.jsr223;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 
 import javax.script.Bindings;
@@ -47,6 +48,8 @@ import com.evolveum.midpoint.schema.internals.InternalMonitor;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.ExceptionUtil;
 import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.util.DebugDumpable;
+import com.evolveum.midpoint.util.DebugUtil;
 import com.evolveum.midpoint.util.exception.CommunicationException;
 import com.evolveum.midpoint.util.exception.ConfigurationException;
 import com.evolveum.midpoint.util.exception.ExpressionEvaluationException;
@@ -57,6 +60,10 @@ import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ScriptExpressionEvaluatorType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ScriptExpressionReturnTypeType;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 /**
  * Expression evaluator that is using javax.script (JSR-223) engine.
@@ -64,21 +71,37 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ScriptExpressionRetu
  * @author Radovan Semancik
  *
  */
-public class Jsr223ScriptEvaluator implements ScriptEvaluator {
+public class Jsr223ScriptEvaluator implements ScriptEvaluator, DebugDumpable {
 
 	private static final String LANGUAGE_URL_BASE = MidPointConstants.NS_MIDPOINT_PUBLIC_PREFIX + "/expression/language#";
 	
 	private static final Trace LOGGER = TraceManager.getTrace(Jsr223ScriptEvaluator.class);
 
+	public static final long DEFAULT_SCRIPT_CACHE_MAX_SIZE = 10000;
+
+	/**
+	 * Number of the most frequently used scripts shown in the debug dump.
+	 */
+	private static final int DEBUG_DUMP_TOP_SCRIPTS = 20;
+
 	private final ScriptEngine scriptEngine;
 	private final PrismContext prismContext;
 	private final Protector protector;
 	private final LocalizationService localizationService;
 
-	private final Map<String, CompiledScript> scriptCache;
+	/**
+	 * Compiled scripts, keyed by the code. Loading is done via Cache.get(key, loader), so concurrent
+	 * requests for the same script wait for a single compilation instead of compiling it each on their own.
+	 */
+	private final Cache<String, CachedScript> scriptCache;
 
 	public Jsr223ScriptEvaluator(String engineName, PrismContext prismContext, Protector protector,
 			LocalizationService localizationService) {
+		this(engineName, prismContext, protector, localizationService, DEFAULT_SCRIPT_CACHE_MAX_SIZE);
+	}
+
+	public Jsr223ScriptEvaluator(String engineName, PrismContext prismContext, Protector protector,
+			LocalizationService localizationService, long scriptCacheMaxSize) {
 		ScriptEngineManager scriptEngineManager = new ScriptEngineManager();
 		scriptEngine = scriptEngineManager.getEngineByName(engineName);
 		if (scriptEngine == null) {
@@ -86,7 +109,10 @@ public class Jsr223ScriptEvaluator implements ScriptEvaluator {
 		}
 		this.prismContext = prismContext;
 		this.protector = protector;
-		this.scriptCache = new ConcurrentHashMap<>();
+		this.scriptCache = CacheBuilder.newBuilder()
+				.maximumSize(scriptCacheMaxSize)
+				.recordStats()
+				.build();
 		this.localizationService = localizationService;
 	}
 
@@ -204,18 +230,94 @@ public class Jsr223ScriptEvaluator implements ScriptEvaluator {
 	}
 
 	private CompiledScript createCompiledScript(String codeString, String contextDescription) throws ExpressionEvaluationException {
-		CompiledScript compiledScript = scriptCache.get(codeString);
-		if (compiledScript != null) {
-			return compiledScript;
-		}
+		CachedScript cachedScript = getCachedScript(codeString, contextDescription);
+		cachedScript.hits.increment();
+		return cachedScript.compiledScript;
+	}
+
+	private CachedScript getCachedScript(String codeString, String contextDescription) throws ExpressionEvaluationException {
 		try {
-			InternalMonitor.recordCount(InternalCounters.SCRIPT_COMPILE_COUNT);
-			compiledScript = ((Compilable)scriptEngine).compile(codeString);
-		} catch (ScriptException e) {
-			throw new ExpressionEvaluationException(e.getMessage() + " in " + contextDescription, e);
+			return scriptCache.get(codeString, () -> compile(codeString));
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof ScriptException) {
+				throw new ExpressionEvaluationException(cause.getMessage() + " in " + contextDescription, cause);
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			} else {
+				throw new SystemException("Couldn't compile script in " + contextDescription + ": " + cause.getMessage(), cause);
+			}
+		}
+	}
+
+	private CachedScript compile(String codeString) throws ScriptException {
+		InternalMonitor.recordCount(InternalCounters.SCRIPT_COMPILE_COUNT);
+		long start = System.nanoTime();
+		CompiledScript compiledScript = ((Compilable)scriptEngine).compile(codeString);
+		long compileTime = System.nanoTime() - start;
+		LOGGER.trace("Script compiled in {} ms:\n{}", compileTime / 1000000.0, codeString);
+		return new CachedScript(compiledScript, compileTime);
+	}
+
+	/**
+	 * Compiles the script (if it is not compiled yet) so it is ready in the cache when it is first evaluated.
+	 */
+	@Override
+	public boolean precompile(String codeString, String contextDescription) throws ExpressionEvaluationException {
+		if (codeString == null || scriptCache.getIfPresent(codeString) != null) {
+			return false;
+		}
+		getCachedScript(codeString, contextDescription);
+		return true;
+	}
+
+	public CacheStats getScriptCacheStats() {
+		return scriptCache.stats();
+	}
+
+	public long getScriptCacheSize() {
+		return scriptCache.size();
+	}
+
+	public void clearScriptCache() {
+		scriptCache.invalidateAll();
+	}
+
+	@Override
+	public String debugDump(int indent) {
+		StringBuilder sb = new StringBuilder();
+		DebugUtil.debugDumpLabelLn(sb, "Jsr223ScriptEvaluator(" + getLanguageName() + ")", indent);
+		CacheStats stats = scriptCache.stats();
+		DebugUtil.debugDumpWithLabelLn(sb, "cached scripts", scriptCache.size(), indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "hits", stats.hitCount(), indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "misses", stats.missCount(), indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "evictions", stats.evictionCount(), indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "total compile time (ms)", stats.totalLoadTime() / 1000000, indent + 1);
+		DebugUtil.debugDumpLabel(sb, "most used scripts", indent + 1);
+		scriptCache.asMap().entrySet().stream()
+				.sorted(Comparator.comparingLong(e -> -e.getValue().hits.sum()))
+				.limit(DEBUG_DUMP_TOP_SCRIPTS)
+				.forEach(e -> {
+					sb.append("\n");
+					DebugUtil.indentDebugDump(sb, indent + 2);
+					sb.append(e.getValue().hits.sum()).append(" hits, compiled in ")
+							.append(e.getValue().compileTime / 1000000).append(" ms: ")
+							.append(DebugUtil.excerpt(e.getKey(), 100));
+				});
+		return sb.toString();
+	}
+
+	private static class CachedScript {
+		private final CompiledScript compiledScript;
+		private final long compileTime;         // nanoseconds
+		private final LongAdder hits = new LongAdder();
+
+		private CachedScript(CompiledScript compiledScript, long compileTime) {
+			this.compiledScript = compiledScript;
+			this.compileTime = compileTime;
 		}
-		scriptCache.put(codeString, compiledScript);
-		return compiledScript;
 	}
 
 	private <T> T convertScalarResult(Class<T> expectedType, Function<Object, Object> additionalConvertor, Object rawValue, String contextDescription) throws ExpressionEvaluationException {
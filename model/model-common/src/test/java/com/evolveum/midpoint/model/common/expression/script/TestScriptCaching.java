@@ -17,12 +17,14 @@ package com.evolveum.midpoint.model.common.expression.script;
 
 import static com.evolveum.midpoint.prism.util.PrismTestUtil.getPrismContext;
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import javax.xml.bind.JAXBException;
@@ -139,6 +141,48 @@ public class TestScriptCaching {
     	assertTrue("Even Horatio was wrong! "+horatio1Time+" -> "+horatio2Time, horatio2Time <= horatio1Time);
     }
 
+    /**
+     * Precompiled script must not be compiled again when evaluated. Concurrent precompilation of the same
+     * script must compile it only once.
+     */
+    @Test
+    public void testPrecompile() throws Exception {
+    	final String TEST_NAME = "testPrecompile";
+    	TestUtil.displayTestTitle(TEST_NAME);
+
+    	// GIVEN
+    	Jsr223ScriptEvaluator freshEvaluator = new Jsr223ScriptEvaluator("groovy", getPrismContext(),
+				KeyStoreBasedProtectorBuilder.create(getPrismContext()).buildOnly(), LocalizationTestUtil.getLocalizationService());
+    	String code = parseScriptType("expression-string-variables.xml").getCode();
+    	InternalMonitor.reset();
+
+    	// WHEN
+    	List<Thread> threads = new ArrayList<>();
+    	List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+    	for (int i = 0; i < 5; i++) {
+    		Thread thread = new Thread(() -> {
+    			try {
+    				freshEvaluator.precompile(code, TEST_NAME);
+				} catch (Throwable t) {
+    				failures.add(t);
+				}
+			});
+    		thread.start();
+    		threads.add(thread);
+		}
+    	for (Thread thread : threads) {
+    		thread.join();
+		}
+		boolean compiledAgain = freshEvaluator.precompile(code, TEST_NAME);
+
+    	// THEN
+    	System.out.println(freshEvaluator.debugDump());
+    	assertTrue("Unexpected failures: " + failures, failures.isEmpty());
+    	assertFalse("Script was compiled again", compiledAgain);
+    	assertScriptMonitor(1, 0, "precompile");
+    	assertEquals("Wrong # of cached scripts", 1, freshEvaluator.getScriptCacheSize());
+    }
+
     private void assertScriptMonitor(int expCompilations, int expExecutions, String desc) {
 		assertEquals("Unexpected number of script compilations after "+desc, expCompilations, InternalMonitor.getCount(InternalCounters.SCRIPT_COMPILE_COUNT));
 		assertEquals("Unexpected number of script executions after "+desc, expExecutions, InternalMonitor.getCount(InternalCounters.SCRIPT_EXECUTION_COUNT));
@@ -24,7 +24,9 @@ import com.evolveum.midpoint.model.api.*;
 import com.evolveum.midpoint.model.api.authentication.UserProfileService;
 import com.evolveum.midpoint.model.api.hooks.HookRegistry;
 import com.evolveum.midpoint.model.api.hooks.ReadHook;
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
 import com.evolveum.midpoint.model.common.SystemObjectCache;
+import com.evolveum.midpoint.model.common.expression.script.ScriptExpressionFactory;
 import com.evolveum.midpoint.model.impl.ModelObjectResolver;
 import com.evolveum.midpoint.model.impl.importer.ImportAccountsFromResourceTaskHandler;
 import com.evolveum.midpoint.model.impl.importer.ObjectImporter;
@@ -80,6 +82,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 import com.evolveum.midpoint.xml.ns._public.model.scripting_3.ExecuteScriptType;
 import com.evolveum.midpoint.xml.ns._public.model.scripting_3.ScriptingExpressionType;
 import com.evolveum.prism.xml.ns._public.types_3.EvaluationTimeType;
+import org.apache.commons.configuration.Configuration;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.Validate;
 import org.jetbrains.annotations.NotNull;
@@ -131,6 +134,9 @@ public class ModelController implements ModelService, TaskService, WorkflowServi
 	public static final String PROCESS_USER_TEMPLATE = CLASS_NAME_WITH_DOT + "processUserTemplate";
 	private static final String RESOLVE_REFERENCE = CLASS_NAME_WITH_DOT + "resolveReference";
 
+	// Key in <midpoint><system> section of config.xml; if true, scripts are compiled on startup (see postInit)
+	private static final String PRECOMPILE_SCRIPTS_CONFIG_KEY = "precompileScripts";
+
 	private static final Trace LOGGER = TraceManager.getTrace(ModelController.class);
 	
 	private static final Trace OP_LOGGER = TraceManager.getTrace(ModelService.OPERATION_LOGGGER_NAME);
@@ -156,6 +162,8 @@ public class ModelController implements ModelService, TaskService, WorkflowServi
 	@Autowired private EmulatedSearchProvider emulatedSearchProvider;
 	@Autowired private CacheRegistry cacheRegistry;
 	@Autowired private ClockworkMedic clockworkMedic;
+	@Autowired private ScriptExpressionFactory scriptExpressionFactory;
+	@Autowired private MidpointConfiguration midpointConfiguration;
 
 	@Autowired
 	@Qualifier("cacheRepositoryService")
@@ -1666,6 +1674,10 @@ public class ModelController implements ModelService, TaskService, WorkflowServi
 		// Initialize provisioning
 		provisioning.postInit(result);
 
+		if (isPrecompileScripts()) {
+			scriptExpressionFactory.precompileScripts(result);
+		}
+
         if (result.isUnknown()) {
 		    result.computeStatus();
         }
@@ -1674,6 +1686,11 @@ public class ModelController implements ModelService, TaskService, WorkflowServi
 		result.cleanupResult();
 	}
 
+	private boolean isPrecompileScripts() {
+		Configuration c = midpointConfiguration.getConfiguration(MidpointConfiguration.SYSTEM_CONFIGURATION);
+		return c != null && c.getBoolean(PRECOMPILE_SCRIPTS_CONFIG_KEY, false);
+	}
+
 	@Override
 	public void shutdown() {
 		
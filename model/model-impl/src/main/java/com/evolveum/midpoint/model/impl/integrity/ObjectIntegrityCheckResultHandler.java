@@ -64,6 +64,10 @@ public class ObjectIntegrityCheckResultHandler extends AbstractSearchIterativeRe
         if (tasks != null && tasks != 0) {
             throw new UnsupportedOperationException("Unsupported number of worker threads: " + tasks + ". This task cannot be run with worker threads. Please remove workerThreads extension property or set its value to 0.");
         }
+        Integer maxTasks = getMaxWorkerThreadsCount(coordinatorTask);
+        if (maxTasks != null && maxTasks != 0) {
+            throw new UnsupportedOperationException("Unsupported max number of worker threads: " + maxTasks + ". This task cannot be run with worker threads. Please remove workerThreadsMax extension property or set its value to 0.");
+        }
 
         logConfiguration("Object integrity check is starting");
     }
@@ -130,6 +130,10 @@ public class ShadowIntegrityCheckResultHandler extends AbstractSearchIterativeRe
         if (tasks != null && tasks != 0) {
             throw new UnsupportedOperationException("Unsupported number of worker threads: " + tasks + ". This task cannot be run with worker threads. Please remove workerThreads extension property or set its value to 0.");
         }
+        Integer maxTasks = getMaxWorkerThreadsCount(coordinatorTask);
+        if (maxTasks != null && maxTasks != 0) {
+            throw new UnsupportedOperationException("Unsupported max number of worker threads: " + maxTasks + ". This task cannot be run with worker threads. Please remove workerThreadsMax extension property or set its value to 0.");
+        }
 
         PrismProperty<String> diagnosePrismProperty = coordinatorTask.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_DIAGNOSE);
         if (diagnosePrismProperty == null || diagnosePrismProperty.isEmpty()) {
@@ -110,6 +110,7 @@ public class AssignmentEvaluator<AH extends AssignmentHolderType> {
 	private final PrismObject<SystemConfigurationType> systemConfiguration;
 	private final MappingEvaluator mappingEvaluator;
 	private final EvaluatedAssignmentTargetCache evaluatedAssignmentTargetCache;
+	private final RoleEvaluationCache roleEvaluationCache;			// node-wide, may be null
 	private final LifecycleStateModelType focusStateModel;
 
 	private AssignmentEvaluator(Builder<AH> builder) {
@@ -128,6 +129,7 @@ public class AssignmentEvaluator<AH extends AssignmentHolderType> {
 		systemConfiguration = builder.systemConfiguration;
 		mappingEvaluator = builder.mappingEvaluator;
 		evaluatedAssignmentTargetCache = new EvaluatedAssignmentTargetCache();
+		roleEvaluationCache = builder.roleEvaluationCache;
 		
 		LensFocusContext<AH> focusContext = lensContext.getFocusContext();
 		if (focusContext != null) {
@@ -630,6 +632,11 @@ public class AssignmentEvaluator<AH extends AssignmentHolderType> {
 
 		AssignmentType assignmentType = getAssignmentType(segment, ctx);
 		PolicyRuleType policyRuleType = assignmentType.getPolicyRule();
+		if (policyRuleType.asPrismContainerValue().isImmutable()) {
+			// Shared inducement (see RoleEvaluationCache). References to other constraints are resolved
+			// in place later (PolicyRuleProcessor), so the rule has to be private to this evaluation.
+			policyRuleType = policyRuleType.clone();
+		}
 		
 		LOGGER.trace("Collecting {} policy rule '{}' in {}", focusRule ? "focus" : "target", policyRuleType.getName(), segment.source);
 		
@@ -943,7 +950,11 @@ public class AssignmentEvaluator<AH extends AssignmentHolderType> {
 			return;
 		}
 		String subSourceDescription = targetType+" in "+segment.sourceDescription;
-		AssignmentPathSegmentImpl nextSegment = new AssignmentPathSegmentImpl(targetType, subSourceDescription, inducement, false, relationRegistry, prismContext);
+		PrismContainer<AssignmentType> cachedInducement = roleEvaluationCache != null ?
+				roleEvaluationCache.getInducementContainer(targetType, inducement) : null;
+		AssignmentPathSegmentImpl nextSegment = cachedInducement != null ?
+				new AssignmentPathSegmentImpl(targetType, subSourceDescription, cachedInducement, false, relationRegistry, prismContext) :
+				new AssignmentPathSegmentImpl(targetType, subSourceDescription, inducement, false, relationRegistry, prismContext);
 		// note that 'old' and 'new' values for assignment in nextSegment are the same
 		boolean nextIsMatchingOrder = AssignmentPathSegmentImpl.computeMatchingOrder(
 				segment.getEvaluationOrder(), nextSegment.getAssignmentNew());
@@ -1340,6 +1351,7 @@ public class AssignmentEvaluator<AH extends AssignmentHolderType> {
 		private boolean loginMode = false;
 		private PrismObject<SystemConfigurationType> systemConfiguration;
 		private MappingEvaluator mappingEvaluator;
+		private RoleEvaluationCache roleEvaluationCache;
 
 		public Builder() {
 		}
@@ -1414,6 +1426,11 @@ public class AssignmentEvaluator<AH extends AssignmentHolderType> {
 			return this;
 		}
 
+		public Builder<AH> roleEvaluationCache(RoleEvaluationCache val) {
+			roleEvaluationCache = val;
+			return this;
+		}
+
 		public AssignmentEvaluator<AH> build() {
 			return new AssignmentEvaluator<>(this);
 		}
@@ -286,11 +286,30 @@ public class AssignmentPathSegmentImpl implements AssignmentPathSegment {
 		this(source, sourceDescription, createAssignmentIdi(assignment), isAssignment, false, relationRegistry, prismContext);
 	}
 
+	/**
+	 * Creates the segment from already prepared single-valued assignment container, e.g. a shared one
+	 * provided by RoleEvaluationCache. The container is not cloned.
+	 */
+	AssignmentPathSegmentImpl(ObjectType source, String sourceDescription, PrismContainer<AssignmentType> assignmentContainer,
+			boolean isAssignment, RelationRegistry relationRegistry, PrismContext prismContext) {
+		this(source, sourceDescription, createAssignmentIdi(assignmentContainer), isAssignment, false, relationRegistry, prismContext);
+	}
+
 	private static ItemDeltaItem<PrismContainerValue<AssignmentType>, PrismContainerDefinition<AssignmentType>> createAssignmentIdi(
 			AssignmentType assignment) {
+		try {
+			return createAssignmentIdi(LensUtil.createAssignmentSingleValueContainerClone(assignment));
+		} catch (SchemaException e) {
+			// should not really occur!
+			throw new SystemException("Couldn't create assignment IDI: " + e.getMessage(), e);
+		}
+	}
+
+	private static ItemDeltaItem<PrismContainerValue<AssignmentType>, PrismContainerDefinition<AssignmentType>> createAssignmentIdi(
+			PrismContainer<AssignmentType> assignmentContainer) {
 		try {
 			ItemDeltaItem<PrismContainerValue<AssignmentType>, PrismContainerDefinition<AssignmentType>> idi = new ItemDeltaItem<>();
-			idi.setItemOld(LensUtil.createAssignmentSingleValueContainerClone(assignment));
+			idi.setItemOld(assignmentContainer);
 			idi.recompute();
 			return idi;
 		} catch (SchemaException e) {
@@ -23,6 +23,7 @@ import static com.evolveum.midpoint.prism.PrismContainerValue.asContainerables;
 import static com.evolveum.midpoint.schema.internals.InternalsConfig.consistencyChecks;
 
 import com.evolveum.midpoint.common.Clock;
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
 import com.evolveum.midpoint.common.SynchronizationUtils;
 import com.evolveum.midpoint.prism.delta.*;
 import com.evolveum.midpoint.prism.equivalence.EquivalenceStrategy;
@@ -37,6 +38,7 @@ import com.evolveum.midpoint.repo.common.expression.ExpressionEvaluationContext;
 import com.evolveum.midpoint.repo.common.expression.ExpressionFactory;
 import com.evolveum.midpoint.repo.common.expression.ExpressionUtil;
 import com.evolveum.midpoint.repo.common.expression.ExpressionVariables;
+import com.evolveum.midpoint.repo.common.util.RepoCommonUtils;
 import com.evolveum.midpoint.model.api.ModelAuthorizationAction;
 import com.evolveum.midpoint.model.api.ModelExecuteOptions;
 import com.evolveum.midpoint.model.api.ProgressInformation;
@@ -85,17 +87,21 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 import com.evolveum.prism.xml.ns._public.types_3.ProtectedStringType;
 import com.evolveum.prism.xml.ns._public.types_3.RawType;
 
+import org.apache.commons.configuration.Configuration;
 import org.apache.commons.lang.BooleanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.xml.bind.JAXBElement;
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
@@ -115,6 +121,20 @@ public class ChangeExecutor {
 	private static final String OPERATION_LINK_ACCOUNT = ChangeExecutor.class.getName() + ".linkShadow";
 	private static final String OPERATION_UNLINK_ACCOUNT = ChangeExecutor.class.getName() + ".unlinkShadow";
 	private static final String OPERATION_UPDATE_SITUATION_IN_SHADOW = ChangeExecutor.class.getName() + ".updateSituationInShadow";
+	private static final String OPERATION_EXECUTE_PROJECTION_IN_PARALLEL = OPERATION_EXECUTE_PROJECTION + ".parallel";
+
+	/**
+	 * Number of threads used to execute projection deltas of one wave in parallel. Zero (the default) means
+	 * that the deltas are executed sequentially, in the thread that executes the operation.
+	 */
+	public static final String PROJECTION_EXECUTION_THREADS_CONFIG_KEY = "projectionExecutionThreads";
+
+	/**
+	 * Max number of deltas executed in parallel on a single resource (within one operation).
+	 */
+	public static final String PROJECTION_EXECUTION_THREADS_PER_RESOURCE_CONFIG_KEY = "projectionExecutionThreadsPerResource";
+
+	private static final int DEFAULT_PROJECTION_EXECUTION_THREADS_PER_RESOURCE = 1;
 
 	@Autowired private transient TaskManager taskManager;
 	@Autowired @Qualifier("cacheRepositoryService") private transient RepositoryService cacheRepositoryService;
@@ -127,10 +147,13 @@ public class ChangeExecutor {
 	@Autowired private ModelObjectResolver objectResolver;
 	@Autowired private OperationalDataManager metadataManager;
 	@Autowired private CredentialsProcessor credentialsProcessor;
+	@Autowired private MidpointConfiguration midpointConfiguration;
 
 	private PrismObjectDefinition<UserType> userDefinition = null;
 	private PrismObjectDefinition<ShadowType> shadowDefinition = null;
 
+	private final ProjectionThreadPool projectionExecutionPool = new ProjectionThreadPool("projection-executor");
+
 	@PostConstruct
 	private void locateDefinitions() {
 		userDefinition = prismContext.getSchemaRegistry()
@@ -139,6 +162,27 @@ public class ChangeExecutor {
 				.findObjectDefinitionByCompileTimeClass(ShadowType.class);
 	}
 
+	@PostConstruct
+	private void initializeProjectionExecutor() {
+		Configuration c = midpointConfiguration.getConfiguration(MidpointConfiguration.SYSTEM_CONFIGURATION);
+		int threads = c != null ? c.getInt(PROJECTION_EXECUTION_THREADS_CONFIG_KEY, 0) : 0;
+		int threadsPerResource = c != null ? c.getInt(PROJECTION_EXECUTION_THREADS_PER_RESOURCE_CONFIG_KEY,
+				DEFAULT_PROJECTION_EXECUTION_THREADS_PER_RESOURCE) : DEFAULT_PROJECTION_EXECUTION_THREADS_PER_RESOURCE;
+		setProjectionExecutionThreads(threads, threadsPerResource);
+	}
+
+	/**
+	 * Switches parallel execution of projection deltas on (threads > 0) or off (threads = 0).
+	 */
+	public void setProjectionExecutionThreads(int threads, int threadsPerResource) {
+		projectionExecutionPool.setThreads(threads, threadsPerResource);
+	}
+
+	@PreDestroy
+	private void shutdownProjectionExecutor() {
+		projectionExecutionPool.shutdown();
+	}
+
 	// returns true if current operation has to be restarted, see
 	// ObjectAlreadyExistsException handling (TODO specify more exactly)
 	public <O extends ObjectType> boolean executeChanges(LensContext<O> context, Task task,
@@ -234,12 +278,21 @@ public class ChangeExecutor {
 			context.checkAbortRequested();
 
 			boolean restartRequested = false;
+			Throwable criticalException = null;
+
+			Map<LensProjectionContext, ParallelExecution> executedInParallel = executeProjectionDeltasInParallel(context, task);
 
 			for (LensProjectionContext projCtx : context.getProjectionContexts()) {
 				if (projCtx.getWave() != context.getExecutionWave()) {
 					continue;
 				}
 
+				if ((restartRequested || criticalException != null) && !executedInParallel.containsKey(projCtx)) {
+					// Projections executed in parallel have to be finished (e.g. linked) even if restart was requested
+					// or other projection failed critically.
+					continue;
+				}
+
 				if (!projCtx.isCanProject()) {
 					continue;
 				}
@@ -263,17 +316,15 @@ public class ChangeExecutor {
 					
 					context.checkAbortRequested();
 
-					context.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
-							projCtx.getResourceShadowDiscriminator(), ENTERING));
+					if (!executedInParallel.containsKey(projCtx)) {
+						// for projections executed in parallel this was reported before the execution started
+						context.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
+								projCtx.getResourceShadowDiscriminator(), ENTERING));
+					}
 
 					executeReconciliationScript(projCtx, context, BeforeAfterType.BEFORE, task, subResult);
 
-					ObjectDelta<ShadowType> projDelta = projCtx.getExecutableDelta();
-
-					if (shouldBeDeleted(projDelta, projCtx)) {
-						projDelta = prismContext.deltaFactory().object().createDeleteDelta(projCtx.getObjectTypeClass(), projCtx.getOid()
-						);
-					}
+					ObjectDelta<ShadowType> projDelta = getProjectionDeltaToExecute(projCtx);
 
 					if (projCtx.getSynchronizationPolicyDecision() == SynchronizationPolicyDecision.BROKEN) {
 						if (context.getFocusContext() != null
@@ -325,7 +376,8 @@ public class ChangeExecutor {
 							}
 						}
 
-						shadowAfterModification = executeDelta(projDelta, projCtx, context, null, null, projCtx.getResource(), task, subResult);
+						shadowAfterModification = executeProjectionDelta(projDelta, projCtx, context,
+								executedInParallel.get(projCtx), task, subResult);
 						
 						if (projCtx.isAdd() && shadowAfterModification != null) {
 							projCtx.setExists(true);
@@ -353,8 +405,20 @@ public class ChangeExecutor {
 						updateLinks(focusContext, projCtx, shadowAfterModification, task, subResult);
 					}
 					
-					ModelImplUtils.handleConnectorErrorCriticality(projCtx.getResource(), e, subResult);
-					
+					try {
+						ModelImplUtils.handleConnectorErrorCriticality(projCtx.getResource(), e, subResult);
+					} catch (Throwable critical) {
+						if (executedInParallel.isEmpty()) {
+							throw critical;
+						}
+						// Other projections of this wave were already executed on their resources, so they have to be
+						// finished (e.g. linked) before the critical error is propagated.
+						LOGGER.debug("Critical error for projection {}, finishing projections executed in parallel first",
+								projCtx.toHumanReadableString());
+						if (criticalException == null) {
+							criticalException = critical;
+						}
+					}
 
 				} catch (ObjectAlreadyExistsException e) {
 					
@@ -393,7 +457,9 @@ public class ChangeExecutor {
 					restartRequested = true;
 					LOGGER.debug("ObjectAlreadyExistsException for projection {}, requesting projector restart", projCtx.toHumanReadableString());
 					// we will process remaining projections when retrying the wave
-					break; 
+					if (executedInParallel.isEmpty()) {
+						break;
+					}
 
 				} finally {
 					context.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
@@ -403,6 +469,9 @@ public class ChangeExecutor {
 
 			// Result computation here needs to be slightly different
 			result.computeStatusComposite();
+			if (criticalException != null) {
+				RepoCommonUtils.throwException(criticalException, result);
+			}
 			return restartRequested;
 
 		} catch (Throwable t) {
@@ -513,6 +582,110 @@ public class ChangeExecutor {
 		}
 	}
 
+	private ObjectDelta<ShadowType> getProjectionDeltaToExecute(LensProjectionContext projCtx) {
+		ObjectDelta<ShadowType> projDelta = projCtx.getExecutableDelta();
+		if (shouldBeDeleted(projDelta, projCtx)) {
+			projDelta = prismContext.deltaFactory().object().createDeleteDelta(projCtx.getObjectTypeClass(), projCtx.getOid());
+		}
+		return projDelta;
+	}
+
+	/**
+	 * Execution of a projection delta that was done in advance (in parallel with other projection deltas).
+	 * The outcome is used when the projection is processed in the usual (sequential) order.
+	 */
+	private static class ParallelExecution {
+		private final OperationResult result = new OperationResult(OPERATION_EXECUTE_PROJECTION_IN_PARALLEL);
+		private PrismObject<ShadowType> shadowAfterModification;
+		private Throwable exception;
+	}
+
+	/**
+	 * Executes deltas of independent projections of the current wave in parallel. Only the delta execution
+	 * itself (i.e. the resource operation) is done here. Everything around it, i.e. reconciliation scripts,
+	 * link/unlink bookkeeping, progress reporting and result processing, is done in the main loop in the
+	 * usual order.
+	 *
+	 * Dependencies between projections are expressed by waves (see DependencyProcessor), so projections of one
+	 * wave are independent of each other. Higher-order contexts (that share resource object with a lower-order one),
+	 * broken contexts and contexts with reconciliation scripts are left for the main loop.
+	 */
+	private <O extends ObjectType> Map<LensProjectionContext, ParallelExecution> executeProjectionDeltasInParallel(
+			LensContext<O> context, Task task) throws SchemaException {
+		ProjectionThreadPool.Batch batch = projectionExecutionPool.startBatch();
+		if (batch == null) {
+			return Collections.emptyMap();
+		}
+		Map<LensProjectionContext, ObjectDelta<ShadowType>> toExecute = new IdentityHashMap<>();
+		for (LensProjectionContext projCtx : context.getProjectionContexts()) {
+			if (isExecutableInParallel(context, projCtx)) {
+				ObjectDelta<ShadowType> projDelta = getProjectionDeltaToExecute(projCtx);
+				if (projDelta != null && !projDelta.isEmpty()) {
+					toExecute.put(projCtx, projDelta);
+				}
+			}
+		}
+		if (toExecute.size() < 2) {
+			return Collections.emptyMap();
+		}
+
+		LOGGER.trace("Executing deltas of {} projections in parallel", toExecute.size());
+		Map<LensProjectionContext, ParallelExecution> executions = new IdentityHashMap<>();
+		// The requestee is set here for all the workers, so they do not overwrite it for each other.
+		ModelImplUtils.setRequestee(task, context);
+		try {
+			for (Map.Entry<LensProjectionContext, ObjectDelta<ShadowType>> entry : toExecute.entrySet()) {
+				LensProjectionContext projCtx = entry.getKey();
+				ObjectDelta<ShadowType> projDelta = entry.getValue();
+				ParallelExecution execution = new ParallelExecution();
+				executions.put(projCtx, execution);
+				// Progress is reported from this thread; the listeners need not be thread-safe.
+				context.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
+						projCtx.getResourceShadowDiscriminator(), ENTERING));
+				batch.submit(projCtx.getResourceOid(),
+						() -> execution.shadowAfterModification = executeDelta(projDelta, projCtx, context, null, null,
+								projCtx.getResource(), task, execution.result),
+						t -> execution.exception = t);
+			}
+			batch.waitForCompletion();
+		} finally {
+			ModelImplUtils.clearRequestee(task);
+		}
+		return executions;
+	}
+
+	private <O extends ObjectType> boolean isExecutableInParallel(LensContext<O> context, LensProjectionContext projCtx) {
+		if (projCtx.getWave() != context.getExecutionWave() || !projCtx.isCanProject()
+				|| projCtx.getSynchronizationPolicyDecision() == SynchronizationPolicyDecision.IGNORE
+				|| projCtx.getSynchronizationPolicyDecision() == SynchronizationPolicyDecision.BROKEN
+				|| projCtx.getResourceOid() == null) {
+			return false;
+		}
+		ResourceShadowDiscriminator discr = projCtx.getResourceShadowDiscriminator();
+		if (discr == null || discr.getOrder() > 0) {
+			return false;
+		}
+		ResourceType resource = projCtx.getResource();
+		return resource != null && (!projCtx.isDoReconciliation() || resource.getScripts() == null);
+	}
+
+	private <O extends ObjectType> PrismObject<ShadowType> executeProjectionDelta(ObjectDelta<ShadowType> projDelta,
+			LensProjectionContext projCtx, LensContext<O> context, ParallelExecution execution, Task task,
+			OperationResult result) throws ObjectAlreadyExistsException, ObjectNotFoundException, SchemaException,
+			CommunicationException, ConfigurationException, SecurityViolationException, PolicyViolationException,
+			ExpressionEvaluationException, PreconditionViolationException {
+		if (execution == null) {
+			return executeDelta(projDelta, projCtx, context, null, null, projCtx.getResource(), task, result);
+		}
+		for (OperationResult subresult : execution.result.getSubresults()) {
+			result.addSubresult(subresult);
+		}
+		if (execution.exception != null) {
+			RepoCommonUtils.throwException(execution.exception, result);
+		}
+		return execution.shadowAfterModification;
+	}
+
 	private boolean shouldBeDeleted(ObjectDelta<ShadowType> accDelta, LensProjectionContext accCtx) {
 		return (accDelta == null || accDelta.isEmpty())
 		&& (accCtx.getSynchronizationPolicyDecision() == SynchronizationPolicyDecision.DELETE
@@ -1523,9 +1696,9 @@ public class ChangeExecutor {
 			scripts = prepareScripts(object, context, objectContext, ProvisioningOperationTypeType.ADD,
 					resource, task, result);
 		}
-		ModelImplUtils.setRequestee(task, context);
+		boolean requesteeSet = setRequesteeIfNeeded(task, context);
 		String oid = provisioning.addObject(object, scripts, options, task, result);
-		ModelImplUtils.clearRequestee(task);
+		clearRequesteeIfSet(task, requesteeSet);
 		return oid;
 	}
 
@@ -1552,9 +1725,9 @@ public class ChangeExecutor {
 			scripts = prepareScripts(shadowToModify, context, objectContext,
 					ProvisioningOperationTypeType.DELETE, resource, task, result);
 		}
-		ModelImplUtils.setRequestee(task, context);
+		boolean requesteeSet = setRequesteeIfNeeded(task, context);
 		PrismObject<T> objectAfterModification = provisioning.deleteObject(objectTypeClass, oid, options, scripts, task, result);
-		ModelImplUtils.clearRequestee(task);
+		clearRequesteeIfSet(task, requesteeSet);
 		return objectAfterModification;
 	}
 
@@ -1586,13 +1759,33 @@ public class ChangeExecutor {
 			scripts = prepareScripts(shadowToModify, context, objectContext,
 					ProvisioningOperationTypeType.MODIFY, resource, task, result);
 		}
-		ModelImplUtils.setRequestee(task, context);
+		boolean requesteeSet = setRequesteeIfNeeded(task, context);
 		String changedOid = provisioning.modifyObject(objectTypeClass, oid, modifications, scripts, options,
 				task, result);
-		ModelImplUtils.clearRequestee(task);
+		clearRequesteeIfSet(task, requesteeSet);
 		return changedOid;
 	}
 
+	/**
+	 * Sets the requestee, unless it is already set to the focus of this context (this is the case when projection
+	 * deltas are executed in parallel). Returns true if it was set, i.e. if it should be cleared afterwards.
+	 */
+	private <F extends ObjectType> boolean setRequesteeIfNeeded(Task task, LensContext<F> context) {
+		LensFocusContext<F> focusContext = context != null ? context.getFocusContext() : null;
+		if (task != null && focusContext != null && task.getRequestee() != null
+				&& task.getRequestee() == focusContext.getObjectAny()) {
+			return false;
+		}
+		ModelImplUtils.setRequestee(task, context);
+		return true;
+	}
+
+	private void clearRequesteeIfSet(Task task, boolean requesteeSet) {
+		if (requesteeSet) {
+			ModelImplUtils.clearRequestee(task);
+		}
+	}
+
 	private <F extends ObjectType, T extends ObjectType> OperationProvisioningScriptsType prepareScripts(
 			PrismObject<T> changedObject, LensContext<F> context, LensElementContext<T> objectContext,
 			ProvisioningOperationTypeType operation, ResourceType resource, Task task, OperationResult result)
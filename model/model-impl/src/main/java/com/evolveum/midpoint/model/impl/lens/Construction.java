@@ -68,6 +68,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ConstructionType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.LayerType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.MappingType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceAttributeDefinitionType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceObjectAssociationType;
@@ -314,7 +315,11 @@ public class Construction<AH extends AssignmentHolderType> extends AbstractConst
 						+ ", resource : " + getConstructionType().getResource() + ", resourceRef: "
 						+ getConstructionType().getResourceRef());
 			}
-			getConstructionType().getResourceRef().setOid(resource.getOid());
+			// The construction bean may be shared (see RoleEvaluationCache), so it is touched only if really needed.
+			ObjectReferenceType resourceRef = getConstructionType().getResourceRef();
+			if (resourceRef != null && !resource.getOid().equals(resourceRef.getOid())) {
+				resourceRef.setOid(resource.getOid());
+			}
 		}
 		return resource;
 	}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.impl.lens;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.evolveum.midpoint.util.FailableRunnable;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+/**
+ * Threads used to work on projections of a single operation in parallel, e.g. to load them from resources
+ * or to execute their deltas. The work is done under the security context of the thread that submitted it.
+ * The number of threads working on the same resource (within one batch) is limited.
+ */
+public class ProjectionThreadPool {
+
+	private static final Trace LOGGER = TraceManager.getTrace(ProjectionThreadPool.class);
+
+	private final String name;
+
+	private volatile ExecutorService executor;			// null if the pool is switched off
+	private volatile int threadsPerResource = 1;
+
+	public ProjectionThreadPool(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Switches the pool on (threads > 0) or off (threads = 0). Batches already started are finished
+	 * by the threads they were started with.
+	 */
+	public synchronized void setThreads(int threads, int threadsPerResource) {
+		shutdown();
+		this.threadsPerResource = Math.max(1, threadsPerResource);
+		if (threads > 0) {
+			LOGGER.info("Starting {} with {} threads ({} per resource)", name, threads, this.threadsPerResource);
+			AtomicInteger threadNumber = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(threads, r -> {
+				Thread t = new Thread(r, name + "-" + threadNumber.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Returns null if the pool is switched off.
+	 */
+	public Batch startBatch() {
+		ExecutorService currentExecutor = executor;
+		return currentExecutor != null ? new Batch(currentExecutor, threadsPerResource) : null;
+	}
+
+	public class Batch {
+
+		private final ExecutorService executor;
+		private final int threadsPerResource;
+		private final Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+		private final Map<String, Semaphore> resourceSemaphores = new HashMap<>();
+		private final List<Future<?>> futures = new ArrayList<>();
+
+		private Batch(ExecutorService executor, int threadsPerResource) {
+			this.executor = executor;
+			this.threadsPerResource = threadsPerResource;
+		}
+
+		/**
+		 * Exception thrown by the work is passed to the exception handler (in the worker thread).
+		 */
+		public void submit(String resourceOid, FailableRunnable work, Consumer<Throwable> exceptionHandler) {
+			Semaphore resourceSemaphore = resourceSemaphores.computeIfAbsent(String.valueOf(resourceOid),
+					oid -> new Semaphore(threadsPerResource));
+			futures.add(executor.submit(() -> {
+				SecurityContext securityContext = SecurityContextHolder.createEmptyContext();
+				securityContext.setAuthentication(authentication);
+				SecurityContextHolder.setContext(securityContext);
+				try {
+					resourceSemaphore.acquire();
+					try {
+						work.run();
+					} finally {
+						resourceSemaphore.release();
+					}
+				} catch (Throwable t) {
+					exceptionHandler.accept(t);
+				} finally {
+					SecurityContextHolder.clearContext();
+				}
+			}));
+		}
+
+		public void waitForCompletion() {
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new SystemException("Interrupted while waiting for " + name, e);
+				} catch (ExecutionException e) {
+					throw new SystemException("Unexpected exception in " + name + ": " + e.getMessage(), e);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.impl.lens;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.configuration.Configuration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
+import com.evolveum.midpoint.prism.PrismContainer;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheListener;
+import com.evolveum.midpoint.repo.common.CacheRegistry;
+import com.evolveum.midpoint.repo.common.Cacheable;
+import com.evolveum.midpoint.util.DebugDumpable;
+import com.evolveum.midpoint.util.DebugUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AssignmentHolderType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AssignmentType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ConstructionType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Node-wide cache of the condition-independent parts of role hierarchy expansion.
+ *
+ * When an inducement is followed, AssignmentEvaluator wraps a copy of it into a single-valued container
+ * (so paths without container IDs work). Doing this again for each focus that has the role is a waste:
+ * the result depends only on the role object. So the prepared containers are kept here, immutable,
+ * keyed by role OID, version and inducement ID. Anything that depends on the focus (conditions, mappings,
+ * evaluation order, validity) is still evaluated for each focus.
+ *
+ * Entries are checked against the version of the role being evaluated, so a stale entry is never used
+ * even if the role was changed on another node. Local changes invalidate the entries via CacheDispatcher.
+ *
+ * The cache is disabled by default. It is enabled by setting midpoint/system/roleEvaluationCacheMaxSize
+ * (max number of cached roles) to a positive number.
+ */
+@Component
+public class RoleEvaluationCache implements CacheListener, Cacheable, DebugDumpable {
+
+	private static final Trace LOGGER = TraceManager.getTrace(RoleEvaluationCache.class);
+
+	public static final String MAX_SIZE_CONFIG_KEY = "roleEvaluationCacheMaxSize";
+
+	@Autowired private MidpointConfiguration midpointConfiguration;
+	@Autowired private CacheDispatcher cacheDispatcher;
+	@Autowired private CacheRegistry cacheRegistry;
+
+	private volatile int maxSize;
+	private final Map<String, CachedRole> cache = new ConcurrentHashMap<>();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	private static class CachedRole {
+		private final String version;
+		private final Map<Long, PrismContainer<AssignmentType>> inducements = new ConcurrentHashMap<>();
+
+		private CachedRole(String version) {
+			this.version = version;
+		}
+	}
+
+	@PostConstruct
+	public void initialize() {
+		Configuration c = midpointConfiguration.getConfiguration(MidpointConfiguration.SYSTEM_CONFIGURATION);
+		maxSize = c != null ? c.getInt(MAX_SIZE_CONFIG_KEY, 0) : 0;
+		LOGGER.debug("Role evaluation cache max size: {}", maxSize);
+		cacheDispatcher.registerCacheListener(this);
+		cacheRegistry.registerCacheableService(this);
+	}
+
+	@PreDestroy
+	public void destroy() {
+		cacheDispatcher.unregisterCacheListener(this);
+	}
+
+	public boolean isEnabled() {
+		return maxSize > 0;
+	}
+
+	/**
+	 * Changes the max size at runtime (e.g. in tests). Setting it to zero disables the cache; all entries are dropped.
+	 */
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		cache.clear();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the (immutable) single-valued container for given inducement of given role, or null
+	 * if the inducement cannot be cached. The caller must not modify the returned container.
+	 */
+	PrismContainer<AssignmentType> getInducementContainer(AssignmentHolderType role, AssignmentType inducement)
+			throws SchemaException {
+		if (!isEnabled()) {
+			return null;
+		}
+		String oid = role.getOid();
+		String version = role.getVersion();
+		Long id = inducement.getId();
+		if (oid == null || version == null || id == null || !isCacheable(inducement)) {
+			return null;
+		}
+		CachedRole cachedRole = cache.get(oid);
+		if (cachedRole == null || !version.equals(cachedRole.version)) {
+			cachedRole = new CachedRole(version);
+			makeRoomFor(oid);
+			cache.put(oid, cachedRole);
+		}
+		PrismContainer<AssignmentType> container = cachedRole.inducements.get(id);
+		if (container != null) {
+			hits.increment();
+			return container;
+		}
+		misses.increment();
+		container = LensUtil.createAssignmentSingleValueContainerClone(inducement);
+		container.setImmutable(true);
+		PrismContainer<AssignmentType> existing = cachedRole.inducements.putIfAbsent(id, container);
+		return existing != null ? existing : container;
+	}
+
+	/**
+	 * Constructions with dynamic resource references (filter without OID) get the resolved OID
+	 * written back into them during evaluation, so they cannot be shared.
+	 */
+	private boolean isCacheable(AssignmentType inducement) {
+		ConstructionType construction = inducement.getConstruction();
+		if (construction == null) {
+			return true;
+		}
+		ObjectReferenceType resourceRef = construction.getResourceRef();
+		return resourceRef != null && resourceRef.getOid() != null;
+	}
+
+	private void makeRoomFor(String oid) {
+		if (cache.size() < maxSize || cache.containsKey(oid)) {
+			return;
+		}
+		// No LRU here: roles are evicted in an arbitrary order. It is expected that the limit is set so
+		// that all (frequently used) roles fit in.
+		Iterator<String> iterator = cache.keySet().iterator();
+		if (iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+		}
+	}
+
+	@Override
+	public <O extends ObjectType> void invalidateCache(Class<O> type, String oid) {
+		if (type != null && !AssignmentHolderType.class.isAssignableFrom(type) && !type.isAssignableFrom(AssignmentHolderType.class)) {
+			return;
+		}
+		invalidations.increment();
+		if (oid != null) {
+			cache.remove(oid);
+		} else {
+			cache.clear();
+		}
+	}
+
+	@Override
+	public void clearCache() {
+		cache.clear();
+	}
+
+	@Override
+	public String debugDump(int indent) {
+		StringBuilder sb = new StringBuilder();
+		DebugUtil.indentDebugDump(sb, indent);
+		sb.append("RoleEvaluationCache\n");
+		DebugUtil.debugDumpWithLabelLn(sb, "maxSize", maxSize, indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "roles", cache.size(), indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "hits", hits.sum(), indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "misses", misses.sum(), indent + 1);
+		DebugUtil.debugDumpWithLabel(sb, "invalidations", invalidations.sum(), indent + 1);
+		return sb.toString();
+	}
+}
@@ -17,9 +17,16 @@ package com.evolveum.midpoint.model.impl.lens.projector;
 
 import static com.evolveum.midpoint.schema.internals.InternalsConfig.consistencyChecks;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import com.evolveum.midpoint.prism.*;
 import com.evolveum.midpoint.prism.delta.*;
@@ -28,12 +35,15 @@ import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.schema.internals.InternalsConfig;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 
+import org.apache.commons.configuration.Configuration;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
+
 import com.evolveum.midpoint.common.refinery.RefinedObjectClassDefinition;
 import com.evolveum.midpoint.model.api.ModelExecuteOptions;
 import com.evolveum.midpoint.model.api.context.SynchronizationPolicyDecision;
@@ -46,10 +56,12 @@ import com.evolveum.midpoint.model.impl.lens.LensFocusContext;
 import com.evolveum.midpoint.model.impl.lens.LensObjectDeltaOperation;
 import com.evolveum.midpoint.model.impl.lens.LensProjectionContext;
 import com.evolveum.midpoint.model.impl.lens.LensUtil;
+import com.evolveum.midpoint.model.impl.lens.ProjectionThreadPool;
 import com.evolveum.midpoint.model.impl.lens.SynchronizationIntent;
 import com.evolveum.midpoint.model.impl.security.SecurityHelper;
 import com.evolveum.midpoint.provisioning.api.ProvisioningService;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.common.util.RepoCommonUtils;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.PointInTimeType;
 import com.evolveum.midpoint.schema.ResourceShadowDiscriminator;
@@ -68,6 +80,7 @@ import com.evolveum.midpoint.util.exception.ExpressionEvaluationException;
 import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.PolicyViolationException;
+import com.evolveum.midpoint.util.exception.PreconditionViolationException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.exception.SecurityViolationException;
 import com.evolveum.midpoint.util.exception.SystemException;
@@ -94,11 +107,49 @@ public class ContextLoader {
 	@Autowired private PrismContext prismContext;
 	@Autowired private SecurityHelper securityHelper;
 	@Autowired private ClockworkMedic medic;
+	@Autowired private MidpointConfiguration midpointConfiguration;
 
 	private static final Trace LOGGER = TraceManager.getTrace(ContextLoader.class);
 
 	private static final String OPERATION_LOAD = ContextLoader.class.getName()+".load";
 	private static final String OPERATION_LOAD_PROJECTION = ContextLoader.class.getName()+".loadProjection";
+	private static final String OPERATION_PREFETCH_PROJECTION = ContextLoader.class.getName()+".prefetchProjection";
+
+	/**
+	 * Number of threads used to fetch projections from resources in parallel. Zero (the default) means that
+	 * the projections are fetched sequentially, in the thread that executes the operation.
+	 */
+	public static final String PROJECTION_LOAD_THREADS_CONFIG_KEY = "projectionLoadThreads";
+
+	/**
+	 * Max number of parallel fetches from a single resource (within one operation).
+	 */
+	public static final String PROJECTION_LOAD_THREADS_PER_RESOURCE_CONFIG_KEY = "projectionLoadThreadsPerResource";
+
+	private static final int DEFAULT_PROJECTION_LOAD_THREADS_PER_RESOURCE = 2;
+
+	private final ProjectionThreadPool projectionLoadPool = new ProjectionThreadPool("projection-loader");
+
+	@PostConstruct
+	public void initialize() {
+		Configuration c = midpointConfiguration.getConfiguration(MidpointConfiguration.SYSTEM_CONFIGURATION);
+		int threads = c != null ? c.getInt(PROJECTION_LOAD_THREADS_CONFIG_KEY, 0) : 0;
+		int threadsPerResource = c != null ? c.getInt(PROJECTION_LOAD_THREADS_PER_RESOURCE_CONFIG_KEY,
+				DEFAULT_PROJECTION_LOAD_THREADS_PER_RESOURCE) : DEFAULT_PROJECTION_LOAD_THREADS_PER_RESOURCE;
+		setProjectionLoadThreads(threads, threadsPerResource);
+	}
+
+	/**
+	 * Switches parallel loading of projections on (threads > 0) or off (threads = 0).
+	 */
+	public void setProjectionLoadThreads(int threads, int threadsPerResource) {
+		projectionLoadPool.setThreads(threads, threadsPerResource);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		projectionLoadPool.shutdown();
+	}
 
 	public <F extends ObjectType> void load(LensContext<F> context, String activityDescription,
 			Task task, OperationResult parentResult)
@@ -160,13 +211,14 @@ public class ContextLoader {
 	    	
 	    	if (consistencyChecks) context.checkConsistence();
 	
+	    	Map<LensProjectionContext, PrefetchedProjection> prefetched = prefetchProjections(context, task);
 	    	for (LensProjectionContext projectionContext: context.getProjectionContexts()) {
 	            context.checkAbortRequested();
 	            // TODO: not perfect. Practically, we want loadProjection operation to contain all the projection
 	            // results. But for that we would need code restructure.
 	            OperationResult projectionResult = result.createMinorSubresult(OPERATION_LOAD_PROJECTION);
 	            try {
-	            	finishLoadOfProjectionContext(context, projectionContext, task, projectionResult);
+	            	finishLoadOfProjectionContext(context, projectionContext, prefetched.get(projectionContext), task, projectionResult);
 	            } catch (Throwable e) {
 	            	projectionResult.recordFatalError(e);
 	    			throw e;
@@ -241,7 +293,7 @@ public class ContextLoader {
 	public <F extends ObjectType> void makeSureProjectionIsLoaded(LensContext<F> context,
 																  LensProjectionContext projectionContext, Task task, OperationResult result) throws ObjectNotFoundException, CommunicationException, SchemaException, ConfigurationException, SecurityViolationException, ExpressionEvaluationException {
 		preprocessProjectionContext(context, projectionContext, task, result);
-		finishLoadOfProjectionContext(context, projectionContext, task, result);
+		finishLoadOfProjectionContext(context, projectionContext, null, task, result);
 	}
 
 	/**
@@ -1010,12 +1062,121 @@ public class ContextLoader {
 		return projContext;
 	}
 
+	/**
+	 * Result of fetching a projection object from provisioning, done in advance and in parallel with fetching
+	 * of other projections. The result is used (and merged into the operation result) when the projection
+	 * context is being loaded, i.e. in the usual order.
+	 */
+	private static class PrefetchedProjection {
+		private final String oid;
+		private final OperationResult result = new OperationResult(OPERATION_PREFETCH_PROJECTION);
+		private PrismObject<ShadowType> object;
+		private Throwable exception;
+
+		private PrefetchedProjection(String oid) {
+			this.oid = oid;
+		}
+	}
+
+	/**
+	 * Fetches (from resources) all projections that are going to be fully loaded in finishLoadOfProjectionContext.
+	 * This is done only if parallel loading is configured and there is more than one such projection.
+	 */
+	private <F extends ObjectType> Map<LensProjectionContext, PrefetchedProjection> prefetchProjections(LensContext<F> context,
+			Task task) {
+		ProjectionThreadPool.Batch batch = projectionLoadPool.startBatch();
+		if (batch == null) {
+			return Collections.emptyMap();
+		}
+		List<LensProjectionContext> toFetch = new ArrayList<>();
+		for (LensProjectionContext projContext : context.getProjectionContexts()) {
+			if (projContext.getSynchronizationPolicyDecision() != SynchronizationPolicyDecision.BROKEN) {
+				prepareProjectionForLoad(projContext);
+				if (projContext.isDoReconciliation() && isProjectionObjectToBeLoaded(context, projContext)) {
+					toFetch.add(projContext);
+				}
+			}
+		}
+		if (toFetch.size() < 2) {
+			return Collections.emptyMap();
+		}
+
+		LOGGER.trace("Prefetching {} projections in parallel", toFetch.size());
+		Map<LensProjectionContext, PrefetchedProjection> prefetched = new IdentityHashMap<>();
+		for (LensProjectionContext projContext : toFetch) {
+			PrefetchedProjection prefetchedProjection = new PrefetchedProjection(projContext.getOid());
+			prefetched.put(projContext, prefetchedProjection);
+			Class<ShadowType> objectTypeClass = projContext.getObjectTypeClass();
+			Collection<SelectorOptions<GetOperationOptions>> options = createProjectionLoadOptions(context, projContext);
+			batch.submit(projContext.getResourceOid(),
+					() -> prefetchedProjection.object = provisioningService.getObject(objectTypeClass,
+							prefetchedProjection.oid, options, task, prefetchedProjection.result),
+					t -> prefetchedProjection.exception = t);
+		}
+		batch.waitForCompletion();
+		return prefetched;
+	}
+
+	private void prepareProjectionForLoad(LensProjectionContext projContext) {
+		// MID-2436 (volatile objects) - as a quick but effective hack, we set reconciliation:=TRUE for volatile accounts
+		ResourceObjectTypeDefinitionType objectDefinition = projContext.getResourceObjectTypeDefinitionType();
+		if (objectDefinition != null && objectDefinition.getVolatility() == ResourceObjectVolatilityType.UNPREDICTABLE && !projContext.isDoReconciliation()) {
+			LOGGER.trace("Resource object volatility is UNPREDICTABLE => setting doReconciliation to TRUE for {}", projContext.getResourceShadowDiscriminator());
+			projContext.setDoReconciliation(true);
+		}
+	}
+
+	private <F extends ObjectType> boolean isProjectionObjectToBeLoaded(LensContext<F> context, LensProjectionContext projContext) {
+		boolean currentObjectUsable = projContext.getObjectCurrent() != null
+				&& (!projContext.isDoReconciliation() || projContext.isFullShadow());
+		return (!currentObjectUsable || needToReload(context, projContext)) && !projContext.isAdd() && projContext.getOid() != null;
+	}
+
+	private <F extends ObjectType> Collection<SelectorOptions<GetOperationOptions>> createProjectionLoadOptions(
+			LensContext<F> context, LensProjectionContext projContext) {
+		GetOperationOptions rootOptions = GetOperationOptions.createPointInTimeType(PointInTimeType.FUTURE);
+		if (projContext.isDoReconciliation()) {
+			rootOptions.setForceRefresh(true);
+			if (SchemaConstants.CHANGE_CHANNEL_DISCOVERY_URI.equals(context.getChannel())) {
+				// Avoid discovery loops
+				rootOptions.setDoNotDiscovery(true);
+			}
+		} else {
+			rootOptions.setNoFetch(true);
+		}
+		rootOptions.setAllowNotFound(true);
+		return SelectorOptions.createCollection(rootOptions);
+	}
+
+	private PrismObject<ShadowType> getProjectionObject(LensProjectionContext projContext, String oid,
+			Collection<SelectorOptions<GetOperationOptions>> options, PrefetchedProjection prefetched, Task task,
+			OperationResult result) throws ObjectNotFoundException, CommunicationException, SchemaException,
+			ConfigurationException, SecurityViolationException, ExpressionEvaluationException {
+		if (prefetched == null || !oid.equals(prefetched.oid) || !projContext.isDoReconciliation()) {
+			return provisioningService.getObject(projContext.getObjectTypeClass(), oid, options, task, result);
+		}
+		// Results of the prefetch become subresults here, so the result tree looks like the one of sequential load.
+		for (OperationResult subresult : prefetched.result.getSubresults()) {
+			result.addSubresult(subresult);
+		}
+		if (prefetched.exception != null) {
+			try {
+				// The error is already recorded in the prefetch results (e.g. ObjectNotFoundException is muted by the caller).
+				RepoCommonUtils.throwException(prefetched.exception, null);
+			} catch (PolicyViolationException | ObjectAlreadyExistsException | PreconditionViolationException e) {
+				// not thrown when getting an object from provisioning
+				throw new SystemException("Couldn't load projection " + oid + ": " + e.getMessage(), e);
+			}
+		}
+		return prefetched.object;
+	}
+
 	/**
 	 * Check reconcile flag in account sync context and set accountOld
      * variable if it's not set (from provisioning), load resource (if not set already), etc.
 	 */
 	private <F extends ObjectType> void finishLoadOfProjectionContext(LensContext<F> context,
-			LensProjectionContext projContext, Task task, OperationResult result)
+			LensProjectionContext projContext, PrefetchedProjection prefetched, Task task, OperationResult result)
 			throws ObjectNotFoundException, CommunicationException, SchemaException, ConfigurationException,
 			SecurityViolationException, ExpressionEvaluationException {
 
@@ -1023,12 +1184,7 @@ public class ContextLoader {
 			return;
 		}
 
-		// MID-2436 (volatile objects) - as a quick but effective hack, we set reconciliation:=TRUE for volatile accounts
-		ResourceObjectTypeDefinitionType objectDefinition = projContext.getResourceObjectTypeDefinitionType();
-		if (objectDefinition != null && objectDefinition.getVolatility() == ResourceObjectVolatilityType.UNPREDICTABLE && !projContext.isDoReconciliation()) {
-			LOGGER.trace("Resource object volatility is UNPREDICTABLE => setting doReconciliation to TRUE for {}", projContext.getResourceShadowDiscriminator());
-			projContext.setDoReconciliation(true);
-		}
+		prepareProjectionForLoad(projContext);
 
 		// Remember OID before the object could be wiped
 		String projectionObjectOid = projContext.getOid();
@@ -1054,25 +1210,15 @@ public class ContextLoader {
 								"Projection "+projContext.getHumanReadableName()+" with null OID, no representation and no resource OID in account sync context "+projContext);
 					}
 				} else {
-					GetOperationOptions rootOptions = GetOperationOptions.createPointInTimeType(PointInTimeType.FUTURE);
-					if (projContext.isDoReconciliation()) {
-						rootOptions.setForceRefresh(true);
-						if (SchemaConstants.CHANGE_CHANNEL_DISCOVERY_URI.equals(context.getChannel())) {
-							// Avoid discovery loops
-							rootOptions.setDoNotDiscovery(true);
-						}
-					} else {
-						rootOptions.setNoFetch(true);
-					}
-					rootOptions.setAllowNotFound(true);
-					Collection<SelectorOptions<GetOperationOptions>> options = SelectorOptions.createCollection(rootOptions);
+					Collection<SelectorOptions<GetOperationOptions>> options = createProjectionLoadOptions(context, projContext);
+					GetOperationOptions rootOptions = SelectorOptions.findRootOptions(options);
 					if (LOGGER.isTraceEnabled()) {
 						LOGGER.trace("Loading shadow {} for projection {}, options={}", projectionObjectOid, projContext.getHumanReadableName(), options);
 					}
 
 					try {
-						PrismObject<ShadowType> objectOld = provisioningService.getObject(
-								projContext.getObjectTypeClass(), projectionObjectOid, options, task, result);
+						PrismObject<ShadowType> objectOld = getProjectionObject(projContext, projectionObjectOid, options,
+								prefetched, task, result);
 						if (LOGGER.isTraceEnabled()) {
 							if (!GetOperationOptions.isNoFetch(rootOptions) && !GetOperationOptions.isRaw(rootOptions)) {
 								if (LOGGER.isTraceEnabled()) {
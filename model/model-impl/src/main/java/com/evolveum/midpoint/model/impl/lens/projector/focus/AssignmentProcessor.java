@@ -57,6 +57,7 @@ import com.evolveum.midpoint.model.impl.lens.LensContext;
 import com.evolveum.midpoint.model.impl.lens.LensFocusContext;
 import com.evolveum.midpoint.model.impl.lens.LensProjectionContext;
 import com.evolveum.midpoint.model.impl.lens.LensUtil;
+import com.evolveum.midpoint.model.impl.lens.RoleEvaluationCache;
 import com.evolveum.midpoint.prism.path.UniformItemPath;
 import com.evolveum.midpoint.prism.util.ObjectDeltaObject;
 import com.evolveum.midpoint.provisioning.api.ProvisioningService;
@@ -138,6 +139,9 @@ public class AssignmentProcessor {
     @Autowired
     private PolicyRuleProcessor policyRuleProcessor;
 
+    @Autowired
+    private RoleEvaluationCache roleEvaluationCache;
+
     private static final Trace LOGGER = TraceManager.getTrace(AssignmentProcessor.class);
 
     /**
@@ -1115,6 +1119,7 @@ public class AssignmentProcessor {
 				.activationComputer(activationComputer)
 				.now(now)
 				.systemConfiguration(context.getSystemConfiguration())
+				.roleEvaluationCache(roleEvaluationCache)
 				.build();
 	}
 
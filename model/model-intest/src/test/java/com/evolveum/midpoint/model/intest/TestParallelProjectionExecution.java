@@ -0,0 +1,416 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.intest;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import com.evolveum.icf.dummy.resource.BreakMode;
+import com.evolveum.icf.dummy.resource.DummyAccount;
+import com.evolveum.midpoint.model.api.ProgressInformation;
+import com.evolveum.midpoint.model.api.ProgressListener;
+import com.evolveum.midpoint.model.api.context.ModelContext;
+import com.evolveum.midpoint.model.impl.lens.ChangeExecutor;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.schema.ResourceShadowDiscriminator;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.MiscSchemaUtil;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.DummyResourceContoller;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Tests parallel execution of projection deltas (projectionExecutionThreads > 0): accounts on several resources
+ * are created at once, failures are handled according to their criticality, and ObjectAlreadyExistsException
+ * restarts the operation without leaving accounts created in parallel unlinked.
+ */
+@ContextConfiguration(locations = {"classpath:ctx-model-intest-test-main.xml"})
+@Listeners({ com.evolveum.midpoint.tools.testng.AlphabeticalMethodInterceptor.class })
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class TestParallelProjectionExecution extends AbstractInitializedModelIntegrationTest {
+
+	private static final File TEST_DIR = new File("src/test/resources/parallel");
+
+	private static final File RESOURCE_DUMMY_ALPHA_FILE = new File(TEST_DIR, "resource-dummy-alpha.xml");
+	private static final String RESOURCE_DUMMY_ALPHA_OID = "10000000-0000-0000-0000-00000000a901";
+	private static final String RESOURCE_DUMMY_ALPHA_NAME = "alpha";
+
+	private static final File RESOURCE_DUMMY_BETA_FILE = new File(TEST_DIR, "resource-dummy-beta.xml");
+	private static final String RESOURCE_DUMMY_BETA_OID = "10000000-0000-0000-0000-00000000a902";
+	private static final String RESOURCE_DUMMY_BETA_NAME = "beta";
+
+	private static final File RESOURCE_DUMMY_GAMMA_FILE = new File(TEST_DIR, "resource-dummy-gamma.xml");
+	private static final String RESOURCE_DUMMY_GAMMA_OID = "10000000-0000-0000-0000-00000000a903";
+	private static final String RESOURCE_DUMMY_GAMMA_NAME = "gamma";
+
+	private static final String OPERATION_EXECUTE_PROJECTION = ChangeExecutor.class.getName() + ".execute.projection."
+			+ ShadowType.class.getSimpleName();
+
+	private static final int PROJECTION_EXECUTION_THREADS = 4;
+
+	@Autowired private ChangeExecutor changeExecutor;
+
+	@Override
+	public void initSystem(Task initTask, OperationResult initResult) throws Exception {
+		super.initSystem(initTask, initResult);
+
+		initDummyResource(RESOURCE_DUMMY_ALPHA_NAME, RESOURCE_DUMMY_ALPHA_FILE, RESOURCE_DUMMY_ALPHA_OID, initTask, initResult);
+		initDummyResource(RESOURCE_DUMMY_BETA_NAME, RESOURCE_DUMMY_BETA_FILE, RESOURCE_DUMMY_BETA_OID, initTask, initResult);
+		initDummyResource(RESOURCE_DUMMY_GAMMA_NAME, RESOURCE_DUMMY_GAMMA_FILE, RESOURCE_DUMMY_GAMMA_OID, initTask, initResult);
+
+		changeExecutor.setProjectionExecutionThreads(PROJECTION_EXECUTION_THREADS, 1);
+	}
+
+	@AfterClass
+	public void switchOffParallelExecution() {
+		changeExecutor.setProjectionExecutionThreads(0, 1);
+	}
+
+	/**
+	 * Accounts on all three resources are created in parallel. Progress of each of them is reported before
+	 * the respective account is created; results are reported after all of them are created.
+	 */
+	@Test
+	public void test100AddUserWithAccountsOnThreeResources() throws Exception {
+		final String TEST_NAME = "test100AddUserWithAccountsOnThreeResources";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		PrismObject<UserType> user = createUserWithAccounts("ada", "Ada Adams");
+		AccountsProgressRecorder recorder = new AccountsProgressRecorder("ada");
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		executeChanges(user.createAddDelta(), task, recorder, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		result.computeStatus();
+		display("Result", result);
+		assertSuccess(result);
+
+		for (String resourceOid : allResourceOids()) {
+			assertEquals("Account on " + resourceOid + " was created before its progress was reported", Boolean.FALSE,
+					recorder.accountExistedWhenEntering.get(resourceOid));
+		}
+		assertEquals("Projection deltas were not executed in parallel", Boolean.TRUE,
+				recorder.allAccountsExistedWhenFirstExiting);
+
+		PrismObject<UserType> userAfter = findUserByUsername(user.getName().getOrig());
+		display("User after", userAfter);
+		assertLinks(userAfter, 3);
+		assertLinkedAccount(userAfter, RESOURCE_DUMMY_ALPHA_OID, RESOURCE_DUMMY_ALPHA_NAME, "ada", "Ada Adams");
+		assertLinkedAccount(userAfter, RESOURCE_DUMMY_BETA_OID, RESOURCE_DUMMY_BETA_NAME, "ada", "Ada Adams");
+		assertLinkedAccount(userAfter, RESOURCE_DUMMY_GAMMA_OID, RESOURCE_DUMMY_GAMMA_NAME, "ada", "Ada Adams");
+
+		List<OperationResult> projectionResults = findProjectionResults(result);
+		assertEquals("Wrong # of projection results", 3, projectionResults.size());
+		for (String resourceOid : allResourceOids()) {
+			assertTrue("Projection result for " + resourceOid + " is not success",
+					getProjectionResult(projectionResults, resourceOid).isSuccess());
+		}
+	}
+
+	/**
+	 * Schema errors are not critical on beta resource: the failure is recorded, and the other accounts are created
+	 * and linked as usual.
+	 */
+	@Test
+	public void test200NonCriticalFailure() throws Exception {
+		final String TEST_NAME = "test200NonCriticalFailure";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		PrismObject<UserType> user = createUserWithAccounts("bob", "Bob Brown");
+		getDummyResource(RESOURCE_DUMMY_BETA_NAME).setAddBreakMode(BreakMode.SCHEMA);
+
+		try {
+			// WHEN
+			displayWhen(TEST_NAME);
+			executeChanges(user.createAddDelta(), task, null, result);
+		} finally {
+			getDummyResource(RESOURCE_DUMMY_BETA_NAME).resetBreakMode();
+		}
+
+		// THEN
+		displayThen(TEST_NAME);
+		result.computeStatus();
+		display("Result", result);
+		assertPartialError(result);
+
+		PrismObject<UserType> userAfter = findUserByUsername(user.getName().getOrig());
+		display("User after", userAfter);
+		assertLinkedAccount(userAfter, RESOURCE_DUMMY_ALPHA_OID, RESOURCE_DUMMY_ALPHA_NAME, "bob", "Bob Brown");
+		assertLinkedAccount(userAfter, RESOURCE_DUMMY_GAMMA_OID, RESOURCE_DUMMY_GAMMA_NAME, "bob", "Bob Brown");
+		assertNoDummyAccount(RESOURCE_DUMMY_BETA_NAME, "bob");
+
+		List<OperationResult> projectionResults = findProjectionResults(result);
+		assertTrue("Projection result for alpha is not success",
+				getProjectionResult(projectionResults, RESOURCE_DUMMY_ALPHA_OID).isSuccess());
+		assertTrue("Projection result for gamma is not success",
+				getProjectionResult(projectionResults, RESOURCE_DUMMY_GAMMA_OID).isSuccess());
+		assertTrue("Projection result for beta is not an error",
+				getProjectionResult(projectionResults, RESOURCE_DUMMY_BETA_OID).isError());
+	}
+
+	/**
+	 * Schema errors are critical on gamma resource, so the operation fails. But the accounts on the other resources
+	 * were already created in parallel; they must be linked, not left behind as orphans.
+	 */
+	@Test
+	public void test210CriticalFailure() throws Exception {
+		final String TEST_NAME = "test210CriticalFailure";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		PrismObject<UserType> user = createUserWithAccounts("cyril", "Cyril Cole");
+		getDummyResource(RESOURCE_DUMMY_GAMMA_NAME).setAddBreakMode(BreakMode.SCHEMA);
+
+		try {
+			// WHEN
+			displayWhen(TEST_NAME);
+			executeChanges(user.createAddDelta(), task, null, result);
+
+			assertNotReached();
+		} catch (SchemaException e) {
+			// THEN
+			displayThen(TEST_NAME);
+			display("Expected exception", e);
+		} finally {
+			getDummyResource(RESOURCE_DUMMY_GAMMA_NAME).resetBreakMode();
+		}
+
+		result.computeStatus();
+		display("Result", result);
+		assertFailure(result);
+
+		PrismObject<UserType> userAfter = findUserByUsername(user.getName().getOrig());
+		display("User after", userAfter);
+		assertLinkedAccount(userAfter, RESOURCE_DUMMY_ALPHA_OID, RESOURCE_DUMMY_ALPHA_NAME, "cyril", "Cyril Cole");
+		assertLinkedAccount(userAfter, RESOURCE_DUMMY_BETA_OID, RESOURCE_DUMMY_BETA_NAME, "cyril", "Cyril Cole");
+		assertNoDummyAccount(RESOURCE_DUMMY_GAMMA_NAME, "cyril");
+
+		List<OperationResult> projectionResults = findProjectionResults(result);
+		assertTrue("Projection result for gamma is not fatal error",
+				getProjectionResult(projectionResults, RESOURCE_DUMMY_GAMMA_OID).isFatalError());
+	}
+
+	/**
+	 * There is a conflicting account (without a shadow) on alpha resource. The conflict is discovered and the account
+	 * is linked; the operation is restarted. The account on beta was already created in parallel: it must be linked,
+	 * and it must not be created again after the restart.
+	 */
+	@Test
+	public void test300AlreadyExistsRestart() throws Exception {
+		final String TEST_NAME = "test300AlreadyExistsRestart";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+
+		DummyAccount conflicting = new DummyAccount("dora");
+		conflicting.setEnabled(true);
+		conflicting.addAttributeValues(DummyResourceContoller.DUMMY_ACCOUNT_ATTRIBUTE_FULLNAME_NAME, "Dora Before");
+		getDummyResource(RESOURCE_DUMMY_ALPHA_NAME).addAccount(conflicting);
+
+		PrismObject<UserType> user = createUserWithAccounts("dora", "Dora Dale",
+				RESOURCE_DUMMY_ALPHA_OID, RESOURCE_DUMMY_BETA_OID);
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		executeChanges(user.createAddDelta(), task, null, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		result.computeStatus();
+		display("Result", result);
+		assertSuccess(result, 2);
+
+		PrismObject<UserType> userAfter = findUserByUsername(user.getName().getOrig());
+		display("User after", userAfter);
+		assertLinks(userAfter, 2);
+		String alphaShadowOid = assertLinkedAccount(userAfter, RESOURCE_DUMMY_ALPHA_OID, RESOURCE_DUMMY_ALPHA_NAME,
+				"dora", "Dora Dale");
+		assertLinkedAccount(userAfter, RESOURCE_DUMMY_BETA_OID, RESOURCE_DUMMY_BETA_NAME, "dora", "Dora Dale");
+		assertEquals("Conflicting account was replaced", conflicting.getId(),
+				getDummyAccount(RESOURCE_DUMMY_ALPHA_NAME, "dora").getId());
+		assertEquals("Wrong # of shadows for the conflicting account", 1,
+				countShadows(RESOURCE_DUMMY_ALPHA_OID, "dora", result));
+		assertEquals("Wrong # of beta shadows", 1, countShadows(RESOURCE_DUMMY_BETA_OID, "dora", result));
+		assertNotNull("No alpha shadow", alphaShadowOid);
+
+		for (OperationResult projectionResult : findProjectionResults(result)) {
+			assertFalse("Projection failed: " + projectionResult, projectionResult.isError());
+		}
+	}
+
+	private PrismObject<UserType> createUserWithAccounts(String name, String fullName, String... resourceOids)
+			throws SchemaException {
+		PrismObject<UserType> user = createUser(name, fullName, true);
+		for (String resourceOid : resourceOids.length > 0 ? resourceOids : allResourceOids()) {
+			user.asObjectable().getAssignment().add(createAccountAssignment(resourceOid, null));
+		}
+		return user;
+	}
+
+	private String[] allResourceOids() {
+		return new String[] { RESOURCE_DUMMY_ALPHA_OID, RESOURCE_DUMMY_BETA_OID, RESOURCE_DUMMY_GAMMA_OID };
+	}
+
+	private void executeChanges(ObjectDelta<? extends ObjectType> delta, Task task, ProgressListener listener,
+			OperationResult result) throws Exception {
+		Collection<ObjectDelta<? extends ObjectType>> deltas = MiscSchemaUtil.createCollection(delta);
+		Collection<ProgressListener> listeners = listener != null ? Collections.singleton(listener) : null;
+		modelService.executeChanges(deltas, null, task, listeners, result);
+	}
+
+	/**
+	 * Checks that the user is linked to a shadow of the account and that the account exists on the resource.
+	 * Returns the shadow OID.
+	 */
+	private String assertLinkedAccount(PrismObject<UserType> user, String resourceOid, String resourceName,
+			String username, String fullName) throws Exception {
+		String shadowOid = getLinkRefOid(user, resourceOid);
+		PrismObject<ShadowType> shadow = repositoryService.getObject(ShadowType.class, shadowOid, null,
+				new OperationResult(TestParallelProjectionExecution.class.getName() + ".assertLinkedAccount"));
+		display("Shadow on " + resourceName, shadow);
+		assertEquals("Wrong shadow name on " + resourceName, username, shadow.getName().getOrig());
+		assertDummyAccount(resourceName, username, fullName, true);
+		return shadowOid;
+	}
+
+	private int countShadows(String resourceOid, String username, OperationResult result) throws Exception {
+		int count = 0;
+		for (PrismObject<ShadowType> shadow : repositoryService.searchObjects(ShadowType.class,
+				prismContext.queryFor(ShadowType.class)
+						.item(ShadowType.F_RESOURCE_REF).ref(resourceOid)
+						.build(), null, result)) {
+			if (username.equals(shadow.getName().getOrig())) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private List<OperationResult> findProjectionResults(OperationResult result) {
+		List<OperationResult> found = new ArrayList<>();
+		collectResults(result, found);
+		return found;
+	}
+
+	private void collectResults(OperationResult result, List<OperationResult> found) {
+		if (OPERATION_EXECUTE_PROJECTION.equals(result.getOperation())) {
+			found.add(result);
+		}
+		for (OperationResult subresult : result.getSubresults()) {
+			collectResults(subresult, found);
+		}
+	}
+
+	private OperationResult getProjectionResult(List<OperationResult> projectionResults, String resourceOid) {
+		for (OperationResult projectionResult : projectionResults) {
+			Collection<String> discriminator = projectionResult.getContext().get("discriminator");
+			if (discriminator != null && discriminator.stream().anyMatch(d -> d.contains("@" + resourceOid))) {
+				return projectionResult;
+			}
+		}
+		throw new AssertionError("No projection result for resource " + resourceOid + " in " + projectionResults);
+	}
+
+	/**
+	 * Remembers whether the account of given user existed when the operation on its resource was entered,
+	 * and whether all the accounts existed when the first projection operation was finished.
+	 */
+	private class AccountsProgressRecorder implements ProgressListener {
+
+		private final String username;
+		private final Map<String, Boolean> accountExistedWhenEntering = new HashMap<>();
+		private Boolean allAccountsExistedWhenFirstExiting;
+
+		private AccountsProgressRecorder(String username) {
+			this.username = username;
+		}
+
+		@Override
+		public void onProgressAchieved(ModelContext modelContext, ProgressInformation progressInformation) {
+			ResourceShadowDiscriminator discriminator = progressInformation.getResourceShadowDiscriminator();
+			if (progressInformation.getActivityType() != ProgressInformation.ActivityType.RESOURCE_OBJECT_OPERATION
+					|| discriminator == null) {
+				return;
+			}
+			try {
+				if (progressInformation.getStateType() == ProgressInformation.StateType.ENTERING) {
+					accountExistedWhenEntering.putIfAbsent(discriminator.getResourceOid(),
+							accountExists(discriminator.getResourceOid()));
+				} else if (allAccountsExistedWhenFirstExiting == null) {
+					boolean allExist = true;
+					for (String resourceOid : allResourceOids()) {
+						allExist = allExist && accountExists(resourceOid);
+					}
+					allAccountsExistedWhenFirstExiting = allExist;
+				}
+			} catch (Exception e) {
+				throw new AssertionError("Couldn't check account of " + username + ": " + e.getMessage(), e);
+			}
+		}
+
+		private boolean accountExists(String resourceOid) throws Exception {
+			String resourceName;
+			if (RESOURCE_DUMMY_ALPHA_OID.equals(resourceOid)) {
+				resourceName = RESOURCE_DUMMY_ALPHA_NAME;
+			} else if (RESOURCE_DUMMY_BETA_OID.equals(resourceOid)) {
+				resourceName = RESOURCE_DUMMY_BETA_NAME;
+			} else {
+				resourceName = RESOURCE_DUMMY_GAMMA_NAME;
+			}
+			return getDummyAccount(resourceName, username) != null;
+		}
+
+		@Override
+		public boolean isAbortRequested() {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.intest;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import com.evolveum.icf.dummy.resource.BreakMode;
+import com.evolveum.midpoint.model.api.ModelExecuteOptions;
+import com.evolveum.midpoint.model.api.context.ModelContext;
+import com.evolveum.midpoint.model.api.context.ModelProjectionContext;
+import com.evolveum.midpoint.model.impl.lens.projector.ContextLoader;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.ShadowUtil;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.DummyResourceContoller;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Tests parallel loading of projections (projectionLoadThreads > 0). Reconciliation of users with accounts on
+ * several resources is run once with sequential and once with parallel loading; the loaded projection contexts,
+ * the operation results and the outcome must be the same. This includes an account that is gone from its
+ * resource and a resource that fails to return the account (the projection becomes broken).
+ */
+@ContextConfiguration(locations = {"classpath:ctx-model-intest-test-main.xml"})
+@Listeners({ com.evolveum.midpoint.tools.testng.AlphabeticalMethodInterceptor.class })
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class TestParallelProjectionLoad extends AbstractInitializedModelIntegrationTest {
+
+	private static final File TEST_DIR = new File("src/test/resources/parallel");
+
+	private static final File RESOURCE_DUMMY_ALPHA_FILE = new File(TEST_DIR, "resource-dummy-alpha.xml");
+	private static final String RESOURCE_DUMMY_ALPHA_OID = "10000000-0000-0000-0000-00000000a901";
+	private static final String RESOURCE_DUMMY_ALPHA_NAME = "alpha";
+
+	private static final File RESOURCE_DUMMY_BETA_FILE = new File(TEST_DIR, "resource-dummy-beta.xml");
+	private static final String RESOURCE_DUMMY_BETA_OID = "10000000-0000-0000-0000-00000000a902";
+	private static final String RESOURCE_DUMMY_BETA_NAME = "beta";
+
+	private static final File RESOURCE_DUMMY_GAMMA_FILE = new File(TEST_DIR, "resource-dummy-gamma.xml");
+	private static final String RESOURCE_DUMMY_GAMMA_OID = "10000000-0000-0000-0000-00000000a903";
+	private static final String RESOURCE_DUMMY_GAMMA_NAME = "gamma";
+
+	private static final String OPERATION_LOAD_PROJECTION = ContextLoader.class.getName() + ".loadProjection";
+
+	private static final int PROJECTION_LOAD_THREADS = 4;
+
+	@Autowired private ContextLoader contextLoader;
+
+	private String userIvanOid;
+	private String userJanOid;			// processed with sequential loading
+	private String userKimOid;			// processed with parallel loading
+
+	@Override
+	public void initSystem(Task initTask, OperationResult initResult) throws Exception {
+		super.initSystem(initTask, initResult);
+
+		initDummyResource(RESOURCE_DUMMY_ALPHA_NAME, RESOURCE_DUMMY_ALPHA_FILE, RESOURCE_DUMMY_ALPHA_OID, initTask, initResult);
+		initDummyResource(RESOURCE_DUMMY_BETA_NAME, RESOURCE_DUMMY_BETA_FILE, RESOURCE_DUMMY_BETA_OID, initTask, initResult);
+		initDummyResource(RESOURCE_DUMMY_GAMMA_NAME, RESOURCE_DUMMY_GAMMA_FILE, RESOURCE_DUMMY_GAMMA_OID, initTask, initResult);
+
+		userIvanOid = addObject(createUserWithAccounts("ivan", "Ivan Ivanov"), initTask, initResult);
+		userJanOid = addObject(createUserWithAccounts("jan", "Jan Janssen"), initTask, initResult);
+		userKimOid = addObject(createUserWithAccounts("kim", "Kim Kimura"), initTask, initResult);
+	}
+
+	@AfterClass
+	public void switchOffParallelLoad() {
+		contextLoader.setProjectionLoadThreads(0, 1);
+	}
+
+	/**
+	 * All accounts are there: parallel load must give the same projection contexts as sequential one.
+	 */
+	@Test
+	public void test100PreviewReconcile() throws Exception {
+		final String TEST_NAME = "test100PreviewReconcile";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult sequentialResult = new OperationResult(TEST_NAME + ".sequential");
+		OperationResult parallelResult = new OperationResult(TEST_NAME + ".parallel");
+
+		// WHEN
+		displayWhen(TEST_NAME, "sequential");
+		contextLoader.setProjectionLoadThreads(0, 1);
+		ModelContext<UserType> sequentialContext = previewReconcile(userIvanOid, task, sequentialResult);
+
+		displayWhen(TEST_NAME, "parallel");
+		contextLoader.setProjectionLoadThreads(PROJECTION_LOAD_THREADS, 1);
+		ModelContext<UserType> parallelContext = previewReconcile(userIvanOid, task, parallelResult);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertSuccess(sequentialResult);
+		assertSuccess(parallelResult);
+
+		List<String> projections = describeProjections(sequentialContext);
+		assertEquals("Wrong # of projection contexts", 3, projections.size());
+		for (String projection : projections) {
+			assertTrue("Projection not fully loaded: " + projection, projection.contains("full=true"));
+		}
+		assertEquals("Parallel load gave different projection contexts", projections, describeProjections(parallelContext));
+		assertEquals("Parallel load gave different results", describeLoadResults(sequentialResult),
+				describeLoadResults(parallelResult));
+	}
+
+	/**
+	 * Account on alpha is gone and beta fails with (non-critical) schema error when the account is fetched.
+	 * Both users are in the same situation; one is loaded sequentially, the other one in parallel.
+	 */
+	@Test
+	public void test200PreviewReconcileMissingAndBrokenProjection() throws Exception {
+		final String TEST_NAME = "test200PreviewReconcileMissingAndBrokenProjection";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult sequentialResult = new OperationResult(TEST_NAME + ".sequential");
+		OperationResult parallelResult = new OperationResult(TEST_NAME + ".parallel");
+		getDummyResource(RESOURCE_DUMMY_ALPHA_NAME).deleteAccountByName("jan");
+		getDummyResource(RESOURCE_DUMMY_ALPHA_NAME).deleteAccountByName("kim");
+		getDummyResource(RESOURCE_DUMMY_BETA_NAME).setGetBreakMode(BreakMode.SCHEMA);
+
+		ModelContext<UserType> sequentialContext;
+		ModelContext<UserType> parallelContext;
+		try {
+			// WHEN
+			displayWhen(TEST_NAME, "sequential");
+			contextLoader.setProjectionLoadThreads(0, 1);
+			sequentialContext = previewReconcile(userJanOid, task, sequentialResult);
+
+			displayWhen(TEST_NAME, "parallel");
+			contextLoader.setProjectionLoadThreads(PROJECTION_LOAD_THREADS, 1);
+			parallelContext = previewReconcile(userKimOid, task, parallelResult);
+		} finally {
+			getDummyResource(RESOURCE_DUMMY_BETA_NAME).resetBreakMode();
+		}
+
+		// THEN
+		displayThen(TEST_NAME);
+		display("Sequential result", sequentialResult);
+		display("Parallel result", parallelResult);
+		assertEquals("Different result status", sequentialResult.getStatus(), parallelResult.getStatus());
+
+		List<String> projections = describeProjections(sequentialContext);
+		assertTrue("Beta projection is not broken: " + projections,
+				projections.stream().anyMatch(p -> p.startsWith(RESOURCE_DUMMY_BETA_OID) && p.contains("decision=BROKEN")));
+		assertEquals("Parallel load gave different projection contexts", projections, describeProjections(parallelContext));
+		assertEquals("Parallel load gave different results", describeLoadResults(sequentialResult),
+				describeLoadResults(parallelResult));
+	}
+
+	/**
+	 * Real reconciliation in the same situation as in test200: the outcome must be the same.
+	 */
+	@Test
+	public void test210ReconcileMissingAndBrokenProjection() throws Exception {
+		final String TEST_NAME = "test210ReconcileMissingAndBrokenProjection";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult sequentialResult = new OperationResult(TEST_NAME + ".sequential");
+		OperationResult parallelResult = new OperationResult(TEST_NAME + ".parallel");
+		getDummyResource(RESOURCE_DUMMY_BETA_NAME).setGetBreakMode(BreakMode.SCHEMA);
+
+		try {
+			// WHEN
+			displayWhen(TEST_NAME, "sequential");
+			contextLoader.setProjectionLoadThreads(0, 1);
+			reconcile(userJanOid, task, sequentialResult);
+
+			displayWhen(TEST_NAME, "parallel");
+			contextLoader.setProjectionLoadThreads(PROJECTION_LOAD_THREADS, 1);
+			reconcile(userKimOid, task, parallelResult);
+		} finally {
+			getDummyResource(RESOURCE_DUMMY_BETA_NAME).resetBreakMode();
+		}
+
+		// THEN
+		displayThen(TEST_NAME);
+		display("Sequential result", sequentialResult);
+		display("Parallel result", parallelResult);
+		assertEquals("Different result status", sequentialResult.getStatus(), parallelResult.getStatus());
+		assertEquals("Parallel load gave different results", describeLoadResults(sequentialResult),
+				describeLoadResults(parallelResult));
+
+		PrismObject<UserType> janAfter = getUser(userJanOid);
+		PrismObject<UserType> kimAfter = getUser(userKimOid);
+		display("Jan after", janAfter);
+		display("Kim after", kimAfter);
+		assertEquals("Different # of links", janAfter.asObjectable().getLinkRef().size(),
+				kimAfter.asObjectable().getLinkRef().size());
+		assertEquals("Different outcome on alpha", getDummyAccount(RESOURCE_DUMMY_ALPHA_NAME, "jan") != null,
+				getDummyAccount(RESOURCE_DUMMY_ALPHA_NAME, "kim") != null);
+		assertDummyAccount(RESOURCE_DUMMY_BETA_NAME, "jan", "Jan Janssen", true);
+		assertDummyAccount(RESOURCE_DUMMY_BETA_NAME, "kim", "Kim Kimura", true);
+		assertDummyAccount(RESOURCE_DUMMY_GAMMA_NAME, "jan", "Jan Janssen", true);
+		assertDummyAccount(RESOURCE_DUMMY_GAMMA_NAME, "kim", "Kim Kimura", true);
+	}
+
+	private PrismObject<UserType> createUserWithAccounts(String name, String fullName) throws Exception {
+		PrismObject<UserType> user = createUser(name, fullName, true);
+		for (String resourceOid : new String[] { RESOURCE_DUMMY_ALPHA_OID, RESOURCE_DUMMY_BETA_OID, RESOURCE_DUMMY_GAMMA_OID }) {
+			user.asObjectable().getAssignment().add(createAccountAssignment(resourceOid, null));
+		}
+		return user;
+	}
+
+	private ModelContext<UserType> previewReconcile(String userOid, Task task, OperationResult result) throws Exception {
+		ObjectDelta<UserType> emptyDelta = prismContext.deltaFactory().object().createEmptyModifyDelta(UserType.class, userOid);
+		Collection<ObjectDelta<? extends ObjectType>> deltas = Collections.singleton(emptyDelta);
+		ModelContext<UserType> context = modelInteractionService.previewChanges(deltas, ModelExecuteOptions.createReconcile(),
+				task, result);
+		result.computeStatus();
+		display("Preview context", context);
+		return context;
+	}
+
+	private void reconcile(String userOid, Task task, OperationResult result) throws Exception {
+		try {
+			reconcileUser(userOid, task, result);
+		} finally {
+			result.computeStatus();
+		}
+	}
+
+	/**
+	 * Sorted descriptions of the loaded projection contexts (sorted because their order is not relevant here).
+	 * Only user-independent facts are described, so contexts of different users in the same situation can be compared.
+	 */
+	private List<String> describeProjections(ModelContext<UserType> context) throws SchemaException {
+		String expectedFullName = context.getFocusContext().getObjectOld().asObjectable().getFullName().getOrig();
+		List<String> descriptions = new ArrayList<>();
+		for (ModelProjectionContext projectionContext : context.getProjectionContexts()) {
+			PrismObject<ShadowType> current = projectionContext.getObjectCurrent();
+			String fullName = current != null ? ShadowUtil.getAttributeValue(current,
+					DummyResourceContoller.DUMMY_ACCOUNT_ATTRIBUTE_FULLNAME_QNAME) : null;
+			descriptions.add(projectionContext.getResourceShadowDiscriminator().getResourceOid()
+					+ ": tombstone=" + projectionContext.getResourceShadowDiscriminator().isTombstone()
+					+ ", decision=" + projectionContext.getSynchronizationPolicyDecision()
+					+ ", exists=" + projectionContext.isExists()
+					+ ", full=" + projectionContext.isFullShadow()
+					+ ", current=" + (current != null)
+					+ ", fullNameLoaded=" + expectedFullName.equals(fullName));
+		}
+		Collections.sort(descriptions);
+		return descriptions;
+	}
+
+	/**
+	 * Sorted descriptions of projection load results: operations and statuses of the whole subtree, in order.
+	 * Prefetched (parallel) results must be placed in the tree just as the results of sequential load are.
+	 */
+	private List<String> describeLoadResults(OperationResult result) {
+		List<String> descriptions = new ArrayList<>();
+		collectLoadResults(result, descriptions);
+		Collections.sort(descriptions);
+		return descriptions;
+	}
+
+	private void collectLoadResults(OperationResult result, List<String> descriptions) {
+		if (OPERATION_LOAD_PROJECTION.equals(result.getOperation())) {
+			StringBuilder sb = new StringBuilder();
+			describeResultTree(result, sb);
+			descriptions.add(sb.toString());
+		} else {
+			for (OperationResult subresult : result.getSubresults()) {
+				collectLoadResults(subresult, descriptions);
+			}
+		}
+	}
+
+	private void describeResultTree(OperationResult result, StringBuilder sb) {
+		sb.append(result.getOperation()).append(':').append(result.getStatus()).append('(');
+		for (OperationResult subresult : result.getSubresults()) {
+			describeResultTree(subresult, sb);
+		}
+		sb.append(')');
+	}
+}
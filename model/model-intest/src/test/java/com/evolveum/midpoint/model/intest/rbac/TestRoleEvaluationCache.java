@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.intest.rbac;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.model.impl.lens.RoleEvaluationCache;
+import com.evolveum.midpoint.model.intest.AbstractInitializedModelIntegrationTest;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.prism.util.PrismAsserts;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.DummyResourceContoller;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AssignmentType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.PolicyRuleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Tests role evaluation with the node-wide RoleEvaluationCache switched on (roleEvaluationCacheMaxSize > 0).
+ * Users are recomputed repeatedly through a role hierarchy with constructions, a conditional inducement and
+ * policy rules (one of them referencing a constraint of the other one, so it is modified during evaluation).
+ * Results must be the same as without the cache, and a modified role must not be evaluated from stale entries.
+ */
+@ContextConfiguration(locations = {"classpath:ctx-model-intest-test-main.xml"})
+@Listeners({ com.evolveum.midpoint.tools.testng.AlphabeticalMethodInterceptor.class })
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class TestRoleEvaluationCache extends AbstractInitializedModelIntegrationTest {
+
+	private static final File TEST_DIR = new File("src/test/resources/rbac");
+
+	private static final File ROLE_CACHED_CREW_FILE = new File(TEST_DIR, "role-cached-crew.xml");
+	private static final String ROLE_CACHED_CREW_OID = "5d6c4e1a-2b7f-4c3d-9e8a-1f0b3c7d9a01";
+
+	private static final File ROLE_CACHED_OFFICER_FILE = new File(TEST_DIR, "role-cached-officer.xml");
+	private static final String ROLE_CACHED_OFFICER_OID = "5d6c4e1a-2b7f-4c3d-9e8a-1f0b3c7d9a02";
+	private static final long ROLE_CACHED_OFFICER_RECORDED_RULE_ID = 3L;
+
+	private static final String SITUATION_OFFICER_AT_SEA = "http://test.org/officer-at-sea";
+	private static final String SITUATION_OFFICER_AT_SEA_MODIFIED = "http://test.org/officer-at-sea-modified";
+
+	private static final String COST_CENTER_OFFICERS = "officers";
+	private static final String DESCRIPTION_AT_SEA = "at sea";
+
+	private static final String USER_CAPTAIN_NAME = "captain";
+	private static final String USER_BOSUN_NAME = "bosun";
+	private static final String USER_DECKHAND_NAME = "deckhand";
+
+	private static final int ROLE_EVALUATION_CACHE_MAX_SIZE = 100;
+
+	@Autowired private RoleEvaluationCache roleEvaluationCache;
+
+	private String userCaptainOid;
+	private String userBosunOid;
+	private String userDeckhandOid;
+
+	@Override
+	public void initSystem(Task initTask, OperationResult initResult) throws Exception {
+		super.initSystem(initTask, initResult);
+
+		repoAddObjectFromFile(ROLE_CACHED_CREW_FILE, initResult);
+		repoAddObjectFromFile(ROLE_CACHED_OFFICER_FILE, initResult);
+
+		roleEvaluationCache.setMaxSize(ROLE_EVALUATION_CACHE_MAX_SIZE);
+	}
+
+	@AfterClass
+	public void switchOffRoleEvaluationCache() {
+		roleEvaluationCache.setMaxSize(0);
+	}
+
+	/**
+	 * Captain and bosun get officer role (conditional inducement), deckhand does not. Only the captain
+	 * is in the state the policy rules are looking for.
+	 */
+	@Test
+	public void test100AddUsers() throws Exception {
+		final String TEST_NAME = "test100AddUsers";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		userCaptainOid = addObject(createCrewMember(USER_CAPTAIN_NAME, COST_CENTER_OFFICERS, DESCRIPTION_AT_SEA), task, result);
+		userBosunOid = addObject(createCrewMember(USER_BOSUN_NAME, COST_CENTER_OFFICERS, null), task, result);
+		userDeckhandOid = addObject(createCrewMember(USER_DECKHAND_NAME, "crew", DESCRIPTION_AT_SEA), task, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		result.computeStatus();
+		assertSuccess(result);
+		display("Role evaluation cache", roleEvaluationCache);
+		assertTrue("Role evaluation cache was not used", roleEvaluationCache.getMisses() > 0);
+
+		assertCrewMembers(SITUATION_OFFICER_AT_SEA);
+	}
+
+	/**
+	 * Recomputing the users twice must give the same results, now with inducements taken from the cache.
+	 */
+	@Test
+	public void test110RecomputeUsersTwice() throws Exception {
+		final String TEST_NAME = "test110RecomputeUsersTwice";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		long hitsBefore = roleEvaluationCache.getHits();
+		long missesBefore = roleEvaluationCache.getMisses();
+
+		for (int round = 1; round <= 2; round++) {
+			// WHEN
+			displayWhen(TEST_NAME, "round " + round);
+			recomputeUsers(task, result);
+
+			// THEN
+			displayThen(TEST_NAME, "round " + round);
+			result.computeStatus();
+			assertSuccess(result);
+			assertCrewMembers(SITUATION_OFFICER_AT_SEA);
+		}
+
+		display("Role evaluation cache", roleEvaluationCache);
+		assertTrue("Cached inducements were not used", roleEvaluationCache.getHits() > hitsBefore);
+		assertEquals("Inducements of unchanged roles were not taken from the cache", missesBefore,
+				roleEvaluationCache.getMisses());
+	}
+
+	/**
+	 * Modified policy rule of the officer role must be used right away, not the cached (stale) one.
+	 */
+	@Test
+	public void test200ModifyRoleAndRecompute() throws Exception {
+		final String TEST_NAME = "test200ModifyRoleAndRecompute";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		recomputeUsers(task, result);
+		long missesBefore = roleEvaluationCache.getMisses();
+
+		ObjectDelta<RoleType> roleDelta = prismContext.deltaFor(RoleType.class)
+				.item(RoleType.F_INDUCEMENT, ROLE_CACHED_OFFICER_RECORDED_RULE_ID, AssignmentType.F_POLICY_RULE,
+						PolicyRuleType.F_POLICY_SITUATION)
+						.replace(SITUATION_OFFICER_AT_SEA_MODIFIED)
+				.asObjectDeltaCast(ROLE_CACHED_OFFICER_OID);
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		executeChanges(roleDelta, null, task, result);
+		recomputeUsers(task, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		result.computeStatus();
+		assertSuccess(result);
+		display("Role evaluation cache", roleEvaluationCache);
+		assertTrue("Modified role was not evaluated again", roleEvaluationCache.getMisses() > missesBefore);
+
+		assertCrewMembers(SITUATION_OFFICER_AT_SEA_MODIFIED);
+	}
+
+	private PrismObject<UserType> createCrewMember(String name, String costCenter, String description) throws Exception {
+		PrismObject<UserType> user = createUser(name, name, true);
+		UserType userType = user.asObjectable();
+		userType.setCostCenter(costCenter);
+		userType.setDescription(description);
+		userType.getAssignment().add(createTargetAssignment(ROLE_CACHED_CREW_OID, RoleType.COMPLEX_TYPE));
+		return user;
+	}
+
+	private void recomputeUsers(Task task, OperationResult result) throws Exception {
+		recomputeUser(userCaptainOid, task, result);
+		recomputeUser(userBosunOid, task, result);
+		recomputeUser(userDeckhandOid, task, result);
+	}
+
+	private void assertCrewMembers(String expectedCaptainSituation) throws Exception {
+		assertDummyAccountAttribute(null, USER_CAPTAIN_NAME, DummyResourceContoller.DUMMY_ACCOUNT_ATTRIBUTE_DRINK_NAME, "rum");
+		assertDummyAccountAttribute(null, USER_CAPTAIN_NAME, DummyResourceContoller.DUMMY_ACCOUNT_ATTRIBUTE_SHIP_NAME, "Black Pearl");
+		assertDummyAccountAttribute(null, USER_BOSUN_NAME, DummyResourceContoller.DUMMY_ACCOUNT_ATTRIBUTE_DRINK_NAME, "rum");
+		assertDummyAccountAttribute(null, USER_BOSUN_NAME, DummyResourceContoller.DUMMY_ACCOUNT_ATTRIBUTE_SHIP_NAME, "Black Pearl");
+		assertDummyAccountAttribute(null, USER_DECKHAND_NAME, DummyResourceContoller.DUMMY_ACCOUNT_ATTRIBUTE_DRINK_NAME, "rum");
+		assertNoDummyAccountAttribute(null, USER_DECKHAND_NAME, DummyResourceContoller.DUMMY_ACCOUNT_ATTRIBUTE_SHIP_NAME);
+
+		PrismObject<UserType> captain = getUser(userCaptainOid);
+		display("Captain", captain);
+		PrismAsserts.assertSets("Wrong policy situation of captain", captain.asObjectable().getPolicySituation(),
+				expectedCaptainSituation);
+		assertEquals("Unexpected policy situation of bosun", 0, getUser(userBosunOid).asObjectable().getPolicySituation().size());
+		assertEquals("Unexpected policy situation of deckhand", 0, getUser(userDeckhandOid).asObjectable().getPolicySituation().size());
+	}
+}
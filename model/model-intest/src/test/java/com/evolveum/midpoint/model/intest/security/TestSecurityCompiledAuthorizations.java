@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.intest.security;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.schema.SearchResultList;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.security.api.Authorization;
+import com.evolveum.midpoint.security.api.AuthorizationConstants;
+import com.evolveum.midpoint.security.api.MidPointPrincipal;
+import com.evolveum.midpoint.security.enforcer.impl.SecurityEnforcerImpl;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AuthorizationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Tests caching of search security filters in compiled authorizations of a principal: cached filters are reused
+ * for the same principal, they are dropped when the principal or its authorizations change, and filters that
+ * depend on anything else than the authorizations (org/role relations, expressions) are not cached at all.
+ */
+@ContextConfiguration(locations = {"classpath:ctx-model-intest-test-main.xml"})
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class TestSecurityCompiledAuthorizations extends AbstractSecurityTest {
+
+	protected static final File ROLE_EXPRESSION_READ_SELF_INOID_FILE = new File(TEST_DIR, "role-expression-read-self-inoid.xml");
+	protected static final String ROLE_EXPRESSION_READ_SELF_INOID_OID = "8d7c4b52-0f9e-4a9c-b6e4-2c1f3a5d7e91";
+
+	@Autowired private SecurityEnforcerImpl securityEnforcerImpl;
+
+	@Override
+	public void initSystem(Task initTask, OperationResult initResult) throws Exception {
+		super.initSystem(initTask, initResult);
+		repoAddObjectFromFile(ROLE_EXPRESSION_READ_SELF_INOID_FILE, initResult);
+	}
+
+	@Test
+	public void test100CachedFiltersReused() throws Exception {
+		final String TEST_NAME = "test100CachedFiltersReused";
+		displayTestTitle(TEST_NAME);
+		// GIVEN
+		cleanupAutzTest(USER_JACK_OID);
+		assignRole(USER_JACK_OID, ROLE_OBJECT_FILTER_CARIBBEAN_OID);
+		login(USER_JACK_USERNAME);
+		MidPointPrincipal principal = getSecurityContextPrincipal();
+
+		search(UserType.class, TEST_NAME);
+		int cached = securityEnforcerImpl.getCachedSecurityFiltersCount(principal);
+		long hits = securityEnforcerImpl.getCachedSecurityFiltersHits(principal);
+		assertTrue("No security filters were cached", cached > 0);
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		search(UserType.class, TEST_NAME);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertEquals("Security filters were cached again", cached, securityEnforcerImpl.getCachedSecurityFiltersCount(principal));
+		assertTrue("Cached security filters were not used", securityEnforcerImpl.getCachedSecurityFiltersHits(principal) > hits);
+	}
+
+	@Test
+	public void test110RefreshedPrincipal() throws Exception {
+		final String TEST_NAME = "test110RefreshedPrincipal";
+		displayTestTitle(TEST_NAME);
+		// GIVEN
+		cleanupAutzTest(USER_JACK_OID);
+		assignRole(USER_JACK_OID, ROLE_OBJECT_FILTER_CARIBBEAN_OID);
+		login(USER_JACK_USERNAME);
+		MidPointPrincipal oldPrincipal = getSecurityContextPrincipal();
+		search(UserType.class, TEST_NAME);
+		int cachedForOldPrincipal = securityEnforcerImpl.getCachedSecurityFiltersCount(oldPrincipal);
+		assertTrue("No security filters were cached", cachedForOldPrincipal > 0);
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		login(USER_JACK_USERNAME);
+		MidPointPrincipal newPrincipal = getSecurityContextPrincipal();
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertNotSame("Principal was not refreshed", oldPrincipal, newPrincipal);
+		assertEquals("Security filters of refreshed principal were taken over", 0,
+				securityEnforcerImpl.getCachedSecurityFiltersCount(newPrincipal));
+
+		search(UserType.class, TEST_NAME);
+		assertEquals("Wrong # of security filters cached for refreshed principal", cachedForOldPrincipal,
+				securityEnforcerImpl.getCachedSecurityFiltersCount(newPrincipal));
+	}
+
+	@Test
+	public void test120ChangedAuthorizations() throws Exception {
+		final String TEST_NAME = "test120ChangedAuthorizations";
+		displayTestTitle(TEST_NAME);
+		// GIVEN
+		cleanupAutzTest(USER_JACK_OID);
+		assignRole(USER_JACK_OID, ROLE_OBJECT_FILTER_CARIBBEAN_OID);
+		login(USER_JACK_USERNAME);
+		MidPointPrincipal principal = getSecurityContextPrincipal();
+		search(UserType.class, TEST_NAME);
+		int cached = securityEnforcerImpl.getCachedSecurityFiltersCount(principal);
+		assertTrue("No security filters were cached", cached > 0);
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		AuthorizationType authorizationBean = new AuthorizationType();
+		authorizationBean.getAction().add(AuthorizationConstants.AUTZ_UI_USERS_URL);
+		principal.getAuthorities().add(new Authorization(authorizationBean));
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertEquals("Security filters computed for old authorizations are still used", 0,
+				securityEnforcerImpl.getCachedSecurityFiltersCount(principal));
+
+		search(UserType.class, TEST_NAME);
+		assertEquals("Wrong # of security filters cached for new authorizations", cached,
+				securityEnforcerImpl.getCachedSecurityFiltersCount(principal));
+	}
+
+	@Test
+	public void test200OrgRelationNotCached() throws Exception {
+		final String TEST_NAME = "test200OrgRelationNotCached";
+		displayTestTitle(TEST_NAME);
+		// GIVEN
+		cleanupAutzTest(USER_JACK_OID);
+		assignRole(USER_JACK_OID, ROLE_MANAGER_USER_ADMIN_OID);
+		login(USER_JACK_USERNAME);
+		MidPointPrincipal principal = getSecurityContextPrincipal();
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		search(UserType.class, TEST_NAME);
+		search(UserType.class, TEST_NAME);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertNotCached(principal);
+	}
+
+	@Test
+	public void test210RoleRelationNotCached() throws Exception {
+		final String TEST_NAME = "test210RoleRelationNotCached";
+		displayTestTitle(TEST_NAME);
+		// GIVEN
+		cleanupAutzTest(USER_JACK_OID);
+		assignRole(USER_JACK_OID, ROLE_APPROVER_UNASSIGN_ROLES_OID);
+		login(USER_JACK_USERNAME);
+		MidPointPrincipal principal = getSecurityContextPrincipal();
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		search(RoleType.class, TEST_NAME);
+		search(RoleType.class, TEST_NAME);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertNotCached(principal);
+	}
+
+	@Test
+	public void test300ValueExpressionNotCached() throws Exception {
+		final String TEST_NAME = "test300ValueExpressionNotCached";
+		displayTestTitle(TEST_NAME);
+		// GIVEN
+		cleanupAutzTest(USER_JACK_OID);
+		assignRole(USER_JACK_OID, ROLE_EXPRESSION_READ_ROLES_OID);
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		modifyUserReplace(USER_JACK_OID, UserType.F_COST_CENTER, task, result, "business");
+		login(USER_JACK_USERNAME);
+		MidPointPrincipal principal = getSecurityContextPrincipal();
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		assertSearch(RoleType.class, null, 3);
+		assertSearch(RoleType.class, null, 3);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertNotCached(principal);
+	}
+
+	/**
+	 * Expression in inOid filter is not stored with the other (value) expressions, so it needs to be checked separately.
+	 */
+	@Test
+	public void test310InOidExpressionNotCached() throws Exception {
+		final String TEST_NAME = "test310InOidExpressionNotCached";
+		displayTestTitle(TEST_NAME);
+		// GIVEN
+		cleanupAutzTest(USER_JACK_OID);
+		assignRole(USER_JACK_OID, ROLE_EXPRESSION_READ_SELF_INOID_OID);
+		login(USER_JACK_USERNAME);
+		MidPointPrincipal principal = getSecurityContextPrincipal();
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		assertSearch(UserType.class, null, 1);
+		assertSearch(UserType.class, null, 1);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertNotCached(principal);
+	}
+
+	private <O extends ObjectType> void search(Class<O> type, String testName) throws Exception {
+		Task task = createTask(testName);
+		OperationResult result = task.getResult();
+		SearchResultList<PrismObject<O>> objects = modelService.searchObjects(type, null, null, task, result);
+		display("Found " + type.getSimpleName() + " objects", objects);
+		result.computeStatus();
+		assertSuccess(result);
+	}
+
+	private void assertNotCached(MidPointPrincipal principal) {
+		assertEquals("Security filters were cached", 0, securityEnforcerImpl.getCachedSecurityFiltersCount(principal));
+		assertEquals("Cached security filters were used", 0, securityEnforcerImpl.getCachedSecurityFiltersHits(principal));
+	}
+}
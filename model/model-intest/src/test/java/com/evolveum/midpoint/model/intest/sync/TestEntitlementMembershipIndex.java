@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.intest.sync;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import com.evolveum.icf.dummy.resource.DummyResource;
+import com.evolveum.midpoint.model.intest.AbstractInitializedModelIntegrationTest;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.schema.SearchResultList;
+import com.evolveum.midpoint.schema.constants.MidPointConstants;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.DummyResourceContoller;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowAssociationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowKindType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Tests resolving of object-to-subject associations using the entitlement membership index
+ * (indexEntitlementMembership task extension property). The resource compares member values case-insensitively,
+ * group members are not fetched by default and all searches require base context. Associations found using
+ * the index must be the same as the ones found by searching for entitlements of each account separately.
+ */
+@ContextConfiguration(locations = {"classpath:ctx-model-intest-test-main.xml"})
+@Listeners({ com.evolveum.midpoint.tools.testng.AlphabeticalMethodInterceptor.class })
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class TestEntitlementMembershipIndex extends AbstractInitializedModelIntegrationTest {
+
+	private static final File TEST_DIR = new File("src/test/resources/sync");
+
+	private static final File RESOURCE_DUMMY_INDIGO_FILE = new File(TEST_DIR, "resource-dummy-indigo.xml");
+	private static final String RESOURCE_DUMMY_INDIGO_OID = "10000000-0000-0000-0000-00000000a211";
+	private static final String RESOURCE_DUMMY_INDIGO_NAME = "indigo";
+
+	private static final String ACCOUNT_MANCOMB_NAME = "mancomb";
+	private static final String ACCOUNT_OTIS_NAME = "otis";
+	private static final String ACCOUNT_CARLA_NAME = "carla";
+	private static final String ACCOUNT_STAN_NAME = "stan";
+
+	private static final String GROUP_PIRATES_NAME = "pirates";
+	private static final String GROUP_SWORDMASTERS_NAME = "swordmasters";
+	private static final String GROUP_LANDLUBBERS_NAME = "landlubbers";
+	private static final int NUMBER_OF_GROUPS = 3;
+
+	private DummyResource dummyResourceIndigo;
+
+	@Override
+	public void initSystem(Task initTask, OperationResult initResult) throws Exception {
+		super.initSystem(initTask, initResult);
+
+		DummyResourceContoller dummyResourceCtlIndigo = initDummyResource(RESOURCE_DUMMY_INDIGO_NAME,
+				RESOURCE_DUMMY_INDIGO_FILE, RESOURCE_DUMMY_INDIGO_OID,
+				controller -> {
+					controller.extendSchemaPirate();
+					controller.addOrgTop();
+				},
+				initTask, initResult);
+		dummyResourceIndigo = dummyResourceCtlIndigo.getDummyResource();
+
+		dummyResourceCtlIndigo.addAccount(ACCOUNT_MANCOMB_NAME, "Mancomb Seepgood");
+		dummyResourceCtlIndigo.addAccount(ACCOUNT_OTIS_NAME, "Otis");
+		dummyResourceCtlIndigo.addAccount(ACCOUNT_CARLA_NAME, "Carla");
+		dummyResourceCtlIndigo.addAccount(ACCOUNT_STAN_NAME, "Stan");
+
+		// Member values differ from account names in case; the resource does not care.
+		dummyResourceCtlIndigo.addGroup(GROUP_PIRATES_NAME);
+		dummyResourceIndigo.getGroupByName(GROUP_PIRATES_NAME).addMember(ACCOUNT_MANCOMB_NAME);
+		dummyResourceIndigo.getGroupByName(GROUP_PIRATES_NAME).addMember("OTIS");
+		dummyResourceCtlIndigo.addGroup(GROUP_SWORDMASTERS_NAME);
+		dummyResourceIndigo.getGroupByName(GROUP_SWORDMASTERS_NAME).addMember("Mancomb");
+		dummyResourceIndigo.getGroupByName(GROUP_SWORDMASTERS_NAME).addMember(ACCOUNT_CARLA_NAME);
+		dummyResourceCtlIndigo.addGroup(GROUP_LANDLUBBERS_NAME);
+	}
+
+	@Test
+	public void test000Sanity() throws Exception {
+		final String TEST_NAME = "test000Sanity";
+		displayTestTitle(TEST_NAME);
+
+		Task task = createTask(TEST_NAME);
+
+		OperationResult testResult = modelService.testResource(RESOURCE_DUMMY_INDIGO_OID, task);
+		display("Test resource result", testResult);
+		assertSuccess(testResult);
+	}
+
+	/**
+	 * Import with the membership index: groups are read from the resource only once for the whole import.
+	 */
+	@Test
+	public void test100ImportWithMembershipIndex() throws Exception {
+		final String TEST_NAME = "test100ImportWithMembershipIndex";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		task.setExtensionPropertyValue(SchemaConstants.MODEL_EXTENSION_INDEX_ENTITLEMENT_MEMBERSHIP, true);
+		dummyResourceIndigo.setGroupMembersReadCount(0);
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		modelService.importFromResource(RESOURCE_DUMMY_INDIGO_OID, new QName(MidPointConstants.NS_RI, "AccountObjectClass"), task, result);
+		waitForTaskFinish(task, true, 40000);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertEquals("Wrong number of group member reads", NUMBER_OF_GROUPS, dummyResourceIndigo.getGroupMembersReadCount());
+
+		assertImportedAccount(ACCOUNT_MANCOMB_NAME);
+		assertImportedAccount(ACCOUNT_OTIS_NAME);
+		assertImportedAccount(ACCOUNT_CARLA_NAME);
+		assertImportedAccount(ACCOUNT_STAN_NAME);
+
+		Map<String, Integer> groupShadows = new HashMap<>();
+		ObjectQuery query = ObjectQueryUtil.createResourceAndObjectClassQuery(RESOURCE_DUMMY_INDIGO_OID,
+				new QName(MidPointConstants.NS_RI, "GroupObjectClass"), prismContext);
+		for (PrismObject<ShadowType> groupShadow : repositoryService.searchObjects(ShadowType.class, query, null, result)) {
+			groupShadows.merge(groupShadow.getName().getOrig(), 1, Integer::sum);
+		}
+		display("Group shadows", groupShadows);
+		assertEquals("Wrong number of shadows of group " + GROUP_PIRATES_NAME, (Integer) 1, groupShadows.get(GROUP_PIRATES_NAME));
+		assertEquals("Wrong number of shadows of group " + GROUP_SWORDMASTERS_NAME, (Integer) 1, groupShadows.get(GROUP_SWORDMASTERS_NAME));
+	}
+
+	/**
+	 * Associations found using the index must be the same as the ones found by per-account searches.
+	 */
+	@Test
+	public void test200SearchAccountsWithAndWithoutMembershipIndex() throws Exception {
+		final String TEST_NAME = "test200SearchAccountsWithAndWithoutMembershipIndex";
+		displayTestTitle(TEST_NAME);
+
+		// WHEN
+		displayWhen(TEST_NAME, "without index");
+		Map<String, Set<String>> groupsWithoutIndex = searchAccountGroups(TEST_NAME, false);
+
+		displayWhen(TEST_NAME, "with index");
+		dummyResourceIndigo.setGroupMembersReadCount(0);
+		Map<String, Set<String>> groupsWithIndex = searchAccountGroups(TEST_NAME, true);
+
+		// THEN
+		displayThen(TEST_NAME);
+		display("Groups without index", groupsWithoutIndex);
+		display("Groups with index", groupsWithIndex);
+		assertEquals("Wrong number of group member reads", NUMBER_OF_GROUPS, dummyResourceIndigo.getGroupMembersReadCount());
+
+		Map<String, Set<String>> expectedGroups = new HashMap<>();
+		expectedGroups.put(ACCOUNT_MANCOMB_NAME, new HashSet<>(Arrays.asList(GROUP_PIRATES_NAME, GROUP_SWORDMASTERS_NAME)));
+		expectedGroups.put(ACCOUNT_OTIS_NAME, new HashSet<>(Arrays.asList(GROUP_PIRATES_NAME)));
+		expectedGroups.put(ACCOUNT_CARLA_NAME, new HashSet<>(Arrays.asList(GROUP_SWORDMASTERS_NAME)));
+		expectedGroups.put(ACCOUNT_STAN_NAME, new HashSet<>());
+		assertEquals("Wrong groups found by per-account searches", expectedGroups, groupsWithoutIndex);
+		assertEquals("Groups found using the index differ from per-account searches", groupsWithoutIndex, groupsWithIndex);
+	}
+
+	private void assertImportedAccount(String accountName) throws Exception {
+		PrismObject<UserType> user = findUserByUsername(accountName);
+		assertNotNull("User " + accountName + " was not imported", user);
+		assertNotNull("Account " + accountName + " was not linked",
+				getLinkRefOid(user.getOid(), RESOURCE_DUMMY_INDIGO_OID));
+	}
+
+	private Map<String, Set<String>> searchAccountGroups(String testName, boolean indexEntitlementMembership) throws Exception {
+		Task task = createTask(testName);
+		OperationResult result = task.getResult();
+		if (indexEntitlementMembership) {
+			task.setExtensionPropertyValue(SchemaConstants.MODEL_EXTENSION_INDEX_ENTITLEMENT_MEMBERSHIP, true);
+		}
+		ObjectQuery query = ObjectQueryUtil.createResourceAndKindIntent(RESOURCE_DUMMY_INDIGO_OID,
+				ShadowKindType.ACCOUNT, SchemaConstants.INTENT_DEFAULT, prismContext);
+
+		SearchResultList<PrismObject<ShadowType>> accounts = modelService.searchObjects(ShadowType.class, query, null, task, result);
+
+		result.computeStatus();
+		assertSuccess(result);
+		Map<String, Set<String>> groups = new HashMap<>();
+		for (PrismObject<ShadowType> account : accounts) {
+			Set<String> accountGroups = new HashSet<>();
+			for (ShadowAssociationType association : account.asObjectable().getAssociation()) {
+				assertNotNull("No shadowRef in association of " + account, association.getShadowRef());
+				PrismObject<ShadowType> groupShadow = repositoryService.getObject(ShadowType.class,
+						association.getShadowRef().getOid(), null, result);
+				accountGroups.add(groupShadow.getName().getOrig());
+			}
+			groups.put(account.getName().getOrig(), accountGroups);
+		}
+		return groups;
+	}
+}
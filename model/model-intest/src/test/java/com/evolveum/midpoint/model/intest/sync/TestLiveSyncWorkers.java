@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.intest.sync;
+
+import java.io.File;
+
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import com.evolveum.icf.dummy.resource.DummyAccount;
+import com.evolveum.icf.dummy.resource.DummyResource;
+import com.evolveum.icf.dummy.resource.DummySyncStyle;
+import com.evolveum.midpoint.model.intest.AbstractInitializedModelIntegrationTest;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.Checker;
+import com.evolveum.midpoint.test.DummyResourceContoller;
+import com.evolveum.midpoint.test.IntegrationTestTools;
+import com.evolveum.midpoint.util.exception.CommonException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationStatusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AssignmentPolicyEnforcementType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+
+/**
+ * Tests live sync with worker threads: changes of the same resource object (even if identified by case variants
+ * of its identifier) are processed in order, and the token is not moved past a change that failed.
+ */
+@ContextConfiguration(locations = {"classpath:ctx-model-intest-test-main.xml"})
+@Listeners({ com.evolveum.midpoint.tools.testng.AlphabeticalMethodInterceptor.class })
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class TestLiveSyncWorkers extends AbstractInitializedModelIntegrationTest {
+
+	private static final File TEST_DIR = new File("src/test/resources/sync");
+
+	private static final File RESOURCE_DUMMY_WORKERS_FILE = new File(TEST_DIR, "resource-dummy-workers.xml");
+	private static final String RESOURCE_DUMMY_WORKERS_OID = "10000000-0000-0000-0000-00000000e505";
+	private static final String RESOURCE_DUMMY_WORKERS_NAME = "workers";
+
+	private static final File TASK_LIVE_SYNC_DUMMY_WORKERS_FILE = new File(TEST_DIR, "task-dummy-workers-livesync.xml");
+	private static final String TASK_LIVE_SYNC_DUMMY_WORKERS_OID = "10000000-0000-0000-5555-55550000e505";
+
+	private static final String ACCOUNT_OTIS_NAME = "otis";
+	private static final String ACCOUNT_SMIRK_NAME = "smirk";
+	private static final String ACCOUNT_MEATHOOK_NAME = "meathook";
+	private static final String ACCOUNT_CARLA_NAME = "carla";
+
+	private static final String FULL_NAME_FAIL = "FAIL";
+
+	private static final int SYNC_TIMEOUT = 30000;
+
+	private DummyResource dummyResourceWorkers;
+
+	@Override
+	public void initSystem(Task initTask, OperationResult initResult) throws Exception {
+		super.initSystem(initTask, initResult);
+		assumeAssignmentPolicy(AssignmentPolicyEnforcementType.FULL);
+
+		DummyResourceContoller dummyResourceCtlWorkers = DummyResourceContoller.create(RESOURCE_DUMMY_WORKERS_NAME, null);
+		dummyResourceWorkers = dummyResourceCtlWorkers.getDummyResource();
+		dummyResourceWorkers.setSyncStyle(DummySyncStyle.SMART);
+		PrismObject<ResourceType> resourceDummyWorkers = importAndGetObjectFromFile(ResourceType.class,
+				RESOURCE_DUMMY_WORKERS_FILE, RESOURCE_DUMMY_WORKERS_OID, initTask, initResult);
+		dummyResourceCtlWorkers.setResource(resourceDummyWorkers);
+	}
+
+	@Test
+	public void test100ImportLiveSyncTask() throws Exception {
+		final String TEST_NAME = "test100ImportLiveSyncTask";
+		displayTestTitle(TEST_NAME);
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		importObjectFromFile(TASK_LIVE_SYNC_DUMMY_WORKERS_FILE);
+
+		// THEN
+		displayThen(TEST_NAME);
+		waitForTaskStart(TASK_LIVE_SYNC_DUMMY_WORKERS_OID, false, 10000);
+	}
+
+	@Test
+	public void test110AddAccounts() throws Exception {
+		final String TEST_NAME = "test110AddAccounts";
+		displayTestTitle(TEST_NAME);
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		addDummyAccount(ACCOUNT_OTIS_NAME, "Otis");
+		addDummyAccount(ACCOUNT_SMIRK_NAME, "Captain Smirk");
+		addDummyAccount(ACCOUNT_MEATHOOK_NAME, "Meathook");
+		addDummyAccount(ACCOUNT_CARLA_NAME, "Carla");
+
+		waitForSyncToken(dummyResourceWorkers.getLatestSyncToken());
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertUserAfterByUsername(ACCOUNT_OTIS_NAME)
+				.assertFullName("Otis")
+				.assertLinks(1);
+		assertUserAfterByUsername(ACCOUNT_SMIRK_NAME)
+				.assertFullName("Captain Smirk")
+				.assertLinks(1);
+		assertUserAfterByUsername(ACCOUNT_MEATHOOK_NAME)
+				.assertFullName("Meathook")
+				.assertLinks(1);
+		assertUserAfterByUsername(ACCOUNT_CARLA_NAME)
+				.assertFullName("Carla")
+				.assertLinks(1);
+	}
+
+	/**
+	 * The account is deleted using upper-case variant of its name, so the delete change carries different identifier
+	 * value than the changes around it. It still has to be processed before the following re-creation of the account,
+	 * otherwise the user would end up disabled by the "deleted" reaction.
+	 */
+	@Test
+	public void test200DeleteAndRecreateAccountCaseVariant() throws Exception {
+		final String TEST_NAME = "test200DeleteAndRecreateAccountCaseVariant";
+		displayTestTitle(TEST_NAME);
+
+		suspendTask(TASK_LIVE_SYNC_DUMMY_WORKERS_OID);
+
+		modifyDummyAccountFullName(ACCOUNT_SMIRK_NAME, "Captain Smirk I");
+		dummyResourceWorkers.deleteAccountByName(ACCOUNT_OTIS_NAME.toUpperCase());
+		modifyDummyAccountFullName(ACCOUNT_SMIRK_NAME, "Captain Smirk II");
+		addDummyAccount(ACCOUNT_OTIS_NAME, "Otis the Prisoner");
+		modifyDummyAccountFullName(ACCOUNT_MEATHOOK_NAME, "Meathook with Hooks");
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		restartTask(TASK_LIVE_SYNC_DUMMY_WORKERS_OID);
+		waitForSyncToken(dummyResourceWorkers.getLatestSyncToken());
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertUserAfterByUsername(ACCOUNT_OTIS_NAME)
+				.assertFullName("Otis the Prisoner")
+				.assertAdministrativeStatus(ActivationStatusType.ENABLED);
+		assertUserAfterByUsername(ACCOUNT_SMIRK_NAME)
+				.assertFullName("Captain Smirk II");
+		assertUserAfterByUsername(ACCOUNT_MEATHOOK_NAME)
+				.assertFullName("Meathook with Hooks");
+	}
+
+	@Test
+	public void test300FailedChangeStopsToken() throws Exception {
+		final String TEST_NAME = "test300FailedChangeStopsToken";
+		displayTestTitle(TEST_NAME);
+
+		suspendTask(TASK_LIVE_SYNC_DUMMY_WORKERS_OID);
+		Task syncTask = taskManager.getTask(TASK_LIVE_SYNC_DUMMY_WORKERS_OID, createTask(TEST_NAME).getResult());
+
+		modifyDummyAccountFullName(ACCOUNT_OTIS_NAME, "Otis the Free Man");
+		int lastGoodToken = dummyResourceWorkers.getLatestSyncToken();
+		modifyDummyAccountFullName(ACCOUNT_SMIRK_NAME, FULL_NAME_FAIL);
+		modifyDummyAccountFullName(ACCOUNT_CARLA_NAME, "Carla the Swordmaster");
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		restartTask(TASK_LIVE_SYNC_DUMMY_WORKERS_OID);
+		waitForTaskNextRun(syncTask, false, SYNC_TIMEOUT, false);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertSyncToken(TASK_LIVE_SYNC_DUMMY_WORKERS_OID, lastGoodToken);
+		assertUserAfterByUsername(ACCOUNT_OTIS_NAME)
+				.assertFullName("Otis the Free Man");
+		assertUserAfterByUsername(ACCOUNT_SMIRK_NAME)
+				.assertFullName("Captain Smirk II");
+	}
+
+	/**
+	 * Changes after the failed one are fetched again, so nothing is lost when the cause of the failure goes away.
+	 */
+	@Test
+	public void test310FixedChangeMovesToken() throws Exception {
+		final String TEST_NAME = "test310FixedChangeMovesToken";
+		displayTestTitle(TEST_NAME);
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		modifyDummyAccountFullName(ACCOUNT_SMIRK_NAME, "Captain Smirk III");
+		waitForSyncToken(dummyResourceWorkers.getLatestSyncToken());
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertUserAfterByUsername(ACCOUNT_SMIRK_NAME)
+				.assertFullName("Captain Smirk III");
+		assertUserAfterByUsername(ACCOUNT_CARLA_NAME)
+				.assertFullName("Carla the Swordmaster");
+	}
+
+	private void addDummyAccount(String name, String fullName) throws Exception {
+		DummyAccount account = new DummyAccount(name);
+		account.setEnabled(true);
+		account.addAttributeValues(DummyResourceContoller.DUMMY_ACCOUNT_ATTRIBUTE_FULLNAME_NAME, fullName);
+		dummyResourceWorkers.addAccount(account);
+	}
+
+	private void modifyDummyAccountFullName(String name, String fullName) throws Exception {
+		dummyResourceWorkers.getAccountByUsername(name)
+				.replaceAttributeValue(DummyResourceContoller.DUMMY_ACCOUNT_ATTRIBUTE_FULLNAME_NAME, fullName);
+	}
+
+	private void waitForSyncToken(int expectedToken) throws Exception {
+		OperationResult result = new OperationResult(TestLiveSyncWorkers.class.getName() + ".waitForSyncToken");
+		IntegrationTestTools.waitFor("Waiting for sync token " + expectedToken, new Checker() {
+			@Override
+			public boolean check() throws CommonException {
+				Task syncTask = taskManager.getTask(TASK_LIVE_SYNC_DUMMY_WORKERS_OID, result);
+				PrismProperty<Object> token = syncTask.getExtensionProperty(SchemaConstants.SYNC_TOKEN);
+				return token != null && Integer.valueOf(expectedToken).equals(token.getRealValue());
+			}
+
+			@Override
+			public void timeout() {
+				assert false : "Timeout (" + SYNC_TIMEOUT + ") while waiting for sync token " + expectedToken;
+			}
+		}, SYNC_TIMEOUT, DEFAULT_TASK_SLEEP_TIME);
+	}
+}
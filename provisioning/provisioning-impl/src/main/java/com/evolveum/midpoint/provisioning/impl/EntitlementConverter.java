@@ -15,8 +15,10 @@
  */
 package com.evolveum.midpoint.provisioning.impl;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.xml.namespace.QName;
@@ -36,6 +38,7 @@ import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.prism.util.PrismUtil;
 import com.evolveum.midpoint.provisioning.api.GenericConnectorException;
+import com.evolveum.midpoint.provisioning.impl.EntitlementMembershipIndex.IndexedEntitlement;
 import com.evolveum.midpoint.provisioning.ucf.api.AttributesToReturn;
 import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
 import com.evolveum.midpoint.provisioning.ucf.api.GenericFrameworkException;
@@ -46,6 +49,7 @@ import com.evolveum.midpoint.provisioning.util.ProvisioningUtil;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.ResourceTypeUtil;
 import com.evolveum.midpoint.schema.util.ShadowUtil;
+import com.evolveum.midpoint.util.QNameUtil;
 import com.evolveum.midpoint.util.exception.CommunicationException;
 import com.evolveum.midpoint.util.exception.ConfigurationException;
 import com.evolveum.midpoint.util.exception.ExpressionEvaluationException;
@@ -91,6 +95,15 @@ class EntitlementConverter {
 
 	public void postProcessEntitlementsRead(ProvisioningContext subjectCtx,
 			PrismObject<ShadowType> resourceObject, OperationResult parentResult) throws SchemaException, CommunicationException, ObjectNotFoundException, ConfigurationException, SecurityViolationException, ExpressionEvaluationException {
+		postProcessEntitlementsRead(subjectCtx, resourceObject, null, parentResult);
+	}
+
+	/**
+	 * @param membershipIndex If present, object-to-subject associations are resolved using this index (shared by all
+	 *                        subjects of a search) instead of searching the resource for each subject.
+	 */
+	public void postProcessEntitlementsRead(ProvisioningContext subjectCtx,
+			PrismObject<ShadowType> resourceObject, EntitlementMembershipIndex membershipIndex, OperationResult parentResult) throws SchemaException, CommunicationException, ObjectNotFoundException, ConfigurationException, SecurityViolationException, ExpressionEvaluationException {
 		ResourceType resourceType = subjectCtx.getResource();
 		LOGGER.trace("Starting postProcessEntitlementRead");
 		RefinedObjectClassDefinition objectClassDefinition = subjectCtx.getObjectClassDefinition();
@@ -123,7 +136,8 @@ class EntitlementConverter {
 									assocDefType.getResourceObjectAssociationType().getShortcutAssociationAttribute(),
 									assocDefType.getResourceObjectAssociationType().getShortcutValueAttribute(), parentResult);
 						} else {
-							postProcessEntitlementEntitlementToSubject(subjectCtx, resourceObject, assocDefType, entitlementCtx, attributesContainer, associationContainer, parentResult);
+							postProcessEntitlementEntitlementToSubject(subjectCtx, resourceObject, assocDefType, entitlementCtx, entitlementIntent,
+									attributesContainer, associationContainer, membershipIndex, parentResult);
 						}
 					} else {
 						throw new IllegalArgumentException("Unknown entitlement direction "+direction+" in association "+assocDefType+" in "+resourceType);
@@ -197,9 +211,9 @@ class EntitlementConverter {
     }
 
 	private <S extends ShadowType,T> void postProcessEntitlementEntitlementToSubject(ProvisioningContext subjectCtx, final PrismObject<S> resourceObject,
-			RefinedAssociationDefinition assocDefType, final ProvisioningContext entitlementCtx,
+			RefinedAssociationDefinition assocDefType, final ProvisioningContext entitlementCtx, String entitlementIntent,
 			ResourceAttributeContainer attributesContainer, final PrismContainer<ShadowAssociationType> associationContainer,
-			OperationResult parentResult) throws SchemaException, CommunicationException, ObjectNotFoundException, ConfigurationException, SecurityViolationException, ExpressionEvaluationException {
+			EntitlementMembershipIndex membershipIndex, OperationResult parentResult) throws SchemaException, CommunicationException, ObjectNotFoundException, ConfigurationException, SecurityViolationException, ExpressionEvaluationException {
 		ResourceType resourceType = subjectCtx.getResource();
 		final QName associationName = assocDefType.getName();
 		final RefinedObjectClassDefinition entitlementDef = entitlementCtx.getObjectClassDefinition();
@@ -241,40 +255,32 @@ class EntitlementConverter {
 			throw new SchemaException("Value attribute "+valueAttrName+" has no more than one value; attribute defined in entitlement association '"+associationName+"' in "+resourceType);
 		}
 
+		if (membershipIndex != null) {
+			Map<Object, List<IndexedEntitlement>> index = getMembershipIndex(membershipIndex, subjectCtx, assocDefType,
+					entitlementCtx, entitlementIntent, assocAttrDef, parentResult);
+			Object normalizedValue = getIndexMatchingRule(assocDefType, assocAttrDef)
+					.normalize(getNormalizedValue(assocDefType, assocAttrDef, valueAttr).getValue());
+			for (IndexedEntitlement entitlement : EntitlementMembershipIndex.lookup(index, normalizedValue)) {
+				addEntitlementToSubjectAssociation(associationContainer, associationName, entitlementDef,
+						entitlement.getIdentifiers(), entitlement.takeShadow(), resourceObject);
+			}
+			return;
+		}
+
 		ObjectQuery query = createQuery(assocDefType, assocAttrDef, valueAttr);
 
 		AttributesToReturn attributesToReturn = ProvisioningUtil.createAttributesToReturn(entitlementCtx);
 
-		SearchHierarchyConstraints searchHierarchyConstraints = null;
-		ResourceObjectReferenceType baseContextRef = entitlementDef.getBaseContext();
-		if (baseContextRef != null) {
-			// TODO: this should be done once per search. Not in every run of postProcessEntitlementEntitlementToSubject
-			// this has to go outside of this method
-			PrismObject<ShadowType> baseContextShadow = resourceObjectReferenceResolver.resolve(subjectCtx, baseContextRef,
-					null, "base context specification in "+entitlementDef, parentResult);
-			RefinedObjectClassDefinition baseContextObjectClassDefinition = subjectCtx.getRefinedSchema().determineCompositeObjectClassDefinition(baseContextShadow);
-			ResourceObjectIdentification baseContextIdentification =  ShadowUtil.getResourceObjectIdentification(baseContextShadow, baseContextObjectClassDefinition);
-			searchHierarchyConstraints = new SearchHierarchyConstraints(baseContextIdentification, null);
-		}
+		// TODO: this should be done once per search. Not in every run of postProcessEntitlementEntitlementToSubject
+		// (it is done so when membership index is used)
+		SearchHierarchyConstraints searchHierarchyConstraints = createSearchHierarchyConstraints(subjectCtx, entitlementDef, parentResult);
 
 		ShadowResultHandler handler = new ShadowResultHandler() {
 			@Override
 			public boolean handle(PrismObject<ShadowType> entitlementShadow) {
-				PrismContainerValue<ShadowAssociationType> associationCVal = associationContainer.createNewValue();
-				associationCVal.asContainerable().setName(associationName);
-				Collection<ResourceAttribute<?>> entitlementIdentifiers = ShadowUtil.getAllIdentifiers(entitlementShadow);
 				try {
-					ResourceAttributeContainer identifiersContainer = ObjectFactory.createResourceAttributeContainer(
-							ShadowAssociationType.F_IDENTIFIERS, entitlementDef.toResourceAttributeContainerDefinition(), prismContext);
-					associationCVal.add(identifiersContainer);
-					identifiersContainer.getValue().addAll(Item.cloneCollection(entitlementIdentifiers));
-
-					// Remember the full shadow in user data. This is used later as an optimization to create the shadow in repo
-					identifiersContainer.setUserData(ResourceObjectConverter.FULL_SHADOW_KEY, entitlementShadow);
-					if (LOGGER.isTraceEnabled()) {
-						LOGGER.trace("Processed entitlement-to-subject association for account {} and entitlement {}",
-								ShadowUtil.getHumanReadableName(resourceObject), ShadowUtil.getHumanReadableName(entitlementShadow));
-					}
+					addEntitlementToSubjectAssociation(associationContainer, associationName, entitlementDef,
+							ShadowUtil.getAllIdentifiers(entitlementShadow), entitlementShadow, resourceObject);
 				} catch (SchemaException e) {
 					throw new TunnelException(e);
 				}
@@ -300,8 +306,126 @@ class EntitlementConverter {
 
 	}
 
-    // precondition: valueAttr has exactly one value
-	private <TV,TA> ObjectQuery createQuery(RefinedAssociationDefinition assocDefType, RefinedAttributeDefinition<TA> assocAttrDef, ResourceAttribute<TV> valueAttr) throws SchemaException{
+	private <S extends ShadowType> void addEntitlementToSubjectAssociation(PrismContainer<ShadowAssociationType> associationContainer,
+			QName associationName, RefinedObjectClassDefinition entitlementDef, Collection<ResourceAttribute<?>> entitlementIdentifiers,
+			PrismObject<ShadowType> entitlementShadow, PrismObject<S> resourceObject) throws SchemaException {
+		PrismContainerValue<ShadowAssociationType> associationCVal = associationContainer.createNewValue();
+		associationCVal.asContainerable().setName(associationName);
+		ResourceAttributeContainer identifiersContainer = ObjectFactory.createResourceAttributeContainer(
+				ShadowAssociationType.F_IDENTIFIERS, entitlementDef.toResourceAttributeContainerDefinition(), prismContext);
+		associationCVal.add(identifiersContainer);
+		identifiersContainer.getValue().addAll(Item.cloneCollection(entitlementIdentifiers));
+
+		// Remember the full shadow in user data. This is used later as an optimization to create the shadow in repo
+		if (entitlementShadow != null) {
+			identifiersContainer.setUserData(ResourceObjectConverter.FULL_SHADOW_KEY, entitlementShadow);
+		}
+		if (LOGGER.isTraceEnabled()) {
+			LOGGER.trace("Processed entitlement-to-subject association for account {} and entitlement {}",
+					ShadowUtil.getHumanReadableName(resourceObject), entitlementIdentifiers);
+		}
+	}
+
+	private SearchHierarchyConstraints createSearchHierarchyConstraints(ProvisioningContext subjectCtx,
+			RefinedObjectClassDefinition entitlementDef, OperationResult parentResult) throws SchemaException,
+			CommunicationException, ObjectNotFoundException, ConfigurationException, SecurityViolationException,
+			ExpressionEvaluationException {
+		ResourceObjectReferenceType baseContextRef = entitlementDef.getBaseContext();
+		if (baseContextRef == null) {
+			return null;
+		}
+		PrismObject<ShadowType> baseContextShadow = resourceObjectReferenceResolver.resolve(subjectCtx, baseContextRef,
+				null, "base context specification in "+entitlementDef, parentResult);
+		RefinedObjectClassDefinition baseContextObjectClassDefinition = subjectCtx.getRefinedSchema().determineCompositeObjectClassDefinition(baseContextShadow);
+		ResourceObjectIdentification baseContextIdentification =  ShadowUtil.getResourceObjectIdentification(baseContextShadow, baseContextObjectClassDefinition);
+		return new SearchHierarchyConstraints(baseContextIdentification, null);
+	}
+
+	/**
+	 * Returns index of entitlements (of given association and intent) by normalized values of the association attribute.
+	 * The index is built on the first call for the association and intent, by reading all the entitlements from the resource.
+	 */
+	private <TA> Map<Object, List<IndexedEntitlement>> getMembershipIndex(EntitlementMembershipIndex membershipIndex,
+			ProvisioningContext subjectCtx, RefinedAssociationDefinition assocDefType, ProvisioningContext entitlementCtx,
+			String entitlementIntent, RefinedAttributeDefinition<TA> assocAttrDef, OperationResult parentResult)
+			throws SchemaException, CommunicationException, ObjectNotFoundException, ConfigurationException,
+			SecurityViolationException, ExpressionEvaluationException {
+		Map<Object, List<IndexedEntitlement>> index = membershipIndex.get(assocDefType.getName(), entitlementIntent);
+		if (index != null) {
+			return index;
+		}
+
+		RefinedObjectClassDefinition entitlementDef = entitlementCtx.getObjectClassDefinition();
+		MatchingRule<TA> matchingRule = getIndexMatchingRule(assocDefType, assocAttrDef);
+		AttributesToReturn attributesToReturn = ProvisioningUtil.createAttributesToReturn(entitlementCtx);
+		if (attributesToReturn != null && !attributesToReturn.isReturnDefaultAttributes()) {
+			// The association attribute is usually not fetched by default (e.g. members of big groups), but here we need it.
+			List<ResourceAttributeDefinition> attributes = new ArrayList<>();
+			if (attributesToReturn.getAttributesToReturn() != null) {
+				attributes.addAll(attributesToReturn.getAttributesToReturn());
+			}
+			if (attributes.stream().noneMatch(def -> QNameUtil.match(def.getName(), assocAttrDef.getName()))) {
+				attributes.add(assocAttrDef);
+				attributesToReturn.setAttributesToReturn(attributes);
+			}
+		}
+		SearchHierarchyConstraints searchHierarchyConstraints = createSearchHierarchyConstraints(subjectCtx, entitlementDef, parentResult);
+
+		Map<Object, List<IndexedEntitlement>> newIndex = new HashMap<>();
+		ShadowResultHandler handler = entitlementShadow -> {
+			ResourceAttribute<TA> assocAttr = ShadowUtil.getAttributesContainer(entitlementShadow).findAttribute(assocAttrDef.getName());
+			if (assocAttr == null || assocAttr.isEmpty()) {
+				return true;
+			}
+			IndexedEntitlement entitlement = new IndexedEntitlement(entitlementShadow,
+					Item.cloneCollection(ShadowUtil.getAllIdentifiers(entitlementShadow)));
+			try {
+				for (TA value : assocAttr.getRealValues()) {
+					List<IndexedEntitlement> entitlements = newIndex.computeIfAbsent(matchingRule.normalize(value), k -> new ArrayList<>());
+					if (entitlements.isEmpty() || entitlements.get(entitlements.size() - 1) != entitlement) {
+						entitlements.add(entitlement);
+					}
+				}
+			} catch (SchemaException e) {
+				throw new TunnelException(e);
+			}
+			return true;
+		};
+
+		ConnectorInstance connector = subjectCtx.getConnector(ReadCapabilityType.class, parentResult);
+		LOGGER.trace("Building membership index for association {} and intent {}", assocDefType.getName(), entitlementIntent);
+		try {
+			connector.search(entitlementDef, null, handler, attributesToReturn,
+					entitlementDef.getPagedSearches(subjectCtx.getResource()), searchHierarchyConstraints, subjectCtx, parentResult);
+		} catch (GenericFrameworkException e) {
+			throw new GenericConnectorException("Generic error in the connector " + connector + ". Reason: "
+					+ e.getMessage(), e);
+		} catch (TunnelException e) {
+			throw (SchemaException)e.getCause();
+		}
+		LOGGER.debug("Built membership index for association {} and intent {}: {} distinct member values",
+				assocDefType.getName(), entitlementIntent, newIndex.size());
+		membershipIndex.put(assocDefType.getName(), entitlementIntent, newIndex);
+		return newIndex;
+	}
+
+	/**
+	 * When searching for each subject, the values of the association attribute are compared by the resource.
+	 * The index has to compare them by itself: by the matching rule of the association or, if there is none,
+	 * by the matching rule of the attribute (e.g. case-insensitive member names or DNs).
+	 */
+	private <TA> MatchingRule<TA> getIndexMatchingRule(RefinedAssociationDefinition assocDefType,
+			RefinedAttributeDefinition<TA> assocAttrDef) throws SchemaException {
+		QName matchingRuleName = assocDefType.getResourceObjectAssociationType().getMatchingRule();
+		if (matchingRuleName == null) {
+			matchingRuleName = assocAttrDef.getMatchingRuleQName();
+		}
+		return matchingRuleRegistry.getMatchingRule(matchingRuleName, assocAttrDef.getTypeName());
+	}
+
+	// precondition: valueAttr has exactly one value
+	private <TV,TA> PrismPropertyValue<TA> getNormalizedValue(RefinedAssociationDefinition assocDefType,
+			RefinedAttributeDefinition<TA> assocAttrDef, ResourceAttribute<TV> valueAttr) throws SchemaException {
 		MatchingRule<TA> matchingRule = matchingRuleRegistry.getMatchingRule(assocDefType.getResourceObjectAssociationType().getMatchingRule(),
 				assocAttrDef.getTypeName());
 		if (valueAttr.size() > 1) {
@@ -309,7 +433,12 @@ class EntitlementConverter {
 		}
 		PrismPropertyValue<TA> converted = PrismUtil.convertPropertyValue(valueAttr.getAnyValue(), valueAttr.getDefinition(), assocAttrDef, prismContext);
 		TA normalizedRealValue = matchingRule.normalize(converted.getValue());
-		PrismPropertyValue<TA> normalized = prismContext.itemFactory().createPropertyValue(normalizedRealValue);
+		return prismContext.itemFactory().createPropertyValue(normalizedRealValue);
+	}
+
+    // precondition: valueAttr has exactly one value
+	private <TV,TA> ObjectQuery createQuery(RefinedAssociationDefinition assocDefType, RefinedAttributeDefinition<TA> assocAttrDef, ResourceAttribute<TV> valueAttr) throws SchemaException{
+		PrismPropertyValue<TA> normalized = getNormalizedValue(assocDefType, assocAttrDef, valueAttr);
 		LOGGER.trace("Converted entitlement filter value: {} ({}) def={}", normalized, normalized.getValue().getClass(), assocAttrDef);
 		ObjectQuery query = prismContext.queryFor(ShadowType.class)
 				.item(ItemPath.create(ShadowType.F_ATTRIBUTES, assocAttrDef.getName()), assocAttrDef).eq(normalized)
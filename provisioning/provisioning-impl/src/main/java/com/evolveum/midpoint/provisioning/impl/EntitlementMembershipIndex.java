@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.impl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.xml.namespace.QName;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.schema.processor.ResourceAttribute;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * Reverse index of object-to-subject entitlement associations (e.g. LDAP groups with "member" attribute),
+ * built for a single search of subjects (e.g. accounts during import or reconciliation).
+ *
+ * Entitlements of each association and intent are read from the resource only once, at the first subject that needs them.
+ * They are indexed by normalized values of the association attribute, so associations of all the other subjects
+ * are looked up in memory instead of searching the resource for each subject.
+ *
+ * Only identifiers of the entitlements are kept for the whole search. Full entitlement shadow is handed out only
+ * once (to the first subject that refers to it), as it is used just to create the repository shadow of the entitlement.
+ *
+ * Should be used only by EntitlementConverter. Not thread safe: it is meant to be used by the thread that processes
+ * the search results.
+ */
+class EntitlementMembershipIndex {
+
+	private final Map<IndexKey, Map<Object, List<IndexedEntitlement>>> indices = new HashMap<>();
+
+	Map<Object, List<IndexedEntitlement>> get(QName associationName, String intent) {
+		return indices.get(new IndexKey(associationName, intent));
+	}
+
+	void put(QName associationName, String intent, Map<Object, List<IndexedEntitlement>> index) {
+		indices.put(new IndexKey(associationName, intent), index);
+	}
+
+	static List<IndexedEntitlement> lookup(Map<Object, List<IndexedEntitlement>> index, Object normalizedValue) {
+		List<IndexedEntitlement> entitlements = index.get(normalizedValue);
+		return entitlements != null ? entitlements : Collections.emptyList();
+	}
+
+	@Override
+	public String toString() {
+		return "EntitlementMembershipIndex(" + indices.keySet() + ")";
+	}
+
+	static class IndexedEntitlement {
+
+		private final Collection<ResourceAttribute<?>> identifiers;
+		private PrismObject<ShadowType> shadow;
+
+		IndexedEntitlement(PrismObject<ShadowType> shadow, Collection<ResourceAttribute<?>> identifiers) {
+			this.shadow = shadow;
+			this.identifiers = identifiers;
+		}
+
+		Collection<ResourceAttribute<?>> getIdentifiers() {
+			return identifiers;
+		}
+
+		/**
+		 * Returns the full entitlement shadow on the first call, null afterwards.
+		 */
+		PrismObject<ShadowType> takeShadow() {
+			PrismObject<ShadowType> rv = shadow;
+			shadow = null;
+			return rv;
+		}
+	}
+
+	private static class IndexKey {
+
+		private final QName associationName;
+		private final String intent;
+
+		private IndexKey(QName associationName, String intent) {
+			this.associationName = associationName;
+			this.intent = intent;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof IndexKey)) {
+				return false;
+			}
+			IndexKey that = (IndexKey) o;
+			return Objects.equals(associationName, that.associationName) && Objects.equals(intent, that.intent);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(associationName, intent);
+		}
+
+		@Override
+		public String toString() {
+			return associationName + "/" + intent;
+		}
+	}
+}
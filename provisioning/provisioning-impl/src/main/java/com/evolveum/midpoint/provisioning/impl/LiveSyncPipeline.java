@@ -0,0 +1,425 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.impl;
+
+import com.evolveum.midpoint.common.refinery.RefinedAttributeDefinition;
+import com.evolveum.midpoint.common.refinery.RefinedObjectClassDefinition;
+import com.evolveum.midpoint.prism.crypto.EncryptionException;
+import com.evolveum.midpoint.prism.match.MatchingRule;
+import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
+import com.evolveum.midpoint.provisioning.ucf.api.Change;
+import com.evolveum.midpoint.provisioning.ucf.api.GenericFrameworkException;
+import com.evolveum.midpoint.schema.processor.ObjectClassComplexTypeDefinition;
+import com.evolveum.midpoint.schema.processor.ResourceAttribute;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.result.OperationResultStatus;
+import com.evolveum.midpoint.task.api.LightweightTaskHandler;
+import com.evolveum.midpoint.task.api.RunningTask;
+import com.evolveum.midpoint.task.api.TaskManager;
+import com.evolveum.midpoint.util.exception.*;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+import javax.xml.namespace.QName;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processes live sync changes in worker threads, as they are being fetched from the resource.
+ *
+ * Changes are numbered in the order in which they come from the resource. Changes of the same resource object
+ * (as determined by its primary identifiers, normalized by their matching rules) are processed one after another,
+ * in that order. Changes without
+ * object class or identifiers cannot be reliably assigned to an object, so they are processed by the coordinator
+ * after all preceding changes are done.
+ *
+ * The token is moved only to the last change of a contiguous sequence of finished changes. A change that was
+ * processed with an unhandled error (and such errors are to be retried) does not count as finished. So the token
+ * stored in the task is the same as it would be after processing the changes serially, up to the first change that
+ * was not finished (because of an error or task suspension). Fetching stops at that point and the changes after it
+ * are fetched again in the next run.
+ */
+class LiveSyncPipeline {
+
+	private static final Trace LOGGER = TraceManager.getTrace(LiveSyncPipeline.class);
+
+	private static final String OP_PROCESS_ASYNCHRONOUSLY = LiveSyncPipeline.class.getName() + ".processAsynchronously";
+	private static final String OP_EXECUTE_WORKER = LiveSyncPipeline.class.getName() + ".executeWorker";
+
+	private static final long WORKER_THREAD_WAIT_FOR_REQUEST = 500;
+
+	private final ShadowCache shadowCache;
+	private final TaskManager taskManager;
+	private final MatchingRuleRegistry matchingRuleRegistry;
+	private final ProvisioningContext ctx;
+	private final RunningTask coordinatorTask;
+	private final boolean retryUnhandledError;
+	private final int workerThreads;
+
+	private final BlockingQueue<ChangeRequest> readyQueue = new LinkedBlockingQueue<>();
+	private final Semaphore inFlightPermits;
+	private final List<OperationResult> workerSpecificResults = new ArrayList<>();
+
+	// guarded by this
+	private final Map<Map<QName, Set<Object>>, Deque<ChangeRequest>> pendingByObject = new HashMap<>();
+	private final Map<Long, ChangeRequest> finishedRequests = new HashMap<>();
+	private long nextToCommit;
+	private int processedChanges;
+
+	// used only by the coordinator thread
+	private long nextSequenceNumber;
+
+	private volatile boolean allChangesSubmitted;
+	private volatile Throwable firstException;
+	private volatile boolean tokenStopped;
+
+	LiveSyncPipeline(ShadowCache shadowCache, TaskManager taskManager, MatchingRuleRegistry matchingRuleRegistry,
+			ProvisioningContext ctx, RunningTask coordinatorTask, boolean retryUnhandledError, int workerThreads) {
+		this.shadowCache = shadowCache;
+		this.taskManager = taskManager;
+		this.matchingRuleRegistry = matchingRuleRegistry;
+		this.ctx = ctx;
+		this.coordinatorTask = coordinatorTask;
+		this.retryUnhandledError = retryUnhandledError;
+		this.workerThreads = workerThreads;
+		// changes waiting for the preceding change of the same object count as well
+		this.inFlightPermits = new Semaphore(workerThreads * 4);
+	}
+
+	void start() {
+		for (int i = 0; i < workerThreads; i++) {
+			// we intentionally do not put worker specific result under main operation result until the processing is done
+			// (because of concurrency issues - adding subresults vs e.g. putting main result into the task)
+			OperationResult workerSpecificResult = new OperationResult(OP_PROCESS_ASYNCHRONOUSLY);
+			workerSpecificResult.addContext("subtaskIndex", i+1);
+			workerSpecificResults.add(workerSpecificResult);
+
+			RunningTask subtask = coordinatorTask.createSubtask(new WorkerHandler(workerSpecificResult));
+			subtask.resetSynchronizationInformation(null);
+			subtask.resetActionsExecutedInformation(null);
+			subtask.setCategory(coordinatorTask.getCategory());
+			subtask.setResult(new OperationResult(OP_EXECUTE_WORKER, OperationResultStatus.IN_PROGRESS, (String) null));
+			subtask.setName("Worker thread " + (i+1) + " of " + workerThreads);
+			subtask.startLightweightHandler();
+			LOGGER.trace("Worker subtask {} created", subtask);
+		}
+	}
+
+	/**
+	 * Called by the coordinator for each change fetched (in the order of fetching).
+	 *
+	 * @return false if fetching should stop (because of an error or task suspension)
+	 */
+	boolean submit(Change change, OperationResult parentResult) {
+		if (shouldStop()) {
+			return false;
+		}
+		ChangeRequest request = new ChangeRequest(nextSequenceNumber++, change,
+				change.isTokenOnly() ? null : getObjectKey(change));
+		if (change.isTokenOnly()) {
+			LOGGER.trace("Found token-only change: {}", change);
+			request.storeToken = true;
+			requestFinished(request, null);
+			return true;
+		}
+
+		if (request.objectKey == null) {
+			return processInCoordinator(request, parentResult);
+		}
+
+		try {
+			while (!inFlightPermits.tryAcquire(WORKER_THREAD_WAIT_FOR_REQUEST, TimeUnit.MILLISECONDS)) {
+				if (shouldStop()) {
+					return false;
+				}
+			}
+		} catch (InterruptedException e) {
+			LOGGER.trace("Interrupted when waiting for a free worker", e);
+			return false;
+		}
+		synchronized (this) {
+			Deque<ChangeRequest> pending = pendingByObject.get(request.objectKey);
+			if (pending != null) {
+				LOGGER.trace("Change {} waits for preceding change(s) of the same object", request);
+				pending.addLast(request);
+				return true;
+			}
+			pending = new ArrayDeque<>();
+			pending.addLast(request);
+			pendingByObject.put(request.objectKey, pending);
+		}
+		readyQueue.add(request);
+		return true;
+	}
+
+	private boolean processInCoordinator(ChangeRequest request, OperationResult parentResult) {
+		LOGGER.trace("Change {} cannot be assigned to an object, waiting for all preceding changes to finish", request);
+		synchronized (this) {
+			while (nextToCommit < request.sequenceNumber) {
+				if (shouldStop()) {
+					return false;
+				}
+				try {
+					wait(WORKER_THREAD_WAIT_FOR_REQUEST);
+				} catch (InterruptedException e) {
+					LOGGER.trace("Interrupted when waiting for preceding changes", e);
+					return false;
+				}
+			}
+		}
+		processRequest(request, null, parentResult);
+		return !shouldStop();
+	}
+
+	/**
+	 * Waits until all submitted changes are processed (or workers stop because of an error or task suspension).
+	 */
+	void waitForWorkers(OperationResult parentResult) {
+		allChangesSubmitted = true;
+		taskManager.waitForTransientChildren(coordinatorTask, parentResult);
+		for (OperationResult workerSpecificResult : workerSpecificResults) {
+			workerSpecificResult.computeStatus();
+			workerSpecificResult.summarize();
+			parentResult.addSubresult(workerSpecificResult);
+		}
+		workerSpecificResults.clear();
+	}
+
+	/**
+	 * Waits for the workers and re-throws the first exception that occurred during processing, if any.
+	 *
+	 * @return number of changes processed (and covered by the stored token)
+	 */
+	int finish(OperationResult parentResult) throws ObjectNotFoundException, CommunicationException,
+			GenericFrameworkException, SchemaException, ConfigurationException, SecurityViolationException,
+			ObjectAlreadyExistsException, ExpressionEvaluationException, EncryptionException {
+		waitForWorkers(parentResult);
+
+		Throwable exception = firstException;
+		if (exception != null) {
+			if (exception instanceof ObjectNotFoundException) {
+				throw (ObjectNotFoundException) exception;
+			} else if (exception instanceof CommunicationException) {
+				throw (CommunicationException) exception;
+			} else if (exception instanceof GenericFrameworkException) {
+				throw (GenericFrameworkException) exception;
+			} else if (exception instanceof SchemaException) {
+				throw (SchemaException) exception;
+			} else if (exception instanceof ConfigurationException) {
+				throw (ConfigurationException) exception;
+			} else if (exception instanceof SecurityViolationException) {
+				throw (SecurityViolationException) exception;
+			} else if (exception instanceof ObjectAlreadyExistsException) {
+				throw (ObjectAlreadyExistsException) exception;
+			} else if (exception instanceof ExpressionEvaluationException) {
+				throw (ExpressionEvaluationException) exception;
+			} else if (exception instanceof EncryptionException) {
+				throw (EncryptionException) exception;
+			} else if (exception instanceof RuntimeException) {
+				throw (RuntimeException) exception;
+			} else if (exception instanceof Error) {
+				throw (Error) exception;
+			} else {
+				throw new SystemException("Got unexpected exception: " + exception.getMessage(), exception);
+			}
+		}
+		synchronized (this) {
+			return processedChanges;
+		}
+	}
+
+	/**
+	 * @return true if no change (not even a token-only one) was submitted
+	 */
+	boolean isEmpty() {
+		return nextSequenceNumber == 0;
+	}
+
+	private boolean shouldStop() {
+		return isStopped() || !coordinatorTask.canRun();
+	}
+
+	private boolean isStopped() {
+		return firstException != null || tokenStopped;
+	}
+
+	private void processRequest(ChangeRequest request, RunningTask workerTask, OperationResult parentResult) {
+		try {
+			request.storeToken = shadowCache.processLiveSyncChange(ctx, request.change, retryUnhandledError, workerTask, parentResult);
+		} catch (Throwable t) {
+			LOGGER.error("Couldn't process live sync change {}: {}", request.change, t.getMessage(), t);
+			synchronized (this) {
+				if (firstException == null) {
+					firstException = t;
+				}
+			}
+			return;
+		} finally {
+			// parentResult is worker-thread-specific result (because of concurrency issues) or the coordinator one
+			parentResult.summarize();
+		}
+		requestFinished(request, workerTask);
+	}
+
+	private void requestFinished(ChangeRequest request, RunningTask workerTask) {
+		ChangeRequest next = null;
+		synchronized (this) {
+			if (request.objectKey != null && workerTask != null) {
+				Deque<ChangeRequest> pending = pendingByObject.get(request.objectKey);
+				pending.removeFirst();
+				if (pending.isEmpty()) {
+					pendingByObject.remove(request.objectKey);
+				} else {
+					next = pending.getFirst();
+				}
+			}
+			finishedRequests.put(request.sequenceNumber, request);
+			ChangeRequest toCommit;
+			while (!tokenStopped && (toCommit = finishedRequests.remove(nextToCommit)) != null) {
+				commit(toCommit);
+				nextToCommit++;
+			}
+			notifyAll();
+		}
+		if (workerTask != null) {
+			workerTask.setProgress(workerTask.getProgress() + 1);
+			inFlightPermits.release();
+		}
+		if (next != null) {
+			readyQueue.add(next);
+		}
+	}
+
+	// called under this lock
+	private void commit(ChangeRequest request) {
+		if (!request.storeToken) {
+			LOGGER.debug("Change {} was not processed successfully, the token will not be moved past it", request);
+			tokenStopped = true;
+			return;
+		}
+		synchronized (coordinatorTask) {
+			try {
+				// get updated token from change, create property modification from new token and replace old token with the new one
+				coordinatorTask.setExtensionProperty(request.change.getToken());
+			} catch (SchemaException e) {
+				LOGGER.error("Couldn't store live sync token {}: {}", request.change.getToken(), e.getMessage(), e);
+				if (firstException == null) {
+					firstException = e;
+				}
+				return;
+			}
+			if (!request.change.isTokenOnly()) {
+				processedChanges++;
+				coordinatorTask.incrementProgressAndStoreStatsIfNeeded();
+			}
+		}
+	}
+
+	/**
+	 * Values of primary identifiers are normalized, so e.g. case variants of the same identifier (with case-insensitive
+	 * matching rule) get the same key. If the key cannot be determined, the change is processed by the coordinator.
+	 */
+	private Map<QName, Set<Object>> getObjectKey(Change change) {
+		ObjectClassComplexTypeDefinition objectClassDefinition = change.getObjectClassDefinition();
+		Collection<ResourceAttribute<?>> identifiers = change.getIdentifiers();
+		if (objectClassDefinition == null || identifiers == null) {
+			return null;
+		}
+		try {
+			RefinedObjectClassDefinition refinedDefinition = ctx.getRefinedSchema()
+					.getRefinedDefinition(objectClassDefinition.getTypeName());
+			Map<QName, Set<Object>> key = new HashMap<>();
+			for (ResourceAttribute<?> identifier : identifiers) {
+				if (objectClassDefinition.isPrimaryIdentifier(identifier.getElementName())) {
+					key.put(identifier.getElementName(), getNormalizedValues(identifier, refinedDefinition));
+				}
+			}
+			return key.isEmpty() ? null : key;
+		} catch (CommonException e) {
+			LOGGER.warn("Couldn't determine identifiers of the object of change {}, it will be processed after all "
+					+ "preceding changes: {}", change, e.getMessage(), e);
+			return null;
+		}
+	}
+
+	private <T> Set<Object> getNormalizedValues(ResourceAttribute<T> identifier, RefinedObjectClassDefinition refinedDefinition)
+			throws SchemaException {
+		RefinedAttributeDefinition<T> attributeDefinition = refinedDefinition != null ?
+				refinedDefinition.findAttributeDefinition(identifier.getElementName()) : null;
+		MatchingRule<T> matchingRule = attributeDefinition != null ?
+				matchingRuleRegistry.getMatchingRule(attributeDefinition.getMatchingRuleQName(), attributeDefinition.getTypeName()) :
+				null;
+		Set<Object> values = new HashSet<>();
+		for (T realValue : identifier.getRealValues()) {
+			values.add(matchingRule != null ? matchingRule.normalize(realValue) : realValue);
+		}
+		return values;
+	}
+
+	private class WorkerHandler implements LightweightTaskHandler {
+		private final OperationResult workerSpecificResult;
+
+		private WorkerHandler(OperationResult workerSpecificResult) {
+			this.workerSpecificResult = workerSpecificResult;
+		}
+
+		@Override
+		public void run(RunningTask workerTask) {
+
+			// temporary hack: how to see thread name for this task
+			workerTask.setName(workerTask.getName().getOrig() + " (" + Thread.currentThread().getName() + ")");
+			workerSpecificResult.addArbitraryObjectAsContext("subtaskName", workerTask.getName());
+
+			while (workerTask.canRun() && !isStopped()) {
+				ChangeRequest request;
+				try {
+					request = readyQueue.poll(WORKER_THREAD_WAIT_FOR_REQUEST, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					LOGGER.trace("Interrupted when waiting for next request", e);
+					return;
+				}
+				if (request != null) {
+					processRequest(request, workerTask, workerSpecificResult);
+				} else if (allChangesSubmitted) {
+					// changes waiting for other ones are put into the queue by the worker that is still running
+					LOGGER.trace("queue is empty and nothing more is expected - exiting");
+					return;
+				}
+			}
+		}
+	}
+
+	private static class ChangeRequest {
+		private final long sequenceNumber;
+		private final Change change;
+		private final Map<QName, Set<Object>> objectKey;
+		private boolean storeToken;
+
+		private ChangeRequest(long sequenceNumber, Change change, Map<QName, Set<Object>> objectKey) {
+			this.sequenceNumber = sequenceNumber;
+			this.change = change;
+			this.objectKey = objectKey;
+		}
+
+		@Override
+		public String toString() {
+			return "#" + sequenceNumber + ": " + change;
+		}
+	}
+}
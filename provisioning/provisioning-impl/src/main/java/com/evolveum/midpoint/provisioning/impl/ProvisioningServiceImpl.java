@@ -1038,7 +1038,8 @@ public class ProvisioningServiceImpl implements ProvisioningService {
 		PrismObject<ResourceType> resource;
 		try {
 
-			resource = resourceManager.getResource(resourceOid, null, task, result);
+			// the resource is not modified here, so there's no need to get a private copy of it
+			resource = resourceManager.getResource(resourceOid, GetOperationOptions.createReadOnly(), task, result);
 
 		} catch (SchemaException | ObjectNotFoundException | ExpressionEvaluationException ex) {
 			ProvisioningUtil.recordFatalError(LOGGER, result, ex.getMessage(), ex);
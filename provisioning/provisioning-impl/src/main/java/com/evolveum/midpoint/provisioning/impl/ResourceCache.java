@@ -15,9 +15,15 @@
  */
 package com.evolveum.midpoint.provisioning.impl;
 
-import java.util.HashMap;
 import java.util.Map;
-
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.evolveum.midpoint.schema.internals.InternalsConfig;
+import com.evolveum.midpoint.util.DebugDumpable;
+import com.evolveum.midpoint.util.DebugUtil;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import org.springframework.stereotype.Component;
@@ -30,21 +36,29 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
 /**
  * Class for caching ResourceType instances with a parsed schemas.
  *
+ * The cache is non-blocking: cached resources are immutable, so they can be shared by any number of threads.
+ * Read-only callers get the cached instance directly. Other callers get a private (mutable) copy, so the cost
+ * of cloning is paid only by those who really need to modify the resource.
+ *
  * @author Radovan Semancik
  *
  */
 @Component
-public class ResourceCache {
+public class ResourceCache implements DebugDumpable {
 
 	private static final Trace LOGGER = TraceManager.getTrace(ResourceCache.class);
 
-	private Map<String,PrismObject<ResourceType>> cache;
+	private final ConcurrentMap<String, CachedResource> cache = new ConcurrentHashMap<>();
+
+	/**
+	 * Statistics are kept across cache entries (i.e. they survive resource version changes).
+	 */
+	private final ConcurrentMap<String, ResourceStatistics> statistics = new ConcurrentHashMap<>();
 
     ResourceCache() {
-        cache = new HashMap<>();
     }
 
-	public synchronized void put(PrismObject<ResourceType> resource) throws SchemaException {
+	public void put(PrismObject<ResourceType> resource) throws SchemaException {
 		String oid = resource.getOid();
 		if (oid == null) {
 			throw new SchemaException("Attempt to cache "+resource+" without an OID");
@@ -55,16 +69,15 @@ public class ResourceCache {
 			throw new SchemaException("Attempt to cache "+resource+" without version");
 		}
 
-		PrismObject<ResourceType> cachedResource = cache.get(oid);
-		if (cachedResource == null) {
-			cache.put(oid, resource.createImmutableClone());
-		} else {
-			if (compareVersion(resource.getVersion(), cachedResource.getVersion())) {
-				// We already have equivalent resource, nothing to do
-			} else {
-				cache.put(oid, resource.createImmutableClone());
-			}
+		CachedResource cachedResource = cache.get(oid);
+		if (cachedResource != null && compareVersion(version, cachedResource.getVersion())) {
+			// We already have equivalent resource, nothing to do
+			return;
 		}
+		// cloning is done outside of any lock; if another thread cached the same version meanwhile, no harm is done
+		CachedResource newCachedResource = new CachedResource(resource.createImmutableClone());
+		cache.merge(oid, newCachedResource,
+				(existing, added) -> compareVersion(existing.getVersion(), added.getVersion()) ? existing : added);
 	}
 
 	private boolean compareVersion(String version1, String version2) {
@@ -77,57 +90,120 @@ public class ResourceCache {
 		return version1.equals(version2);
 	}
 
-	public synchronized PrismObject<ResourceType> get(PrismObject<ResourceType> resource, GetOperationOptions options) throws SchemaException {
+	public PrismObject<ResourceType> get(PrismObject<ResourceType> resource, GetOperationOptions options) throws SchemaException {
 		return get(resource.getOid(), resource.getVersion(), options);
 	}
 
-	public synchronized PrismObject<ResourceType> get(String oid, String requestedVersion, GetOperationOptions options) throws SchemaException {
+	public PrismObject<ResourceType> get(String oid, String requestedVersion, GetOperationOptions options) throws SchemaException {
 		if (oid == null) {
 			return null;
 		}
 
-		PrismObject<ResourceType> cachedResource = cache.get(oid);
+		CachedResource cachedResource = cache.get(oid);
 		if (cachedResource == null) {
 			return null;
 		}
 
 		if (!compareVersion(requestedVersion, cachedResource.getVersion())) {
 			LOGGER.trace("Cached resource version {} does not match requested resource version {}, purging from cache", cachedResource.getVersion(), requestedVersion);
-			cache.remove(oid);
+			// only this entry is removed; a newer one might have been put there in the meantime
+			cache.remove(oid, cachedResource);
+			getStatistics(oid).invalidations.increment();
 			return null;
 		}
 
 		if (GetOperationOptions.isReadOnly(options)) {
-			try {	// MID-4574
-				cachedResource.checkImmutability();
-			} catch (IllegalStateException ex) {
-				LOGGER.error("Failed immutability test", ex);
-				cache.remove(oid);
-
-				return null;
+			// MID-4574: walking through the whole resource is too expensive to be done on each request
+			if (InternalsConfig.consistencyChecks) {
+				try {
+					cachedResource.resource.checkImmutability();
+				} catch (IllegalStateException ex) {
+					LOGGER.error("Failed immutability test", ex);
+					cache.remove(oid, cachedResource);
+
+					return null;
+				}
 			}
-			return cachedResource;
+			getStatistics(oid).hits.increment();
+			return cachedResource.resource;
 		} else {
-			return cachedResource.clone();
+			getStatistics(oid).clones.increment();
+			return cachedResource.resource.clone();
 		}
 	}
 
 	/**
 	 * Returns currently cached version. FOR DIAGNOSTICS ONLY.
 	 */
-	public synchronized String getVersion(String oid) {
+	public String getVersion(String oid) {
 		if (oid == null) {
 			return null;
 		}
-		PrismObject<ResourceType> cachedResource = cache.get(oid);
+		CachedResource cachedResource = cache.get(oid);
 		if (cachedResource == null) {
 			return null;
 		}
 		return cachedResource.getVersion();
 	}
 
-	public synchronized void remove(String oid) {
+	public void remove(String oid) {
 		cache.remove(oid);
 	}
 
+	private ResourceStatistics getStatistics(String oid) {
+		return statistics.computeIfAbsent(oid, k -> new ResourceStatistics());
+	}
+
+	/**
+	 * Returns number of read-only hits of given resource. FOR DIAGNOSTICS AND TESTING ONLY.
+	 */
+	public long getHits(String oid) {
+		ResourceStatistics resourceStatistics = statistics.get(oid);
+		return resourceStatistics != null ? resourceStatistics.hits.sum() : 0;
+	}
+
+	/**
+	 * Returns number of (mutable) copies of given resource handed out. FOR DIAGNOSTICS AND TESTING ONLY.
+	 */
+	public long getClones(String oid) {
+		ResourceStatistics resourceStatistics = statistics.get(oid);
+		return resourceStatistics != null ? resourceStatistics.clones.sum() : 0;
+	}
+
+	@Override
+	public String debugDump(int indent) {
+		StringBuilder sb = DebugUtil.createTitleStringBuilderLn(ResourceCache.class, indent);
+		Map<String, ResourceStatistics> sorted = new TreeMap<>(statistics);
+		boolean first = true;
+		for (Map.Entry<String, ResourceStatistics> entry : sorted.entrySet()) {
+			if (!first) {
+				sb.append("\n");
+			}
+			first = false;
+			ResourceStatistics resourceStatistics = entry.getValue();
+			DebugUtil.debugDumpWithLabel(sb, entry.getKey(), "version=" + getVersion(entry.getKey())
+					+ ", hits=" + resourceStatistics.hits.sum()
+					+ ", clones=" + resourceStatistics.clones.sum()
+					+ ", invalidations=" + resourceStatistics.invalidations.sum(), indent + 1);
+		}
+		return sb.toString();
+	}
+
+	private static class CachedResource {
+		private final PrismObject<ResourceType> resource;
+
+		private CachedResource(PrismObject<ResourceType> resource) {
+			this.resource = resource;
+		}
+
+		private String getVersion() {
+			return resource.getVersion();
+		}
+	}
+
+	private static class ResourceStatistics {
+		private final LongAdder hits = new LongAdder();
+		private final LongAdder clones = new LongAdder();
+		private final LongAdder invalidations = new LongAdder();
+	}
 }
@@ -45,6 +45,7 @@ import com.evolveum.midpoint.schema.util.ObjectTypeUtil;
 import com.evolveum.midpoint.schema.util.ResourceTypeUtil;
 import com.evolveum.midpoint.schema.util.SchemaDebugUtil;
 import com.evolveum.midpoint.schema.util.ShadowUtil;
+import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.util.*;
 import com.evolveum.midpoint.util.exception.*;
 import com.evolveum.midpoint.util.logging.Trace;
@@ -72,6 +73,7 @@ import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 
@@ -1270,6 +1272,9 @@ public class ResourceObjectConverter {
 		}
 
 		ConnectorInstance connector = ctx.getConnector(ReadCapabilityType.class, parentResult);
+
+		EntitlementMembershipIndex membershipIndex = fetchAssociations && isIndexEntitlementMembership(ctx) ?
+				new EntitlementMembershipIndex() : null;
 		
 		SearchResultMetadata metadata = null;
 		try {
@@ -1283,7 +1288,7 @@ public class ResourceObjectConverter {
 						
 						try {
 							try {
-								shadow = postProcessResourceObjectRead(ctx, shadow, fetchAssociations, objResult);
+								shadow = postProcessResourceObjectRead(ctx, shadow, fetchAssociations, membershipIndex, objResult);
 							} catch (SchemaException | CommunicationException | ConfigurationException | SecurityViolationException | ObjectNotFoundException | ExpressionEvaluationException e) {
 								if (objResult.isUnknown()) {
 									objResult.recordFatalError(e);
@@ -1782,6 +1787,19 @@ public class ResourceObjectConverter {
 	public List<Change> fetchChanges(ProvisioningContext ctx, PrismProperty<?> lastToken,
 			OperationResult parentResult) throws SchemaException,
 			CommunicationException, ConfigurationException, SecurityViolationException, GenericFrameworkException, ObjectNotFoundException, ExpressionEvaluationException {
+		List<Change> changes = new ArrayList<>();
+		fetchChanges(ctx, lastToken, changes::add, parentResult);
+		return changes;
+	}
+
+	/**
+	 * Fetches changes from the connector and passes them to the handler one by one, as soon as they are
+	 * pre-processed (i.e. without waiting for the whole sync operation to finish). Changes of objects that
+	 * no longer exist on the resource are skipped. The handler can stop the processing by returning false.
+	 */
+	public void fetchChanges(ProvisioningContext ctx, PrismProperty<?> lastToken, ChangeHandler handler,
+			OperationResult parentResult) throws SchemaException,
+			CommunicationException, ConfigurationException, SecurityViolationException, GenericFrameworkException, ObjectNotFoundException, ExpressionEvaluationException {
 		Validate.notNull(parentResult, "Operation result must not be null.");
 
 		LOGGER.trace("START fetch changes, objectClass: {}", ctx.getObjectClassDefinition());
@@ -1792,81 +1810,121 @@ public class ResourceObjectConverter {
 		
 		ConnectorInstance connector = ctx.getConnector(LiveSyncCapabilityType.class, parentResult);
 		
-		// get changes from the connector
-		List<Change> changes = connector.fetchChanges(ctx.getObjectClassDefinition(), lastToken, attrsToReturn, ctx, parentResult);
-
-		Iterator<Change> iterator = changes.iterator();
-		while (iterator.hasNext()) {
-			Change change = iterator.next();
-			LOGGER.trace("Original change:\n{}", change.debugDump());
-			if (change.isTokenOnly()) {
-				continue;
-			}
-			ProvisioningContext shadowCtx = ctx;
-			AttributesToReturn shadowAttrsToReturn = attrsToReturn;
-			PrismObject<ShadowType> currentShadow = change.getCurrentShadow();
-			ObjectClassComplexTypeDefinition changeObjectClassDefinition = change.getObjectClassDefinition();
-			if (changeObjectClassDefinition == null) {
-				if (!ctx.isWildcard() || change.getObjectDelta() == null || !change.getObjectDelta().isDelete()) {
-					throw new SchemaException("No object class definition in change "+change);
+		// get changes from the connector; exceptions from pre-processing are re-thrown after the connector finishes
+		AttributesToReturn finalAttrsToReturn = attrsToReturn;
+		AtomicInteger changesCount = new AtomicInteger();
+		Holder<Exception> exceptionHolder = new Holder<>();
+		connector.fetchChanges(ctx.getObjectClassDefinition(), lastToken, attrsToReturn, ctx, change -> {
+			try {
+				if (!preProcessChange(ctx, connector, finalAttrsToReturn, change, parentResult)) {
+					return true;
 				}
+			} catch (SchemaException | CommunicationException | ConfigurationException | SecurityViolationException
+					| GenericFrameworkException | ObjectNotFoundException | ExpressionEvaluationException | RuntimeException e) {
+				exceptionHolder.setValue(e);
+				return false;
 			}
-			if (ctx.isWildcard() && changeObjectClassDefinition != null) {
-				shadowCtx = ctx.spawn(changeObjectClassDefinition.getTypeName());
-				if (shadowCtx.isWildcard()) {
-					String message = "Unkown object class "+changeObjectClassDefinition.getTypeName()+" found in synchronization delta";
-					parentResult.recordFatalError(message);
-					throw new SchemaException(message);
-				}
-				change.setObjectClassDefinition(shadowCtx.getObjectClassDefinition());
-				
-				shadowAttrsToReturn = ProvisioningUtil.createAttributesToReturn(shadowCtx);
+			changesCount.incrementAndGet();
+			return handler.handleChange(change);
+		}, parentResult);
+
+		Exception exception = exceptionHolder.getValue();
+		if (exception != null) {
+			if (exception instanceof SchemaException) {
+				throw (SchemaException) exception;
+			} else if (exception instanceof CommunicationException) {
+				throw (CommunicationException) exception;
+			} else if (exception instanceof ConfigurationException) {
+				throw (ConfigurationException) exception;
+			} else if (exception instanceof SecurityViolationException) {
+				throw (SecurityViolationException) exception;
+			} else if (exception instanceof GenericFrameworkException) {
+				throw (GenericFrameworkException) exception;
+			} else if (exception instanceof ObjectNotFoundException) {
+				throw (ObjectNotFoundException) exception;
+			} else if (exception instanceof ExpressionEvaluationException) {
+				throw (ExpressionEvaluationException) exception;
+			} else {
+				throw (RuntimeException) exception;
 			}
+		}
+
+		computeResultStatus(parentResult);
+		
+		LOGGER.trace("END fetch changes ({} changes)", changesCount.get());
+	}
+
+	/**
+	 * Completes the change (object class, current shadow) before it is passed for further processing.
+	 *
+	 * @return false if the change should be skipped
+	 */
+	private boolean preProcessChange(ProvisioningContext ctx, ConnectorInstance connector, AttributesToReturn attrsToReturn,
+			Change change, OperationResult parentResult) throws SchemaException, CommunicationException, ConfigurationException,
+			SecurityViolationException, GenericFrameworkException, ObjectNotFoundException, ExpressionEvaluationException {
+		LOGGER.trace("Original change:\n{}", change.debugDump());
+		if (change.isTokenOnly()) {
+			return true;
+		}
+		ProvisioningContext shadowCtx = ctx;
+		AttributesToReturn shadowAttrsToReturn = attrsToReturn;
+		PrismObject<ShadowType> currentShadow = change.getCurrentShadow();
+		ObjectClassComplexTypeDefinition changeObjectClassDefinition = change.getObjectClassDefinition();
+		if (changeObjectClassDefinition == null) {
+			if (!ctx.isWildcard() || change.getObjectDelta() == null || !change.getObjectDelta().isDelete()) {
+				throw new SchemaException("No object class definition in change "+change);
+			}
+		}
+		if (ctx.isWildcard() && changeObjectClassDefinition != null) {
+			shadowCtx = ctx.spawn(changeObjectClassDefinition.getTypeName());
+			if (shadowCtx.isWildcard()) {
+				String message = "Unkown object class "+changeObjectClassDefinition.getTypeName()+" found in synchronization delta";
+				parentResult.recordFatalError(message);
+				throw new SchemaException(message);
+			}
+			change.setObjectClassDefinition(shadowCtx.getObjectClassDefinition());
 			
-			if (change.getObjectDelta() == null || !change.getObjectDelta().isDelete()) {
-				if (currentShadow == null) {
-					// There is no current shadow in a change. Add it by fetching it explicitly.
-					try {
-						
-						LOGGER.trace("Re-fetching object {} because it is not in the change", change.getIdentifiers());
-						currentShadow = fetchResourceObject(shadowCtx, 
-								change.getIdentifiers(), shadowAttrsToReturn, true, parentResult);	// todo consider whether it is always necessary to fetch the entitlements
-						change.setCurrentShadow(currentShadow);
-						
-					} catch (ObjectNotFoundException ex) {
-						parentResult.recordHandledError(
-								"Object detected in change log no longer exist on the resource. Skipping processing this object.", ex);
-						LOGGER.warn("Object detected in change log no longer exist on the resource. Skipping processing this object "
-								+ ex.getMessage());
-						// TODO: Maybe change to DELETE instead of this?
-						iterator.remove();
-						continue;
-					}
-				} else {
-					if (ctx.isWildcard()) {
-						if (!MiscUtil.equals(shadowAttrsToReturn, attrsToReturn)) {
-							// re-fetch the shadow if necessary (if attributesToGet does not match)
-							ResourceObjectIdentification identification = ResourceObjectIdentification.create(shadowCtx.getObjectClassDefinition(), 
-									change.getIdentifiers());
-							identification.validatePrimaryIdenfiers();
-							LOGGER.trace("Re-fetching object {} because of attrsToReturn", identification);
-							currentShadow = connector.fetchObject(identification, shadowAttrsToReturn, ctx, parentResult);
-						}
-						
+			shadowAttrsToReturn = ProvisioningUtil.createAttributesToReturn(shadowCtx);
+		}
+		
+		if (change.getObjectDelta() == null || !change.getObjectDelta().isDelete()) {
+			if (currentShadow == null) {
+				// There is no current shadow in a change. Add it by fetching it explicitly.
+				try {
+					
+					LOGGER.trace("Re-fetching object {} because it is not in the change", change.getIdentifiers());
+					currentShadow = fetchResourceObject(shadowCtx, 
+							change.getIdentifiers(), shadowAttrsToReturn, true, parentResult);	// todo consider whether it is always necessary to fetch the entitlements
+					change.setCurrentShadow(currentShadow);
+					
+				} catch (ObjectNotFoundException ex) {
+					parentResult.recordHandledError(
+							"Object detected in change log no longer exist on the resource. Skipping processing this object.", ex);
+					LOGGER.warn("Object detected in change log no longer exist on the resource. Skipping processing this object "
+							+ ex.getMessage());
+					// TODO: Maybe change to DELETE instead of this?
+					return false;
+				}
+			} else {
+				if (ctx.isWildcard()) {
+					if (!MiscUtil.equals(shadowAttrsToReturn, attrsToReturn)) {
+						// re-fetch the shadow if necessary (if attributesToGet does not match)
+						ResourceObjectIdentification identification = ResourceObjectIdentification.create(shadowCtx.getObjectClassDefinition(), 
+								change.getIdentifiers());
+						identification.validatePrimaryIdenfiers();
+						LOGGER.trace("Re-fetching object {} because of attrsToReturn", identification);
+						currentShadow = connector.fetchObject(identification, shadowAttrsToReturn, ctx, parentResult);
 					}
-							
-					PrismObject<ShadowType> processedCurrentShadow = postProcessResourceObjectRead(shadowCtx,
-							currentShadow, true, parentResult);
-					change.setCurrentShadow(processedCurrentShadow);
+					
 				}
+						
+				PrismObject<ShadowType> processedCurrentShadow = postProcessResourceObjectRead(shadowCtx,
+						currentShadow, true, parentResult);
+				change.setCurrentShadow(processedCurrentShadow);
 			}
-			LOGGER.trace("Processed change\n:{}", change.debugDump());
 		}
-
-		computeResultStatus(parentResult);
-		
-		LOGGER.trace("END fetch changes ({} changes)", changes == null ? "null" : changes.size());
-		return changes;
+		LOGGER.trace("Processed change\n:{}", change.debugDump());
+		return true;
 	}
 	
 	/**
@@ -1874,6 +1932,12 @@ public class ResourceObjectConverter {
 	 */
 	private PrismObject<ShadowType> postProcessResourceObjectRead(ProvisioningContext ctx,
 			PrismObject<ShadowType> resourceObject, boolean fetchAssociations,
+            OperationResult parentResult) throws SchemaException, CommunicationException, ObjectNotFoundException, ConfigurationException, SecurityViolationException, ExpressionEvaluationException {
+		return postProcessResourceObjectRead(ctx, resourceObject, fetchAssociations, null, parentResult);
+	}
+
+	private PrismObject<ShadowType> postProcessResourceObjectRead(ProvisioningContext ctx,
+			PrismObject<ShadowType> resourceObject, boolean fetchAssociations, EntitlementMembershipIndex membershipIndex,
             OperationResult parentResult) throws SchemaException, CommunicationException, ObjectNotFoundException, ConfigurationException, SecurityViolationException, ExpressionEvaluationException {
 		if (resourceObject == null) {
 			return null;
@@ -1890,12 +1954,25 @@ public class ResourceObjectConverter {
 				
 		// Entitlements
         if (fetchAssociations) {
-            entitlementConverter.postProcessEntitlementsRead(ctx, resourceObject, parentResult);
+            entitlementConverter.postProcessEntitlementsRead(ctx, resourceObject, membershipIndex, parentResult);
         }
 		
 		return resourceObject;
 	}
 	
+	/**
+	 * Object-to-subject associations of searched objects can be resolved using an index built for the whole search
+	 * (see EntitlementMembershipIndex). This is switched on by a task extension property.
+	 */
+	private boolean isIndexEntitlementMembership(ProvisioningContext ctx) {
+		Task task = ctx.getTask();
+		if (task == null) {
+			return false;
+		}
+		PrismProperty<Boolean> property = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_INDEX_ENTITLEMENT_MEMBERSHIP);
+		return property != null && Boolean.TRUE.equals(property.getRealValue());
+	}
+
 	/**
 	 * Completes activation state by determining simulated activation if necessary.
 	 */
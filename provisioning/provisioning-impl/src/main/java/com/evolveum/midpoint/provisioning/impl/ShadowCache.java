@@ -37,6 +37,7 @@ import com.evolveum.midpoint.provisioning.ucf.api.ConnectorOperationOptions;
 import com.evolveum.midpoint.provisioning.ucf.api.GenericFrameworkException;
 import com.evolveum.midpoint.provisioning.util.ProvisioningUtil;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.cache.RepositoryCache;
 import com.evolveum.midpoint.schema.*;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.schema.internals.InternalCounters;
@@ -46,6 +47,7 @@ import com.evolveum.midpoint.schema.processor.*;
 import com.evolveum.midpoint.schema.processor.ObjectFactory;
 import com.evolveum.midpoint.schema.result.AsynchronousOperationResult;
 import com.evolveum.midpoint.schema.result.AsynchronousOperationReturnValue;
+import com.evolveum.midpoint.schema.result.OperationConstants;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.result.OperationResultStatus;
 import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
@@ -87,7 +89,11 @@ import javax.xml.namespace.QName;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Shadow cache is a facade that covers all the operations with shadows. It
@@ -134,6 +140,11 @@ public class ShadowCache {
 
 	private static final Trace LOGGER = TraceManager.getTrace(ShadowCache.class);
 
+	/**
+	 * Number of resource objects found by a search whose repository shadows are looked up by a single repository search.
+	 */
+	private static final int SHADOW_LOOKUP_BATCH_SIZE = 100;
+
 	/**
 	 * Get the value of repositoryService.
 	 * 
@@ -1842,111 +1853,143 @@ public class ShadowCache {
 
 		ObjectQuery attributeQuery = createAttributeQuery(query);
 
-		ResultHandler<ShadowType> resultHandler = (PrismObject<ShadowType> resourceShadow, OperationResult objResult) -> {
-				if (LOGGER.isTraceEnabled()) {
-					LOGGER.trace("Found resource object\n{}", resourceShadow.debugDump(1));
-				}
-			PrismObject<ShadowType> resultShadow;
+		ResultHandler<ShadowType> resultHandler;
+		BatchingResultHandler batchingHandler;
+		if (readFromRepository && SHADOW_LOOKUP_BATCH_SIZE > 1) {
+			batchingHandler = new BatchingResultHandler(ctx, handler, isDoDiscovery, parentResult);
+			resultHandler = batchingHandler;
+		} else {
+			batchingHandler = null;
+			resultHandler = (resourceShadow, objResult) -> processFoundResourceObject(ctx,
+					new FoundResourceObject(resourceShadow, objResult), handler, readFromRepository, isDoDiscovery, parentResult);
+		}
+
+		boolean fetchAssociations = SelectorOptions.hasToLoadPath(ShadowType.F_ASSOCIATION, options);
+
+		try {
+			return resouceObjectConverter.searchResourceObjects(ctx, resultHandler, attributeQuery,
+					fetchAssociations, parentResult);
+		} finally {
+			// Objects found before the search ended (even if it ended with an error) are processed, as without batching.
+			if (batchingHandler != null) {
+				RepositoryCache.enter();
 				try {
-					// The shadow does not have any kind or intent at this
-					// point.
-					// But at least locate the definition using object classes.
-					ProvisioningContext estimatedShadowCtx = shadowCaretaker.reapplyDefinitions(ctx, resourceShadow);
-					// Try to find shadow that corresponds to the resource
-					// object.
-					if (readFromRepository) {
-						PrismObject<ShadowType> repoShadow = lookupOrCreateLiveShadowInRepository(
-								estimatedShadowCtx, resourceShadow, true, isDoDiscovery, parentResult);
-
-						// This determines the definitions exactly. How the repo
-						// shadow should have proper kind/intent
-						ProvisioningContext shadowCtx = shadowCaretaker.applyAttributesDefinition(ctx, repoShadow);
-						// TODO: shadowState
-						repoShadow = shadowManager.updateShadow(shadowCtx, resourceShadow, repoShadow,
-								null, parentResult);
-						
-						resultShadow = completeShadow(shadowCtx, resourceShadow, repoShadow, isDoDiscovery, objResult);
-						
-						//check and fix kind/intent
-						ShadowType repoShadowType = repoShadow.asObjectable();
-						if (repoShadowType.getKind() == null || repoShadowType.getIntent() == null) { //TODO: check also empty?
-							fixKindIntentForShadow(repoShadow, ctx.getResource().asPrismObject(), false);
-						}
-						
-					} else {
-						resultShadow = resourceShadow;
-					}
+					batchingHandler.flush();
+				} finally {
+					RepositoryCache.exit();
+				}
+			}
+		}
+	}
 
-					validateShadow(resultShadow, readFromRepository);
-					
-				} catch (SchemaException e) {
-					objResult.recordFatalError("Schema error: " + e.getMessage(), e);
-					LOGGER.error("Schema error: {}", e.getMessage(), e);
-					return false;
-				} catch (ConfigurationException e) {
-					objResult.recordFatalError("Configuration error: " + e.getMessage(), e);
-					LOGGER.error("Configuration error: {}", e.getMessage(), e);
-					return false;
-				} catch (ObjectNotFoundException | ObjectAlreadyExistsException | CommunicationException
-						| SecurityViolationException | GenericConnectorException | ExpressionEvaluationException | EncryptionException e) {
-					objResult.recordFatalError(e.getMessage(), e);
-					LOGGER.error("{}", e.getMessage(), e);
-					return false;
+	private boolean processFoundResourceObject(ProvisioningContext ctx, FoundResourceObject found,
+			ResultHandler<ShadowType> handler, boolean readFromRepository, boolean isDoDiscovery, OperationResult parentResult) {
+		PrismObject<ShadowType> resourceShadow = found.resourceShadow;
+		OperationResult objResult = found.objResult;
+		if (LOGGER.isTraceEnabled()) {
+			LOGGER.trace("Found resource object\n{}", resourceShadow.debugDump(1));
+		}
+		PrismObject<ShadowType> resultShadow;
+		try {
+			// The shadow does not have any kind or intent at this
+			// point.
+			// But at least locate the definition using object classes.
+			ProvisioningContext estimatedShadowCtx = found.estimatedShadowCtx != null ?
+					found.estimatedShadowCtx : shadowCaretaker.reapplyDefinitions(ctx, resourceShadow);
+			// Try to find shadow that corresponds to the resource
+			// object.
+			if (readFromRepository) {
+				PrismObject<ShadowType> repoShadow;
+				if (found.repoShadowLookedUp) {
+					repoShadow = createShadowInRepositoryIfNeeded(estimatedShadowCtx, resourceShadow, found.repoShadow,
+							true, isDoDiscovery, parentResult);
+				} else {
+					repoShadow = lookupOrCreateLiveShadowInRepository(
+							estimatedShadowCtx, resourceShadow, true, isDoDiscovery, parentResult);
 				}
 
-				boolean doContinue;
-				try {
-					
-					doContinue =  handler.handle(resultShadow, objResult);
-					
-					objResult.computeStatus();
-					objResult.recordSuccessIfUnknown();
+				// This determines the definitions exactly. How the repo
+				// shadow should have proper kind/intent
+				ProvisioningContext shadowCtx = shadowCaretaker.applyAttributesDefinition(ctx, repoShadow);
+				// TODO: shadowState
+				repoShadow = shadowManager.updateShadow(shadowCtx, resourceShadow, repoShadow,
+						null, parentResult);
 
-                    if (!objResult.isSuccess() && !objResult.isHandledError()) {
-                        Collection<? extends ItemDelta> shadowModificationType = prismContext.deltaFactory().property()
-                                .createModificationReplacePropertyCollection(ShadowType.F_RESULT,
-                                        getResourceObjectShadowDefinition(), objResult.createOperationResultType());
-                        try {
-							ConstraintsChecker.onShadowModifyOperation(shadowModificationType);
-							repositoryService.modifyObject(ShadowType.class, resultShadow.getOid(),
-                                    shadowModificationType, objResult);
-                        } catch (ObjectNotFoundException ex) {
-                        	objResult.recordFatalError("Saving of result to " + resultShadow
-                                    + " shadow failed: Not found: " + ex.getMessage(), ex);
-                        } catch (ObjectAlreadyExistsException ex) {
-                        	objResult.recordFatalError("Saving of result to " + resultShadow
-                                    + " shadow failed: Already exists: " + ex.getMessage(), ex);
-                        } catch (SchemaException ex) {
-                        	objResult.recordFatalError("Saving of result to " + resultShadow
-                                    + " shadow failed: Schema error: " + ex.getMessage(), ex);
-                        } catch (RuntimeException e) {
-                        	objResult.recordFatalError("Saving of result to " + resultShadow
-                                    + " shadow failed: " + e.getMessage(), e);
-                        	throw e;
-                        }
-                    }
-                } catch (RuntimeException | Error e) {
-                	objResult.recordFatalError(e);
-                	throw e;
-                } finally {
-                	objResult.computeStatus();
-                	objResult.recordSuccessIfUnknown();
-                    // FIXME: hack. Hardcoded ugly summarization of successes. something like
-                    // AbstractSummarizingResultHandler [lazyman]
-                    if (objResult.isSuccess()) {
-                    	objResult.getSubresults().clear();
-                    }
-                    parentResult.summarize();
-                }
-
-				return doContinue;
-			};
+				resultShadow = completeShadow(shadowCtx, resourceShadow, repoShadow, isDoDiscovery, objResult);
 
-		boolean fetchAssociations = SelectorOptions.hasToLoadPath(ShadowType.F_ASSOCIATION, options);
+				//check and fix kind/intent
+				ShadowType repoShadowType = repoShadow.asObjectable();
+				if (repoShadowType.getKind() == null || repoShadowType.getIntent() == null) { //TODO: check also empty?
+					fixKindIntentForShadow(repoShadow, ctx.getResource().asPrismObject(), false);
+				}
+
+			} else {
+				resultShadow = resourceShadow;
+			}
+
+			validateShadow(resultShadow, readFromRepository);
+
+		} catch (SchemaException e) {
+			objResult.recordFatalError("Schema error: " + e.getMessage(), e);
+			LOGGER.error("Schema error: {}", e.getMessage(), e);
+			return false;
+		} catch (ConfigurationException e) {
+			objResult.recordFatalError("Configuration error: " + e.getMessage(), e);
+			LOGGER.error("Configuration error: {}", e.getMessage(), e);
+			return false;
+		} catch (ObjectNotFoundException | ObjectAlreadyExistsException | CommunicationException
+				| SecurityViolationException | GenericConnectorException | ExpressionEvaluationException | EncryptionException e) {
+			objResult.recordFatalError(e.getMessage(), e);
+			LOGGER.error("{}", e.getMessage(), e);
+			return false;
+		}
+
+		boolean doContinue;
+		try {
+
+			doContinue =  handler.handle(resultShadow, objResult);
 
-		return resouceObjectConverter.searchResourceObjects(ctx, resultHandler, attributeQuery,
-				fetchAssociations, parentResult);
+			objResult.computeStatus();
+			objResult.recordSuccessIfUnknown();
+
+			if (!objResult.isSuccess() && !objResult.isHandledError()) {
+				Collection<? extends ItemDelta> shadowModificationType = prismContext.deltaFactory().property()
+						.createModificationReplacePropertyCollection(ShadowType.F_RESULT,
+								getResourceObjectShadowDefinition(), objResult.createOperationResultType());
+				try {
+					ConstraintsChecker.onShadowModifyOperation(shadowModificationType);
+					repositoryService.modifyObject(ShadowType.class, resultShadow.getOid(),
+							shadowModificationType, objResult);
+				} catch (ObjectNotFoundException ex) {
+					objResult.recordFatalError("Saving of result to " + resultShadow
+							+ " shadow failed: Not found: " + ex.getMessage(), ex);
+				} catch (ObjectAlreadyExistsException ex) {
+					objResult.recordFatalError("Saving of result to " + resultShadow
+							+ " shadow failed: Already exists: " + ex.getMessage(), ex);
+				} catch (SchemaException ex) {
+					objResult.recordFatalError("Saving of result to " + resultShadow
+							+ " shadow failed: Schema error: " + ex.getMessage(), ex);
+				} catch (RuntimeException e) {
+					objResult.recordFatalError("Saving of result to " + resultShadow
+							+ " shadow failed: " + e.getMessage(), e);
+					throw e;
+				}
+			}
+		} catch (RuntimeException | Error e) {
+			objResult.recordFatalError(e);
+			throw e;
+		} finally {
+			objResult.computeStatus();
+			objResult.recordSuccessIfUnknown();
+			// FIXME: hack. Hardcoded ugly summarization of successes. something like
+			// AbstractSummarizingResultHandler [lazyman]
+			if (objResult.isSuccess()) {
+				objResult.getSubresults().clear();
+			}
+			parentResult.summarize();
+		}
 
+		return doContinue;
 	}
 
 	ObjectQuery createAttributeQuery(ObjectQuery query) throws SchemaException {
@@ -2108,7 +2151,14 @@ public class ShadowCache {
 					CommunicationException, SecurityViolationException, GenericConnectorException, ExpressionEvaluationException, EncryptionException {
 		PrismObject<ShadowType> repoShadow = shadowManager.lookupLiveShadowInRepository(ctx, resourceShadow,
 				parentResult);
+		return createShadowInRepositoryIfNeeded(ctx, resourceShadow, repoShadow, unknownIntent, isDoDiscovery, parentResult);
+	}
 
+	private PrismObject<ShadowType> createShadowInRepositoryIfNeeded(ProvisioningContext ctx,
+			PrismObject<ShadowType> resourceShadow, PrismObject<ShadowType> repoShadow, boolean unknownIntent,
+			boolean isDoDiscovery, OperationResult parentResult)
+					throws SchemaException, ConfigurationException, ObjectNotFoundException,
+					CommunicationException, SecurityViolationException, GenericConnectorException, ExpressionEvaluationException, EncryptionException {
 		if (repoShadow == null) {
 			if (LOGGER.isTraceEnabled()) {
 				LOGGER.trace("Shadow object (in repo) corresponding to the resource object (on the resource) was not found. "
@@ -2338,98 +2388,160 @@ public class ShadowCache {
 
 		final ProvisioningContext ctx = ctxFactory.create(shadowCoordinates, task, parentResult);
 
-		List<Change> changes;
+		boolean retryUnhandledError = true;
+		PrismProperty<Boolean> tokenRetryUnhandledErrProperty = task.getExtensionProperty(SchemaConstants.SYNC_TOKEN_RETRY_UNHANDLED);
+		if (tokenRetryUnhandledErrProperty != null && tokenRetryUnhandledErrProperty.getRealValue() != null) {
+			retryUnhandledError = tokenRetryUnhandledErrProperty.getRealValue();
+		}
+
 		try {
 
-			changes = resouceObjectConverter.fetchChanges(ctx, lastToken, parentResult);
+			int processedChanges;
+			int workerThreads = getWorkerThreadsCount(task);
+			if (workerThreads > 0 && task instanceof RunningTask) {
+				processedChanges = synchronizeInWorkers(ctx, lastToken, retryUnhandledError, (RunningTask) task, workerThreads, parentResult);
+			} else {
+				processedChanges = synchronizeSerially(ctx, lastToken, retryUnhandledError, task, parentResult);
+			}
 
-			LOGGER.trace("Found {} change(s). Start processing it (them).", changes.size());
+			task.flushPendingModifications(parentResult);
+			return processedChanges;
 
-			int processedChanges = 0;
+		} catch (SchemaException | CommunicationException | GenericFrameworkException | ConfigurationException | 
+				ObjectNotFoundException | ObjectAlreadyExistsException | ExpressionEvaluationException | EncryptionException | RuntimeException | Error ex) {
+			parentResult.recordFatalError(ex);
+			throw ex;
+		}
+	}
 
-			for (Change change : changes) {
+	private int synchronizeSerially(ProvisioningContext ctx, PrismProperty<?> lastToken, boolean retryUnhandledError,
+			Task task, OperationResult parentResult) throws ObjectNotFoundException, CommunicationException,
+			GenericFrameworkException, SchemaException, ConfigurationException, SecurityViolationException,
+			ObjectAlreadyExistsException, ExpressionEvaluationException, EncryptionException {
 
-				if (change.isTokenOnly()) {
-					LOGGER.trace("Found token-only change: {}", change);
-					task.setExtensionProperty(change.getToken());
-					continue;
-				}
+		List<Change> changes = resouceObjectConverter.fetchChanges(ctx, lastToken, parentResult);
 
-				ObjectClassComplexTypeDefinition changeObjectClassDefinition = change.getObjectClassDefinition();
+		LOGGER.trace("Found {} change(s). Start processing it (them).", changes.size());
 
-				ProvisioningContext shadowCtx;
-				PrismObject<ShadowType> oldShadow = null;
-				if (changeObjectClassDefinition == null) {
-					if (change.getObjectDelta() != null && change.getObjectDelta().isDelete()) {
-						oldShadow = change.getOldShadow();
-						if (oldShadow == null) {
-							oldShadow = shadowManager.findOrAddShadowFromChangeGlobalContext(ctx, change,
-									parentResult);
-						}
-						if (oldShadow == null) {
-							LOGGER.debug(
-									"No old shadow for delete synchronization event {}, we probably did not know about that object anyway, so well be ignoring this event",
-									change);
-							continue;
-						}
-						shadowCtx = ctx.spawn(oldShadow);
-					} else {
-						throw new SchemaException("No object class definition in change " + change);
-					}
-				} else {
-					shadowCtx = ctx.spawn(changeObjectClassDefinition.getTypeName());
-				}
+		int processedChanges = 0;
 
-				processChange(shadowCtx, change, oldShadow, parentResult);
-
-				// this is the case,when we want to skip processing of change,
-				// because the shadow was not created or found to the resource
-				// object
-				// it may be caused with the fact, that the object which was
-				// created in the resource was deleted before the sync run
-				// such a change should be skipped to process consistent changes
-				if (change.getOldShadow() == null) {
-					PrismProperty<?> newToken = change.getToken();
-					task.setExtensionProperty(newToken);
-					processedChanges++;
-					if (task instanceof RunningTask) {
-						((RunningTask) task).incrementProgressAndStoreStatsIfNeeded();
-					}
-					LOGGER.debug(
-							"Skipping processing change. Can't find appropriate shadow (e.g. the object was deleted on the resource meantime).");
-					continue;
-				}
-				boolean isSuccess = processSynchronization(shadowCtx, change, parentResult);
-                                
-				boolean retryUnhandledError = true;
+		for (Change change : changes) {
 
-				PrismProperty tokenRetryUnhandledErrProperty = task.getExtensionProperty(SchemaConstants.SYNC_TOKEN_RETRY_UNHANDLED);
-				if (tokenRetryUnhandledErrProperty != null) {
-					retryUnhandledError = (boolean) tokenRetryUnhandledErrProperty.getRealValue();
-				}
+			if (change.isTokenOnly()) {
+				LOGGER.trace("Found token-only change: {}", change);
+				task.setExtensionProperty(change.getToken());
+				continue;
+			}
 
-				if (!retryUnhandledError || isSuccess) {                                    
-					// get updated token from change, create property modification from new token and replace old token with the new one
-					task.setExtensionProperty(change.getToken());
-					processedChanges++;
-					if (task instanceof RunningTask) {
-						((RunningTask) task).incrementProgressAndStoreStatsIfNeeded();
-					}
+			if (processLiveSyncChange(ctx, change, retryUnhandledError, null, parentResult)) {
+				// get updated token from change, create property modification from new token and replace old token with the new one
+				task.setExtensionProperty(change.getToken());
+				processedChanges++;
+				if (task instanceof RunningTask) {
+					((RunningTask) task).incrementProgressAndStoreStatsIfNeeded();
 				}
 			}
+		}
+
+		// also if no changes was detected, update token
+		if (changes.isEmpty() && lastToken != null) {
+			LOGGER.trace("No changes to synchronize on {}", ctx.getResource());
+			task.setExtensionProperty(lastToken);
+		}
+		return processedChanges;
+	}
+
+	/**
+	 * Changes are processed by worker threads as soon as they are fetched from the resource.
+	 * See {@link LiveSyncPipeline} for the ordering and token handling rules.
+	 */
+	private int synchronizeInWorkers(ProvisioningContext ctx, PrismProperty<?> lastToken, boolean retryUnhandledError,
+			RunningTask task, int workerThreads, OperationResult parentResult) throws ObjectNotFoundException,
+			CommunicationException, GenericFrameworkException, SchemaException, ConfigurationException,
+			SecurityViolationException, ObjectAlreadyExistsException, ExpressionEvaluationException, EncryptionException {
+
+		LOGGER.trace("Processing changes in {} worker thread(s)", workerThreads);
+		LiveSyncPipeline pipeline = new LiveSyncPipeline(this, taskManager, matchingRuleRegistry, ctx, task, retryUnhandledError, workerThreads);
+		pipeline.start();
+		try {
+			resouceObjectConverter.fetchChanges(ctx, lastToken, change -> pipeline.submit(change, parentResult), parentResult);
+		} catch (Throwable t) {
+			// changes submitted so far are processed; the token is moved accordingly
+			pipeline.waitForWorkers(parentResult);
+			throw t;
+		}
+		int processedChanges = pipeline.finish(parentResult);
+
+		// also if no changes was detected, update token
+		if (pipeline.isEmpty() && lastToken != null) {
+			LOGGER.trace("No changes to synchronize on {}", ctx.getResource());
+			task.setExtensionProperty(lastToken);
+		}
+		return processedChanges;
+	}
+
+	/**
+	 * Processes a single (not token-only) live sync change.
+	 *
+	 * @param workerTask Task of the worker thread that processes the change (if any).
+	 * @return true if the change was processed in a way that allows moving the token after it
+	 */
+	boolean processLiveSyncChange(ProvisioningContext ctx, Change change, boolean retryUnhandledError, RunningTask workerTask,
+			OperationResult parentResult) throws ObjectNotFoundException, CommunicationException, GenericFrameworkException,
+			SchemaException, ConfigurationException, SecurityViolationException, ObjectAlreadyExistsException,
+			ExpressionEvaluationException, EncryptionException {
+
+		ObjectClassComplexTypeDefinition changeObjectClassDefinition = change.getObjectClassDefinition();
 
-			// also if no changes was detected, update token
-			if (changes.isEmpty() && lastToken != null) {
-				LOGGER.trace("No changes to synchronize on {}", ctx.getResource());
-				task.setExtensionProperty(lastToken);
+		ProvisioningContext shadowCtx;
+		PrismObject<ShadowType> oldShadow = null;
+		if (changeObjectClassDefinition == null) {
+			if (change.getObjectDelta() != null && change.getObjectDelta().isDelete()) {
+				oldShadow = change.getOldShadow();
+				if (oldShadow == null) {
+					oldShadow = shadowManager.findOrAddShadowFromChangeGlobalContext(ctx, change,
+							parentResult);
+				}
+				if (oldShadow == null) {
+					LOGGER.debug(
+							"No old shadow for delete synchronization event {}, we probably did not know about that object anyway, so well be ignoring this event",
+							change);
+					return true;
+				}
+				shadowCtx = ctx.spawn(oldShadow);
+			} else {
+				throw new SchemaException("No object class definition in change " + change);
 			}
-			task.flushPendingModifications(parentResult);
-			return processedChanges;
+		} else {
+			shadowCtx = ctx.spawn(changeObjectClassDefinition.getTypeName());
+		}
+		if (workerTask != null) {
+			shadowCtx.setTask(workerTask);
+		}
 
-		} catch (SchemaException | CommunicationException | GenericFrameworkException | ConfigurationException | 
-				ObjectNotFoundException | ObjectAlreadyExistsException | ExpressionEvaluationException | EncryptionException | RuntimeException | Error ex) {
-			parentResult.recordFatalError(ex);
-			throw ex;
+		processChange(shadowCtx, change, oldShadow, parentResult);
+
+		// this is the case,when we want to skip processing of change,
+		// because the shadow was not created or found to the resource
+		// object
+		// it may be caused with the fact, that the object which was
+		// created in the resource was deleted before the sync run
+		// such a change should be skipped to process consistent changes
+		if (change.getOldShadow() == null) {
+			LOGGER.debug(
+					"Skipping processing change. Can't find appropriate shadow (e.g. the object was deleted on the resource meantime).");
+			return true;
+		}
+		boolean isSuccess = processSynchronization(shadowCtx, change, parentResult);
+		return !retryUnhandledError || isSuccess;
+	}
+
+	private int getWorkerThreadsCount(Task task) {
+		PrismProperty<Integer> workerThreadsPrismProperty = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_WORKER_THREADS);
+		if (workerThreadsPrismProperty != null && workerThreadsPrismProperty.getRealValue() != null) {
+			return workerThreadsPrismProperty.getRealValue();
+		} else {
+			return 0;
 		}
 	}
 
@@ -3273,4 +3385,140 @@ public class ShadowCache {
 //		}
 	}
 
+	/**
+	 * Resource object found by a search, along with its repository shadow (if it was already looked up).
+	 */
+	private static class FoundResourceObject {
+
+		private final PrismObject<ShadowType> resourceShadow;
+		private OperationResult objResult;
+		private ProvisioningContext estimatedShadowCtx;
+		private PrismObject<ShadowType> repoShadow;
+		private boolean repoShadowLookedUp;
+
+		private FoundResourceObject(PrismObject<ShadowType> resourceShadow, OperationResult objResult) {
+			this.resourceShadow = resourceShadow;
+			this.objResult = objResult;
+		}
+	}
+
+	/**
+	 * Buffers resource objects found by a search, so that their shadows can be looked up in the repository
+	 * by one search per batch (instead of one search per object). The objects are then processed in the order
+	 * in which they were found. Objects that couldn't be looked up in the batch are looked up individually
+	 * when processed. The same applies to objects that share the primary identifier with an object found earlier
+	 * in the batch: their shadow may be created only when the earlier object is processed.
+	 *
+	 * The operation result of each object is created when the object is processed (the result provided by
+	 * the resource object converter is closed when the object is buffered), so any errors are reported
+	 * for the particular object, as without batching.
+	 */
+	private class BatchingResultHandler implements ResultHandler<ShadowType> {
+
+		private final ProvisioningContext ctx;
+		private final ResultHandler<ShadowType> handler;
+		private final boolean isDoDiscovery;
+		private final OperationResult parentResult;
+		private final List<FoundResourceObject> buffer = new ArrayList<>();
+		private boolean stopped;
+
+		private BatchingResultHandler(ProvisioningContext ctx, ResultHandler<ShadowType> handler, boolean isDoDiscovery,
+				OperationResult parentResult) {
+			this.ctx = ctx;
+			this.handler = handler;
+			this.isDoDiscovery = isDoDiscovery;
+			this.parentResult = parentResult;
+		}
+
+		@Override
+		public boolean handle(PrismObject<ShadowType> resourceShadow, OperationResult converterResult) {
+			buffer.add(new FoundResourceObject(resourceShadow, null));
+			return buffer.size() < SHADOW_LOOKUP_BATCH_SIZE || flush();
+		}
+
+		private boolean flush() {
+			if (stopped || buffer.isEmpty()) {
+				buffer.clear();
+				return !stopped;
+			}
+			List<FoundResourceObject> batch = new ArrayList<>(buffer);
+			buffer.clear();
+			lookupShadows(batch);
+			for (FoundResourceObject found : batch) {
+				found.objResult = parentResult.createMinorSubresult(OperationConstants.OPERATION_SEARCH_RESULT);
+				if (!processFoundResourceObject(ctx, found, handler, true, isDoDiscovery, parentResult)) {
+					stopped = true;
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void lookupShadows(List<FoundResourceObject> batch) {
+			// objects of the same object class are looked up together
+			Map<QName, List<FoundResourceObject>> byObjectClass = new LinkedHashMap<>();
+			for (FoundResourceObject found : batch) {
+				try {
+					found.estimatedShadowCtx = shadowCaretaker.reapplyDefinitions(ctx, found.resourceShadow);
+					RefinedObjectClassDefinition objectClassDefinition = found.estimatedShadowCtx.getObjectClassDefinition();
+					if (objectClassDefinition != null) {
+						byObjectClass.computeIfAbsent(objectClassDefinition.getTypeName(), k -> new ArrayList<>()).add(found);
+					}
+				} catch (SchemaException | ConfigurationException | ObjectNotFoundException | CommunicationException
+						| ExpressionEvaluationException e) {
+					LOGGER.debug("Couldn't determine definitions for {}, it will be processed individually: {}",
+							found.resourceShadow, e.getMessage(), e);
+					found.estimatedShadowCtx = null;
+				}
+			}
+			for (List<FoundResourceObject> objectClassGroup : byObjectClass.values()) {
+				List<FoundResourceObject> group = selectObjectsWithDistinctIdentifiers(objectClassGroup);
+				if (group.isEmpty()) {
+					continue;
+				}
+				List<PrismObject<ShadowType>> resourceShadows = new ArrayList<>(group.size());
+				for (FoundResourceObject found : group) {
+					resourceShadows.add(found.resourceShadow);
+				}
+				try {
+					List<PrismObject<ShadowType>> repoShadows = shadowManager.lookupLiveShadowsInRepository(
+							group.get(0).estimatedShadowCtx, resourceShadows, parentResult);
+					for (int i = 0; i < group.size(); i++) {
+						group.get(i).repoShadow = repoShadows.get(i);
+						group.get(i).repoShadowLookedUp = true;
+					}
+				} catch (SchemaException | ConfigurationException | ObjectNotFoundException | CommunicationException
+						| ExpressionEvaluationException e) {
+					LOGGER.debug("Couldn't look up shadows for {} resource objects, they will be looked up individually: {}",
+							group.size(), e.getMessage(), e);
+				}
+			}
+		}
+
+		/**
+		 * Objects without (single-valued) primary identifier and objects that share the identifier with an object
+		 * found earlier are left out; they are looked up when processed.
+		 */
+		private List<FoundResourceObject> selectObjectsWithDistinctIdentifiers(List<FoundResourceObject> objects) {
+			List<FoundResourceObject> selected = new ArrayList<>(objects.size());
+			Set<Object> identifierValues = new HashSet<>();
+			for (FoundResourceObject found : objects) {
+				try {
+					Object identifierValue = shadowManager.getNormalizedPrimaryIdentifierValue(found.estimatedShadowCtx,
+							found.resourceShadow);
+					if (identifierValue != null && identifierValues.add(identifierValue)) {
+						selected.add(found);
+					} else {
+						LOGGER.trace("Shadow of {} will be looked up individually", found.resourceShadow);
+					}
+				} catch (SchemaException | ConfigurationException | ObjectNotFoundException | CommunicationException
+						| ExpressionEvaluationException e) {
+					LOGGER.debug("Couldn't determine primary identifier of {}, it will be processed individually: {}",
+							found.resourceShadow, e.getMessage(), e);
+				}
+			}
+			return selected;
+		}
+	}
+
 }
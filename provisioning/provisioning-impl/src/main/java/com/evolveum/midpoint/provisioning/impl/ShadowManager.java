@@ -19,7 +19,9 @@ package com.evolveum.midpoint.provisioning.impl;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
@@ -76,6 +78,7 @@ import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.task.api.TaskManager;
 import com.evolveum.midpoint.util.DebugUtil;
 import com.evolveum.midpoint.util.MiscUtil;
+import com.evolveum.midpoint.util.QNameUtil;
 import com.evolveum.midpoint.util.exception.CommunicationException;
 import com.evolveum.midpoint.util.exception.ConfigurationException;
 import com.evolveum.midpoint.util.exception.ExpressionEvaluationException;
@@ -176,6 +179,119 @@ public class ShadowManager {
 
 		LOGGER.trace("lookupShadow found {} objects", foundShadows.size());
 		
+		return selectLiveShadow(resourceShadow, foundShadows, parentResult);
+	}
+
+	/**
+	 * Batch variant of {@link #lookupLiveShadowInRepository(ProvisioningContext, PrismObject, OperationResult)}:
+	 * locates shadows for a number of resource objects (of the object class given by the context) using
+	 * a single repository search by their primary identifiers.
+	 *
+	 * @return live shadows (or nulls) in the order of the resource objects
+	 */
+	public List<PrismObject<ShadowType>> lookupLiveShadowsInRepository(ProvisioningContext ctx,
+			List<PrismObject<ShadowType>> resourceShadows, OperationResult parentResult)
+					throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException, ExpressionEvaluationException {
+
+		// identifier values (normalized, as they are stored in repo) -> indices of resource objects
+		Map<String, List<Integer>> indicesByIdentifier = new HashMap<>();
+		List<Object> identifierValues = new ArrayList<>();
+		PrismPropertyDefinition identifierDefinition = null;
+		QName objectClass = null;
+		List<Integer> individually = new ArrayList<>();
+		for (int i = 0; i < resourceShadows.size(); i++) {
+			PrismObject<ShadowType> resourceShadow = resourceShadows.get(i);
+			PrismProperty<?> identifier = ShadowUtil.getAttributesContainer(resourceShadow).getPrimaryIdentifier();
+			QName shadowObjectClass = resourceShadow.getPropertyRealValue(ShadowType.F_OBJECT_CLASS, QName.class);
+			if (identifier == null || identifier.size() != 1 || identifier.getDefinition() == null
+					|| identifierDefinition != null && !QNameUtil.match(identifierDefinition.getName(), identifier.getElementName())
+					|| objectClass != null && !QNameUtil.match(objectClass, shadowObjectClass)) {
+				individually.add(i);
+				continue;
+			}
+			identifierDefinition = identifier.getDefinition();
+			objectClass = shadowObjectClass;
+			Object value = getNormalizedPrimaryIdentifierValue(ctx, resourceShadow);
+			String key = String.valueOf(value);
+			List<Integer> indices = indicesByIdentifier.get(key);
+			if (indices == null) {
+				indices = new ArrayList<>();
+				indicesByIdentifier.put(key, indices);
+				identifierValues.add(value);
+			}
+			indices.add(i);
+		}
+
+		List<List<PrismObject<ShadowType>>> foundShadows = new ArrayList<>(resourceShadows.size());
+		for (int i = 0; i < resourceShadows.size(); i++) {
+			foundShadows.add(new ArrayList<>());
+		}
+		if (!identifierValues.isEmpty()) {
+			ObjectQuery query = prismContext.queryFor(ShadowType.class)
+					.itemWithDef(identifierDefinition, ShadowType.F_ATTRIBUTES, identifierDefinition.getName()).eq(identifierValues)
+					.and().item(ShadowType.F_OBJECT_CLASS).eq(objectClass)
+					.and().item(ShadowType.F_RESOURCE_REF).ref(ctx.getResourceOid())
+					.build();
+			if (LOGGER.isTraceEnabled()) {
+				LOGGER.trace("Searching for shadows of {} resource objects using filter:\n{}", identifierValues.size(), query.debugDump());
+			}
+			List<PrismObject<ShadowType>> shadows = repositoryService.searchObjects(ShadowType.class, query, null, parentResult);
+			MiscSchemaUtil.reduceSearchResult(shadows);
+			LOGGER.trace("lookupShadows found {} objects", shadows.size());
+
+			ItemPath identifierPath = ItemPath.create(ShadowType.F_ATTRIBUTES, identifierDefinition.getName());
+			for (PrismObject<ShadowType> shadow : shadows) {
+				PrismProperty<?> repoIdentifier = shadow.findProperty(identifierPath);
+				List<Integer> indices = repoIdentifier != null && repoIdentifier.size() == 1
+						? indicesByIdentifier.get(String.valueOf(repoIdentifier.getRealValue())) : null;
+				if (indices == null) {
+					// We cannot tell to which resource object the shadow belongs (e.g. because of different representation
+					// of the identifier value); so let's not risk creating duplicate shadows and look them up one by one.
+					LOGGER.trace("Couldn't match {} to the resource objects, looking up the shadows individually", shadow);
+					return lookupLiveShadowsIndividually(ctx, resourceShadows, parentResult);
+				}
+				for (int i : indices) {
+					foundShadows.get(i).add(shadow);
+				}
+			}
+		}
+
+		List<PrismObject<ShadowType>> rv = new ArrayList<>(resourceShadows.size());
+		for (int i = 0; i < resourceShadows.size(); i++) {
+			if (individually.contains(i)) {
+				rv.add(lookupLiveShadowInRepository(ctx, resourceShadows.get(i), parentResult));
+			} else {
+				rv.add(selectLiveShadow(resourceShadows.get(i), foundShadows.get(i), parentResult));
+			}
+		}
+		return rv;
+	}
+
+	/**
+	 * Returns the value of the (single-valued) primary identifier of a resource object, normalized as it is stored
+	 * in the repository. Returns null if there is no such value, i.e. if the shadow cannot be looked up in a batch.
+	 */
+	public Object getNormalizedPrimaryIdentifierValue(ProvisioningContext ctx, PrismObject<ShadowType> resourceShadow)
+			throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException, ExpressionEvaluationException {
+		PrismProperty<?> identifier = ShadowUtil.getAttributesContainer(resourceShadow).getPrimaryIdentifier();
+		if (identifier == null || identifier.size() != 1 || identifier.getDefinition() == null) {
+			return null;
+		}
+		return getNormalizedValue(identifier, ctx.getObjectClassDefinition()).get(0).getValue();
+	}
+
+	private List<PrismObject<ShadowType>> lookupLiveShadowsIndividually(ProvisioningContext ctx,
+			List<PrismObject<ShadowType>> resourceShadows, OperationResult parentResult)
+					throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException, ExpressionEvaluationException {
+		List<PrismObject<ShadowType>> rv = new ArrayList<>(resourceShadows.size());
+		for (PrismObject<ShadowType> resourceShadow : resourceShadows) {
+			rv.add(lookupLiveShadowInRepository(ctx, resourceShadow, parentResult));
+		}
+		return rv;
+	}
+
+	private PrismObject<ShadowType> selectLiveShadow(PrismObject<ShadowType> resourceShadow,
+			List<PrismObject<ShadowType>> foundShadows, OperationResult parentResult) throws SchemaException {
 		PrismObject<ShadowType> liveShadow = eliminateDeadShadows(foundShadows, parentResult);
 		
 		if (liveShadow == null) {
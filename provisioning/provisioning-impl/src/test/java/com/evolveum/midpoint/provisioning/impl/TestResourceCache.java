@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.impl;
+
+import static org.testng.AssertJUnit.*;
+
+import java.io.IOException;
+
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.constants.MidPointConstants;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+
+/**
+ * Tests sharing of cached resources between read-only callers, cloning for the others, and invalidation
+ * of entries with outdated version.
+ */
+public class TestResourceCache {
+
+	private static final String OID_1 = "ef2bc95b-76e0-59e2-86d6-9999cccccc01";
+	private static final String OID_2 = "ef2bc95b-76e0-59e2-86d6-9999cccccc02";
+
+	@BeforeSuite
+	public void setup() throws SchemaException, SAXException, IOException {
+		PrettyPrinter.setDefaultNamespacePrefix(MidPointConstants.NS_MIDPOINT_PUBLIC_PREFIX);
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+	}
+
+	@Test
+	public void test100ReadOnlyGetsShareCachedInstance() throws Exception {
+		System.out.println("===[ test100ReadOnlyGetsShareCachedInstance ]===");
+
+		ResourceCache cache = new ResourceCache();
+		PrismObject<ResourceType> resource = createResource(OID_1, "1");
+		cache.put(resource);
+
+		PrismObject<ResourceType> readOnly1 = cache.get(OID_1, "1", GetOperationOptions.createReadOnly());
+		PrismObject<ResourceType> readOnly2 = cache.get(resource, GetOperationOptions.createReadOnly());
+
+		assertNotNull("No cached resource", readOnly1);
+		assertSame("Read-only callers do not share the cached instance", readOnly1, readOnly2);
+		assertNotSame("Resource was cached without cloning", resource, readOnly1);
+		assertTrue("Cached resource is not immutable", readOnly1.isImmutable());
+		assertFalse("Original resource was made immutable", resource.isImmutable());
+
+		assertEquals("Wrong # of hits", 2, cache.getHits(OID_1));
+		assertEquals("Wrong # of clones", 0, cache.getClones(OID_1));
+	}
+
+	@Test
+	public void test110MutableGetsReturnClone() throws Exception {
+		System.out.println("===[ test110MutableGetsReturnClone ]===");
+
+		ResourceCache cache = new ResourceCache();
+		cache.put(createResource(OID_1, "1"));
+		PrismObject<ResourceType> cached = cache.get(OID_1, "1", GetOperationOptions.createReadOnly());
+
+		PrismObject<ResourceType> mutable1 = cache.get(OID_1, "1", null);
+		PrismObject<ResourceType> mutable2 = cache.get(OID_1, "1", GetOperationOptions.createRaw());
+
+		assertNotSame("Cached instance was returned to a caller that is not read-only", cached, mutable1);
+		assertNotSame("Callers that are not read-only share the same copy", mutable1, mutable2);
+		assertFalse("Clone is immutable", mutable1.isImmutable());
+		assertTrue("Clone differs from the cached resource", cached.equivalent(mutable1));
+
+		mutable1.asObjectable().setDescription("modified clone");
+		assertNull("Cached resource was modified", cached.asObjectable().getDescription());
+		assertNull("Other clone was modified", mutable2.asObjectable().getDescription());
+
+		assertEquals("Wrong # of hits", 1, cache.getHits(OID_1));
+		assertEquals("Wrong # of clones", 2, cache.getClones(OID_1));
+	}
+
+	@Test
+	public void test200VersionMismatchRemovesOnlyStaleEntry() throws Exception {
+		System.out.println("===[ test200VersionMismatchRemovesOnlyStaleEntry ]===");
+
+		ResourceCache cache = new ResourceCache();
+		cache.put(createResource(OID_1, "1"));
+		cache.put(createResource(OID_2, "1"));
+		cache.get(OID_1, "1", GetOperationOptions.createReadOnly());
+
+		PrismObject<ResourceType> stale = cache.get(OID_1, "2", GetOperationOptions.createReadOnly());
+
+		assertNull("Resource with outdated version was returned", stale);
+		assertNull("Stale entry was not removed", cache.getVersion(OID_1));
+		assertEquals("Other entry was removed", "1", cache.getVersion(OID_2));
+		assertNotNull("Other resource is not cached any more", cache.get(OID_2, "1", GetOperationOptions.createReadOnly()));
+		assertEquals("Statistics were not kept", 1, cache.getHits(OID_1));
+
+		cache.put(createResource(OID_1, "2"));
+		PrismObject<ResourceType> current = cache.get(OID_1, "2", GetOperationOptions.createReadOnly());
+
+		assertNotNull("Current version is not cached", current);
+		assertEquals("Wrong cached version", "2", current.getVersion());
+		assertEquals("Wrong # of hits", 2, cache.getHits(OID_1));
+		assertEquals("Wrong # of hits of the other resource", 1, cache.getHits(OID_2));
+	}
+
+	@Test
+	public void test210NewVersionReplacesEntry() throws Exception {
+		System.out.println("===[ test210NewVersionReplacesEntry ]===");
+
+		ResourceCache cache = new ResourceCache();
+		cache.put(createResource(OID_1, "1"));
+		PrismObject<ResourceType> cached = cache.get(OID_1, "1", GetOperationOptions.createReadOnly());
+
+		// putting the same version again keeps the instance that read-only callers already share
+		cache.put(createResource(OID_1, "1"));
+		assertSame("Equivalent version replaced the cached instance", cached,
+				cache.get(OID_1, "1", GetOperationOptions.createReadOnly()));
+
+		cache.put(createResource(OID_1, "2"));
+		PrismObject<ResourceType> current = cache.get(OID_1, "2", GetOperationOptions.createReadOnly());
+		assertNotNull("New version is not cached", current);
+		assertNotSame("Old version is still cached", cached, current);
+		assertEquals("Wrong cached version", "2", cache.getVersion(OID_1));
+	}
+
+	private PrismObject<ResourceType> createResource(String oid, String version) {
+		PrismObject<ResourceType> resource = new ResourceType(PrismTestUtil.getPrismContext())
+				.name("resource-" + oid)
+				.asPrismObject();
+		resource.setOid(oid);
+		resource.setVersion(version);
+		return resource;
+	}
+}
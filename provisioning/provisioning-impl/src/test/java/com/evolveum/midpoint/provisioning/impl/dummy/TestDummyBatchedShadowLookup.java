@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.impl.dummy;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import com.evolveum.icf.dummy.resource.DummyAccount;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.schema.ResultHandler;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.util.Counter;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OperationResultStatusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OperationResultType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * Tests searching for accounts when the shadows of found objects are looked up in the repository in batches.
+ * The number of accounts is greater than the batch size, so the search spans several batches.
+ */
+@ContextConfiguration(locations = "classpath:ctx-provisioning-test-main.xml")
+@DirtiesContext
+@Listeners({ com.evolveum.midpoint.tools.testng.AlphabeticalMethodInterceptor.class })
+public class TestDummyBatchedShadowLookup extends AbstractBasicDummyTest {
+
+	private static final String ACCOUNT_BATCH_NAME_PREFIX = "batch";
+	private static final int NUMBER_OF_BATCH_ACCOUNTS = 250;
+
+	private static final String ACCOUNT_LATE_NAME_PREFIX = "late";
+	private static final int NUMBER_OF_LATE_ACCOUNTS = 150;
+	private static final int LATE_ACCOUNT_BROKEN_INDEX = 120;
+
+	private static final String ATTR_UNKNOWN_NAME = "unknownToMidPoint";
+
+	private static final String ACCOUNT_FAILING_NAME = ACCOUNT_BATCH_NAME_PREFIX + "042";
+	private static final int STOP_AFTER = 130;
+
+	private Map<String, String> shadowOids;
+
+	// test000-test106 in the superclasses
+
+	/**
+	 * Every account found gets exactly one shadow.
+	 */
+	@Test
+	public void test200SearchCreatesShadows() throws Exception {
+		final String TEST_NAME = "test200SearchCreatesShadows";
+		displayTestTitle(TEST_NAME);
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+
+		for (int i = 0; i < NUMBER_OF_BATCH_ACCOUNTS; i++) {
+			String name = accountName(ACCOUNT_BATCH_NAME_PREFIX, i);
+			dummyResourceCtl.addAccount(name, "Batch " + i);
+		}
+		int numberOfAccounts = dummyResource.listAccounts().size();
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		Map<String, String> found = searchAccounts((shadow, objResult) -> true, task, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertSuccess(result);
+		assertEquals("Wrong number of accounts found", numberOfAccounts, found.size());
+
+		shadowOids = getRepoShadowOids(result);
+		assertEquals("Wrong number of shadows", numberOfAccounts, shadowOids.size());
+		assertEquals("Found accounts do not match shadows in repository", shadowOids, found);
+	}
+
+	/**
+	 * Existing shadows are found, no new ones are created.
+	 */
+	@Test
+	public void test210SearchAgain() throws Exception {
+		final String TEST_NAME = "test210SearchAgain";
+		displayTestTitle(TEST_NAME);
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		Map<String, String> found = searchAccounts((shadow, objResult) -> true, task, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertSuccess(result);
+		assertEquals("Found accounts do not match shadows from the first search", shadowOids, found);
+		assertEquals("Shadows have changed", shadowOids, getRepoShadowOids(result));
+	}
+
+	/**
+	 * An error recorded by the handler is kept in the result of the particular object (and stored in its shadow).
+	 * All the other objects are still processed.
+	 */
+	@Test
+	public void test220HandlerRecordsError() throws Exception {
+		final String TEST_NAME = "test220HandlerRecordsError";
+		displayTestTitle(TEST_NAME);
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		Map<String, String> found = searchAccounts((shadow, objResult) -> {
+			if (ACCOUNT_FAILING_NAME.equals(shadow.getName().getOrig())) {
+				objResult.recordFatalError("Simulated handler error");
+			}
+			return true;
+		}, task, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		display("Result", result);
+		assertEquals("Found accounts do not match shadows from the first search", shadowOids, found);
+
+		PrismObject<ShadowType> failingShadow = getShadowRepo(shadowOids.get(ACCOUNT_FAILING_NAME));
+		display("Shadow of " + ACCOUNT_FAILING_NAME, failingShadow);
+		OperationResultType shadowResult = failingShadow.asObjectable().getResult();
+		assertNotNull("No result in shadow of " + ACCOUNT_FAILING_NAME, shadowResult);
+		assertEquals("Wrong status of result in shadow of " + ACCOUNT_FAILING_NAME,
+				OperationResultStatusType.FATAL_ERROR, shadowResult.getStatus());
+	}
+
+	/**
+	 * The handler stops the search in the middle of a batch. No more objects are handled.
+	 */
+	@Test
+	public void test230HandlerStopsSearch() throws Exception {
+		final String TEST_NAME = "test230HandlerStopsSearch";
+		displayTestTitle(TEST_NAME);
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		Counter counter = new Counter();
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		Map<String, String> found = searchAccounts((shadow, objResult) -> {
+			counter.click();
+			return counter.getCount() < STOP_AFTER;
+		}, task, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertEquals("Wrong number of handled accounts", STOP_AFTER, counter.getCount());
+		assertEquals("Wrong number of found accounts", STOP_AFTER, found.size());
+	}
+
+	/**
+	 * The connector fails in the middle of a batch. Objects found before the failure get their shadows,
+	 * as without batching.
+	 */
+	@Test
+	public void test240SearchFails() throws Exception {
+		final String TEST_NAME = "test240SearchFails";
+		displayTestTitle(TEST_NAME);
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+
+		for (int i = 0; i < NUMBER_OF_LATE_ACCOUNTS; i++) {
+			dummyResourceCtl.addAccount(accountName(ACCOUNT_LATE_NAME_PREFIX, i), "Late " + i);
+		}
+		// The attribute is not in the (cached) resource schema, so the object cannot be converted.
+		dummyResource.getAccountObjectClass().addAttributeDefinition(ATTR_UNKNOWN_NAME);
+		DummyAccount brokenAccount = dummyResource.getAccountByUsername(
+				accountName(ACCOUNT_LATE_NAME_PREFIX, LATE_ACCOUNT_BROKEN_INDEX));
+		brokenAccount.replaceAttributeValue(ATTR_UNKNOWN_NAME, "broken");
+		Map<String, String> found = new HashMap<>();
+
+		try {
+			// WHEN
+			displayWhen(TEST_NAME);
+			provisioningService.searchObjectsIterative(ShadowType.class, createAccountQuery(),
+					null, (shadow, objResult) -> {
+						found.put(shadow.getName().getOrig(), shadow.getOid());
+						return true;
+					}, task, result);
+
+			fail("Unexpected success");
+		} catch (SchemaException e) {
+			// expected
+			displayThen(TEST_NAME);
+			display("Expected exception", e);
+		} finally {
+			brokenAccount.removeAttributeValue(ATTR_UNKNOWN_NAME, "broken");
+		}
+
+		// THEN
+		Map<String, String> repoShadowOids = getRepoShadowOids(result);
+		for (int i = 0; i < NUMBER_OF_LATE_ACCOUNTS; i++) {
+			String name = accountName(ACCOUNT_LATE_NAME_PREFIX, i);
+			if (i < LATE_ACCOUNT_BROKEN_INDEX) {
+				assertNotNull("Account " + name + " was not handled", found.get(name));
+				assertEquals("Wrong shadow of " + name, repoShadowOids.get(name), found.get(name));
+			} else {
+				assertNull("Account " + name + " was handled", found.get(name));
+				assertNull("Shadow of " + name + " was created", repoShadowOids.get(name));
+			}
+		}
+	}
+
+	private String accountName(String prefix, int index) {
+		return String.format("%s%03d", prefix, index);
+	}
+
+	private ObjectQuery createAccountQuery() throws Exception {
+		return ObjectQueryUtil.createResourceAndObjectClassQuery(RESOURCE_DUMMY_OID,
+				dummyResourceCtl.getAccountObjectClassQName(), prismContext);
+	}
+
+	private Map<String, String> searchAccounts(ResultHandler<ShadowType> handler, Task task, OperationResult result)
+			throws Exception {
+		Map<String, String> found = new HashMap<>();
+		provisioningService.searchObjectsIterative(ShadowType.class, createAccountQuery(), null,
+				(shadow, objResult) -> {
+					assertNotNull("No OID in " + shadow, shadow.getOid());
+					found.put(shadow.getName().getOrig(), shadow.getOid());
+					return handler.handle(shadow, objResult);
+				}, task, result);
+		result.computeStatus();
+		return found;
+	}
+
+	private Map<String, String> getRepoShadowOids(OperationResult result) throws Exception {
+		Map<String, String> oids = new HashMap<>();
+		for (PrismObject<ShadowType> shadow : repositoryService.searchObjects(ShadowType.class, createAccountQuery(),
+				null, result)) {
+			String previous = oids.put(shadow.getName().getOrig(), shadow.getOid());
+			assertNull("More than one shadow for " + shadow.getName(), previous);
+		}
+		return oids;
+	}
+}
@@ -313,6 +313,23 @@ public interface ConnectorInstance {
 	List<Change> fetchChanges(ObjectClassComplexTypeDefinition objectClass, PrismProperty<?> lastToken, AttributesToReturn attrsToReturn, StateReporter reporter,
 															   OperationResult parentResult) throws CommunicationException, GenericFrameworkException, SchemaException, ConfigurationException;
 
+	/**
+	 * Streaming variant of {@link #fetchChanges(ObjectClassComplexTypeDefinition, PrismProperty, AttributesToReturn, StateReporter, OperationResult)}:
+	 * changes are passed to the handler as they are obtained from the resource. If the resource provides the last token,
+	 * it is passed as the final (token-only) change; but only if the handler did not stop the processing.
+	 *
+	 * The default implementation fetches all the changes first.
+	 */
+	default void fetchChanges(ObjectClassComplexTypeDefinition objectClass, PrismProperty<?> lastToken, AttributesToReturn attrsToReturn,
+			StateReporter reporter, ChangeHandler handler, OperationResult parentResult)
+			throws CommunicationException, GenericFrameworkException, SchemaException, ConfigurationException {
+		for (Change change : fetchChanges(objectClass, lastToken, attrsToReturn, reporter, parentResult)) {
+			if (!handler.handleChange(change)) {
+				return;
+			}
+		}
+	}
+
 	//public ValidationResult validateConfiguration(ResourceConfiguration newConfiguration);
 
 	//public void applyConfiguration(ResourceConfiguration newConfiguration) throws MisconfigurationException;
@@ -19,11 +19,13 @@ import static com.evolveum.midpoint.provisioning.ucf.impl.connid.ConnIdUtil.proc
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.namespace.QName;
 
@@ -98,6 +100,7 @@ import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
 import com.evolveum.midpoint.prism.xml.XsdTypeMapper;
 import com.evolveum.midpoint.provisioning.ucf.api.AttributesToReturn;
 import com.evolveum.midpoint.provisioning.ucf.api.Change;
+import com.evolveum.midpoint.provisioning.ucf.api.ChangeHandler;
 import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
 import com.evolveum.midpoint.provisioning.ucf.api.ConnectorOperationOptions;
 import com.evolveum.midpoint.provisioning.ucf.api.ExecuteProvisioningScriptOperation;
@@ -2227,6 +2230,15 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
 	public List<Change>  fetchChanges(ObjectClassComplexTypeDefinition objectClass, PrismProperty<?> lastToken, AttributesToReturn attrsToReturn, StateReporter reporter,
 																OperationResult parentResult) throws CommunicationException, GenericFrameworkException,
 			SchemaException, ConfigurationException {
+		List<Change> changeList = new ArrayList<>();
+		fetchChanges(objectClass, lastToken, attrsToReturn, reporter, changeList::add, parentResult);
+		return changeList;
+	}
+
+	@Override
+	public void fetchChanges(ObjectClassComplexTypeDefinition objectClass, PrismProperty<?> lastToken, AttributesToReturn attrsToReturn,
+			StateReporter reporter, ChangeHandler handler, OperationResult parentResult) throws CommunicationException,
+			GenericFrameworkException, SchemaException, ConfigurationException {
 
 		OperationResult result = parentResult.createSubresult(ConnectorInstance.class.getName()
 				+ ".fetchChanges");
@@ -2243,7 +2255,6 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
 			throw new SchemaException(ex.getMessage(), ex);
 		}
 
-		final List<SyncDelta> syncDeltas = new ArrayList<>();
 		// get icf object class
 		ObjectClass icfObjectClass;
 		if (objectClass == null) {
@@ -2258,11 +2269,31 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
 		}
 		OperationOptions options = optionsBuilder.build();
 
+		// deltas are converted and passed to the handler as they come; problems are reported after the sync operation ends
+		AtomicInteger deltasCount = new AtomicInteger();
+		Holder<Boolean> stoppedHolder = new Holder<>(false);
+		Holder<SchemaException> schemaExceptionHolder = new Holder<>();
+		Holder<GenericFrameworkException> frameworkExceptionHolder = new Holder<>();
 		SyncResultsHandler syncHandler = new SyncResultsHandler() {
 			@Override
 			public boolean handle(SyncDelta delta) {
 				LOGGER.trace("Detected sync delta: {}", delta);
-				return syncDeltas.add(delta);
+				deltasCount.incrementAndGet();
+				try {
+					for (Change change : getChangesFromSyncDeltas(icfObjectClass, Collections.singletonList(delta), resourceSchema, result)) {
+						if (!handler.handleChange(change)) {
+							stoppedHolder.setValue(true);
+							return false;
+						}
+					}
+					return true;
+				} catch (SchemaException e) {
+					schemaExceptionHolder.setValue(e);
+				} catch (GenericFrameworkException e) {
+					frameworkExceptionHolder.setValue(e);
+				}
+				stoppedHolder.setValue(true);
+				return false;
 			}
 		};
 
@@ -2280,7 +2311,7 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
 					options);
 			recordIcfOperationEnd(reporter, ProvisioningOperation.ICF_SYNC, objectClass);
 			connIdResult.recordSuccess();
-			connIdResult.addReturn(OperationResult.RETURN_COUNT, syncDeltas.size());
+			connIdResult.addReturn(OperationResult.RETURN_COUNT, deltasCount.get());
 		} catch (Throwable ex) {
 			recordIcfOperationEnd(reporter, ProvisioningOperation.ICF_SYNC, objectClass, ex);
 			Throwable midpointEx = processConnIdException(ex, this, connIdResult);
@@ -2301,24 +2332,26 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
 				throw new SystemException("Got unexpected exception: " + ex.getClass().getName() + ": " + ex.getMessage(), ex);
 			}
 		}
-		// convert changes from icf to midpoint Change
-		List<Change> changeList;
-		try {
-			changeList = getChangesFromSyncDeltas(icfObjectClass, syncDeltas, resourceSchema, result);
-		} catch (SchemaException ex) {
+
+		if (schemaExceptionHolder.getValue() != null) {
+			SchemaException ex = schemaExceptionHolder.getValue();
 			result.recordFatalError(ex.getMessage(), ex);
 			throw new SchemaException(ex.getMessage(), ex);
 		}
+		if (frameworkExceptionHolder.getValue() != null) {
+			result.recordFatalError(frameworkExceptionHolder.getValue());
+			throw frameworkExceptionHolder.getValue();
+		}
 
-		if (lastReceivedToken != null) {
+		// the last token must not be used if processing was stopped: it would cover changes not processed
+		if (lastReceivedToken != null && !stoppedHolder.getValue()) {
 			Change lastChange = new Change((ObjectDelta)null, getToken(lastReceivedToken));
 			LOGGER.trace("Adding last change: {}", lastChange);
-			changeList.add(lastChange);
+			handler.handleChange(lastChange);
 		}
 
 		result.recordSuccess();
-		result.addReturn(OperationResult.RETURN_COUNT, changeList == null ? 0 : changeList.size());
-		return changeList;
+		result.addReturn(OperationResult.RETURN_COUNT, deltasCount.get());
 	}
 
 	@Override
@@ -29,6 +29,7 @@ public class RepoAddOptions extends AbstractOptions implements Serializable, Sho
 
 	private boolean overwrite = false;
 	private boolean allowUnencryptedValues = false;
+	private boolean deferOrgClosureUpdate = false;
 
 	public boolean isOverwrite() {
 		return overwrite;
@@ -73,6 +74,25 @@ public class RepoAddOptions extends AbstractOptions implements Serializable, Sho
 		return opts;
 	}
 
+	public boolean isDeferOrgClosureUpdate() {
+		return deferOrgClosureUpdate;
+	}
+
+	/**
+	 * Organizational closure is not updated when adding objects. It is meant for bulk loading of data:
+	 * the caller is responsible for rebuilding the closure after all the objects are added.
+	 */
+	public void setDeferOrgClosureUpdate(boolean deferOrgClosureUpdate) {
+		this.deferOrgClosureUpdate = deferOrgClosureUpdate;
+	}
+
+	public static boolean isDeferOrgClosureUpdate(RepoAddOptions options) {
+		if (options == null) {
+			return false;
+		}
+		return options.isDeferOrgClosureUpdate();
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder("RepoAddOptions(");
@@ -85,6 +105,7 @@ public class RepoAddOptions extends AbstractOptions implements Serializable, Sho
 	public void shortDump(StringBuilder sb) {
 		appendFlag(sb, "overwrite", overwrite);
 		appendFlag(sb, "allowUnencryptedValues", allowUnencryptedValues);
+		appendFlag(sb, "deferOrgClosureUpdate", deferOrgClosureUpdate);
 		removeLastComma(sb);
 	}
 
@@ -15,6 +15,7 @@
  */
 package com.evolveum.midpoint.repo.api;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
@@ -121,6 +122,7 @@ public interface RepositoryService {
     @Deprecated
     String LIST_ACCOUNT_SHADOW = CLASS_NAME_WITH_DOT + "listAccountShadowOwner";
     String ADD_OBJECT = CLASS_NAME_WITH_DOT + "addObject";
+    String ADD_OBJECTS = CLASS_NAME_WITH_DOT + "addObjects";
     String DELETE_OBJECT = CLASS_NAME_WITH_DOT + "deleteObject";
     @Deprecated
     String CLAIM_TASK = CLASS_NAME_WITH_DOT + "claimTask";
@@ -236,6 +238,29 @@ public interface RepositoryService {
 	<T extends ObjectType> String addObject(PrismObject<T> object, RepoAddOptions options, OperationResult parentResult)
 			throws ObjectAlreadyExistsException, SchemaException;
 
+	/**
+	 * <p>Adds a batch of new objects. Meant for bulk loading of data, e.g. initial import of objects into a fresh repository.</p>
+	 * <p>
+	 * Implementations may add all the objects at once (e.g. in a single transaction). If the operation fails, some of the
+	 * objects may or may not have been added, depending on the implementation. The default implementation simply adds
+	 * the objects one by one.
+	 * </p><p>
+	 * Overwrite option has the same meaning as in {@link #addObject(PrismObject, RepoAddOptions, OperationResult)}.
+	 * If deferOrgClosureUpdate option is set, the organizational closure need not be maintained for the added objects;
+	 * it is then up to the caller to rebuild it (see {@link #testOrgClosureConsistency(boolean, OperationResult)}).
+	 * </p>
+	 *
+	 * @return OIDs assigned to the created objects (in the order of the objects)
+	 */
+	default List<String> addObjects(List<? extends PrismObject<? extends ObjectType>> objects, RepoAddOptions options,
+			OperationResult parentResult) throws ObjectAlreadyExistsException, SchemaException {
+		List<String> oids = new ArrayList<>(objects.size());
+		for (PrismObject<? extends ObjectType> object : objects) {
+			oids.add(addObject(object, options, parentResult));
+		}
+		return oids;
+	}
+
 
 	/**
 	 * <p>Search for objects in the repository.</p>
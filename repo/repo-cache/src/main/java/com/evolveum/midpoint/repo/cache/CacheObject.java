@@ -26,7 +26,7 @@ public class CacheObject<T extends ObjectType> {
 
     private PrismObject<T> object;
 
-    private long timeToLive;
+    private volatile long timeToLive;
 
     public CacheObject(PrismObject<T> object, long timeToLive) {
         this.object = object;
@@ -49,8 +49,11 @@ public class CacheObject<T extends ObjectType> {
         return object.getVersion();
     }
 
+    /**
+     * Returns the cached (immutable) object. Callers that need to modify it have to clone it.
+     */
     public PrismObject<T> getObject() {
-        return object.clone();
+        return object;
     }
 
     public void setTimeToLive(long timeToLive) {
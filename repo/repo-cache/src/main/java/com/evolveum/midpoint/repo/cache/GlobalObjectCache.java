@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.cache;
+
+import com.evolveum.midpoint.util.DebugDumpable;
+import com.evolveum.midpoint.util.DebugUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Node-wide (second-level) object cache used by {@link RepositoryCache}.
+ *
+ * The number of cached objects is bounded; least recently used entries are evicted first.
+ * Each cached type has its own time-to-live. After TTL expires the entry is not thrown away:
+ * it is validated by comparing its version with the one stored in the repository (a cheap
+ * version-only query) and either renewed or reloaded.
+ *
+ * Entries are stored as immutable objects, so they can be safely shared among threads.
+ */
+public class GlobalObjectCache implements DebugDumpable {
+
+	private final Cache<CacheKey, CacheObject<? extends ObjectType>> cache;
+
+	/**
+	 * Cached types and their time-to-live (in milliseconds).
+	 */
+	private final Map<Class<? extends ObjectType>, Long> timeToLive;
+
+	private final long maxSize;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong versionCheckHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong staleReloads = new AtomicLong();
+
+	public GlobalObjectCache(long maxSize, Map<Class<? extends ObjectType>, Long> timeToLive) {
+		this.maxSize = maxSize;
+		this.timeToLive = Collections.unmodifiableMap(new HashMap<>(timeToLive));
+		this.cache = CacheBuilder.newBuilder()
+				.maximumSize(maxSize)
+				.recordStats()
+				.build();
+	}
+
+	public boolean isAvailable() {
+		return maxSize > 0 && !timeToLive.isEmpty();
+	}
+
+	public boolean supportsType(Class<? extends ObjectType> type) {
+		return timeToLive.containsKey(type);
+	}
+
+	public long getTimeToLive(Class<? extends ObjectType> type) {
+		Long ttl = timeToLive.get(type);
+		return ttl != null ? ttl : 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T extends ObjectType> CacheObject<T> get(CacheKey key) {
+		return (CacheObject<T>) cache.getIfPresent(key);
+	}
+
+	public <T extends ObjectType> void put(CacheKey key, CacheObject<T> cacheObject) {
+		cache.put(key, cacheObject);
+	}
+
+	public void remove(CacheKey key) {
+		cache.invalidate(key);
+	}
+
+	public void clear() {
+		cache.invalidateAll();
+	}
+
+	public long size() {
+		return cache.size();
+	}
+
+	void recordHit() {
+		hits.incrementAndGet();
+	}
+
+	void recordVersionCheckHit() {
+		versionCheckHits.incrementAndGet();
+	}
+
+	void recordMiss() {
+		misses.incrementAndGet();
+	}
+
+	void recordStaleReload() {
+		staleReloads.incrementAndGet();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getVersionCheckHits() {
+		return versionCheckHits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getStaleReloads() {
+		return staleReloads.get();
+	}
+
+	public long getEvictions() {
+		return cache.stats().evictionCount();
+	}
+
+	@Override
+	public String debugDump(int indent) {
+		CacheStats stats = cache.stats();
+		StringBuilder sb = new StringBuilder();
+		DebugUtil.debugDumpLabelLn(sb, "GlobalObjectCache", indent);
+		DebugUtil.debugDumpWithLabelLn(sb, "size", size() + " / " + maxSize, indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "hits", getHits(), indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "versionCheckHits", getVersionCheckHits(), indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "misses", getMisses(), indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "staleReloads", getStaleReloads(), indent + 1);
+		DebugUtil.debugDumpWithLabel(sb, "evictions", stats.evictionCount(), indent + 1);
+		return sb.toString();
+	}
+}
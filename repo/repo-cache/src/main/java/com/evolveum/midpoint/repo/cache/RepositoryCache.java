@@ -24,6 +24,7 @@ import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.repo.api.*;
 import com.evolveum.midpoint.repo.api.query.ObjectFilterExpressionEvaluator;
 import com.evolveum.midpoint.schema.*;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.DiagnosticContextHolder;
 import com.evolveum.midpoint.util.exception.CommunicationException;
@@ -33,10 +34,12 @@ import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.exception.SecurityViolationException;
+import com.evolveum.midpoint.util.exception.SystemException;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 
+import org.apache.commons.configuration.Configuration;
 import org.apache.commons.lang.Validate;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -46,7 +49,6 @@ import javax.annotation.PostConstruct;
 import javax.xml.namespace.QName;
 import java.util.*;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Read-through write-through per-session repository cache.
@@ -64,23 +66,26 @@ public class RepositoryCache implements RepositoryService {
 	private static final Trace PERFORMANCE_ADVISOR = TraceManager.getPerformanceAdvisorTrace();
 
 	private static final String PROPERTY_CACHE_MAX_TTL = "cacheMaxTTL";
+	private static final String PROPERTY_GLOBAL_CACHE_MAX_SIZE = "globalCacheMaxSize";
+	private static final String PROPERTY_GLOBAL_CACHE_TYPES = "globalCacheTypes";
 
-	private static final Set<Class<? extends ObjectType>> GLOBAL_CACHE_SUPPORTED_TYPES;
+	private static final int DEFAULT_GLOBAL_CACHE_MAX_SIZE = 10000;
 
-	static {
-		Set<Class<? extends ObjectType>> set = new HashSet<>();
-		set.add(ConnectorType.class);
-		set.add(ObjectTemplateType.class);
-		set.add(SecurityPolicyType.class);
-		set.add(SystemConfigurationType.class);
-		set.add(ValuePolicyType.class);
-
-		GLOBAL_CACHE_SUPPORTED_TYPES = Collections.unmodifiableSet(set);
-	}
+	/**
+	 * Types cached globally if not configured otherwise. Other types (e.g. RoleType, OrgType, ArchetypeType,
+	 * ResourceType) can be added using "globalCacheTypes" property, e.g. "RoleType,OrgType:60,ValuePolicyType".
+	 * The optional number after the colon overrides "cacheMaxTTL" (in seconds) for the given type.
+	 */
+	private static final List<Class<? extends ObjectType>> DEFAULT_GLOBAL_CACHE_TYPES = Arrays.asList(
+			ConnectorType.class,
+			ObjectTemplateType.class,
+			SecurityPolicyType.class,
+			SystemConfigurationType.class,
+			ValuePolicyType.class);
 
 	private static final ThreadLocal<Cache> cacheInstance = new ThreadLocal<>();
 
-	private static final Map<CacheKey, CacheObject> globalCache = new ConcurrentHashMap<>();
+	private GlobalObjectCache globalCache;
 
 	@Autowired private RepositoryService repositoryService;
 
@@ -91,8 +96,6 @@ public class RepositoryCache implements RepositoryService {
 	@Autowired private CacheDispatcher cacheDispatcher;
 
 
-	private long cacheMaxTTL;
-
 	private static final Random RND = new Random();
 
 	private Integer modifyRandomDelayRange;
@@ -103,12 +106,81 @@ public class RepositoryCache implements RepositoryService {
 
 	@PostConstruct
 	public void initialize() {
-		Integer cacheMaxTTL = midpointConfiguration.getConfiguration(MidpointConfiguration.REPOSITORY_CONFIGURATION)
-				.getInt(PROPERTY_CACHE_MAX_TTL,0);
-		if (cacheMaxTTL < 0) {
-			cacheMaxTTL = 0;
+		Configuration config = midpointConfiguration.getConfiguration(MidpointConfiguration.REPOSITORY_CONFIGURATION);
+		try {
+			globalCache = createGlobalCache(config);
+		} catch (ConfigurationException e) {
+			throw new SystemException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Creates global object cache according to the repository configuration.
+	 */
+	public static GlobalObjectCache createGlobalCache(Configuration config) throws ConfigurationException {
+		int cacheMaxTTL = Math.max(config.getInt(PROPERTY_CACHE_MAX_TTL, 0), 0);
+		int maxSize = Math.max(config.getInt(PROPERTY_GLOBAL_CACHE_MAX_SIZE, DEFAULT_GLOBAL_CACHE_MAX_SIZE), 0);
+
+		Map<Class<? extends ObjectType>, Long> timeToLive = new HashMap<>();
+		String[] configuredTypes = config.getStringArray(PROPERTY_GLOBAL_CACHE_TYPES);
+		if (configuredTypes == null || configuredTypes.length == 0) {
+			for (Class<? extends ObjectType> type : DEFAULT_GLOBAL_CACHE_TYPES) {
+				putTimeToLive(timeToLive, type, cacheMaxTTL);
+			}
+		} else {
+			for (String configuredType : configuredTypes) {
+				parseGlobalCacheType(timeToLive, configuredType, cacheMaxTTL);
+			}
+		}
+		LOGGER.debug("Global object cache initialized: max size {}, types and TTLs: {}", maxSize, timeToLive);
+		return new GlobalObjectCache(maxSize, timeToLive);
+	}
+
+	/**
+	 * Parses one entry of "globalCacheTypes" property, i.e. "type" or "type:ttl".
+	 */
+	private static void parseGlobalCacheType(Map<Class<? extends ObjectType>, Long> timeToLive, String entry, int cacheMaxTTL)
+			throws ConfigurationException {
+		String[] parts = entry.trim().split(":");
+		if (parts.length > 2 || parts[0].trim().isEmpty()) {
+			throw new ConfigurationException("Invalid entry '" + entry + "' in '" + PROPERTY_GLOBAL_CACHE_TYPES
+					+ "' repository configuration property, expected <object type>[:<time to live in seconds>]");
 		}
-		this.cacheMaxTTL = cacheMaxTTL * 1000;
+
+		Class<? extends ObjectType> type;
+		try {
+			type = ObjectTypes.getObjectTypeClass(parts[0].trim());
+		} catch (IllegalArgumentException e) {
+			throw new ConfigurationException("Unknown object type in entry '" + entry + "' of '" + PROPERTY_GLOBAL_CACHE_TYPES
+					+ "' repository configuration property: " + e.getMessage(), e);
+		}
+
+		int ttl;
+		try {
+			ttl = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : cacheMaxTTL;
+		} catch (NumberFormatException e) {
+			throw new ConfigurationException("Invalid time to live in entry '" + entry + "' of '" + PROPERTY_GLOBAL_CACHE_TYPES
+					+ "' repository configuration property: " + e.getMessage(), e);
+		}
+
+		putTimeToLive(timeToLive, type, ttl);
+	}
+
+	private static void putTimeToLive(Map<Class<? extends ObjectType>, Long> timeToLive, Class<? extends ObjectType> type, int ttlSeconds) {
+		if (ttlSeconds > 0) {
+			timeToLive.put(type, ttlSeconds * 1000L);
+		}
+	}
+
+	public GlobalObjectCache getGlobalCache() {
+		return globalCache;
+	}
+
+	/**
+	 * Replaces the global cache, e.g. to use a different configuration. Used in tests.
+	 */
+	public void setGlobalCache(GlobalObjectCache globalCache) {
+		this.globalCache = globalCache;
 	}
 
 	private static Cache getCache() {
@@ -146,6 +218,10 @@ public class RepositoryCache implements RepositoryService {
 		return Cache.debugDump(cacheInstance);
 	}
 
+	public String debugDumpGlobalCache() {
+		return globalCache != null ? globalCache.debugDump() : "GlobalObjectCache: not initialized";
+	}
+
 	@Override
 	public <T extends ObjectType> PrismObject<T> getObject(Class<T> type, String oid,
 			Collection<SelectorOptions<GetOperationOptions>> options, OperationResult parentResult) throws ObjectNotFoundException, SchemaException {
@@ -197,20 +273,24 @@ public class RepositoryCache implements RepositoryService {
 
         PrismObject<T> object;
         if (cacheObject == null) {
+            globalCache.recordMiss();
             object = reloadObject(key, options, parentResult);
         } else {
             if (!shouldCheckVersion(cacheObject)) {
                 log("Cache: Global HIT {}", key);
+                globalCache.recordHit();
                 object = cacheObject.getObject();
             } else {
                 if (hasVersionChanged(key, cacheObject, parentResult)) {
+                    globalCache.recordStaleReload();
                     object = reloadObject(key, options, parentResult);
                 } else {
 
                     // version matches, renew ttl
-                    cacheObject.setTimeToLive(System.currentTimeMillis() + cacheMaxTTL);
+                    cacheObject.setTimeToLive(System.currentTimeMillis() + globalCache.getTimeToLive(type));
 
                     log("Cache: Global HIT, version check {}", key);
+                    globalCache.recordVersionCheckHit();
                     object = cacheObject.getObject();
                 }
             }
@@ -267,6 +347,27 @@ public class RepositoryCache implements RepositoryService {
 		} finally {
 			repoOpEnd(startTime);
 		}
+		invalidateCacheAfterAdd(object, oid, options);
+		return oid;
+	}
+
+	@Override
+	public List<String> addObjects(List<? extends PrismObject<? extends ObjectType>> objects, RepoAddOptions options,
+			OperationResult parentResult) throws ObjectAlreadyExistsException, SchemaException {
+		List<String> oids;
+		Long startTime = repoOpStart();
+		try {
+			oids = repositoryService.addObjects(objects, options, parentResult);
+		} finally {
+			repoOpEnd(startTime);
+		}
+		for (int i = 0; i < objects.size(); i++) {
+			invalidateCacheAfterAdd(objects.get(i), oids.get(i), options);
+		}
+		return oids;
+	}
+
+	private void invalidateCacheAfterAdd(PrismObject<? extends ObjectType> object, String oid, RepoAddOptions options) {
 		Cache cache = getCache();
 		// DON't cache the object here. The object may not have proper "JAXB" form, e.g. some pieces may be
 		// DOM element instead of JAXB elements. Not to cache it is safer and the performance loss
@@ -280,7 +381,6 @@ public class RepositoryCache implements RepositoryService {
 				cache.clearQueryResults(object.getCompileTimeClass());
 			}
 		}
-		return oid;
 	}
 
 	@NotNull
@@ -454,7 +554,9 @@ public class RepositoryCache implements RepositoryService {
 			cache.clearQueryResults(type);
 		}
 
-		globalCache.remove(new CacheKey(type, oid));
+		if (globalCache != null) {
+			globalCache.remove(new CacheKey(type, oid));
+		}
 		cacheDispatcher.dispatch(type, oid);
 	}
 
@@ -762,19 +864,35 @@ public class RepositoryCache implements RepositoryService {
 	private <T extends ObjectType> boolean supportsGlobalCaching(
 			Class<T> type, Collection<SelectorOptions<GetOperationOptions>> options) {
 
-		if (cacheMaxTTL <= 0) {
+		if (globalCache == null || !globalCache.isAvailable()) {
 			return false;
 		}
 
-		if (!GLOBAL_CACHE_SUPPORTED_TYPES.contains(type)) {
+		if (!globalCache.supportsType(type)) {
 			return false;
 		}
 
-		if (options != null && !options.isEmpty()) {    //todo support probably raw flag
+		//todo support probably raw flag
+		return nullOrReadOnlyOptions(options);
+	}
+
+	/**
+	 * Read-only option is allowed for global cache: such callers get the cached (immutable) object itself.
+	 */
+	private boolean nullOrReadOnlyOptions(Collection<SelectorOptions<GetOperationOptions>> options) {
+		if (options == null || options.isEmpty()) {
+			return true;
+		}
+		if (options.size() > 1) {
 			return false;
 		}
-
-		return true;
+		SelectorOptions<GetOperationOptions> selectorOptions = options.iterator().next();
+		if (!selectorOptions.isRoot()) {
+			return false;
+		}
+		GetOperationOptions rootOptions = selectorOptions.getOptions();
+		return rootOptions == null || rootOptions.equals(new GetOperationOptions())
+				|| rootOptions.equals(GetOperationOptions.createReadOnly());
 	}
 
 	private <T extends ObjectType> void removeObject(Class<T> type, String oid) {
@@ -809,14 +927,15 @@ public class RepositoryCache implements RepositoryService {
 		log("Cache: Global MISS {}", key);
 
 		try {
-			PrismObject object = getObjectInternal(key.getType(), key.getOid(), options, result);
+			PrismObject<T> object = (PrismObject<T>) getObjectInternal(key.getType(), key.getOid(), options, result);
+			object.setImmutable(true);
 
-			long ttl = System.currentTimeMillis() + cacheMaxTTL;
+			long ttl = System.currentTimeMillis() + globalCache.getTimeToLive(key.getType());
 			CacheObject<T> cacheObject = new CacheObject<>(object, ttl);
 
 			globalCache.put(key, cacheObject);
 
-			return cacheObject.getObject();
+			return object;
 		} catch (ObjectNotFoundException | SchemaException ex) {
 			globalCache.remove(key);
 
@@ -500,11 +500,10 @@ public class ExpressionUtil {
 		}
 		Holder<Boolean> result = new Holder<>(false);
 		filter.accept(f -> {
-			if (f instanceof ValueFilter) {
-				ValueFilter<?, ?> vf = (ValueFilter<?, ?>) f;
-				if (vf.getExpression() != null) {
-					result.setValue(true);
-				}
+			if (f instanceof ValueFilter && ((ValueFilter<?, ?>) f).getExpression() != null
+					|| f instanceof InOidFilter && ((InOidFilter) f).getExpression() != null
+					|| f instanceof FullTextFilter && ((FullTextFilter) f).getExpression() != null) {
+				result.setValue(true);
 			}
 		});
 		return result.getValue();
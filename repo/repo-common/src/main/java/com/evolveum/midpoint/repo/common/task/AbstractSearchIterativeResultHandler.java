@@ -51,6 +51,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskStageType;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
@@ -86,12 +87,19 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 	private BlockingQueue<ProcessingRequest> requestQueue;
 	private AtomicBoolean stopRequestedByAnyWorker = new AtomicBoolean(false);
 	private final long startTime;
+	private final Integer minorSuccessSamples;				// low-overhead recording of per-object results (if not null)
 
 	private static final transient Trace LOGGER = TraceManager.getTrace(AbstractSearchIterativeResultHandler.class);
 	private volatile boolean allItemsSubmitted = false;
 
 	private List<OperationResult> workerSpecificResults;
-	
+
+	// adaptive mode (workerThreadsMax) only
+	private AdaptiveWorkerThreadsController adaptiveController;
+	private final AtomicInteger activeWorkers = new AtomicInteger();
+	private volatile int targetWorkers;
+	private int workersCreated;
+
 	private TaskStageType stageType;
 
 	public AbstractSearchIterativeResultHandler(RunningTask coordinatorTask, String taskOperationPrefix, String processShortName,
@@ -112,6 +120,7 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 		
 		stopOnError = true;
 		startTime = System.currentTimeMillis();
+		minorSuccessSamples = getMinorSuccessSamples(coordinatorTask);
 	}
 
 	
@@ -199,11 +208,13 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 					if (shouldStop(parentResult)) {
 						return false;
 					}
+					adjustWorkerThreadsIfNeeded();
 				}
 			} catch (InterruptedException e) {
 				recordInterrupted(parentResult);
 				return false;
 			}
+			adjustWorkerThreadsIfNeeded();
 		} else {
 			processRequest(request, coordinatorTask, parentResult);			// coordinator is also a worker here
 		}
@@ -266,12 +277,18 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 
 	public void updateOperationResult(OperationResult opResult) {
 		if (workerSpecificResults != null) {								// not null in the parallelized case
-			for (OperationResult workerSpecificResult : workerSpecificResults) {
-				workerSpecificResult.computeStatus();
-				workerSpecificResult.summarize();
-				opResult.addSubresult(workerSpecificResult);
+			synchronized (workerSpecificResults) {
+				for (OperationResult workerSpecificResult : workerSpecificResults) {
+					workerSpecificResult.computeStatus();
+					workerSpecificResult.summarize();
+					opResult.addSubresult(workerSpecificResult);
+				}
 			}
 		}
+		if (adaptiveController != null) {
+			opResult.addReturn("workerThreadsCreated", workersCreated);
+			opResult.addReturn("workerThreadsAdjustments", adaptiveController.getAdjustments());
+		}
 		opResult.computeStatus("Issues during processing");
 
 		if (getErrors() > 0) {
@@ -315,10 +332,55 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 						return;
 					}
 				}
+				if (shouldRetire()) {
+					LOGGER.debug("Worker {} is no longer needed - exiting", workerTask);
+					return;
+				}
 			}
 		}
 	}
 
+	// In adaptive mode, superfluous workers exit one by one until the target number is reached.
+	private boolean shouldRetire() {
+		if (adaptiveController == null) {
+			return false;
+		}
+		for (;;) {
+			int active = activeWorkers.get();
+			if (active <= targetWorkers) {
+				return false;
+			}
+			if (activeWorkers.compareAndSet(active, active - 1)) {
+				return true;
+			}
+		}
+	}
+
+	// Called from the coordinator thread only.
+	private void adjustWorkerThreadsIfNeeded() {
+		if (adaptiveController == null || allItemsSubmitted) {
+			return;
+		}
+		adaptiveController.sampleQueue(requestQueue.size(), requestQueue.size() + requestQueue.remainingCapacity());
+		long now = System.currentTimeMillis();
+		if (!adaptiveController.isAdjustmentDue(now)) {
+			return;
+		}
+		String decision = adaptiveController.adjust(now, objectsProcessed.get(), totalTimeProcessing.get(),
+				AdaptiveWorkerThreadsController.probeRepositoryPool());
+		if (decision == null) {
+			return;
+		}
+		LOGGER.info("{} {}: {}", getProcessShortNameCapitalized(), getContextDesc(), decision);
+		synchronized (coordinatorTask) {
+			coordinatorTask.recordState(decision);
+		}
+		targetWorkers = adaptiveController.getTargetThreads();
+		while (activeWorkers.get() < targetWorkers) {
+			createWorkerThread(coordinatorTask);
+		}
+	}
+
 	private void processRequest(ProcessingRequest request, RunningTask workerTask, OperationResult parentResult) {
 
 		PrismObject<O> object = request.object;
@@ -328,6 +390,9 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 
 		OperationResult result = parentResult.createSubresult(taskOperationPrefix + ".handle");
 		result.addParam("object", object);
+		if (minorSuccessSamples != null) {
+			result.setMinorSuccessSamples(minorSuccessSamples);
+		}
 
 		boolean cont;
 
@@ -534,38 +599,60 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 
 	public void createWorkerThreads(RunningTask coordinatorTask, OperationResult opResult) {
 		Integer threadsCount = getWorkerThreadsCount(coordinatorTask);
+		Integer maxThreadsCount = getMaxWorkerThreadsCount(coordinatorTask);
+		if (maxThreadsCount != null && maxThreadsCount > 0 && (threadsCount == null || maxThreadsCount > threadsCount)) {
+			int minThreadsCount = threadsCount != null && threadsCount > 0 ? threadsCount : 1;
+			adaptiveController = new AdaptiveWorkerThreadsController(minThreadsCount, maxThreadsCount, System.currentTimeMillis());
+			LOGGER.info("{} {}: using adaptive number of worker threads ({} to {})", getProcessShortNameCapitalized(),
+					getContextDesc(), minThreadsCount, maxThreadsCount);
+			threadsCount = minThreadsCount;
+		}
 		if (threadsCount == null || threadsCount == 0) {
 			return;             // nothing to do
 		}
 
-		int queueSize = threadsCount*2;				// actually, size of threadsCount should be sufficient but it doesn't hurt if queue is larger
+		int maxThreads = adaptiveController != null ? adaptiveController.getMaxThreads() : threadsCount;
+		int queueSize = maxThreads*2;				// actually, size of threadsCount should be sufficient but it doesn't hurt if queue is larger
 		requestQueue = new ArrayBlockingQueue<>(queueSize);
 
-		workerSpecificResults = new ArrayList<>(threadsCount);
+		workerSpecificResults = Collections.synchronizedList(new ArrayList<>(threadsCount));
 
+		targetWorkers = threadsCount;
 		for (int i = 0; i < threadsCount; i++) {
-			// we intentionally do not put worker specific result under main operation result until the handler is done
-			// (because of concurrency issues - adding subresults vs e.g. putting main result into the task)
-			OperationResult workerSpecificResult = new OperationResult(taskOperationPrefix + ".handleAsynchronously");
-			workerSpecificResult.addContext("subtaskIndex", i+1);
-			workerSpecificResults.add(workerSpecificResult);
-
-			RunningTask subtask = coordinatorTask.createSubtask(new WorkerHandler(workerSpecificResult));
-			if (isEnableIterationStatistics()) {
-				subtask.resetIterativeTaskInformation(null);
-			}
-			if (isEnableSynchronizationStatistics()) {
-				subtask.resetSynchronizationInformation(null);
-			}
-			if (isEnableActionsExecutedStatistics()) {
-				subtask.resetActionsExecutedInformation(null);
-			}
-			subtask.setCategory(coordinatorTask.getCategory());
-			subtask.setResult(new OperationResult(taskOperationPrefix + ".executeWorker", OperationResultStatus.IN_PROGRESS, (String) null));
-			subtask.setName("Worker thread " + (i+1) + " of " + threadsCount);
-			subtask.startLightweightHandler();
-			LOGGER.trace("Worker subtask {} created", subtask);
+			createWorkerThread(coordinatorTask);
+		}
+	}
+
+	private void createWorkerThread(RunningTask coordinatorTask) {
+		int index = ++workersCreated;
+		activeWorkers.incrementAndGet();
+
+		// we intentionally do not put worker specific result under main operation result until the handler is done
+		// (because of concurrency issues - adding subresults vs e.g. putting main result into the task)
+		OperationResult workerSpecificResult = new OperationResult(taskOperationPrefix + ".handleAsynchronously");
+		workerSpecificResult.addContext("subtaskIndex", index);
+		workerSpecificResults.add(workerSpecificResult);
+
+		RunningTask subtask = coordinatorTask.createSubtask(new WorkerHandler(workerSpecificResult));
+		if (isEnableIterationStatistics()) {
+			subtask.resetIterativeTaskInformation(null);
+		}
+		if (isEnableSynchronizationStatistics()) {
+			subtask.resetSynchronizationInformation(null);
+		}
+		if (isEnableActionsExecutedStatistics()) {
+			subtask.resetActionsExecutedInformation(null);
+		}
+		subtask.setCategory(coordinatorTask.getCategory());
+		subtask.setResult(new OperationResult(taskOperationPrefix + ".executeWorker", OperationResultStatus.IN_PROGRESS, (String) null));
+		if (adaptiveController != null) {
+			subtask.setName("Worker thread " + index + " (adaptive, " + adaptiveController.getMinThreads() + " to "
+					+ adaptiveController.getMaxThreads() + ")");
+		} else {
+			subtask.setName("Worker thread " + index + " of " + targetWorkers);
 		}
+		subtask.startLightweightHandler();
+		LOGGER.trace("Worker subtask {} created", subtask);
 	}
 
 	protected Integer getWorkerThreadsCount(Task task) {
@@ -577,5 +664,24 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 		}
 	}
 
+	protected Integer getMaxWorkerThreadsCount(Task task) {
+		PrismProperty<Integer> maxWorkerThreadsPrismProperty = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_WORKER_THREADS_MAX);
+		if (maxWorkerThreadsPrismProperty != null && maxWorkerThreadsPrismProperty.getRealValue() != null) {
+			return maxWorkerThreadsPrismProperty.getRealValue();
+		} else {
+			return null;
+		}
+	}
+
+	private Integer getMinorSuccessSamples(Task task) {
+		PrismProperty<Integer> minorSuccessSamplesPrismProperty = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_MINOR_SUCCESS_SAMPLES);
+		if (minorSuccessSamplesPrismProperty != null && minorSuccessSamplesPrismProperty.getRealValue() != null
+				&& minorSuccessSamplesPrismProperty.getRealValue() >= 0) {
+			return minorSuccessSamplesPrismProperty.getRealValue();
+		} else {
+			return null;
+		}
+	}
+
 
 }
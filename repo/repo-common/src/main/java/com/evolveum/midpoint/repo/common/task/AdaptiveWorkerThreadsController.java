@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.common.task;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+/**
+ * Decides on the number of worker threads of a search-iterative task (adaptive mode, see workerThreadsMax
+ * task extension property).
+ *
+ * The decision is made periodically, using the following signals collected during the last interval:
+ *
+ * 1. Saturation of the repository connection pool. If there are threads waiting for a connection,
+ *    more workers would only make things worse, so one worker is removed.
+ *
+ * 2. Request queue occupancy. If the queue is mostly empty, the workers wait for the coordinator (i.e. for
+ *    the search), so adding workers would not help.
+ *
+ * 3. Throughput and per-object processing time. If the queue is busy, one worker is added. If the previous
+ *    addition did not bring the expected throughput gain (or per-object time grew substantially),
+ *    it is reverted and the number is not increased again for some time.
+ *
+ * The controller is not thread safe; it is expected to be called from the coordinator thread only.
+ */
+public class AdaptiveWorkerThreadsController {
+
+	private static final Trace LOGGER = TraceManager.getTrace(AdaptiveWorkerThreadsController.class);
+
+	static final long ADJUSTMENT_INTERVAL = 10000L;
+
+	private static final double QUEUE_BUSY_THRESHOLD = 0.5;			// fraction of samples where the queue was at least half full
+	private static final double MIN_THROUGHPUT_GAIN = 0.05;
+	private static final double MAX_LATENCY_GROWTH = 1.5;
+	private static final int PLATEAU_INTERVALS = 6;					// how long we do not try to exceed the plateau
+
+	private static final String HIKARI_POOL_MBEANS = "com.zaxxer.hikari:type=Pool (*)";
+
+	private final int minThreads;
+	private final int maxThreads;
+	private int targetThreads;
+
+	private long intervalStart;
+	private long processedAtIntervalStart;
+	private long processingTimeAtIntervalStart;
+	private int queueSamples;
+	private int queueBusySamples;
+
+	private double lastThroughput = -1;
+	private double lastLatency = -1;
+	private int lastChange;
+	private int plateau = Integer.MAX_VALUE;
+	private int plateauIntervalsLeft;
+	private int adjustments;
+
+	public AdaptiveWorkerThreadsController(int minThreads, int maxThreads, long now) {
+		this.minThreads = minThreads;
+		this.maxThreads = maxThreads;
+		this.targetThreads = minThreads;
+		this.intervalStart = now;
+	}
+
+	public static class PoolUsage {
+		final int active;
+		final int total;
+		final int awaiting;
+
+		public PoolUsage(int active, int total, int awaiting) {
+			this.active = active;
+			this.total = total;
+			this.awaiting = awaiting;
+		}
+
+		boolean isSaturated() {
+			return awaiting > 0;
+		}
+
+		@Override
+		public String toString() {
+			return active + "/" + total + " connections active, " + awaiting + " threads waiting";
+		}
+	}
+
+	public int getMinThreads() {
+		return minThreads;
+	}
+
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	public int getTargetThreads() {
+		return targetThreads;
+	}
+
+	public int getAdjustments() {
+		return adjustments;
+	}
+
+	public void sampleQueue(int size, int capacity) {
+		queueSamples++;
+		if (size * 2 >= capacity) {
+			queueBusySamples++;
+		}
+	}
+
+	public boolean isAdjustmentDue(long now) {
+		return now - intervalStart >= ADJUSTMENT_INTERVAL;
+	}
+
+	/**
+	 * Evaluates the last interval and starts a new one.
+	 *
+	 * @param processed Total number of objects processed so far.
+	 * @param processingTime Total time spent in processing objects so far (sum over all workers).
+	 * @param pool Repository connection pool usage, or null if not known.
+	 * @return Description of the decision if the target number of threads was changed, null otherwise.
+	 */
+	public String adjust(long now, long processed, long processingTime, PoolUsage pool) {
+		long interval = now - intervalStart;
+		long processedInInterval = processed - processedAtIntervalStart;
+		long timeInInterval = processingTime - processingTimeAtIntervalStart;
+		boolean queueBusy = queueSamples > 0 && (double) queueBusySamples / queueSamples >= QUEUE_BUSY_THRESHOLD;
+
+		intervalStart = now;
+		processedAtIntervalStart = processed;
+		processingTimeAtIntervalStart = processingTime;
+		queueSamples = 0;
+		queueBusySamples = 0;
+		if (plateauIntervalsLeft > 0 && --plateauIntervalsLeft == 0) {
+			plateau = Integer.MAX_VALUE;
+		}
+
+		if (interval <= 0 || processedInInterval <= 0) {
+			return null;
+		}
+		double throughput = processedInInterval * 1000.0 / interval;
+		double latency = (double) timeInInterval / processedInInterval;
+		String stats = String.format("throughput %.1f obj/s, %.1f ms/obj, queue %s, pool %s", throughput, latency,
+				queueBusy ? "busy" : "not busy", pool != null ? pool : "unknown");
+
+		int newTarget = targetThreads;
+		String reason = null;
+		if (pool != null && pool.isSaturated()) {
+			if (targetThreads > minThreads) {
+				newTarget = targetThreads - 1;
+				reason = "repository connection pool is saturated";
+			}
+		} else if (lastChange > 0 && (throughput < lastThroughput * (1 + MIN_THROUGHPUT_GAIN)
+				|| lastLatency > 0 && latency > lastLatency * MAX_LATENCY_GROWTH)) {
+			// the last added thread did not help (enough)
+			newTarget = Math.max(minThreads, targetThreads - 1);
+			plateau = newTarget;
+			plateauIntervalsLeft = PLATEAU_INTERVALS;
+			reason = "last added thread did not increase throughput";
+		} else if (queueBusy && targetThreads < maxThreads && targetThreads < plateau) {
+			newTarget = targetThreads + 1;
+			reason = "worker threads are the bottleneck";
+		}
+
+		lastThroughput = throughput;
+		lastLatency = latency;
+		lastChange = newTarget - targetThreads;
+		LOGGER.trace("Adaptive worker threads: {} ({}), target {} -> {}", stats, reason, targetThreads, newTarget);
+		if (newTarget == targetThreads) {
+			return null;
+		}
+		String decision = "Worker threads: " + targetThreads + " -> " + newTarget + " (" + reason + "; " + stats + ")";
+		targetThreads = newTarget;
+		adjustments++;
+		return decision;
+	}
+
+	/**
+	 * Reads usage of the repository connection pool(s) from JMX. Returns null if it cannot be determined,
+	 * e.g. if the repository uses a data source from the application server.
+	 */
+	public static PoolUsage probeRepositoryPool() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			Set<ObjectName> names = server.queryNames(new ObjectName(HIKARI_POOL_MBEANS), null);
+			if (names.isEmpty()) {
+				return null;
+			}
+			int active = 0, total = 0, awaiting = 0;
+			for (ObjectName name : names) {
+				active += (Integer) server.getAttribute(name, "ActiveConnections");
+				total += (Integer) server.getAttribute(name, "TotalConnections");
+				awaiting += (Integer) server.getAttribute(name, "ThreadsAwaitingConnection");
+			}
+			return new PoolUsage(active, total, awaiting);
+		} catch (Exception | LinkageError e) {
+			LOGGER.trace("Couldn't determine repository connection pool usage: {}", e.getMessage(), e);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.common.task;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.repo.common.task.AdaptiveWorkerThreadsController.PoolUsage;
+
+/**
+ * Tests the decisions of the adaptive worker threads controller on simulated workloads.
+ */
+public class TestAdaptiveWorkerThreadsController {
+
+	private static final long INTERVAL = AdaptiveWorkerThreadsController.ADJUSTMENT_INTERVAL;
+	private static final int QUEUE_CAPACITY = 16;
+
+	private long now;
+	private long processed;
+	private long processingTime;
+
+	@BeforeMethod
+	public void resetClock() {
+		now = 0;
+		processed = 0;
+		processingTime = 0;
+	}
+
+	@Test
+	public void test100GrowsUntilThroughputPlateau() {
+		AdaptiveWorkerThreadsController controller = new AdaptiveWorkerThreadsController(2, 10, 0);
+
+		// throughput scales linearly up to 5 threads, then stays the same
+		for (int i = 0; i < 5; i++) {
+			runInterval(controller, Math.min(controller.getTargetThreads(), 5) * 10, true, null);
+		}
+
+		assertEquals("Wrong # of threads after the plateau was detected", 5, controller.getTargetThreads());
+		for (int i = 0; i < 3; i++) {
+			assertNull("Threads changed within plateau",
+					runInterval(controller, 50, true, null));
+		}
+		assertEquals(5, controller.getTargetThreads());
+	}
+
+	@Test
+	public void test110DoesNotGrowWhenQueueIsNotBusy() {
+		AdaptiveWorkerThreadsController controller = new AdaptiveWorkerThreadsController(2, 10, 0);
+
+		for (int i = 0; i < 5; i++) {
+			assertNull("Threads changed although workers wait for the coordinator",
+					runInterval(controller, 20, false, null));
+		}
+		assertEquals(2, controller.getTargetThreads());
+	}
+
+	@Test
+	public void test120ShrinksWhenPoolIsSaturated() {
+		AdaptiveWorkerThreadsController controller = new AdaptiveWorkerThreadsController(2, 10, 0);
+		runInterval(controller, 20, true, null);
+		runInterval(controller, 30, true, null);
+		assertEquals(4, controller.getTargetThreads());
+
+		String decision = runInterval(controller, 40, true, new PoolUsage(10, 10, 3));
+
+		assertNotNull("No decision on saturated pool", decision);
+		assertEquals(3, controller.getTargetThreads());
+		runInterval(controller, 30, false, new PoolUsage(10, 10, 3));
+		runInterval(controller, 30, false, new PoolUsage(10, 10, 3));
+		assertEquals("Went below minimum", 2, controller.getTargetThreads());
+	}
+
+	@Test
+	public void test130RespectsMaximum() {
+		AdaptiveWorkerThreadsController controller = new AdaptiveWorkerThreadsController(1, 3, 0);
+
+		for (int i = 0; i < 6; i++) {
+			runInterval(controller, controller.getTargetThreads() * 10, true, null);
+		}
+
+		assertEquals(3, controller.getTargetThreads());
+	}
+
+	private String runInterval(AdaptiveWorkerThreadsController controller, int throughput, boolean queueBusy,
+			PoolUsage pool) {
+		for (int i = 0; i < 10; i++) {
+			controller.sampleQueue(queueBusy ? QUEUE_CAPACITY : 0, QUEUE_CAPACITY);
+		}
+		now += INTERVAL;
+		long objects = throughput * INTERVAL / 1000;
+		processed += objects;
+		processingTime += objects * 100;
+		return controller.adjust(now, processed, processingTime, pool);
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.prism.Objectable;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.api.RepoAddOptions;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AssignmentType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import org.hibernate.Session;
+import org.hibernate.stat.Statistics;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.AssertJUnit.*;
+
+/**
+ * Tests adding objects in batches (RepositoryService.addObjects).
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class AddObjectsTest extends BaseSQLRepoTest {
+
+    private static final File ORG_STRUCT_OBJECTS = new File("./src/test/resources/orgstruct/org-monkey-island.xml");
+
+    private static final String ORG_F001_OID = "00000000-8888-6666-0000-100000000001";
+    private static final String ORG_F003_OID = "00000000-8888-6666-0000-100000000003";
+    private static final String ORG_F005_OID = "00000000-8888-6666-0000-100000000005";
+    private static final String ORG_F006_OID = "00000000-8888-6666-0000-100000000006";
+
+    @Test
+    public void test100AddObjects() throws Exception {
+        OperationResult result = createResult("test100AddObjects");
+
+        List<PrismObject<? extends ObjectType>> objects = parseObjects(new File(FOLDER_BASIC, "objects.xml"));
+        List<String> oids = repositoryService.addObjects(objects, null, result);
+
+        result.recomputeStatus();
+        assertSuccess(result);
+        assertEquals("Wrong # of OIDs", objects.size(), oids.size());
+        for (int i = 0; i < objects.size(); i++) {
+            PrismObject<? extends ObjectType> object = objects.get(i);
+            assertNotNull("No OID for " + object, oids.get(i));
+            assertEquals("Wrong OID in " + object, oids.get(i), object.getOid());
+            PrismObject<? extends ObjectType> stored = getObject(object.getCompileTimeClass(), oids.get(i));
+            assertEquals("Wrong name of stored object", object.getName(), stored.getName());
+        }
+    }
+
+    @Test
+    public void test200AddOrgStructWithDeferredClosure() throws Exception {
+        OperationResult result = createResult("test200AddOrgStructWithDeferredClosure");
+
+        int orgsBefore = repositoryService.countObjects(OrgType.class, null, null, result);
+        int closureRowsBefore = countClosureRows();     // one for each org without parents added by previous tests
+
+        List<PrismObject<? extends ObjectType>> objects = parseObjects(ORG_STRUCT_OBJECTS);
+        RepoAddOptions options = new RepoAddOptions();
+        options.setDeferOrgClosureUpdate(true);
+        repositoryService.addObjects(objects, options, result);
+
+        result.recomputeStatus();
+        assertSuccess(result);
+        assertEquals("Wrong # of orgs", orgsBefore + 9, repositoryService.countObjects(OrgType.class, null, null, result));
+        assertEquals("Org closure was updated", closureRowsBefore, countClosureRows());
+
+        repositoryService.testOrgClosureConsistency(true, result);
+
+        assertEquals("Wrong # of closure rows after rebuild", closureRowsBefore + 19, countClosureRows());
+        assertTrue(repositoryService.isAnySubordinate(ORG_F001_OID, Collections.singletonList(ORG_F005_OID)));
+        assertTrue(repositoryService.isAnySubordinate(ORG_F003_OID, Collections.singletonList(ORG_F006_OID)));
+        assertFalse(repositoryService.isAnySubordinate(ORG_F005_OID, Collections.singletonList(ORG_F003_OID)));
+    }
+
+    /**
+     * A batch with an existing object must not be added at all.
+     */
+    @Test
+    public void test300AddBatchWithExistingObject() throws Exception {
+        OperationResult result = createResult("test300AddBatchWithExistingObject");
+
+        PrismObject<UserType> newUser = new UserType(prismContext)
+                .name("new-user")
+                .asPrismObject();
+        PrismObject<? extends ObjectType> existingOrg = parseObjects(ORG_STRUCT_OBJECTS).get(0);
+        List<PrismObject<? extends ObjectType>> objects = new ArrayList<>();
+        objects.add(newUser);
+        objects.add(existingOrg);
+
+        try {
+            repositoryService.addObjects(objects, null, result);
+            fail("Unexpected success");
+        } catch (ObjectAlreadyExistsException e) {
+            System.out.println("Expected exception: " + e.getMessage());
+        }
+
+        assertNull("OID was assigned to new user", newUser.getOid());
+        assertEquals("New user was added", 0, repositoryService.countObjects(UserType.class,
+                prismContext.queryFor(UserType.class).item(UserType.F_NAME).eqPoly("new-user").matchingOrig().build(),
+                null, result));
+    }
+
+    /**
+     * Inserts of the users and their assignments are ordered by entity (hibernate.order_inserts), so the assignments
+     * of all the users are sent in JDBC batches instead of a separate batch for each user.
+     */
+    @Test
+    public void test400InsertsAreBatched() throws Exception {
+        OperationResult result = createResult("test400InsertsAreBatched");
+
+        final int USERS = 40;
+        List<PrismObject<? extends ObjectType>> objects = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            UserType user = new UserType(prismContext)
+                    .name("batch-user-" + i)
+                    .assignment(new AssignmentType(prismContext)
+                            .targetRef(new ObjectReferenceType().oid("batch-role-1").type(RoleType.COMPLEX_TYPE)))
+                    .assignment(new AssignmentType(prismContext)
+                            .targetRef(new ObjectReferenceType().oid("batch-role-2").type(RoleType.COMPLEX_TYPE)));
+            objects.add(user.asPrismObject());
+        }
+
+        Statistics stats = getFactory().getStatistics();
+        stats.setStatisticsEnabled(true);
+        stats.clear();
+        try {
+            repositoryService.addObjects(objects, null, result);
+
+            result.recomputeStatus();
+            assertSuccess(result);
+
+            long inserts = stats.getEntityInsertCount();
+            long statements = stats.getPrepareStatementCount();
+            System.out.println("Entity inserts: " + inserts + ", prepared statements: " + statements);
+            assertEquals("Wrong # of entity inserts", 3 * USERS, inserts);
+            // Rows of the joined object tables (m_object, m_focus, m_user) are inserted one by one by Hibernate,
+            // but the assignment rows go in batches of hibernate.jdbc.batch_size (20) instead of one batch per user.
+            long maxStatements = 3 * USERS + 2 * USERS / 20 + 1;
+            assertTrue("Inserts were not batched: " + statements + " statements for " + inserts + " entity inserts",
+                    statements <= maxStatements);
+        } finally {
+            stats.setStatisticsEnabled(false);
+        }
+    }
+
+    private List<PrismObject<? extends ObjectType>> parseObjects(File file) throws Exception {
+        List<PrismObject<? extends ObjectType>> objects = new ArrayList<>();
+        for (PrismObject<? extends Objectable> object : prismContext.parserFor(file).parseObjects()) {
+            //noinspection unchecked
+            objects.add((PrismObject<? extends ObjectType>) object);
+        }
+        return objects;
+    }
+
+    private int countClosureRows() {
+        Session session = open();
+        try {
+            Number count = (Number) session.createQuery("select count(*) from ROrgClosure").uniqueResult();
+            return count.intValue();
+        } finally {
+            close(session);
+        }
+    }
+}
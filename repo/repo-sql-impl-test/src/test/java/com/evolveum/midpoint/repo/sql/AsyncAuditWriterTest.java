@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.audit.api.AuditEventRecord;
+import com.evolveum.midpoint.audit.api.AuditEventStage;
+import com.evolveum.midpoint.audit.api.AuditEventType;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Tests asynchronous (batched) storing of audit records.
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class AsyncAuditWriterTest extends BaseSQLRepoTest {
+
+    private static final Trace LOGGER = TraceManager.getTrace(AsyncAuditWriterTest.class);
+
+    private static final File SPILL_DIRECTORY = new File("./target/audit-spill");
+    private static final long FLUSH_TIMEOUT = 60000L;
+
+    @Autowired private SqlAuditServiceFactory auditServiceFactory;
+
+    @Test
+    public void test100StoreInBatches() throws Exception {
+        AsyncAuditWriter writer = new AsyncAuditWriter(createSqlAuditService(), 100, 10, AuditQueueFullAction.BLOCK, null);
+        writer.start();
+
+        // WHEN
+        for (int i = 0; i < 25; i++) {
+            AuditEventRecord record = createRecord("test100", i);
+            assertTrue("Record was not accepted", writer.submit(record));
+            // changes done after submission must not be visible in the stored record
+            record.addPropertyValue("mutated", "true");
+        }
+        assertTrue("Records were not flushed in time", writer.flush(FLUSH_TIMEOUT));
+        writer.shutdown();
+
+        // THEN
+        assertEquals("Wrong # of stored records", 25, countRecords("test100"));
+        assertEquals("Records were modified after submission", 0, countProperties("mutated"));
+    }
+
+    @Test
+    public void test200SpillWhenQueueIsFull() throws Exception {
+        deleteSpillDirectory();
+        AsyncAuditWriter writer = new AsyncAuditWriter(createSqlAuditService(), 2, 10, AuditQueueFullAction.SPILL, SPILL_DIRECTORY);
+
+        // WHEN (writer is not started yet, so the queue fills up quickly)
+        for (int i = 0; i < 5; i++) {
+            assertTrue("Record was not accepted", writer.submit(createRecord("test200", i)));
+        }
+
+        // THEN
+        assertEquals("Wrong # of spilled records", 3, listSpillFiles().size());
+
+        // WHEN
+        writer.start();
+        assertTrue("Records were not flushed in time", writer.flush(FLUSH_TIMEOUT));
+        writer.shutdown();
+
+        // THEN
+        assertEquals("Wrong # of stored records", 5, countRecords("test200"));
+        assertEquals("Spill files were not removed", 0, listSpillFiles().size());
+    }
+
+    @Test
+    public void test300ShutdownStoresQueuedRecords() throws Exception {
+        AsyncAuditWriter writer = new AsyncAuditWriter(createSqlAuditService(), 100, 7, AuditQueueFullAction.BLOCK, null);
+        writer.start();
+
+        // WHEN
+        for (int i = 0; i < 20; i++) {
+            assertTrue("Record was not accepted", writer.submit(createRecord("test300", i)));
+        }
+        writer.shutdown();
+
+        // THEN
+        assertEquals("Wrong # of stored records", 20, countRecords("test300"));
+        assertTrue("Record was accepted after shutdown", !writer.submit(createRecord("test300", 20)));
+    }
+
+    private SqlAuditServiceImpl createSqlAuditService() throws Exception {
+        SqlAuditServiceImpl service = (SqlAuditServiceImpl) auditServiceFactory.getAuditService();
+        applicationContext.getAutowireCapableBeanFactory().autowireBean(service);
+        return service;
+    }
+
+    private AuditEventRecord createRecord(String test, int index) {
+        AuditEventRecord record = new AuditEventRecord(AuditEventType.ADD_OBJECT, AuditEventStage.EXECUTION);
+        record.setTimestamp(System.currentTimeMillis());
+        record.addPropertyValue("test", test);
+        record.addPropertyValue("index", String.valueOf(index));
+        return record;
+    }
+
+    private long countRecords(String test) {
+        return countProperties("test", test);
+    }
+
+    private long countProperties(String name) {
+        return countProperties(name, null);
+    }
+
+    private long countProperties(String name, String value) {
+        Session session = open();
+        try {
+            String query = "select count(*) from RAuditPropertyValue p where p.name = :name"
+                    + (value != null ? " and p.value = :value" : "");
+            org.hibernate.query.Query<?> q = session.createQuery(query).setParameter("name", name);
+            if (value != null) {
+                q.setParameter("value", value);
+            }
+            long count = ((Number) q.uniqueResult()).longValue();
+            LOGGER.info("Audit properties {}={}: {}", name, value, count);
+            return count;
+        } finally {
+            close(session);
+        }
+    }
+
+    private List<File> listSpillFiles() {
+        List<File> rv = new ArrayList<>();
+        File[] files = SPILL_DIRECTORY.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(AsyncAuditWriter.SPILL_FILE_SUFFIX)) {
+                    rv.add(file);
+                }
+            }
+        }
+        return rv;
+    }
+
+    private void deleteSpillDirectory() {
+        File[] files = SPILL_DIRECTORY.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismPropertyDefinition;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.repo.sql.data.common.RObject;
+import com.evolveum.midpoint.repo.sql.helpers.FullObjectCodec;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.DOMUtil;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import static org.testng.AssertJUnit.*;
+
+/**
+ * Checks that objects can be stored in all fullObject formats and that data in any format
+ * can be read regardless of the currently configured one.
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class FullObjectCodecTest extends BaseSQLRepoTest {
+
+    private static final Trace LOGGER = TraceManager.getTrace(FullObjectCodecTest.class);
+
+    private static final File USER_FILE = new File(FOLDER_BASIC, "user-same-ids.xml");
+    private static final File ACCOUNT_FULL_FILE = new File(FOLDER_BASIC, "account-full.xml");
+    private static final File RESOURCE_OPENDJ_FILE = new File(FOLDER_BASIC, "resource-opendj.xml");
+
+    private static final QName SHIP_NAME_QNAME = new QName("http://example.com/p", "shipName");
+
+    @Autowired private FullObjectCodec fullObjectCodec;
+
+    @AfterMethod
+    public void resetFormat() {
+        getRepositoryConfiguration().setFullObjectFormat(FullObjectFormat.XML);
+        getRepositoryConfiguration().setFullObjectJournalSize(0);
+    }
+
+    @Test
+    public void test100EncodeDecodeXml() throws Exception {
+        getRepositoryConfiguration().setFullObjectFormat(FullObjectFormat.XML);
+
+        for (File file : new File[] { USER_FILE, ACCOUNT_FULL_FILE, RESOURCE_OPENDJ_FILE }) {
+            assertEncodeDecode(file, false);
+        }
+    }
+
+    @Test
+    public void test110EncodeDecodeBinary() throws Exception {
+        getRepositoryConfiguration().setFullObjectFormat(FullObjectFormat.BINARY);
+
+        for (File file : new File[] { USER_FILE, ACCOUNT_FULL_FILE, RESOURCE_OPENDJ_FILE }) {
+            assertEncodeDecode(file, true);
+        }
+    }
+
+    @Test
+    public void test200AddBinaryReadAfterSwitchingToXml() throws Exception {
+        OperationResult result = createResult("test200AddBinaryReadAfterSwitchingToXml");
+        PrismObject<UserType> user = prismContext.parseObject(USER_FILE);
+        user.setOid(null);
+        user.asObjectable().setName(PolyString.toPolyStringType(new PolyString("user-binary")));
+
+        getRepositoryConfiguration().setFullObjectFormat(FullObjectFormat.BINARY);
+        String oid = repositoryService.addObject(user, null, result);
+        assertTrue("Full object is not stored in binary format", FullObjectCodec.isBinary(getFullObject(oid)));
+        PrismObject<UserType> readAsBinary = getObject(UserType.class, oid);
+
+        // data written in binary format are readable after switching back
+        getRepositoryConfiguration().setFullObjectFormat(FullObjectFormat.XML);
+        PrismObject<UserType> readAfterSwitch = getObject(UserType.class, oid);
+        assertEquals("Object differs after switching format", readAsBinary, readAfterSwitch);
+
+        // and are rewritten in the current format when the object is modified
+        repositoryService.modifyObject(UserType.class, oid,
+                deltaFor(UserType.class).item(UserType.F_FULL_NAME).replace(new PolyString("Binary User")).asItemDeltas(),
+                result);
+        assertFalse("Full object is still stored in binary format", FullObjectCodec.isBinary(getFullObject(oid)));
+        PrismObject<UserType> readAfterModify = getObject(UserType.class, oid);
+        assertEquals("Wrong full name", "Binary User", readAfterModify.asObjectable().getFullName().getOrig());
+        assertSuccess(result);
+    }
+
+    @Test
+    public void test300ModifyUsingJournal() throws Exception {
+        OperationResult result = createResult("test300ModifyUsingJournal");
+        String plainOid = addUser("user-plain", result);
+        String journaledOid = addUser("user-journaled", result);
+
+        List<List<ItemDelta<?, ?>>> modificationsList = Arrays.asList(
+                deltaFor(UserType.class)
+                        .item(UserType.F_ASSIGNMENT).add(new AssignmentType(prismContext).description("a3")
+                                .targetRef("00000000-0000-0000-0000-000000000008", RoleType.COMPLEX_TYPE))
+                        .item(UserType.F_LINK_REF).add(new ObjectReferenceType().oid("1234").type(ShadowType.COMPLEX_TYPE))
+                        .asItemDeltas(),
+                deltaFor(UserType.class)
+                        .item(UserType.F_ASSIGNMENT).delete(new AssignmentType(prismContext).id(1L))
+                        .item(UserType.F_FULL_NAME).replace(new PolyString("Journaled User"))
+                        .asItemDeltas(),
+                deltaFor(UserType.class)
+                        .item(UserType.F_ASSIGNMENT, 2L, AssignmentType.F_DESCRIPTION).replace("a2")
+                        .item(UserType.F_ASSIGNMENT).add(new AssignmentType(prismContext).description("a4"))
+                        .asItemDeltas());
+
+        for (List<ItemDelta<?, ?>> modifications : modificationsList) {
+            getRepositoryConfiguration().setFullObjectJournalSize(0);
+            repositoryService.modifyObject(UserType.class, plainOid, modifications, result);
+            getRepositoryConfiguration().setFullObjectJournalSize(5);
+            repositoryService.modifyObject(UserType.class, journaledOid, modifications, result);
+
+            // the journal can be compacted earlier than after 5 entries, if it gets bigger than the object itself
+            if (modifications == modificationsList.get(0)) {
+                assertTrue("Modification was not journaled", FullObjectCodec.isJournaled(getFullObject(journaledOid)));
+            }
+            assertSameUsers(plainOid, journaledOid);
+        }
+        assertSuccess(result);
+    }
+
+    @Test
+    public void test310CompactJournal() throws Exception {
+        OperationResult result = createResult("test310CompactJournal");
+        String oid = addUser("user-compacted", result);
+
+        getRepositoryConfiguration().setFullObjectJournalSize(2);
+        for (int i = 1; i <= 3; i++) {
+            repositoryService.modifyObject(UserType.class, oid,
+                    deltaFor(UserType.class).item(UserType.F_LINK_REF)
+                            .add(new ObjectReferenceType().oid("link-" + i).type(ShadowType.COMPLEX_TYPE))
+                            .asItemDeltas(),
+                    result);
+            assertEquals("Wrong journaling state after modification " + i, i <= 2,
+                    FullObjectCodec.isJournaled(getFullObject(oid)));
+        }
+
+        // modifications that cannot be journaled rewrite the object as a whole
+        repositoryService.modifyObject(UserType.class, oid,
+                deltaFor(UserType.class).item(UserType.F_LINK_REF)
+                        .add(new ObjectReferenceType().oid("link-4").type(ShadowType.COMPLEX_TYPE))
+                        .asItemDeltas(),
+                result);
+        assertTrue("Modification was not journaled", FullObjectCodec.isJournaled(getFullObject(oid)));
+        repositoryService.modifyObject(UserType.class, oid,
+                deltaFor(UserType.class).item(UserType.F_ASSIGNMENT).replace().asItemDeltas(), result);
+        assertFalse("Object was not rewritten", FullObjectCodec.isJournaled(getFullObject(oid)));
+
+        PrismObject<UserType> user = getObject(UserType.class, oid);
+        assertEquals("Wrong # of linkRefs", 4, user.asObjectable().getLinkRef().size());
+        assertEquals("Wrong # of assignments", 0, user.asObjectable().getAssignment().size());
+        assertEquals("Wrong version", "5", user.getVersion());
+        assertSuccess(result);
+    }
+
+    @Test
+    public void test320ModifyAssignmentExtension() throws Exception {
+        OperationResult result = createResult("test320ModifyAssignmentExtension");
+        String plainOid = addUser("user-plain-ext", result);
+        String journaledOid = addUser("user-journaled-ext", result);
+
+        PrismPropertyDefinition<String> shipNameDef = prismContext.definitionFactory()
+                .createPropertyDefinition(SHIP_NAME_QNAME, DOMUtil.XSD_STRING);
+        List<ItemDelta<?, ?>> modifications = deltaFor(UserType.class)
+                .item(ItemPath.create(UserType.F_ASSIGNMENT, 1L, AssignmentType.F_EXTENSION, SHIP_NAME_QNAME), shipNameDef)
+                        .replace("Sea Monkey")
+                .asItemDeltas();
+
+        repositoryService.modifyObject(UserType.class, plainOid, modifications, result);
+        getRepositoryConfiguration().setFullObjectJournalSize(5);
+        repositoryService.modifyObject(UserType.class, journaledOid, modifications, result);
+
+        // extension items (here in an assignment) have dynamic definitions, so they are not journaled
+        assertFalse("Modification was journaled", FullObjectCodec.isJournaled(getFullObject(journaledOid)));
+        assertSameUsers(plainOid, journaledOid);
+        assertSuccess(result);
+    }
+
+    private String addUser(String name, OperationResult result) throws Exception {
+        PrismObject<UserType> user = prismContext.parseObject(USER_FILE);
+        user.setOid(null);
+        user.asObjectable().setName(PolyString.toPolyStringType(new PolyString(name)));
+        return repositoryService.addObject(user, null, result);
+    }
+
+    private void assertSameUsers(String expectedOid, String realOid) throws Exception {
+        PrismObject<UserType> expected = getObject(UserType.class, expectedOid);
+        PrismObject<UserType> real = getObject(UserType.class, realOid);
+        LOGGER.info("Expected:\n{}\nReal:\n{}", expected.debugDump(), real.debugDump());
+        assertEquals("Wrong version", expected.getVersion(), real.getVersion());
+        real.setOid(expectedOid);
+        real.asObjectable().setName(expected.asObjectable().getName());
+        assertEquals("Journaled object differs", expected, real);
+    }
+
+    private void assertEncodeDecode(File file, boolean binaryExpected) throws Exception {
+        PrismObject<ObjectType> object = prismContext.parseObject(file);
+
+        byte[] data = fullObjectCodec.encode(object);
+        PrismObject<ObjectType> decoded = fullObjectCodec.decode(data, prismContext.createParsingContextForCompatibilityMode());
+
+        LOGGER.info("{}: {} bytes", file.getName(), data.length);
+        assertEquals("Wrong format for " + file, binaryExpected, FullObjectCodec.isBinary(data));
+        assertEquals("Object decoded from " + file + " differs", object, decoded);
+        assertNotNull("No XML form for " + file, fullObjectCodec.toXml(data));
+    }
+
+    private byte[] getFullObject(String oid) {
+        Session session = open();
+        try {
+            return session.get(RObject.class, oid).getFullObject();
+        } finally {
+            close(session);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.cache.GlobalObjectCache;
+import com.evolveum.midpoint.repo.cache.RepositoryCache;
+import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.ConfigurationException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.commons.configuration.Configuration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import static org.testng.AssertJUnit.*;
+
+/**
+ * Tests the node-wide object cache of RepositoryCache (GlobalObjectCache) on top of the SQL repository.
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test-repo-cache.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class GlobalObjectCacheTest extends BaseSQLRepoTest {
+
+    @Autowired private RepositoryCache cacheRepositoryService;
+
+    @Test
+    public void test100ReadOnlyGetsSharedInstance() throws Exception {
+        OperationResult result = createResult("test100ReadOnlyGetsSharedInstance");
+
+        GlobalObjectCache cache = setupGlobalCache(10, "RoleType:60");
+        String oid = addRole("role100", result);
+
+        PrismObject<RoleType> readOnly1 = cacheRepositoryService.getObject(RoleType.class, oid,
+                GetOperationOptions.createReadOnlyCollection(), result);
+        PrismObject<RoleType> readOnly2 = cacheRepositoryService.getObject(RoleType.class, oid,
+                GetOperationOptions.createReadOnlyCollection(), result);
+        PrismObject<RoleType> mutable = cacheRepositoryService.getObject(RoleType.class, oid, null, result);
+
+        assertSame("Read-only callers do not share the cached instance", readOnly1, readOnly2);
+        assertTrue("Cached instance is not immutable", readOnly1.isImmutable());
+        assertNotSame("Cached instance was returned to a caller that is not read-only", readOnly1, mutable);
+        assertFalse("Clone is immutable", mutable.isImmutable());
+        assertTrue("Clone differs from the cached object", readOnly1.equivalent(mutable));
+
+        mutable.asObjectable().setDescription("modified clone");
+        assertNull("Cached object was modified", readOnly1.asObjectable().getDescription());
+
+        assertCounters(cache, 2, 0, 1, 0);
+        assertEquals("Wrong cache size", 1, cache.size());
+    }
+
+    @Test
+    public void test110UncachedTypeAndOptions() throws Exception {
+        OperationResult result = createResult("test110UncachedTypeAndOptions");
+
+        GlobalObjectCache cache = setupGlobalCache(10, "OrgType:60");
+        String oid = addRole("role110", result);
+
+        cacheRepositoryService.getObject(RoleType.class, oid, null, result);
+        cacheRepositoryService.getObject(RoleType.class, oid, null, result);
+
+        assertCounters(cache, 0, 0, 0, 0);
+        assertEquals("Wrong cache size", 0, cache.size());
+    }
+
+    @Test
+    public void test200SizeBoundEviction() throws Exception {
+        OperationResult result = createResult("test200SizeBoundEviction");
+
+        GlobalObjectCache cache = setupGlobalCache(2, "RoleType:60");
+        String oid1 = addRole("role201", result);
+        String oid2 = addRole("role202", result);
+        String oid3 = addRole("role203", result);
+
+        cacheRepositoryService.getObject(RoleType.class, oid1, null, result);
+        cacheRepositoryService.getObject(RoleType.class, oid2, null, result);
+        cacheRepositoryService.getObject(RoleType.class, oid1, null, result);       // oid2 is now least recently used
+        cacheRepositoryService.getObject(RoleType.class, oid3, null, result);
+
+        assertEquals("Wrong cache size", 2, cache.size());
+        assertEquals("Wrong # of evictions", 1, cache.getEvictions());
+        assertCounters(cache, 1, 0, 3, 0);
+
+        cacheRepositoryService.getObject(RoleType.class, oid1, null, result);
+        cacheRepositoryService.getObject(RoleType.class, oid2, null, result);       // evicted, so read again
+
+        assertCounters(cache, 2, 0, 4, 0);
+        assertEquals("Wrong cache size", 2, cache.size());
+    }
+
+    @Test
+    public void test300ExpiredEntryRenewedByVersionCheck() throws Exception {
+        OperationResult result = createResult("test300ExpiredEntryRenewedByVersionCheck");
+
+        GlobalObjectCache cache = setupGlobalCache(10, "RoleType:1");
+        String oid = addRole("role300", result);
+
+        PrismObject<RoleType> first = cacheRepositoryService.getObject(RoleType.class, oid,
+                GetOperationOptions.createReadOnlyCollection(), result);
+        waitForExpiration();
+
+        PrismObject<RoleType> afterCheck = cacheRepositoryService.getObject(RoleType.class, oid,
+                GetOperationOptions.createReadOnlyCollection(), result);
+        assertSame("Unchanged object was reloaded", first, afterCheck);
+        assertCounters(cache, 0, 1, 1, 0);
+
+        // TTL was renewed, so no version check now
+        cacheRepositoryService.getObject(RoleType.class, oid, null, result);
+        assertCounters(cache, 1, 1, 1, 0);
+    }
+
+    @Test
+    public void test310ExpiredEntryReloadedWhenChanged() throws Exception {
+        OperationResult result = createResult("test310ExpiredEntryReloadedWhenChanged");
+
+        GlobalObjectCache cache = setupGlobalCache(10, "RoleType:1");
+        String oid = addRole("role310", result);
+
+        PrismObject<RoleType> first = cacheRepositoryService.getObject(RoleType.class, oid, null, result);
+
+        // modified directly in the repository, so the cache is not invalidated
+        repositoryService.modifyObject(RoleType.class, oid, prismContext.deltaFor(RoleType.class)
+                .item(RoleType.F_DESCRIPTION).replace("changed")
+                .asItemDeltas(), result);
+
+        PrismObject<RoleType> beforeExpiration = cacheRepositoryService.getObject(RoleType.class, oid, null, result);
+        assertNull("Stale object was not taken from the cache", beforeExpiration.asObjectable().getDescription());
+
+        waitForExpiration();
+
+        PrismObject<RoleType> afterExpiration = cacheRepositoryService.getObject(RoleType.class, oid, null, result);
+        assertEquals("Changed object was not reloaded", "changed", afterExpiration.asObjectable().getDescription());
+        assertFalse("Version was not changed", first.getVersion().equals(afterExpiration.getVersion()));
+        assertCounters(cache, 1, 0, 1, 1);
+
+        PrismObject<RoleType> reloaded = cacheRepositoryService.getObject(RoleType.class, oid, null, result);
+        assertEquals("Reloaded object was not cached", "changed", reloaded.asObjectable().getDescription());
+        assertCounters(cache, 2, 0, 1, 1);
+    }
+
+    @Test
+    public void test400InvalidConfiguration() throws Exception {
+        assertInvalidConfiguration("RoleType,OrgType:sixty", "OrgType:sixty");
+        assertInvalidConfiguration("RoleType,NoSuchType", "NoSuchType");
+        assertInvalidConfiguration("RoleType:60:60", "RoleType:60:60");
+
+        GlobalObjectCache cache = RepositoryCache.createGlobalCache(createConfiguration(10, " RoleType , OrgType:5"));
+        assertEquals("Wrong TTL of roles", 0, cache.getTimeToLive(RoleType.class));     // no default cacheMaxTTL
+        assertFalse("Roles are cached", cache.supportsType(RoleType.class));
+        assertEquals("Wrong TTL of orgs", 5000, cache.getTimeToLive(OrgType.class));
+    }
+
+    private void assertInvalidConfiguration(String types, String badEntry) {
+        try {
+            RepositoryCache.createGlobalCache(createConfiguration(10, types));
+            fail("Unexpected success for " + types);
+        } catch (ConfigurationException e) {
+            System.out.println("Expected exception: " + e.getMessage());
+            assertTrue("Bad entry is not mentioned in the message: " + e.getMessage(), e.getMessage().contains("'" + badEntry + "'"));
+        }
+    }
+
+    private GlobalObjectCache setupGlobalCache(int maxSize, String types) throws ConfigurationException {
+        GlobalObjectCache cache = RepositoryCache.createGlobalCache(createConfiguration(maxSize, types));
+        cacheRepositoryService.setGlobalCache(cache);
+        return cache;
+    }
+
+    private Configuration createConfiguration(int maxSize, String types) {
+        Configuration config = new BaseConfiguration();
+        config.setProperty("globalCacheMaxSize", maxSize);
+        config.setProperty("globalCacheTypes", types);
+        return config;
+    }
+
+    private String addRole(String name, OperationResult result) throws Exception {
+        PrismObject<RoleType> role = new RoleType(prismContext)
+                .name(name)
+                .asPrismObject();
+        return repositoryService.addObject(role, null, result);
+    }
+
+    private void waitForExpiration() throws InterruptedException {
+        Thread.sleep(1100);
+    }
+
+    private void assertCounters(GlobalObjectCache cache, long hits, long versionCheckHits, long misses, long staleReloads) {
+        assertEquals("Wrong # of hits", hits, cache.getHits());
+        assertEquals("Wrong # of version check hits", versionCheckHits, cache.getVersionCheckHits());
+        assertEquals("Wrong # of misses", misses, cache.getMisses());
+        assertEquals("Wrong # of stale reloads", staleReloads, cache.getStaleReloads());
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.prism.Objectable;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.repo.sql.query2.QueryInterpretationCache;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Checks that queries interpreted via the query interpretation cache return the same results
+ * as queries interpreted directly.
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class QueryInterpretationCacheTest extends BaseSQLRepoTest {
+
+    private static final Trace LOGGER = TraceManager.getTrace(QueryInterpretationCacheTest.class);
+
+    private static final String RESOURCE_OID = "ef2bc95b-76e0-48e2-86d6-3d4f02d3e1a2";
+    private static final String[] USER_NAMES = { "atestuserX00002", "atestuserX00003", "nobody" };
+
+    @Autowired private QueryInterpretationCache queryInterpretationCache;
+
+    @BeforeClass
+    public void beforeClass() throws Exception {
+        super.beforeClass();
+
+        OperationResult result = new OperationResult("add objects");
+        List<PrismObject<? extends Objectable>> objects = prismContext.parserFor(new File(FOLDER_BASIC, "objects.xml")).parseObjects();
+        for (PrismObject object : objects) {
+            //noinspection unchecked
+            repositoryService.addObject(object, null, result);
+        }
+        result.recomputeStatus();
+        assertTrue(result.isSuccess());
+    }
+
+    @AfterMethod
+    public void disableCache() {
+        getRepositoryConfiguration().setQueryInterpretationCacheSize(0);
+        queryInterpretationCache.clear();
+    }
+
+    @Test
+    public void test100SearchByName() throws Exception {
+        assertSameResults(UserType.class, name -> prismContext.queryFor(UserType.class)
+                .item(UserType.F_NAME).eqPoly(name).matchingNorm()
+                .build(), USER_NAMES);
+        assertSameResults(UserType.class, name -> prismContext.queryFor(UserType.class)
+                .item(UserType.F_NAME).eqPoly(name).matchingOrig()
+                .build(), USER_NAMES);
+        assertSameResults(UserType.class, name -> prismContext.queryFor(UserType.class)
+                .item(UserType.F_NAME).eqPoly(name).matchingStrict()
+                .build(), USER_NAMES);
+    }
+
+    @Test
+    public void test110SearchBySubstring() throws Exception {
+        assertSameResults(UserType.class, name -> prismContext.queryFor(UserType.class)
+                .item(UserType.F_NAME).startsWith(name.substring(0, Math.min(name.length(), 12))).matchingOrig()
+                .build(), USER_NAMES);
+        assertSameResults(UserType.class, name -> prismContext.queryFor(UserType.class)
+                .item(UserType.F_NAME).containsPoly(name.substring(3).toUpperCase()).matchingNorm()
+                .build(), USER_NAMES);
+        assertSameResults(UserType.class, name -> prismContext.queryFor(UserType.class)
+                .item(UserType.F_EMPLOYEE_NUMBER).contains(name).matchingCaseIgnore()
+                .build(), USER_NAMES);
+    }
+
+    @Test
+    public void test120SearchByReferenceAndOid() throws Exception {
+        assertSameResults(ShadowType.class, oid -> prismContext.queryFor(ShadowType.class)
+                .item(ShadowType.F_RESOURCE_REF).ref(oid)
+                .and().item(ShadowType.F_NAME).eqPoly("8daaeeae-f0c7-41c9-b258-2a3351aa8876")
+                .build(), RESOURCE_OID, "00000000-0000-0000-0000-000000000000");
+        assertSameResults(ShadowType.class, oid -> prismContext.queryFor(ShadowType.class)
+                .id(oid, "11223355")
+                .build(), "11223344", "00000000-0000-0000-0000-000000000000");
+        assertSameResults(FocusType.class, oid -> prismContext.queryFor(FocusType.class)
+                .item(FocusType.F_LINK_REF).ref(oid)
+                .build(), "11223344", "11223355", "1234");
+    }
+
+    @Test
+    public void test130SearchWithPaging() throws Exception {
+        assertSameResults(UserType.class, name -> prismContext.queryFor(UserType.class)
+                .item(UserType.F_NAME).gt(name)
+                .asc(UserType.F_NAME)
+                .offset(1).maxSize(1)
+                .build(), "a", "atestuserX00002");
+        assertSameResults(ObjectType.class, cookie -> {
+            ObjectQuery query = prismContext.queryFor(ObjectType.class)
+                    .maxSize(3)
+                    .build();
+            query.getPaging().setCookie(cookie);
+            return query;
+        }, "0", "11223344", "9");
+    }
+
+    /**
+     * String values searched in PolyString items are normalized by the interpreter; the cached interpretation
+     * must normalize them in the same way (not only lowercase them).
+     */
+    @Test
+    public void test140SearchPolyStringByNormalizedString() throws Exception {
+        String[] names = { "atestuserX00002", " \u00e4testuserX00003  ", "\u00c4TESTUSERX00002", "J\u00f6hn  Doe" };
+        assertSameResults(UserType.class, name -> prismContext.queryFor(UserType.class)
+                .item(UserType.F_NAME).eq(name).matchingNorm()
+                .build(), names);
+        assertSameResults(UserType.class, name -> prismContext.queryFor(UserType.class)
+                .item(UserType.F_NAME).startsWith(name).matchingNorm()
+                .build(), names);
+
+        getRepositoryConfiguration().setQueryInterpretationCacheSize(100);
+        OperationResult result = createResult("test140SearchPolyStringByNormalizedString");
+        for (String name : names) {
+            ObjectQuery query = prismContext.queryFor(UserType.class)
+                    .item(UserType.F_NAME).eq(name).matchingNorm()
+                    .build();
+            assertEquals("Wrong # of users found for '" + name + "'", name.startsWith("J") ? 0 : 1,
+                    search(UserType.class, query, result).size());
+        }
+    }
+
+    @Test
+    public void test200Statistics() throws Exception {
+        getRepositoryConfiguration().setQueryInterpretationCacheSize(100);
+        long hitsBefore = queryInterpretationCache.getHits();
+        long missesBefore = queryInterpretationCache.getMisses();
+
+        OperationResult result = createResult("test200Statistics");
+        for (String name : USER_NAMES) {
+            ObjectQuery query = prismContext.queryFor(UserType.class)
+                    .item(UserType.F_NAME).eqPoly(name).matchingNorm()
+                    .build();
+            repositoryService.searchObjects(UserType.class, query, null, result);
+            repositoryService.countObjects(UserType.class, query, null, result);
+        }
+
+        System.out.println(queryInterpretationCache.debugDump());
+        assertEquals("Wrong # of misses", 2, queryInterpretationCache.getMisses() - missesBefore);
+        assertEquals("Wrong # of hits", 4, queryInterpretationCache.getHits() - hitsBefore);
+        assertEquals("Wrong # of cache entries", 2, queryInterpretationCache.size());
+    }
+
+    private <O extends ObjectType> void assertSameResults(Class<O> type, Function<String, ObjectQuery> queryProvider,
+            String... values) throws Exception {
+        OperationResult result = createResult("assertSameResults");
+        long hitsBefore = queryInterpretationCache.getHits();
+        for (String value : values) {
+            ObjectQuery query = queryProvider.apply(value);
+            getRepositoryConfiguration().setQueryInterpretationCacheSize(0);
+            Set<String> expected = search(type, query, result);
+            int expectedCount = repositoryService.countObjects(type, query, null, result);
+
+            getRepositoryConfiguration().setQueryInterpretationCacheSize(100);
+            Set<String> real = search(type, queryProvider.apply(value), result);
+            int realCount = repositoryService.countObjects(type, queryProvider.apply(value), null, result);
+            LOGGER.info("Query for '{}' returned {} (expected {})", value, real, expected);
+
+            assertEquals("Wrong objects found for '" + value + "'", expected, real);
+            assertEquals("Wrong count for '" + value + "'", expectedCount, realCount);
+        }
+        System.out.println(queryInterpretationCache.debugDump());
+        if (values.length > 1) {
+            assertTrue("No cache hits", queryInterpretationCache.getHits() > hitsBefore);
+        }
+    }
+
+    private <O extends ObjectType> Set<String> search(Class<O> type, ObjectQuery query, OperationResult result)
+            throws Exception {
+        Set<String> oids = new TreeSet<>();
+        for (PrismObject<O> object : repositoryService.searchObjects(type, query, null, result)) {
+            oids.add(object.getOid());
+        }
+        return oids;
+    }
+}
@@ -5294,4 +5294,36 @@ public class QueryInterpreter2Test extends BaseSQLRepoTest {
         }
     }
 
+    @Test
+    public void test1440QueryExtensionItemMultipleValues() throws Exception {
+        Session session = open();
+        try {
+            ObjectQuery query = prismContext.queryFor(UserType.class)
+                    .item(UserType.F_EXTENSION, WEAPON_QNAME).eq("sword", "axe", "bow")
+                    .build();
+
+            String real = getInterpretedQuery2(session, UserType.class, query);
+            String expected = "select\n" +
+                    "  u.oid, u.fullObject,\n" +
+                    "  u.stringsCount,\n" +
+                    "  u.longsCount,\n" +
+                    "  u.datesCount,\n" +
+                    "  u.referencesCount,\n" +
+                    "  u.polysCount,\n" +
+                    "  u.booleansCount\n" +
+                    "from\n" +
+                    "  RUser u\n" +
+                    "    left join u.strings s with ( s.ownerType = :ownerType and s.itemId = :itemId )\n" +
+                    "where\n" +
+                    "  (\n" +
+                    "    s.value = :value or\n" +
+                    "    s.value = :value2 or\n" +
+                    "    s.value = :value3\n" +
+                    "  )\n";
+            assertEqualsIgnoreWhitespace(expected, real);
+        } finally {
+            close(session);
+        }
+    }
+
 }
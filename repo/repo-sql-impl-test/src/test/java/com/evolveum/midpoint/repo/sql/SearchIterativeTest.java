@@ -20,8 +20,10 @@ import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
 import com.evolveum.midpoint.schema.ResultHandler;
+import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
@@ -29,6 +31,7 @@ import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.exception.SystemException;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.IterationMethodType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
 import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
 import org.springframework.test.annotation.DirtiesContext;
@@ -171,6 +174,160 @@ public class SearchIterativeTest extends BaseSQLRepoTest {
         assertObjects(objects, COUNT);
     }
 
+    @Test
+    public void test106KeysetIterationWithOrdering() throws Exception {
+        OperationResult result = new OperationResult("test106KeysetIterationWithOrdering");
+
+        final List<PrismObject<UserType>> objects = new ArrayList<>();
+
+        ResultHandler<UserType> handler = (object, parentResult) -> {
+            objects.add(object);
+            return true;
+        };
+
+        ObjectQuery query = prismContext.queryFor(UserType.class)
+                .item(UserType.F_COST_CENTER).gt(String.valueOf(BASE + 100))
+                .desc(UserType.F_NAME)
+                .maxSize(250)
+                .build();
+        repositoryService.searchObjectsIterative(UserType.class, query, handler, null, false, result);
+        result.recomputeStatus();
+
+        assertTrue(result.isSuccess());
+        assertObjects(objects, 250);
+        List<PrismObject<UserType>> expected = repositoryService.searchObjects(UserType.class, query, null, result);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals("Wrong object #" + i, expected.get(i).getOid(), objects.get(i).getOid());
+        }
+    }
+
+    @Test
+    public void test107KeysetIterationWithDuplicateAndMissingKeys() throws Exception {
+        OperationResult result = new OperationResult("test107KeysetIterationWithDuplicateAndMissingKeys");
+
+        for (int i = 0; i < 130; i++) {
+            repositoryService.modifyObject(UserType.class, "user-" + (BASE + i) + "-00",
+                    prismContext.deltaFor(UserType.class)
+                            .item(UserType.F_LOCALITY).replace(new PolyString("L" + (i % 3)))
+                            .asItemDeltas(), result);
+        }
+
+        final List<PrismObject<UserType>> objects = new ArrayList<>();
+
+        ResultHandler<UserType> handler = (object, parentResult) -> {
+            objects.add(object);
+            return true;
+        };
+
+        ObjectQuery query = prismContext.queryFor(UserType.class)
+                .desc(UserType.F_LOCALITY)
+                .build();
+        repositoryService.searchObjectsIterative(UserType.class, query, handler, null, false, result);
+        result.recomputeStatus();
+
+        assertTrue(result.isSuccess());
+        assertObjects(objects, COUNT);
+        for (int i = 0; i < 130; i++) {
+            String expectedLocality = i < 43 ? "L2" : i < 86 ? "L1" : "L0";
+            assertEquals("Wrong locality of object #" + i, expectedLocality, objects.get(i).asObjectable().getLocality().getOrig());
+        }
+    }
+
+    @Test
+    public void test108ParallelParsing() throws Exception {
+        OperationResult result = new OperationResult("test108ParallelParsing");
+
+        ObjectQuery query = prismContext.queryFor(UserType.class)
+                .asc(UserType.F_NAME)
+                .build();
+        List<PrismObject<UserType>> expected = repositoryService.searchObjects(UserType.class, query, null, result);
+
+        getRepositoryConfiguration().setParsingThreads(4);
+        try {
+            List<PrismObject<UserType>> objects = repositoryService.searchObjects(UserType.class, query, null, result);
+            assertEquals("Wrong # of objects", expected.size(), objects.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals("Wrong object #" + i, expected.get(i), objects.get(i));
+            }
+
+            final List<PrismObject<UserType>> iterated = new ArrayList<>();
+            ResultHandler<UserType> handler = (object, parentResult) -> {
+                iterated.add(object);
+                return true;
+            };
+            repositoryService.searchObjectsIterative(UserType.class, query, handler,
+                    SelectorOptions.createCollection(GetOperationOptions.createIterationMethod(IterationMethodType.SINGLE_TRANSACTION)),
+                    false, result);
+            result.recomputeStatus();
+            assertTrue(result.isSuccess());
+            assertObjects(iterated, COUNT);
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals("Wrong object #" + i + " in iterative search", expected.get(i).getOid(), iterated.get(i).getOid());
+            }
+        } finally {
+            getRepositoryConfiguration().setParsingThreads(0);
+        }
+    }
+
+    @Test
+    public void test109ParallelParsingOutOfOrderWithStop() throws Exception {
+        OperationResult result = new OperationResult("test109ParallelParsingOutOfOrderWithStop");
+
+        getRepositoryConfiguration().setParsingThreads(3);
+        getRepositoryConfiguration().setParsingKeepOrder(false);
+        try {
+            final List<PrismObject<UserType>> objects = new ArrayList<>();
+            ResultHandler<UserType> handler = (object, parentResult) -> {
+                objects.add(object);
+                return objects.size() < 100;
+            };
+            repositoryService.searchObjectsIterative(UserType.class, null, handler,
+                    SelectorOptions.createCollection(GetOperationOptions.createIterationMethod(IterationMethodType.SINGLE_TRANSACTION)),
+                    false, result);
+            result.recomputeStatus();
+
+            assertTrue(result.isSuccess());
+            assertObjects(objects, 100);
+        } finally {
+            getRepositoryConfiguration().setParsingThreads(0);
+            getRepositoryConfiguration().setParsingKeepOrder(true);
+        }
+    }
+
+    /**
+     * Number of parsing threads is changed (and another search is executed) while an iterative search is in progress.
+     */
+    @Test
+    public void test109aParallelParsingThreadsChangedDuringSearch() throws Exception {
+        OperationResult result = new OperationResult("test109aParallelParsingThreadsChangedDuringSearch");
+
+        getRepositoryConfiguration().setParsingThreads(4);
+        try {
+            final List<PrismObject<UserType>> objects = new ArrayList<>();
+            ResultHandler<UserType> handler = (object, parentResult) -> {
+                if (objects.isEmpty()) {
+                    getRepositoryConfiguration().setParsingThreads(2);
+                    try {
+                        repositoryService.searchObjects(UserType.class, null, null, parentResult);
+                    } catch (SchemaException e) {
+                        throw new SystemException(e);
+                    }
+                }
+                objects.add(object);
+                return true;
+            };
+            repositoryService.searchObjectsIterative(UserType.class, null, handler,
+                    SelectorOptions.createCollection(GetOperationOptions.createIterationMethod(IterationMethodType.SINGLE_TRANSACTION)),
+                    false, result);
+            result.recomputeStatus();
+
+            assertTrue(result.isSuccess());
+            assertObjects(objects, COUNT);
+        } finally {
+            getRepositoryConfiguration().setParsingThreads(0);
+        }
+    }
+
     private boolean[] assertObjects(List<PrismObject<UserType>> objects, Integer count) {
         if (count != null) {
             assertEquals("Wrong # of objects", count.intValue(), objects.size());
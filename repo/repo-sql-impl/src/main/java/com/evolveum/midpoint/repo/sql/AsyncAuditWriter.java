@@ -0,0 +1,378 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.audit.api.AuditEventRecord;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventRecord;
+import com.evolveum.midpoint.repo.sql.util.DtoTranslationException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Stores audit records in a background thread. Records are put into a bounded in-memory queue
+ * and written in batches, each batch in a single transaction.
+ *
+ * When the queue is full, the caller either waits (BLOCK) or the record is written into a file
+ * in spill directory (SPILL). Spilled records are stored when the writer is idle; files left from
+ * previous run of the node are picked up as well. Records that couldn't be stored from spill files
+ * are left there with ".failed" suffix.
+ *
+ * Note that records are stored in the order of their arrival only if there is no spilling.
+ */
+class AsyncAuditWriter {
+
+    private static final Trace LOGGER = TraceManager.getTrace(AsyncAuditWriter.class);
+
+    private static final String THREAD_NAME = "midpoint-audit-writer";
+    private static final long POLL_INTERVAL = 500;
+    private static final long SHUTDOWN_TIMEOUT = 30000;
+
+    static final String SPILL_FILE_PREFIX = "audit-";
+    static final String SPILL_FILE_SUFFIX = ".spill";
+    static final String FAILED_FILE_SUFFIX = ".failed";
+
+    private final SqlAuditServiceImpl auditService;
+    private final int batchSize;
+    private final AuditQueueFullAction queueFullAction;
+    private final File spillDirectory;
+
+    private final BlockingQueue<PendingRecord> queue;
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicLong spillSequence = new AtomicLong();
+
+    private final Thread thread;
+    private volatile boolean stopping;
+
+    AsyncAuditWriter(@NotNull SqlAuditServiceImpl auditService, int queueSize, int batchSize,
+            @NotNull AuditQueueFullAction queueFullAction, File spillDirectory) {
+        this.auditService = auditService;
+        this.batchSize = batchSize;
+        this.queueFullAction = queueFullAction;
+        this.spillDirectory = spillDirectory;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        if (spillDirectory != null && !spillDirectory.isDirectory() && !spillDirectory.mkdirs()) {
+            throw new SystemException("Couldn't create audit spill directory " + spillDirectory);
+        }
+        this.thread = new Thread(this::run, THREAD_NAME);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        LOGGER.info("Starting asynchronous audit writer (batch size: {}, when queue is full: {}, spill directory: {})",
+                batchSize, queueFullAction.value(), spillDirectory);
+        thread.start();
+    }
+
+    /**
+     * Returns false if the record was not accepted (the writer is being stopped); the caller should store it by itself.
+     */
+    boolean submit(@NotNull AuditEventRecord record) {
+        if (stopping) {
+            return false;
+        }
+        // the caller is free to continue modifying the record
+        PendingRecord pending = new QueuedRecord(record.clone());
+        pendingCount.incrementAndGet();
+        if (queueFullAction == AuditQueueFullAction.SPILL) {
+            if (!queue.offer(pending)) {
+                pendingCount.decrementAndGet();
+                spill(record);
+            }
+            return true;
+        }
+        try {
+            queue.put(pending);
+            return true;
+        } catch (InterruptedException e) {
+            pendingCount.decrementAndGet();
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Waits until all queued and spilled records are stored (or failed). Returns false on timeout.
+     */
+    boolean flush(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (pendingCount.get() > 0 || !listSpillFiles().isEmpty()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting records and waits for the queue to be drained. Records that couldn't be stored in time
+     * are spilled (if spill directory is configured); otherwise they are lost.
+     */
+    void shutdown() {
+        stopping = true;
+        try {
+            thread.join(SHUTDOWN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            thread.interrupt();
+        }
+        List<PendingRecord> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            LOGGER.warn("{} audit records were not stored before shutdown", remaining.size());
+            remaining.forEach(this::handleStoreFailure);
+        }
+        LOGGER.info("Asynchronous audit writer stopped");
+    }
+
+    private void run() {
+        while (!stopping || !queue.isEmpty()) {
+            try {
+                PendingRecord first = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    List<PendingRecord> batch = new ArrayList<>(batchSize);
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    try {
+                        store(batch);
+                    } finally {
+                        pendingCount.addAndGet(-batch.size());
+                    }
+                }
+                // spilled records are processed only when there's nothing more urgent to do
+                if (queue.isEmpty() && !stopping) {
+                    storeSpilledRecords();
+                }
+            } catch (InterruptedException e) {
+                LOGGER.warn("Audit writer was interrupted, {} records remain in the queue", queue.size());
+                return;
+            } catch (Throwable t) {
+                LoggingUtils.logUnexpectedException(LOGGER, "Unexpected exception in audit writer", t);
+            }
+        }
+    }
+
+    private void storeSpilledRecords() {
+        List<File> files = listSpillFiles();
+        for (int i = 0; i < files.size() && queue.isEmpty() && !stopping; i += batchSize) {
+            List<PendingRecord> batch = new ArrayList<>();
+            for (File file : files.subList(i, Math.min(i + batchSize, files.size()))) {
+                batch.add(new SpilledRecord(file));
+            }
+            store(batch);
+        }
+    }
+
+    private void store(List<PendingRecord> batch) {
+        // records that cannot be converted are excluded right at the beginning
+        List<PendingRecord> convertible = new ArrayList<>(batch.size());
+        List<RAuditEventRecord> repoRecords = new ArrayList<>(batch.size());
+        for (PendingRecord pending : batch) {
+            try {
+                repoRecords.add(pending.toRepo(auditService.getPrismContext()));
+                convertible.add(pending);
+            } catch (RuntimeException | DtoTranslationException | IOException | ClassNotFoundException e) {
+                LoggingUtils.logUnexpectedException(LOGGER, "Couldn't prepare audit record {} for storing", e, pending);
+                pending.failed();
+            }
+        }
+        if (convertible.isEmpty()) {
+            return;
+        }
+        try {
+            auditService.auditBatch(firstThenFresh(repoRecords, convertible));
+            convertible.forEach(PendingRecord::stored);
+            return;
+        } catch (RuntimeException e) {
+            LoggingUtils.logException(LOGGER, "Couldn't store batch of {} audit records, trying them one by one", e,
+                    convertible.size());
+        }
+        for (PendingRecord pending : convertible) {
+            try {
+                auditService.auditBatch(() -> toRepo(Collections.singletonList(pending)));
+                pending.stored();
+            } catch (RuntimeException e) {
+                LoggingUtils.logUnexpectedException(LOGGER, "Couldn't store audit record {}", e, pending);
+                handleStoreFailure(pending);
+            }
+        }
+    }
+
+    /**
+     * Repository records are created anew for each re-try, because hibernate could have partially updated
+     * them (e.g. generated IDs) in a failed transaction.
+     */
+    private Supplier<List<RAuditEventRecord>> firstThenFresh(List<RAuditEventRecord> first, List<PendingRecord> records) {
+        AtomicBoolean firstUsed = new AtomicBoolean();
+        return () -> firstUsed.getAndSet(true) ? toRepo(records) : first;
+    }
+
+    private List<RAuditEventRecord> toRepo(List<PendingRecord> records) {
+        List<RAuditEventRecord> rv = new ArrayList<>(records.size());
+        for (PendingRecord pending : records) {
+            try {
+                rv.add(pending.toRepo(auditService.getPrismContext()));
+            } catch (DtoTranslationException | IOException | ClassNotFoundException e) {
+                throw new SystemException("Couldn't prepare audit record " + pending + " for storing: " + e.getMessage(), e);
+            }
+        }
+        return rv;
+    }
+
+    /**
+     * Queued records are given another chance via spill directory (if there's one); spilled records are not re-tried.
+     */
+    private void handleStoreFailure(PendingRecord pending) {
+        if (pending instanceof QueuedRecord && spillDirectory != null) {
+            try {
+                spill(((QueuedRecord) pending).record);
+                return;
+            } catch (RuntimeException e) {
+                LoggingUtils.logUnexpectedException(LOGGER, "Couldn't spill audit record {}", e, pending);
+            }
+        }
+        pending.failed();
+    }
+
+    private void spill(AuditEventRecord record) {
+        if (spillDirectory == null) {
+            throw new IllegalStateException("No audit spill directory");
+        }
+        String name = String.format("%s%013d-%09d", SPILL_FILE_PREFIX, System.currentTimeMillis(), spillSequence.incrementAndGet());
+        File tempFile = new File(spillDirectory, name + ".tmp");
+        try {
+            RAuditEventRecord repoRecord = RAuditEventRecord.toRepo(record, auditService.getPrismContext(), true);
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.writeObject(repoRecord);
+            }
+            // the rename ensures that the writer thread never sees incomplete file
+            if (!tempFile.renameTo(new File(spillDirectory, name + SPILL_FILE_SUFFIX))) {
+                throw new IOException("Couldn't rename " + tempFile);
+            }
+        } catch (IOException | DtoTranslationException e) {
+            throw new SystemException("Couldn't spill audit record to " + spillDirectory + ": " + e.getMessage(), e);
+        }
+    }
+
+    private List<File> listSpillFiles() {
+        if (spillDirectory == null) {
+            return Collections.emptyList();
+        }
+        File[] files = spillDirectory.listFiles((dir, name) -> name.startsWith(SPILL_FILE_PREFIX) && name.endsWith(SPILL_FILE_SUFFIX));
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(files);         // i.e. by time of spilling
+        return Arrays.asList(files);
+    }
+
+    private interface PendingRecord {
+
+        /**
+         * Creates a fresh repository form of the record. It is called again when the record is to be re-tried.
+         */
+        RAuditEventRecord toRepo(PrismContext prismContext) throws DtoTranslationException, IOException, ClassNotFoundException;
+
+        void stored();
+
+        void failed();
+    }
+
+    private static class QueuedRecord implements PendingRecord {
+
+        private final AuditEventRecord record;
+
+        private QueuedRecord(AuditEventRecord record) {
+            this.record = record;
+        }
+
+        @Override
+        public RAuditEventRecord toRepo(PrismContext prismContext) throws DtoTranslationException {
+            return RAuditEventRecord.toRepo(record, prismContext, true);
+        }
+
+        @Override
+        public void stored() {
+        }
+
+        @Override
+        public void failed() {
+            LOGGER.error("Audit record was not stored: {}", record);
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(record);
+        }
+    }
+
+    private static class SpilledRecord implements PendingRecord {
+
+        private final File file;
+
+        private SpilledRecord(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public RAuditEventRecord toRepo(PrismContext prismContext) throws IOException, ClassNotFoundException {
+            try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                return (RAuditEventRecord) in.readObject();
+            }
+        }
+
+        @Override
+        public void stored() {
+            if (!file.delete()) {
+                LOGGER.warn("Couldn't delete spilled audit record {}; it will be stored again", file);
+            }
+        }
+
+        @Override
+        public void failed() {
+            File failedFile = new File(file.getPath() + FAILED_FILE_SUFFIX);
+            if (file.renameTo(failedFile)) {
+                LOGGER.error("Spilled audit record couldn't be stored, it was kept as {}", failedFile);
+            } else {
+                LOGGER.error("Spilled audit record {} couldn't be stored nor renamed", file);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return file.getPath();
+        }
+    }
+}
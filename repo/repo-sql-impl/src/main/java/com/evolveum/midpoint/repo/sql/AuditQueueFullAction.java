@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.sql;
+
+/**
+ * What to do with an audit record when asynchronous audit is enabled and the in-memory queue is full.
+ */
+public enum AuditQueueFullAction {
+
+    /**
+     * The caller waits until there is a free place in the queue.
+     */
+    BLOCK("block"),
+
+    /**
+     * The record is written to a file in the spill directory and stored into the database later.
+     * Spilled records survive restart of the node.
+     */
+    SPILL("spill");
+
+    private final String value;
+
+    AuditQueueFullAction(String value) {
+        this.value = value;
+    }
+
+    public String value() {
+        return value;
+    }
+
+    public static AuditQueueFullAction fromValue(String v) {
+        for (AuditQueueFullAction c: AuditQueueFullAction.values()) {
+            if (c.value.equals(v)) {
+                return c;
+            }
+        }
+        throw new IllegalArgumentException(v);
+    }
+}
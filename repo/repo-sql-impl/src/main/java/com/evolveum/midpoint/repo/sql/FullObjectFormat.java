@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+/**
+ * Format used to write objects into fullObject column. Objects in all formats can be read,
+ * regardless of this setting; so it is possible to switch formats without data migration.
+ */
+public enum FullObjectFormat {
+
+    /**
+     * XML text (gzip-compressed if useZip is set). The original format; it has no format marker.
+     */
+    XML("xml"),
+
+    /**
+     * Compact binary representation of XNode tree (deflated if useZip is set), prefixed by format marker byte.
+     */
+    BINARY("binary");
+
+    private final String value;
+
+    FullObjectFormat(String value) {
+        this.value = value;
+    }
+
+    public String value() {
+        return value;
+    }
+
+    public static FullObjectFormat fromValue(String v) {
+        for (FullObjectFormat c: FullObjectFormat.values()) {
+            if (c.value.equals(v)) {
+                return c;
+            }
+        }
+        throw new IllegalArgumentException(v);
+    }
+}
@@ -64,7 +64,10 @@ public class SqlAuditServiceFactory implements AuditServiceFactory {
 
     @Override
     public void destroyService(AuditService service) throws AuditServiceFactoryException {
-        //we don't need destroying service objects, they will be GC correctly
+        // only asynchronous audit writer (if running) has to be stopped, the rest is GC'd correctly
+        if (service instanceof SqlAuditServiceImpl) {
+            ((SqlAuditServiceImpl) service).destroy();
+        }
     }
 
     @Override
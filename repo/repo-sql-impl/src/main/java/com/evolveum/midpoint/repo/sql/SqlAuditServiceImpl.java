@@ -21,9 +21,9 @@ import com.evolveum.midpoint.repo.sql.data.audit.*;
 import com.evolveum.midpoint.repo.sql.data.common.enums.ROperationResultStatus;
 import com.evolveum.midpoint.repo.sql.data.common.other.RObjectType;
 import com.evolveum.midpoint.repo.sql.helpers.BaseHelper;
+import com.evolveum.midpoint.repo.sql.helpers.FullObjectCodec;
 import com.evolveum.midpoint.repo.sql.util.DtoTranslationException;
 import com.evolveum.midpoint.repo.sql.util.GetObjectResult;
-import com.evolveum.midpoint.repo.sql.util.RUtil;
 import com.evolveum.midpoint.repo.sql.util.TemporaryTableDialect;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.task.api.Task;
@@ -54,11 +54,13 @@ import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.xml.datatype.Duration;
 import javax.xml.datatype.XMLGregorianCalendar;
+import java.io.File;
 import java.sql.*;
 import java.util.*;
 import java.util.Date;
 import java.util.Map.Entry;
 import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 import static org.apache.commons.lang3.ObjectUtils.defaultIfNull;
 
@@ -70,12 +72,18 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
     @Autowired
     private BaseHelper baseHelper;
 
+    @Autowired
+    private FullObjectCodec fullObjectCodec;
+
     private static final Trace LOGGER = TraceManager.getTrace(SqlAuditServiceImpl.class);
     private static final Integer CLEANUP_AUDIT_BATCH_SIZE = 500;
 
     private static final String QUERY_MAX_RESULT = "setMaxResults";
     private static final String QUERY_FIRST_RESULT = "setFirstResult";
 
+    private AsyncAuditWriter asyncWriter;
+    private boolean destroyed;
+
     public SqlAuditServiceImpl(SqlRepositoryFactory repositoryFactory) {
         super(repositoryFactory);
     }
@@ -85,6 +93,13 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
         Validate.notNull(record, "Audit event record must not be null.");
         Validate.notNull(task, "Task must not be null.");
 
+        if (getConfiguration().isAsynchronousAudit()) {
+            AsyncAuditWriter writer = getAsyncWriter();
+            if (writer != null && writer.submit(record)) {
+                return;
+            }
+        }
+
         final String operation = "audit";
         int attempt = 1;
 
@@ -328,8 +343,7 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
 
         PrismObject result;
         if (object != null) {
-            String xml = RUtil.getXmlFromByteArray(object.getFullObject(), getConfiguration().isUseZip());
-            result = getPrismContext().parserFor(xml).language(SqlRepositoryServiceImpl.DATA_LANGUAGE).compat().parse();
+            result = fullObjectCodec.decode(object.getFullObject(), getPrismContext().createParsingContextForCompatibilityMode());
         } else if (defaultType != null) {
             result = getPrismContext().createObject(defaultType.getJaxbClass());
             result.asObjectable().setName(PolyStringType.fromOrig(defaultName != null ? defaultName : oid));
@@ -341,6 +355,69 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
         return result;
     }
 
+    private synchronized AsyncAuditWriter getAsyncWriter() {
+        if (asyncWriter == null && !destroyed) {
+            SqlRepositoryConfiguration config = getConfiguration();
+            File spillDirectory = config.getAuditQueueFullAction() == AuditQueueFullAction.SPILL
+                    ? new File(config.getAuditSpillDirectory()) : null;
+            asyncWriter = new AsyncAuditWriter(this, config.getAuditQueueSize(), config.getAuditBatchSize(),
+                    config.getAuditQueueFullAction(), spillDirectory);
+            asyncWriter.start();
+        }
+        return asyncWriter;
+    }
+
+    /**
+     * Stops asynchronous audit writer (if running). Audit records that come after this call are stored synchronously.
+     */
+    public void destroy() {
+        AsyncAuditWriter writer;
+        synchronized (this) {
+            destroyed = true;
+            writer = asyncWriter;
+            asyncWriter = null;
+        }
+        if (writer != null) {
+            writer.shutdown();
+        }
+    }
+
+    /**
+     * Stores records in a single transaction. Dependent rows (e.g. changed items and deltas) are inserted using JDBC batches.
+     * The supplier is asked for fresh repository records in each attempt.
+     */
+    void auditBatch(Supplier<List<RAuditEventRecord>> recordsSupplier) {
+        final String operation = "auditBatch";
+        int attempt = 1;
+
+        while (true) {
+            try {
+                auditBatchAttempt(recordsSupplier.get());
+                return;
+            } catch (RuntimeException ex) {
+                attempt = baseHelper.logOperationAttempt(null, operation, attempt, ex, null);
+            }
+        }
+    }
+
+    private void auditBatchAttempt(List<RAuditEventRecord> records) {
+        Session session = null;
+        try {
+            session = baseHelper.beginTransaction();
+            session.setJdbcBatchSize(getConfiguration().getAuditBatchSize());
+
+            for (RAuditEventRecord record : records) {
+                session.save(record);
+            }
+
+            session.getTransaction().commit();
+        } catch (RuntimeException ex) {
+            baseHelper.handleGeneralRuntimeException(ex, session, null);
+        } finally {
+            baseHelper.cleanupSessionAndResult(session, null);
+        }
+    }
+
     private void auditAttempt(AuditEventRecord record) {
         Session session = null;
         try {
@@ -261,6 +261,9 @@ public class SqlRepositoryConfiguration {
 	private static final int DEFAULT_MIN_POOL_SIZE = 8;
 	private static final int DEFAULT_MAX_POOL_SIZE = 20;
 	private static final int DEFAULT_MAX_OBJECTS_FOR_IMPLICIT_FETCH_ALL_ITERATION_METHOD = 500;
+	private static final int DEFAULT_AUDIT_QUEUE_SIZE = 10000;
+	private static final int DEFAULT_AUDIT_BATCH_SIZE = 50;
+	private static final String DEFAULT_AUDIT_SPILL_DIRECTORY_NAME = "audit-spill";
 
 	private static final String USER_HOME_VARIABLE = "user.home";
 	private static final String MIDPOINT_HOME_VARIABLE = "midpoint.home";
@@ -296,7 +299,21 @@ public class SqlRepositoryConfiguration {
     //other
     public static final String PROPERTY_ITERATIVE_SEARCH_BY_PAGING = "iterativeSearchByPaging";
     public static final String PROPERTY_ITERATIVE_SEARCH_BY_PAGING_BATCH_SIZE = "iterativeSearchByPagingBatchSize";
+    public static final String PROPERTY_ITERATIVE_SEARCH_BY_KEYSET_PAGING = "iterativeSearchByKeysetPaging";
     public static final String PROPERTY_MAX_OBJECTS_FOR_IMPLICIT_FETCH_ALL_ITERATION_METHOD = "maxObjectsForImplicitFetchAllIterationMethod";
+    public static final String PROPERTY_USE_STREAMING_PARSER = "useStreamingParser";
+    public static final String PROPERTY_FULL_OBJECT_FORMAT = "fullObjectFormat";
+    public static final String PROPERTY_QUERY_INTERPRETATION_CACHE_SIZE = "queryInterpretationCacheSize";
+    public static final String PROPERTY_PARSING_THREADS = "parsingThreads";
+    public static final String PROPERTY_PARSING_KEEP_ORDER = "parsingKeepOrder";
+    public static final String PROPERTY_FULL_OBJECT_JOURNAL_SIZE = "fullObjectJournalSize";
+
+    //audit
+    public static final String PROPERTY_ASYNCHRONOUS_AUDIT = "asynchronousAudit";
+    public static final String PROPERTY_AUDIT_QUEUE_SIZE = "auditQueueSize";
+    public static final String PROPERTY_AUDIT_BATCH_SIZE = "auditBatchSize";
+    public static final String PROPERTY_AUDIT_QUEUE_FULL_ACTION = "auditQueueFullAction";
+    public static final String PROPERTY_AUDIT_SPILL_DIRECTORY = "auditSpillDirectory";
 
     //closure
     public static final String PROPERTY_IGNORE_ORG_CLOSURE = "ignoreOrgClosure";
@@ -368,9 +385,22 @@ public class SqlRepositoryConfiguration {
     private boolean defaultIterativeSearchByPaging;
     private int defaultIterativeSearchByPagingBatchSize;
 	private final int maxObjectsForImplicitFetchAllIterationMethod;
+	private final boolean useStreamingParser;
+	private FullObjectFormat fullObjectFormat;                  // not final only because of testing
+	private int queryInterpretationCacheSize;                   // not final only because of testing
+	private int parsingThreads;                                 // not final only because of testing
+	private boolean parsingKeepOrder;                           // not final only because of testing
+	private int fullObjectJournalSize;                          // not final only because of testing
+
+    private final boolean asynchronousAudit;
+    private final int auditQueueSize;
+    private final int auditBatchSize;
+    private final AuditQueueFullAction auditQueueFullAction;
+    private final String auditSpillDirectory;
 
     private final boolean iterativeSearchByPaging;
     private int iterativeSearchByPagingBatchSize;               // not final only because of testing
+    private boolean iterativeSearchByKeysetPaging;              // not final only because of testing
 
     private final boolean ignoreOrgClosure;
     private final OrgClosureManager.StartupAction orgClosureStartupAction;
@@ -476,8 +506,24 @@ public class SqlRepositoryConfiguration {
         computeDefaultIterativeSearchParameters();
         iterativeSearchByPaging = configuration.getBoolean(PROPERTY_ITERATIVE_SEARCH_BY_PAGING, defaultIterativeSearchByPaging);
         iterativeSearchByPagingBatchSize = configuration.getInt(PROPERTY_ITERATIVE_SEARCH_BY_PAGING_BATCH_SIZE, defaultIterativeSearchByPagingBatchSize);
+        iterativeSearchByKeysetPaging = configuration.getBoolean(PROPERTY_ITERATIVE_SEARCH_BY_KEYSET_PAGING, true);
         maxObjectsForImplicitFetchAllIterationMethod = configuration.getInt(PROPERTY_MAX_OBJECTS_FOR_IMPLICIT_FETCH_ALL_ITERATION_METHOD,
 		        DEFAULT_MAX_OBJECTS_FOR_IMPLICIT_FETCH_ALL_ITERATION_METHOD);
+        useStreamingParser = configuration.getBoolean(PROPERTY_USE_STREAMING_PARSER, false);
+        fullObjectFormat = FullObjectFormat.fromValue(
+                configuration.getString(PROPERTY_FULL_OBJECT_FORMAT, FullObjectFormat.XML.value()));
+        queryInterpretationCacheSize = configuration.getInt(PROPERTY_QUERY_INTERPRETATION_CACHE_SIZE, 0);
+        parsingThreads = configuration.getInt(PROPERTY_PARSING_THREADS, 0);
+        parsingKeepOrder = configuration.getBoolean(PROPERTY_PARSING_KEEP_ORDER, true);
+        fullObjectJournalSize = configuration.getInt(PROPERTY_FULL_OBJECT_JOURNAL_SIZE, 0);
+
+        asynchronousAudit = configuration.getBoolean(PROPERTY_ASYNCHRONOUS_AUDIT, false);
+        auditQueueSize = configuration.getInt(PROPERTY_AUDIT_QUEUE_SIZE, DEFAULT_AUDIT_QUEUE_SIZE);
+        auditBatchSize = configuration.getInt(PROPERTY_AUDIT_BATCH_SIZE, DEFAULT_AUDIT_BATCH_SIZE);
+        auditQueueFullAction = AuditQueueFullAction.fromValue(
+                configuration.getString(PROPERTY_AUDIT_QUEUE_FULL_ACTION, AuditQueueFullAction.BLOCK.value()));
+        auditSpillDirectory = configuration.getString(PROPERTY_AUDIT_SPILL_DIRECTORY,
+                new File(baseDir, DEFAULT_AUDIT_SPILL_DIRECTORY_NAME).getPath());
 
         ignoreOrgClosure = configuration.getBoolean(PROPERTY_IGNORE_ORG_CLOSURE, false);
         orgClosureStartupAction = OrgClosureManager.StartupAction.fromValue(
@@ -702,6 +748,18 @@ public class SqlRepositoryConfiguration {
         if (minPoolSize > maxPoolSize) {
             throw new RepositoryServiceFactoryException("Max. pool size must be greater than min. pool size.");
         }
+
+        if (asynchronousAudit) {
+            if (auditQueueSize <= 0) {
+                throw new RepositoryServiceFactoryException("Audit queue size must be greater than zero.");
+            }
+            if (auditBatchSize <= 0) {
+                throw new RepositoryServiceFactoryException("Audit batch size must be greater than zero.");
+            }
+            if (auditQueueFullAction == AuditQueueFullAction.SPILL) {
+                notEmpty(auditSpillDirectory, "Audit spill directory is empty or not defined.");
+            }
+        }
     }
 
     @SuppressWarnings("SameParameterValue")
@@ -849,10 +907,116 @@ public class SqlRepositoryConfiguration {
         this.iterativeSearchByPagingBatchSize = iterativeSearchByPagingBatchSize;
     }
 
+    public boolean isIterativeSearchByKeysetPaging() {
+        return iterativeSearchByKeysetPaging;
+    }
+
+    // exists because of testing
+    public void setIterativeSearchByKeysetPaging(boolean iterativeSearchByKeysetPaging) {
+        this.iterativeSearchByKeysetPaging = iterativeSearchByKeysetPaging;
+    }
+
+    // exists because of testing
+    public void setFullObjectFormat(FullObjectFormat fullObjectFormat) {
+        this.fullObjectFormat = fullObjectFormat;
+    }
+
+    public int getQueryInterpretationCacheSize() {
+        return queryInterpretationCacheSize;
+    }
+
+    // exists because of testing
+    public void setQueryInterpretationCacheSize(int queryInterpretationCacheSize) {
+        this.queryInterpretationCacheSize = queryInterpretationCacheSize;
+    }
+
+    /**
+     * Number of threads used to parse objects returned by searches; 0 means parsing in the thread that reads the results.
+     */
+    public int getParsingThreads() {
+        return parsingThreads;
+    }
+
+    // exists because of testing
+    public void setParsingThreads(int parsingThreads) {
+        this.parsingThreads = parsingThreads;
+    }
+
+    /**
+     * If false, objects of an iterative search without explicit ordering are passed to the handler in the order
+     * they are parsed (relevant only if parsingThreads is greater than 0).
+     */
+    public boolean isParsingKeepOrder() {
+        return parsingKeepOrder;
+    }
+
+    // exists because of testing
+    public void setParsingKeepOrder(boolean parsingKeepOrder) {
+        this.parsingKeepOrder = parsingKeepOrder;
+    }
+
+    /**
+     * Maximal number of modifications that are appended to the full object column instead of rewriting it;
+     * the object is stored as a whole after reaching this limit. 0 means that the journal is not used.
+     */
+    public int getFullObjectJournalSize() {
+        return fullObjectJournalSize;
+    }
+
+    // exists because of testing
+    public void setFullObjectJournalSize(int fullObjectJournalSize) {
+        this.fullObjectJournalSize = fullObjectJournalSize;
+    }
+
 	public int getMaxObjectsForImplicitFetchAllIterationMethod() {
 		return maxObjectsForImplicitFetchAllIterationMethod;
 	}
 
+	/**
+	 * Whether stored objects are parsed directly from (possibly compressed) byte stream using StAX,
+	 * i.e. without creating intermediate String and DOM representations.
+	 */
+	public boolean isUseStreamingParser() {
+		return useStreamingParser;
+	}
+
+	/**
+	 * Format in which objects are written to fullObject column. Reading works for all formats.
+	 */
+	public FullObjectFormat getFullObjectFormat() {
+		return fullObjectFormat;
+	}
+
+	/**
+	 * Whether audit records are stored by a background thread, in batches (one transaction per batch).
+	 * The caller of audit() does not wait for the database.
+	 */
+	public boolean isAsynchronousAudit() {
+		return asynchronousAudit;
+	}
+
+	/**
+	 * Capacity of in-memory queue of audit records waiting to be stored (asynchronous audit only).
+	 */
+	public int getAuditQueueSize() {
+		return auditQueueSize;
+	}
+
+	/**
+	 * Maximal number of audit records stored in one transaction (asynchronous audit only).
+	 */
+	public int getAuditBatchSize() {
+		return auditBatchSize;
+	}
+
+	public AuditQueueFullAction getAuditQueueFullAction() {
+		return auditQueueFullAction;
+	}
+
+	public String getAuditSpillDirectory() {
+		return auditSpillDirectory;
+	}
+
 	public String getDataSource() {
         return dataSource;
     }
@@ -39,6 +39,7 @@ import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
 import com.evolveum.midpoint.repo.api.*;
 import com.evolveum.midpoint.repo.api.query.ObjectFilterExpressionEvaluator;
 import com.evolveum.midpoint.repo.sql.helpers.*;
+import com.evolveum.midpoint.repo.sql.query2.QueryInterpretationCache;
 import com.evolveum.midpoint.repo.sql.query2.matcher.DefaultMatcher;
 import com.evolveum.midpoint.repo.sql.query2.matcher.PolyStringMatcher;
 import com.evolveum.midpoint.repo.sql.query2.matcher.StringMatcher;
@@ -118,6 +119,7 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
     private static final String DETAILS_DATA_SOURCE = "dataSource";
     private static final String DETAILS_HIBERNATE_DIALECT = "hibernateDialect";
     private static final String DETAILS_HIBERNATE_HBM_2_DDL = "hibernateHbm2ddl";
+    private static final String DETAILS_QUERY_INTERPRETATION_CACHE = "queryInterpretationCache";
 
     @Autowired private SequenceHelper sequenceHelper;
     @Autowired private ObjectRetriever objectRetriever;
@@ -129,6 +131,7 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
     @Autowired private PrismContext prismContext;
     @Autowired private RelationRegistry relationRegistry;
     @Autowired private SystemConfigurationChangeDispatcher systemConfigurationChangeDispatcher;
+    @Autowired private QueryInterpretationCache queryInterpretationCache;
 
     private final ThreadLocal<List<ConflictWatcherImpl>> conflictWatchersThreadLocal = new ThreadLocal<>();
 
@@ -399,21 +402,7 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
                 object.getCompileTimeClass().getSimpleName(), options.isOverwrite(),
                 options.isAllowUnencryptedValues());
 
-        if (InternalsConfig.encryptionChecks && !RepoAddOptions.isAllowUnencryptedValues(options)) {
-            CryptoUtil.checkEncrypted(object);
-        }
-
-        if (InternalsConfig.consistencyChecks) {
-            object.checkConsistence(ConsistencyCheckScope.THOROUGH);
-        } else {
-            object.checkConsistence(ConsistencyCheckScope.MANDATORY_CHECKS_ONLY);
-        }
-
-        if (LOGGER.isTraceEnabled()) {
-            // Explicitly log name
-            PolyStringType namePolyType = object.asObjectable().getName();
-            LOGGER.trace("NAME: {} - {}", namePolyType.getOrig(), namePolyType.getNorm());
-        }
+        checkObjectToAdd(object, options);
 
         OperationResult subResult = result.createSubresult(ADD_OBJECT);
         subResult.addParam("object", object);
@@ -439,6 +428,71 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         }
     }
 
+    @Override
+    public List<String> addObjects(List<? extends PrismObject<? extends ObjectType>> objects, RepoAddOptions options,
+            OperationResult result) throws ObjectAlreadyExistsException, SchemaException {
+        Validate.notNull(objects, "Objects must not be null.");
+        Validate.notNull(result, "Operation result must not be null.");
+
+        if (options == null) {
+            options = new RepoAddOptions();
+        }
+
+        LOGGER.debug("Adding {} objects, overwrite={}, allowUnencryptedValues={}, deferOrgClosureUpdate={}",
+                objects.size(), options.isOverwrite(), options.isAllowUnencryptedValues(), options.isDeferOrgClosureUpdate());
+
+        for (PrismObject<? extends ObjectType> object : objects) {
+            Validate.notNull(object, "Object must not be null.");
+            validateName(object);
+            checkObjectToAdd(object, options);
+        }
+
+        OperationResult subResult = result.createSubresult(ADD_OBJECTS);
+        subResult.addParam("objects", objects.size());
+        subResult.addParam("options", options.toString());
+
+        try {
+            final String operation = "adding objects";
+            int attempt = 1;
+
+            while (true) {
+                try {
+                    List<String> createdOids = objectUpdater.addObjectsAttempt(objects, options, subResult);
+                    for (int i = 0; i < objects.size(); i++) {
+                        String createdOid = createdOids.get(i);
+                        PrismObject<? extends ObjectType> object = objects.get(i);
+                        invokeConflictWatchers((w) -> w.afterAddObject(createdOid, object));
+                    }
+                    return createdOids;
+                } catch (RuntimeException ex) {
+                    attempt = baseHelper.logOperationAttempt(null, operation, attempt, ex, subResult);
+                }
+            }
+        } finally {
+            for (PrismObject<? extends ObjectType> object : objects) {
+                OperationLogger.logAdd(object, options, subResult);
+            }
+        }
+    }
+
+    private void checkObjectToAdd(PrismObject<? extends ObjectType> object, RepoAddOptions options) {
+        if (InternalsConfig.encryptionChecks && !RepoAddOptions.isAllowUnencryptedValues(options)) {
+            CryptoUtil.checkEncrypted(object);
+        }
+
+        if (InternalsConfig.consistencyChecks) {
+            object.checkConsistence(ConsistencyCheckScope.THOROUGH);
+        } else {
+            object.checkConsistence(ConsistencyCheckScope.MANDATORY_CHECKS_ONLY);
+        }
+
+        if (LOGGER.isTraceEnabled()) {
+            // Explicitly log name
+            PolyStringType namePolyType = object.asObjectable().getName();
+            LOGGER.trace("NAME: {} - {}", namePolyType.getOrig(), namePolyType.getNorm());
+        }
+    }
+
     public void invokeConflictWatchers(Consumer<ConflictWatcherImpl> consumer) {
 	    emptyIfNull(conflictWatchersThreadLocal.get()).forEach(consumer);
     }
@@ -655,6 +709,9 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         details.add(new LabeledString(DETAILS_DATA_SOURCE, config.getDataSource()));
         details.add(new LabeledString(DETAILS_HIBERNATE_DIALECT, config.getHibernateDialect()));
         details.add(new LabeledString(DETAILS_HIBERNATE_HBM_2_DDL, config.getHibernateHbm2ddl()));
+        if (queryInterpretationCache.isEnabled()) {
+            details.add(new LabeledString(DETAILS_QUERY_INTERPRETATION_CACHE, queryInterpretationCache.getStatisticsDescription()));
+        }
 
         readDetailsFromConnection(diag, config);
 
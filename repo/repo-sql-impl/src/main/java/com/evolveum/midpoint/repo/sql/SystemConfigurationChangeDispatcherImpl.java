@@ -24,6 +24,7 @@ import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.api.SystemConfigurationChangeDispatcher;
 import com.evolveum.midpoint.repo.api.SystemConfigurationChangeListener;
+import com.evolveum.midpoint.repo.sql.query2.QueryInterpretationCache;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.RelationRegistry;
 import com.evolveum.midpoint.schema.SelectorOptions;
@@ -59,6 +60,7 @@ public class SystemConfigurationChangeDispatcherImpl implements SystemConfigurat
 	@Autowired private PrismContext prismContext;
 	@Autowired private RelationRegistry relationRegistry;
 	@Autowired private MidpointConfiguration midpointConfiguration;
+	@Autowired private QueryInterpretationCache queryInterpretationCache;
 
 	private static final Collection<SystemConfigurationChangeListener> listeners = new HashSet<>();
 
@@ -107,6 +109,7 @@ public class SystemConfigurationChangeDispatcherImpl implements SystemConfigurat
 		applyFullTextSearchConfiguration(configuration);
 		applyRelationsConfiguration(configuration);
 		applyOperationResultHandlingConfiguration(configuration);
+		queryInterpretationCache.clear();       // interpretation depends e.g. on relations
 
 		if (lastVersionApplied != null) {
 			LOGGER.trace("System configuration version {} applied successfully", lastVersionApplied);
@@ -193,6 +193,25 @@ public class RAnyConverter {
         return rValues;
     }
 
+    /**
+     * Makes sure that the dictionary contains ext items for all indexed items in given extension (or attributes)
+     * container value. Missing ext items are created right away, so the conversion of the values does not need to
+     * restart the operation later. Items without definitions are skipped.
+     */
+    public void prepareExtItems(PrismContainerValue<?> containerValue, RObjectExtensionType ownerType) throws SchemaException {
+        List<Item<?, ?>> items = containerValue.getItems();
+        if (items == null) {
+            return;
+        }
+        for (Item<?, ?> item : items) {
+            ItemDefinition definition = item.getDefinition();
+            if (definition != null
+                    && isIndexed(definition, item.getElementName(), areDynamicsOfThisKindIndexed(ownerType), prismContext)) {
+                extItemDictionary.createOrFindItemDefinition(definition, false);
+            }
+        }
+    }
+
     private static String getEnumStringValue(Enum<?> realValue) {
         return findEnumFieldValueUncached(realValue.getClass(), realValue.toString());
     }
@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.helpers;
+
+import com.evolveum.midpoint.prism.ParsingContext;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.prism.xnode.RootXNode;
+import com.evolveum.midpoint.repo.sql.FullObjectFormat;
+import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
+import com.evolveum.midpoint.repo.sql.SqlRepositoryServiceImpl;
+import com.evolveum.midpoint.repo.sql.util.RUtil;
+import com.evolveum.midpoint.schema.DeltaConvertor;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.prism.xml.ns._public.types_3.ObjectDeltaType;
+import org.apache.commons.io.IOUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encodes objects into fullObject column and decodes them back.
+ *
+ * Data in non-XML formats start with a format marker byte. XML data (the original format) have no marker:
+ * they start either with gzip magic number or with XML text, so they cannot be confused with the markers.
+ * Decoding looks at the data only, so all formats can be read regardless of the configured one.
+ * New formats (or new versions of existing ones) should get their own marker values.
+ */
+@Component
+public class FullObjectCodec {
+
+    private static final Trace LOGGER = TraceManager.getTrace(FullObjectCodec.class);
+
+    /**
+     * Binary XNode representation, format version 1.
+     */
+    static final byte MARKER_BINARY = 0x01;
+
+    /**
+     * Binary XNode representation, format version 1, deflated.
+     */
+    static final byte MARKER_BINARY_DEFLATED = 0x02;
+
+    /**
+     * Full object (in any of the other formats) followed by a journal of modifications that were applied
+     * to it since it was stored. Layout: marker, length of the full object (int), the full object, and then
+     * the journal entries, each consisting of object version (UTF), compression flag (boolean), length
+     * of the data (int) and the data: XML form of the object delta, optionally deflated.
+     */
+    static final byte MARKER_JOURNALED = 0x03;
+
+    @Autowired private PrismContext prismContext;
+    @Autowired private BaseHelper baseHelper;
+
+    public byte[] encode(PrismObject<?> object) throws SchemaException {
+        boolean compress = getConfiguration().isUseZip();
+        if (getConfiguration().getFullObjectFormat() == FullObjectFormat.BINARY) {
+            byte[] data = prismContext.binarySerializer().serialize(object);
+            return compress ? addMarkerAndDeflate(data) : addMarker(data);
+        } else {
+            String xml = prismContext.serializerFor(SqlRepositoryServiceImpl.DATA_LANGUAGE).serialize(object);
+            return RUtil.getByteArrayFromXml(xml, compress);
+        }
+    }
+
+    /**
+     * Appends the modifications to the journal of the stored full object, so it doesn't need to be
+     * serialized again. Returns null if the journal is full; the object should be then stored as a whole,
+     * by {@link #encode(PrismObject)}, which removes the journal.
+     */
+    public byte[] appendToJournal(byte[] fullObject, String version, ObjectDelta<? extends ObjectType> delta, int maxEntries)
+            throws SchemaException {
+        if (fullObject == null || fullObject.length == 0 || maxEntries <= 0) {
+            return null;
+        }
+        Journal journal = Journal.read(fullObject);
+        if (journal.entries >= maxEntries) {
+            return null;
+        }
+        boolean compress = getConfiguration().isUseZip();
+        String xml = prismContext.xmlSerializer().serializeRealValue(DeltaConvertor.toObjectDeltaType(delta),
+                SchemaConstants.T_OBJECT_DELTA);
+        byte[] data = xml.getBytes(StandardCharsets.UTF_8);
+        if (compress) {
+            data = deflate(data);
+        }
+        // we don't want reading of the object to be much slower than reading its base
+        if (journal.journalLength + data.length > journal.baseLength) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(fullObject.length + data.length + 64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            if (journal.entries == 0 && fullObject[0] != MARKER_JOURNALED) {
+                out.writeByte(MARKER_JOURNALED);
+                out.writeInt(fullObject.length);
+            }
+            out.write(fullObject);
+            out.writeUTF(version);
+            out.writeBoolean(compress);
+            out.writeInt(data.length);
+            out.write(data);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new SystemException("Couldn't append to full object journal, reason: " + e.getMessage(), e);
+        }
+    }
+
+    public static boolean isJournaled(byte[] fullObject) {
+        return fullObject != null && fullObject.length > 0 && fullObject[0] == MARKER_JOURNALED;
+    }
+
+    public <T extends ObjectType> PrismObject<T> decode(byte[] fullObject, ParsingContext parsingContext) throws SchemaException {
+        if (isJournaled(fullObject)) {
+            Journal journal = Journal.read(fullObject);
+            PrismObject<T> object = decode(journal.getBase(fullObject), parsingContext);
+            for (JournalEntry entry : journal.readEntries(fullObject)) {
+                ObjectDeltaType deltaType = prismContext.parserFor(entry.getXml()).language(PrismContext.LANG_XML)
+                        .context(parsingContext).parseRealValue(ObjectDeltaType.class);
+                ObjectDelta<T> delta = DeltaConvertor.createObjectDelta(deltaType, prismContext);
+                delta.applyTo(object);
+                object.setVersion(entry.version);
+            }
+            return object;
+        }
+        if (isBinary(fullObject)) {
+            try (InputStream stream = getBinaryStream(fullObject)) {
+                return prismContext.parserFor(stream).language(PrismContext.LANG_BINARY).context(parsingContext).parse();
+            } catch (IOException e) {
+                throw new SystemException("Couldn't read data from full object column, reason: " + e.getMessage(), e);
+            }
+        }
+
+        boolean useZip = getConfiguration().isUseZip();
+        if (!getConfiguration().isUseStreamingParser()) {
+            String xml = RUtil.getXmlFromByteArray(fullObject, useZip);
+            return prismContext.parserFor(xml).language(SqlRepositoryServiceImpl.DATA_LANGUAGE).context(parsingContext).parse();
+        }
+        // streaming variant: no intermediate String nor DOM is created
+        try (InputStream stream = RUtil.getInputStreamFromByteArray(fullObject, useZip)) {
+            return prismContext.parserFor(stream).language(SqlRepositoryServiceImpl.DATA_LANGUAGE)
+                    .context(parsingContext.streamingXml()).parse();
+        } catch (IOException e) {
+            throw new SystemException("Couldn't read data from full object column, reason: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns XML form of the data, regardless of the format they are stored in. Intended for diagnostics
+     * (e.g. logging data that couldn't be parsed), so it never throws an exception.
+     */
+    public String toXml(byte[] fullObject) {
+        if (isJournaled(fullObject)) {
+            try {
+                Journal journal = Journal.read(fullObject);
+                StringBuilder sb = new StringBuilder(toXml(journal.getBase(fullObject)));
+                for (JournalEntry entry : journal.readEntries(fullObject)) {
+                    sb.append("\n<!-- journal entry for version ").append(entry.version).append(" -->\n").append(entry.getXml());
+                }
+                return sb.toString();
+            } catch (RuntimeException e) {
+                LOGGER.debug("Couldn't convert journaled full object data to XML", e);
+                return "(journaled data, " + fullObject.length + " bytes, couldn't be converted to XML: " + e.getMessage() + ")";
+            }
+        }
+        if (!isBinary(fullObject)) {
+            return RUtil.getXmlFromByteArray(fullObject, getConfiguration().isUseZip());
+        }
+        try (InputStream stream = getBinaryStream(fullObject)) {
+            RootXNode xnode = prismContext.parserFor(stream).language(PrismContext.LANG_BINARY).parseToXNode();
+            return prismContext.xmlSerializer().serialize(xnode);
+        } catch (IOException | SchemaException | RuntimeException e) {
+            LOGGER.debug("Couldn't convert binary full object data to XML", e);
+            return "(binary data, " + fullObject.length + " bytes, couldn't be converted to XML: " + e.getMessage() + ")";
+        }
+    }
+
+    public static boolean isBinary(byte[] fullObject) {
+        return fullObject != null && fullObject.length > 0
+                && (fullObject[0] == MARKER_BINARY || fullObject[0] == MARKER_BINARY_DEFLATED);
+    }
+
+    private static InputStream getBinaryStream(byte[] fullObject) {
+        InputStream stream = new ByteArrayInputStream(fullObject, 1, fullObject.length - 1);
+        return fullObject[0] == MARKER_BINARY_DEFLATED ? new InflaterInputStream(stream) : stream;
+    }
+
+    private static byte[] addMarker(byte[] data) {
+        byte[] rv = new byte[data.length + 1];
+        rv[0] = MARKER_BINARY;
+        System.arraycopy(data, 0, rv, 1, data.length);
+        return rv;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+            try (DeflaterOutputStream deflater = new DeflaterOutputStream(out)) {
+                deflater.write(data);
+            }
+            return out.toByteArray();
+        } catch (IOException ex) {
+            throw new SystemException("Couldn't deflate data, reason: " + ex.getMessage(), ex);
+        }
+    }
+
+    private static byte[] addMarkerAndDeflate(byte[] data) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+            out.write(MARKER_BINARY_DEFLATED);
+            try (DeflaterOutputStream deflater = new DeflaterOutputStream(out)) {
+                deflater.write(data);
+            }
+            return out.toByteArray();
+        } catch (IOException ex) {
+            throw new SystemException("Couldn't save full object, reason: " + ex.getMessage(), ex);
+        }
+    }
+
+    private SqlRepositoryConfiguration getConfiguration() {
+        return baseHelper.getConfiguration();
+    }
+
+    /**
+     * Structure of the journaled full object. For other formats, the whole data is the base and there are no entries.
+     */
+    private static class Journal {
+
+        private final int baseOffset;
+        private final int baseLength;
+        private final int journalLength;
+        private final int entries;
+
+        private Journal(int baseOffset, int baseLength, int journalLength, int entries) {
+            this.baseOffset = baseOffset;
+            this.baseLength = baseLength;
+            this.journalLength = journalLength;
+            this.entries = entries;
+        }
+
+        private static Journal read(byte[] fullObject) {
+            if (!isJournaled(fullObject)) {
+                return new Journal(0, fullObject.length, 0, 0);
+            }
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(fullObject, 1, fullObject.length - 1));
+                int baseLength = in.readInt();
+                int journalStart = 5 + baseLength;
+                skipFully(in, baseLength);
+                int entries = 0;
+                while (in.available() > 0) {
+                    in.readUTF();
+                    in.readBoolean();
+                    skipFully(in, in.readInt());
+                    entries++;
+                }
+                return new Journal(5, baseLength, fullObject.length - journalStart, entries);
+            } catch (IOException e) {
+                throw new SystemException("Couldn't read full object journal, reason: " + e.getMessage(), e);
+            }
+        }
+
+        private byte[] getBase(byte[] fullObject) {
+            return Arrays.copyOfRange(fullObject, baseOffset, baseOffset + baseLength);
+        }
+
+        private List<JournalEntry> readEntries(byte[] fullObject) {
+            List<JournalEntry> rv = new ArrayList<>(entries);
+            try {
+                int journalStart = baseOffset + baseLength;
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(fullObject, journalStart, fullObject.length - journalStart));
+                while (in.available() > 0) {
+                    String version = in.readUTF();
+                    boolean compressed = in.readBoolean();
+                    byte[] data = new byte[in.readInt()];
+                    in.readFully(data);
+                    rv.add(new JournalEntry(version, compressed, data));
+                }
+                return rv;
+            } catch (IOException e) {
+                throw new SystemException("Couldn't read full object journal, reason: " + e.getMessage(), e);
+            }
+        }
+
+        private static void skipFully(DataInputStream in, int length) throws IOException {
+            if (in.skipBytes(length) != length) {
+                throw new EOFException("Unexpected end of full object journal");
+            }
+        }
+    }
+
+    private static class JournalEntry {
+
+        private final String version;
+        private final boolean compressed;
+        private final byte[] data;
+
+        private JournalEntry(String version, boolean compressed, byte[] data) {
+            this.version = version;
+            this.compressed = compressed;
+            this.data = data;
+        }
+
+        private String getXml() {
+            if (!compressed) {
+                return new String(data, StandardCharsets.UTF_8);
+            }
+            try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(data))) {
+                return new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new SystemException("Couldn't inflate full object journal entry, reason: " + e.getMessage(), e);
+            }
+        }
+    }
+}
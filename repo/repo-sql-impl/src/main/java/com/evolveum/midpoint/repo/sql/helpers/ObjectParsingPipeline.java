@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.helpers;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.sql.util.GetObjectResult;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Parses full objects of rows read from the database using a pool of worker threads, so that the parsing
+ * runs concurrently with reading further rows (and with parsing of other rows).
+ *
+ * Rows are submitted by the thread that reads them; the same thread then takes the parsed objects and
+ * finishes their processing (i.e. the part that needs the hibernate session). At most "window" rows are
+ * being parsed at any time, so the memory consumption stays bounded.
+ *
+ * Parsed objects are returned either in the order of submission or in the order of parsing completion.
+ *
+ * Not thread safe; it is meant to be used by a single (reading) thread.
+ */
+class ObjectParsingPipeline<T extends ObjectType> implements AutoCloseable {
+
+    @FunctionalInterface
+    interface Parser<T extends ObjectType> {
+        PrismObject<T> parse(GetObjectResult row) throws SchemaException;
+    }
+
+    private final ExecutorService executor;
+    private final Parser<T> parser;
+    private final int window;
+    private final boolean keepOrder;
+
+    private final Deque<Future<ParsedObject<T>>> pending = new ArrayDeque<>();           // in the order of submission
+    private final CompletionService<ParsedObject<T>> completionService;                   // only if !keepOrder
+
+    ObjectParsingPipeline(@NotNull ExecutorService executor, @NotNull Parser<T> parser, int window, boolean keepOrder) {
+        this.executor = executor;
+        this.parser = parser;
+        this.window = window;
+        this.keepOrder = keepOrder;
+        this.completionService = keepOrder ? null : new ExecutorCompletionService<>(executor);
+    }
+
+    void submit(GetObjectResult row) {
+        ParsedObjectTask<T> task = new ParsedObjectTask<>(row, parser);
+        if (keepOrder) {
+            pending.add(executor.submit(task::call));
+        } else {
+            pending.add(completionService.submit(task::call));
+        }
+    }
+
+    boolean isFull() {
+        return pending.size() >= window;
+    }
+
+    boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * Returns next parsed object, waiting for it if needed. Must not be called on empty pipeline.
+     */
+    @NotNull
+    ParsedObject<T> take() {
+        if (pending.isEmpty()) {
+            throw new IllegalStateException("No objects in the parsing pipeline");
+        }
+        try {
+            Future<ParsedObject<T>> future;
+            if (keepOrder) {
+                future = pending.poll();
+            } else {
+                future = completionService.take();
+                pending.remove(future);
+            }
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SystemException("Interrupted while waiting for object to be parsed", e);
+        } catch (ExecutionException e) {
+            // parsing errors are stored in ParsedObject, so this is something unexpected
+            throw new SystemException("Unexpected exception while parsing object: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Cancels parsing of objects that will not be taken (e.g. because the handler stopped the processing).
+     */
+    @Override
+    public void close() {
+        for (Future<ParsedObject<T>> future : pending) {
+            future.cancel(false);
+        }
+        pending.clear();
+    }
+
+    /**
+     * A row with the result of its parsing: either the object or an exception.
+     */
+    static class ParsedObject<T extends ObjectType> {
+
+        @NotNull final GetObjectResult row;
+        private final PrismObject<T> object;
+        private final Throwable exception;
+
+        private ParsedObject(@NotNull GetObjectResult row, PrismObject<T> object, Throwable exception) {
+            this.row = row;
+            this.object = object;
+            this.exception = exception;
+        }
+
+        /**
+         * Returns the parsed object, or throws the exception that occurred during parsing (in the caller's thread).
+         */
+        PrismObject<T> getObject() throws SchemaException {
+            if (exception instanceof SchemaException) {
+                throw (SchemaException) exception;
+            } else if (exception instanceof RuntimeException) {
+                throw (RuntimeException) exception;
+            } else if (exception instanceof Error) {
+                throw (Error) exception;
+            } else if (exception != null) {
+                throw new SystemException(exception);
+            }
+            return object;
+        }
+    }
+
+    private static class ParsedObjectTask<T extends ObjectType> {
+
+        private final GetObjectResult row;
+        private final Parser<T> parser;
+
+        private ParsedObjectTask(GetObjectResult row, Parser<T> parser) {
+            this.row = row;
+            this.parser = parser;
+        }
+
+        private ParsedObject<T> call() {
+            try {
+                return new ParsedObject<>(row, parser.parse(row), null);
+            } catch (Throwable t) {
+                return new ParsedObject<>(row, null, t);
+            }
+        }
+    }
+}
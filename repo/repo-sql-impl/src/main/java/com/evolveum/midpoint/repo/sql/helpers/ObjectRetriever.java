@@ -19,13 +19,20 @@ package com.evolveum.midpoint.repo.sql.helpers;
 import com.evolveum.midpoint.common.crypto.CryptoUtil;
 import com.evolveum.midpoint.prism.*;
 import com.evolveum.midpoint.prism.path.ItemName;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.query.ObjectFilter;
+import com.evolveum.midpoint.prism.query.ObjectOrdering;
 import com.evolveum.midpoint.prism.query.ObjectPaging;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.OrderDirection;
+import com.evolveum.midpoint.prism.query.builder.S_MatchingRuleEntry;
 import com.evolveum.midpoint.prism.MutablePrismReferenceDefinition;
 import com.evolveum.midpoint.repo.api.RepositoryObjectDiagnosticData;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
 import com.evolveum.midpoint.repo.sql.SqlRepositoryServiceImpl;
+import com.evolveum.midpoint.repo.sql.helpers.ObjectParsingPipeline.ParsedObject;
 import com.evolveum.midpoint.repo.sql.data.common.RObject;
 import com.evolveum.midpoint.repo.sql.data.common.any.RAnyValue;
 import com.evolveum.midpoint.repo.sql.data.common.any.RExtItem;
@@ -35,6 +42,7 @@ import com.evolveum.midpoint.repo.sql.data.common.type.RObjectExtensionType;
 import com.evolveum.midpoint.repo.sql.query.QueryException;
 import com.evolveum.midpoint.repo.sql.query.RQuery;
 import com.evolveum.midpoint.repo.sql.query2.QueryEngine2;
+import com.evolveum.midpoint.repo.sql.query2.QueryInterpretationCache;
 import com.evolveum.midpoint.repo.sql.query2.RQueryImpl;
 import com.evolveum.midpoint.repo.sql.query2.hqm.QueryParameterValue;
 import com.evolveum.midpoint.repo.sql.util.*;
@@ -59,10 +67,17 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.apache.commons.lang3.ArrayUtils.getLength;
 import static org.apache.commons.lang3.ObjectUtils.defaultIfNull;
@@ -81,6 +96,9 @@ public class ObjectRetriever {
 
     public static final String NULL_OID_MARKER = "###null-oid###";     // brutal hack (TODO)
 
+    private static final String PARSING_THREAD_NAME_PREFIX = "midpoint-repo-parser-";
+    private static final int PARSING_WINDOW_PER_THREAD = 4;
+
     @Autowired private LookupTableHelper lookupTableHelper;
 	@Autowired private CertificationCaseHelper caseHelper;
 	@Autowired private CaseManagementHelper caseManagementHelper;
@@ -89,10 +107,14 @@ public class ObjectRetriever {
 	@Autowired private PrismContext prismContext;
 	@Autowired private RelationRegistry relationRegistry;
 	@Autowired private ExtItemDictionary extItemDictionary;
+	@Autowired private FullObjectCodec fullObjectCodec;
+	@Autowired private QueryInterpretationCache queryInterpretationCache;
 	@Autowired
 	@Qualifier("repositoryService")
 	private RepositoryService repositoryService;
 
+	private ThreadPoolExecutor parsingExecutor;                // guarded by this
+
     public <T extends ObjectType> PrismObject<T> getObjectAttempt(Class<T> type, String oid,
 			Collection<SelectorOptions<GetOperationOptions>> options, OperationResult result)
             throws ObjectNotFoundException, SchemaException {
@@ -323,7 +345,7 @@ public class ObjectRetriever {
                 longCount = (Number) sqlQuery.uniqueResult();
             } else {
                 RQuery rQuery;
-				QueryEngine2 engine = new QueryEngine2(getConfiguration(), extItemDictionary, prismContext, relationRegistry);
+				QueryEngine2 engine = new QueryEngine2(getConfiguration(), extItemDictionary, prismContext, relationRegistry, queryInterpretationCache);
 				rQuery = engine.interpret(query, type, options, true, session);
 
                 longCount = (Number) rQuery.uniqueResult();
@@ -355,7 +377,7 @@ public class ObjectRetriever {
 		try {
 			session = baseHelper.beginReadOnlyTransaction();
 
-			QueryEngine2 engine = new QueryEngine2(getConfiguration(), extItemDictionary, prismContext, relationRegistry);
+			QueryEngine2 engine = new QueryEngine2(getConfiguration(), extItemDictionary, prismContext, relationRegistry, queryInterpretationCache);
 			RQuery rQuery = engine.interpret(query, type, options, true, session);
 			Number longCount = (Number) rQuery.uniqueResult();
 			LOGGER.trace("Found {} objects.", longCount);
@@ -379,7 +401,7 @@ public class ObjectRetriever {
             session = baseHelper.beginReadOnlyTransaction();
             RQuery rQuery;
 
-			QueryEngine2 engine = new QueryEngine2(getConfiguration(), extItemDictionary, prismContext, relationRegistry);
+			QueryEngine2 engine = new QueryEngine2(getConfiguration(), extItemDictionary, prismContext, relationRegistry, queryInterpretationCache);
 			rQuery = engine.interpret(query, type, options, false, session);
 
 			@SuppressWarnings({"unchecked", "raw"})
@@ -403,30 +425,103 @@ public class ObjectRetriever {
 			Collection<SelectorOptions<GetOperationOptions>> options,
 			Session session, OperationResult result) throws SchemaException {
 		List<PrismObject<T>> rv = new ArrayList<>();
-		if (objects != null) {
+		if (objects == null) {
+			return rv;
+		}
+		ObjectParsingPipeline<T> pipeline = objects.size() > 1 ? createParsingPipeline(type, true) : null;
+		if (pipeline == null) {
 			for (GetObjectResult object : objects) {
-				String oid = object.getOid();
-				Holder<PrismObject<T>> partialValueHolder = new Holder<>();
-				PrismObject<T> prismObject;
-				try {
-					prismObject = updateLoadedObject(object, type, oid, options, partialValueHolder, session, result);
-				} catch (Throwable t) {
-					if (!partialValueHolder.isEmpty()) {
-						prismObject = partialValueHolder.getValue();
+				rv.add(toPrismObject(object, null, type, options, session, result));
+			}
+		} else {
+			try (ObjectParsingPipeline<T> p = pipeline) {
+				Iterator<GetObjectResult> iterator = objects.iterator();
+				while (iterator.hasNext() || !p.isEmpty()) {
+					if (iterator.hasNext() && !p.isFull()) {
+						p.submit(iterator.next());
 					} else {
-						prismObject = prismContext.createObject(type);
-						prismObject.setOid(oid);
-						prismObject.asObjectable().setName(PolyStringType.fromOrig("Unreadable object"));
+						ParsedObject<T> parsed = p.take();
+						rv.add(toPrismObject(parsed.row, parsed, type, options, session, result));
 					}
-					result.recordFatalError("Couldn't retrieve " + type + " " + oid + ": " + t.getMessage(), t);
-					prismObject.asObjectable().setFetchResult(result.createOperationResultType());
 				}
-				rv.add(prismObject);
 			}
 		}
 		return rv;
 	}
 
+	/**
+	 * Unreadable objects are not reported by exceptions; a placeholder (with fetchResult) is returned instead.
+	 */
+	@NotNull
+	private <T extends ObjectType> PrismObject<T> toPrismObject(GetObjectResult object, ParsedObject<T> parsed, Class<T> type,
+			Collection<SelectorOptions<GetOperationOptions>> options, Session session, OperationResult result)
+			throws SchemaException {
+		String oid = object.getOid();
+		Holder<PrismObject<T>> partialValueHolder = new Holder<>();
+		PrismObject<T> prismObject;
+		try {
+			if (parsed != null) {
+				prismObject = updateParsedObject(object, parsed.getObject(), type, options, partialValueHolder, session);
+			} else {
+				prismObject = updateLoadedObject(object, type, oid, options, partialValueHolder, session, result);
+			}
+		} catch (Throwable t) {
+			if (!partialValueHolder.isEmpty()) {
+				prismObject = partialValueHolder.getValue();
+			} else {
+				prismObject = prismContext.createObject(type);
+				prismObject.setOid(oid);
+				prismObject.asObjectable().setName(PolyStringType.fromOrig("Unreadable object"));
+			}
+			result.recordFatalError("Couldn't retrieve " + type + " " + oid + ": " + t.getMessage(), t);
+			prismObject.asObjectable().setFetchResult(result.createOperationResultType());
+		}
+		return prismObject;
+	}
+
+	/**
+	 * Returns a pipeline for parallel parsing of objects, or null if parallel parsing is not configured.
+	 */
+	private <T extends ObjectType> ObjectParsingPipeline<T> createParsingPipeline(Class<T> type, boolean keepOrder) {
+		int threads = getConfiguration().getParsingThreads();
+		if (threads <= 0) {
+			return null;
+		}
+		return new ObjectParsingPipeline<>(getParsingExecutor(threads),
+				row -> parseFullObject(row.getFullObject(), type, row.getOid()), threads * PARSING_WINDOW_PER_THREAD, keepOrder);
+	}
+
+	/**
+	 * When the number of threads changes, the executor is resized rather than replaced, because pipelines
+	 * created earlier may still be submitting to it.
+	 */
+	private synchronized ExecutorService getParsingExecutor(int threads) {
+		if (parsingExecutor == null) {
+			AtomicInteger threadNumber = new AtomicInteger();
+			parsingExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+					runnable -> {
+						Thread thread = new Thread(runnable, PARSING_THREAD_NAME_PREFIX + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					});
+		} else if (threads > parsingExecutor.getMaximumPoolSize()) {
+			parsingExecutor.setMaximumPoolSize(threads);
+			parsingExecutor.setCorePoolSize(threads);
+		} else if (threads < parsingExecutor.getMaximumPoolSize()) {
+			parsingExecutor.setCorePoolSize(threads);
+			parsingExecutor.setMaximumPoolSize(threads);
+		}
+		return parsingExecutor;
+	}
+
+	@PreDestroy
+	public synchronized void shutdownParsingExecutor() {
+		if (parsingExecutor != null) {
+			parsingExecutor.shutdownNow();
+			parsingExecutor = null;
+		}
+	}
+
 	public <C extends Containerable> SearchResultList<C> searchContainersAttempt(Class<C> type, ObjectQuery query,
 			Collection<SelectorOptions<GetOperationOptions>> options, OperationResult result) throws SchemaException {
 
@@ -443,7 +538,7 @@ public class ObjectRetriever {
         try {
             session = baseHelper.beginReadOnlyTransaction();
 
-            QueryEngine2 engine = new QueryEngine2(getConfiguration(), extItemDictionary, prismContext, relationRegistry);
+            QueryEngine2 engine = new QueryEngine2(getConfiguration(), extItemDictionary, prismContext, relationRegistry, queryInterpretationCache);
             RQuery rQuery = engine.interpret(query, type, options, false, session);
 
             if (cases) {
@@ -506,14 +601,20 @@ public class ObjectRetriever {
     		String oid, Collection<SelectorOptions<GetOperationOptions>> options,
 			Holder<PrismObject<T>> partialValueHolder,
 			Session session, OperationResult operationResult) throws SchemaException {
+		PrismObject<T> prismObject = parseFullObject(result.getFullObject(), type, oid);
+		return updateParsedObject(result, prismObject, type, options, partialValueHolder, session);
+	}
 
-		byte[] fullObject = result.getFullObject();
-		String xml = RUtil.getXmlFromByteArray(fullObject, getConfiguration().isUseZip());
+	/**
+	 * Parses the full object. This part does not need the session, so it can be done in other than the "reading" thread.
+	 */
+	private <T extends ObjectType> PrismObject<T> parseFullObject(byte[] fullObject, Class<T> type, String oid)
+			throws SchemaException {
         PrismObject<T> prismObject;
         try {
             // "Postel mode": be tolerant what you read. We need this to tolerate (custom) schema changes
 			ParsingContext parsingContext = prismContext.createParsingContextForCompatibilityMode();
-            prismObject = prismContext.parserFor(xml).language(SqlRepositoryServiceImpl.DATA_LANGUAGE).context(parsingContext).parse();
+			prismObject = fullObjectCodec.decode(fullObject, parsingContext);
 			if (parsingContext.hasWarnings()) {
 				LOGGER.warn("Object {} parsed with {} warnings", ObjectTypeUtil.toShortString(prismObject), parsingContext.getWarnings().size());
 				// TODO enable if needed
@@ -525,9 +626,17 @@ public class ObjectRetriever {
         	// This is a serious thing. We have corrupted XML in the repo. This may happen even
         	// during system init. We want really loud and detailed error here.
             LOGGER.error("Couldn't parse object {} {}: {}: {}\n{}",
-            		type.getSimpleName(), oid, e.getClass().getName(), e.getMessage(), xml, e);
+            		type.getSimpleName(), oid, e.getClass().getName(), e.getMessage(),
+		            fullObjectCodec.toXml(fullObject), e);
             throw e;
         }
+        return prismObject;
+	}
+
+	private <T extends ObjectType> PrismObject<T> updateParsedObject(GetObjectResult result, PrismObject<T> prismObject,
+			Class<T> type, Collection<SelectorOptions<GetOperationOptions>> options, Holder<PrismObject<T>> partialValueHolder,
+			Session session) throws SchemaException {
+		byte[] fullObject = result.getFullObject();
         attachDiagDataIfRequested(prismObject, fullObject, options);
         if (FocusType.class.isAssignableFrom(prismObject.getCompileTimeClass())) {
             if (SelectorOptions.hasToLoadPath(FocusType.F_JPEG_PHOTO, options)) {
@@ -742,12 +851,18 @@ public class ObjectRetriever {
         try {
             session = baseHelper.beginReadOnlyTransaction();
             RQuery rQuery;
-			QueryEngine2 engine = new QueryEngine2(getConfiguration(), extItemDictionary, prismContext, relationRegistry);
+			QueryEngine2 engine = new QueryEngine2(getConfiguration(), extItemDictionary, prismContext, relationRegistry, queryInterpretationCache);
 			rQuery = engine.interpret(query, type, options, false, session);
 
+            // objects can be parsed in parallel with reading; and if allowed, they are passed to the handler as soon as they are parsed
+            boolean keepOrder = getConfiguration().isParsingKeepOrder()
+                    || query != null && query.getPaging() != null && query.getPaging().hasOrdering();
+            ObjectParsingPipeline<T> pipeline = createParsingPipeline(type, keepOrder);
+
             ScrollableResults results = rQuery.scroll(ScrollMode.FORWARD_ONLY);
             try {
                 Iterator<GetObjectResult> iterator = new ScrollableResultsIterator<>(results);
+                boolean stopped = false;
                 while (iterator.hasNext()) {
                     GetObjectResult object = iterator.next();
 
@@ -755,6 +870,16 @@ public class ObjectRetriever {
                     	continue;
 					}
 
+                    if (pipeline != null) {
+                        pipeline.submit(object);
+                        if (pipeline.isFull() && !handleParsedObject(pipeline.take(), type, handler, options, session, result,
+                                newlyRetrievedOids)) {
+                            stopped = true;
+                            break;
+                        }
+                        continue;
+                    }
+
 					// TODO treat exceptions encountered within the next call
 					PrismObject<T> prismObject = updateLoadedObject(object, type, null, options, null, session, result);
 
@@ -773,7 +898,13 @@ public class ObjectRetriever {
                         break;
                     }
                 }
+                while (pipeline != null && !stopped && !pipeline.isEmpty()) {
+                    stopped = !handleParsedObject(pipeline.take(), type, handler, options, session, result, newlyRetrievedOids);
+                }
             } finally {
+                if (pipeline != null) {
+                    pipeline.close();
+                }
                 if (results != null) {
                     results.close();
                 }
@@ -788,10 +919,23 @@ public class ObjectRetriever {
         }
     }
 
+    private <T extends ObjectType> boolean handleParsedObject(ParsedObject<T> parsed, Class<T> type, ResultHandler<T> handler,
+            Collection<SelectorOptions<GetOperationOptions>> options, Session session, OperationResult result,
+            Set<String> newlyRetrievedOids) throws SchemaException {
+        PrismObject<T> prismObject = updateParsedObject(parsed.row, parsed.getObject(), type, options, null, session);
+        newlyRetrievedOids.add(parsed.row.getOid());            // see the comment in searchObjectsIterativeAttempt
+        return handler.handle(prismObject, result);
+    }
+
     public <T extends ObjectType> void searchObjectsIterativeByPaging(Class<T> type, ObjectQuery query,
 		    ResultHandler<T> handler, Collection<SelectorOptions<GetOperationOptions>> options, OperationResult result)
             throws SchemaException {
 
+        if (isKeysetPagingApplicable(type, query)) {
+            searchObjectsIterativeByKeysetPaging(type, query, handler, options, result);
+            return;
+        }
+
         try {
             ObjectQuery pagedQuery = query != null ? query.clone() : prismContext.queryFactory().createQuery();
 
@@ -838,6 +982,211 @@ main:       while (remaining > 0) {
         }
     }
 
+    /**
+     * Keyset ("seek") version of paged search. Instead of skipping already returned objects using an offset
+     * (which forces the database to walk through all of them again), each batch continues right after the last
+     * object returned. Objects are ordered by the requested ordering items and then by OID, and the position
+     * is remembered as the values of these items in the last object, plus its OID.
+     *
+     * A batch is fetched by (at most) two queries:
+     *  1. objects with the same values of ordering items as the last one, and OID greater than the last one;
+     *  2. objects with values of ordering items strictly after the last one.
+     *
+     * Objects that have no value for some of the ordering items cannot be positioned this way without knowing
+     * how the database sorts nulls. So they are returned after all the other ones, using offset-based paging
+     * (with the same ordering).
+     */
+    private <T extends ObjectType> void searchObjectsIterativeByKeysetPaging(Class<T> type, ObjectQuery query,
+            ResultHandler<T> handler, Collection<SelectorOptions<GetOperationOptions>> options, OperationResult result)
+            throws SchemaException {
+
+        try {
+            ObjectFilter originalFilter = query != null ? query.getFilter() : null;
+            List<? extends ObjectOrdering> orderings = query != null && query.getPaging() != null && query.getPaging().hasOrdering() ?
+                    query.getPaging().getOrderingInstructions() : Collections.<ObjectOrdering>emptyList();
+            Integer maxSize = query != null && query.getPaging() != null ? query.getPaging().getMaxSize() : null;
+            final int batchSize = getConfiguration().getIterativeSearchByPagingBatchSize();
+
+            List<ObjectFilter> keysPresent = new ArrayList<>();
+            List<ObjectFilter> keysMissing = new ArrayList<>();
+            for (ObjectOrdering ordering : orderings) {
+                keysPresent.add(prismContext.queryFor(type).not().item(ordering.getOrderBy()).isNull().buildFilter());
+                keysMissing.add(prismContext.queryFor(type).item(ordering.getOrderBy()).isNull().buildFilter());
+            }
+            ObjectFilter keysetFilter = and(originalFilter, keysPresent);
+
+            PrismObject<T> last = null;
+            int processed = 0;
+main:       for (;;) {
+                int batch = Math.min(batchSize, defaultIfNull(maxSize, Integer.MAX_VALUE) - processed);
+                if (batch <= 0) {
+                    return;
+                }
+                List<PrismObject<T>> objects;
+                if (last == null) {
+                    objects = repositoryService.searchObjects(type,
+                            createKeysetQuery(keysetFilter, orderings, NULL_OID_MARKER, null, batch), options, result);
+                } else {
+                    List<Object> lastKeys = getOrderingKeys(last, orderings);
+                    objects = new ArrayList<>(repositoryService.searchObjects(type,
+                            createKeysetQuery(and(keysetFilter, createKeyFilters(type, orderings, lastKeys, orderings.size(), false)),
+                                    Collections.<ObjectOrdering>emptyList(), last.getOid(), null, batch), options, result));
+                    if (objects.size() < batch && !orderings.isEmpty()) {
+                        objects.addAll(repositoryService.searchObjects(type,
+                                createKeysetQuery(and(keysetFilter, createNextKeysFilter(type, orderings, lastKeys)),
+                                        orderings, NULL_OID_MARKER, null, batch - objects.size()), options, result));
+                    }
+                }
+                for (PrismObject<T> object : objects) {
+                    processed++;
+                    if (!handler.handle(object, result)) {
+                        return;
+                    }
+                }
+                if (objects.isEmpty()) {
+                    break;
+                }
+                last = objects.get(objects.size() - 1);
+            }
+
+            if (orderings.isEmpty()) {
+                return;
+            }
+            ObjectFilter missingKeysFilter = and(originalFilter,
+                    keysMissing.size() == 1 ? keysMissing.get(0) : prismContext.queryFactory().createOr(keysMissing));
+            int offset = 0;
+            for (;;) {
+                int batch = Math.min(batchSize, defaultIfNull(maxSize, Integer.MAX_VALUE) - processed);
+                if (batch <= 0) {
+                    return;
+                }
+                List<PrismObject<T>> objects = repositoryService.searchObjects(type,
+                        createKeysetQuery(missingKeysFilter, orderings, NULL_OID_MARKER, offset, batch), options, result);
+                for (PrismObject<T> object : objects) {
+                    processed++;
+                    if (!handler.handle(object, result)) {
+                        return;
+                    }
+                }
+                if (objects.isEmpty()) {
+                    return;
+                }
+                offset += objects.size();
+            }
+        } finally {
+            if (result.isUnknown()) {
+                result.computeStatus();
+            }
+            result.setSummarizeSuccesses(true);
+            result.summarize();
+        }
+    }
+
+    /**
+     * Keyset paging requires ordering only by single-valued properties with values that can be compared
+     * in the repository. Grouping, explicit offset or cookie are not supported.
+     */
+    private boolean isKeysetPagingApplicable(Class<? extends ObjectType> type, ObjectQuery query) {
+        if (!getConfiguration().isIterativeSearchByKeysetPaging()) {
+            return false;
+        }
+        ObjectPaging paging = query != null ? query.getPaging() : null;
+        if (paging == null || !paging.hasOrdering() && !paging.hasGrouping() && paging.getOffset() == null && !paging.hasCookie()) {
+            return true;
+        } else if (paging.hasGrouping() || paging.getOffset() != null || paging.hasCookie()) {
+            return false;
+        }
+        PrismObjectDefinition<?> objectDefinition = prismContext.getSchemaRegistry().findObjectDefinitionByCompileTimeClass(type);
+        for (ObjectOrdering ordering : paging.getOrderingInstructions()) {
+            ItemPath path = ordering.getOrderBy();
+            if (path == null || path.startsWithName(ObjectType.F_EXTENSION) || path.startsWithName(ShadowType.F_ATTRIBUTES)) {
+                return false;
+            }
+            ItemDefinition<?> definition = objectDefinition != null ? objectDefinition.findItemDefinition(path) : null;
+            if (!(definition instanceof PrismPropertyDefinition) || definition.isMultiValue()
+                    || !isKeysetComparable(definition.getTypeClassIfKnown())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isKeysetComparable(Class<?> typeClass) {
+        return typeClass != null && (String.class.equals(typeClass) || PolyString.class.equals(typeClass)
+                || PolyStringType.class.equals(typeClass) || Integer.class.equals(typeClass) || Long.class.equals(typeClass)
+                || Short.class.equals(typeClass) || XMLGregorianCalendar.class.equals(typeClass) || typeClass.isEnum());
+    }
+
+    private ObjectQuery createKeysetQuery(ObjectFilter filter, List<? extends ObjectOrdering> orderings, String cookie, Integer offset,
+            int maxSize) {
+        ObjectPaging paging = prismContext.queryFactory().createPaging();
+        for (ObjectOrdering ordering : orderings) {
+            paging.addOrderingInstruction(ordering.getOrderBy(), ordering.getDirection());
+        }
+        paging.setCookie(cookie);
+        paging.setOffset(offset);
+        paging.setMaxSize(maxSize);
+        return prismContext.queryFactory().createQuery(filter, paging);
+    }
+
+    // (key1 > last1) OR (key1 = last1 AND key2 > last2) OR ..., with '<' for descending items
+    private <T extends ObjectType> ObjectFilter createNextKeysFilter(Class<T> type, List<? extends ObjectOrdering> orderings,
+            List<Object> lastKeys) {
+        List<ObjectFilter> alternatives = new ArrayList<>();
+        for (int i = 0; i < orderings.size(); i++) {
+            List<ObjectFilter> conditions = createKeyFilters(type, orderings, lastKeys, i, false);
+            conditions.add(createKeyFilter(type, orderings.get(i), lastKeys.get(i), true));
+            alternatives.add(conditions.size() == 1 ? conditions.get(0) : prismContext.queryFactory().createAnd(conditions));
+        }
+        return alternatives.size() == 1 ? alternatives.get(0) : prismContext.queryFactory().createOr(alternatives);
+    }
+
+    private <T extends ObjectType> List<ObjectFilter> createKeyFilters(Class<T> type, List<? extends ObjectOrdering> orderings,
+            List<Object> lastKeys, int count, boolean after) {
+        List<ObjectFilter> conditions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            conditions.add(createKeyFilter(type, orderings.get(i), lastKeys.get(i), after));
+        }
+        return conditions;
+    }
+
+    private ObjectFilter and(ObjectFilter filter, List<ObjectFilter> conditions) {
+        List<ObjectFilter> all = new ArrayList<>();
+        if (filter != null) {
+            all.add(filter);
+        }
+        all.addAll(conditions);
+        return all.isEmpty() ? null : all.size() == 1 ? all.get(0) : prismContext.queryFactory().createAnd(all);
+    }
+
+    private ObjectFilter and(ObjectFilter filter, ObjectFilter condition) {
+        return and(filter, Collections.singletonList(condition));
+    }
+
+    private <T extends ObjectType> ObjectFilter createKeyFilter(Class<T> type, ObjectOrdering ordering, Object value,
+            boolean after) {
+        S_MatchingRuleEntry entry;
+        if (!after) {
+            entry = prismContext.queryFor(type).item(ordering.getOrderBy()).eq(value);
+        } else if (ordering.getDirection() == OrderDirection.DESCENDING) {
+            entry = prismContext.queryFor(type).item(ordering.getOrderBy()).lt(value);
+        } else {
+            entry = prismContext.queryFor(type).item(ordering.getOrderBy()).gt(value);
+        }
+        // polystrings are ordered by their 'orig' part (see QueryInterpreter2)
+        return value instanceof PolyString ? entry.matchingOrig().buildFilter() : entry.buildFilter();
+    }
+
+    private <T extends ObjectType> List<Object> getOrderingKeys(PrismObject<T> object, List<? extends ObjectOrdering> orderings) {
+        List<Object> keys = new ArrayList<>(orderings.size());
+        for (ObjectOrdering ordering : orderings) {
+            PrismProperty<?> property = object.findProperty(ordering.getOrderBy());
+            Object value = property != null ? property.getRealValue() : null;
+            keys.add(value instanceof PolyStringType ? ((PolyStringType) value).toPolyString() : value);
+        }
+        return keys;
+    }
+
     /**
      * Strictly-sequential version of paged search.
      *
@@ -971,7 +1320,7 @@ main:       for (;;) {
 			final org.hibernate.Query query;
 			final boolean isMidpointQuery = request.getImplementationLevelQuery() == null;
 			if (isMidpointQuery) {
-				QueryEngine2 engine = new QueryEngine2(getConfiguration(), extItemDictionary, prismContext, relationRegistry);
+				QueryEngine2 engine = new QueryEngine2(getConfiguration(), extItemDictionary, prismContext, relationRegistry, queryInterpretationCache);
 				RQueryImpl rQuery = (RQueryImpl) engine.interpret(request.getQuery(), request.getType(), request.getOptions(), false, session);
 				query = rQuery.getQuery();
 				implementationLevelQuery = query.getQueryString();
@@ -19,6 +19,7 @@ package com.evolveum.midpoint.repo.sql.helpers;
 import com.evolveum.midpoint.prism.*;
 import com.evolveum.midpoint.prism.delta.*;
 import com.evolveum.midpoint.prism.equivalence.EquivalenceStrategy;
+import com.evolveum.midpoint.prism.path.ItemName;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.util.CloneUtil;
 import com.evolveum.midpoint.repo.api.*;
@@ -27,7 +28,9 @@ import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
 import com.evolveum.midpoint.repo.sql.SqlRepositoryServiceImpl;
 import com.evolveum.midpoint.repo.sql.data.RepositoryContext;
 import com.evolveum.midpoint.repo.sql.data.common.RObject;
+import com.evolveum.midpoint.repo.sql.data.common.any.RAnyConverter;
 import com.evolveum.midpoint.repo.sql.data.common.dictionary.ExtItemDictionary;
+import com.evolveum.midpoint.repo.sql.data.common.type.RObjectExtensionType;
 import com.evolveum.midpoint.repo.sql.util.ClassMapper;
 import com.evolveum.midpoint.repo.sql.util.DtoTranslationException;
 import com.evolveum.midpoint.repo.sql.util.IdGeneratorResult;
@@ -38,6 +41,7 @@ import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.ExceptionUtil;
 import com.evolveum.midpoint.schema.util.ObjectTypeUtil;
 import com.evolveum.midpoint.util.DebugUtil;
+import com.evolveum.midpoint.util.QNameUtil;
 import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
@@ -83,6 +87,7 @@ public class ObjectUpdater {
     @Autowired private SchemaHelper schemaHelper;
     @Autowired private RelationRegistry relationRegistry;
     @Autowired private ExtItemDictionary extItemDictionary;
+    @Autowired private FullObjectCodec fullObjectCodec;
 
     public <T extends ObjectType> String addObjectAttempt(PrismObject<T> object, RepoAddOptions options,
             OperationResult result) throws ObjectAlreadyExistsException, SchemaException {
@@ -113,12 +118,15 @@ public class ObjectUpdater {
 
             RObject rObject = createDataObjectFromJAXB(object, idGenerator);
 
-            closureContext = closureManager.onBeginTransactionAdd(session, object, options.isOverwrite());
+            boolean updateClosure = !options.isDeferOrgClosureUpdate();
+            if (updateClosure) {
+                closureContext = closureManager.onBeginTransactionAdd(session, object, options.isOverwrite());
+            }
 
             if (options.isOverwrite()) {
-                oid = overwriteAddObjectAttempt(object, rObject, originalOid, session, closureContext, result);
+                oid = overwriteAddObjectAttempt(object, rObject, originalOid, session, closureContext, updateClosure, result);
             } else {
-                oid = nonOverwriteAddObjectAttempt(object, rObject, originalOid, session, closureContext);
+                oid = nonOverwriteAddObjectAttempt(object, rObject, originalOid, session, closureContext, updateClosure);
             }
             session.getTransaction().commit();
 
@@ -142,13 +150,7 @@ public class ObjectUpdater {
             if (StringUtils.isEmpty(originalOid)) {
                 object.setOid(null);
             }
-            String constraintName = constEx.getConstraintName();
-            // Breaker to avoid long unreadable messages
-            if (constraintName != null && constraintName.length() > SqlRepositoryServiceImpl.MAX_CONSTRAINT_NAME_LENGTH) {
-                constraintName = null;
-            }
-            throw new ObjectAlreadyExistsException("Conflicting object already exists"
-                    + (constraintName == null ? "" : " (violated constraint '" + constraintName + "')"), constEx);
+            throw createObjectAlreadyExistsException(constEx);
         } catch (ObjectAlreadyExistsException | SchemaException ex) {
             baseHelper.rollbackTransaction(session, ex, result, true);
             throw ex;
@@ -161,13 +163,167 @@ public class ObjectUpdater {
         return oid;
     }
 
+    /**
+     * Adds all the objects in a single transaction. Ext items needed by the objects are created before the transaction
+     * starts, and OIDs of the objects are checked for uniqueness by a single query. So, unless the org closure is
+     * to be updated, nothing is flushed until the commit and the inserts of all the objects are sent together.
+     */
+    public List<String> addObjectsAttempt(List<? extends PrismObject<? extends ObjectType>> objects, RepoAddOptions options,
+            OperationResult result) throws ObjectAlreadyExistsException, SchemaException {
+
+        LOGGER_PERFORMANCE.debug("> add {} objects, overwrite={}, deferOrgClosureUpdate={}", objects.size(),
+                options.isOverwrite(), options.isDeferOrgClosureUpdate());
+
+        List<String> oids = new ArrayList<>(objects.size());
+        Session session = null;
+        OrgClosureManager.Context closureContext = null;
+        // see addObjectAttempt
+        List<String> originalOids = new ArrayList<>(objects.size());
+        for (PrismObject<? extends ObjectType> object : objects) {
+            originalOids.add(object.getOid());
+        }
+        try {
+            for (PrismObject<? extends ObjectType> object : objects) {
+                ObjectTypeUtil.normalizeAllRelations(object, relationRegistry);
+                prepareExtItems(object);
+            }
+
+            session = baseHelper.beginTransaction();
+
+            if (!options.isOverwrite()) {
+                checkOidsUniqueness(objects, session);
+            }
+
+            boolean updateClosure = !options.isDeferOrgClosureUpdate();
+            for (PrismObject<? extends ObjectType> object : objects) {
+                if (updateClosure && closureContext == null) {
+                    // one context for the whole transaction, just like when rebuilding the closure
+                    closureContext = closureManager.onBeginTransactionAdd(session, object, options.isOverwrite());
+                }
+                oids.add(addObjectInBatch(object, options, session, closureContext, updateClosure, result));
+            }
+            session.getTransaction().commit();
+
+            LOGGER.trace("Saved {} objects", objects.size());
+
+            for (int i = 0; i < objects.size(); i++) {
+                objects.get(i).setOid(oids.get(i));
+            }
+        } catch (PersistenceException ex) {
+            ConstraintViolationException constEx = findConstraintViolationException(ex);
+            if (constEx == null) {
+                baseHelper.handleGeneralException(ex, session, result);
+                throw new AssertionError("shouldn't be here");
+            }
+
+            handleConstraintViolationSerializableException(session, constEx, result);
+            baseHelper.rollbackTransaction(session, constEx, result, true);
+
+            LOGGER.debug("Constraint violation occurred (will be rethrown as ObjectAlreadyExistsException).", constEx);
+            restoreOriginalOids(objects, originalOids);
+            throw createObjectAlreadyExistsException(constEx);
+        } catch (ObjectAlreadyExistsException | SchemaException ex) {
+            baseHelper.rollbackTransaction(session, ex, result, true);
+            restoreOriginalOids(objects, originalOids);
+            throw ex;
+        } catch (DtoTranslationException | RuntimeException ex) {
+            restoreOriginalOids(objects, originalOids);
+            baseHelper.handleGeneralException(ex, session, result);
+        } finally {
+            cleanupClosureAndSessionAndResult(closureContext, session, result);
+        }
+
+        return oids;
+    }
+
+    private <T extends ObjectType> String addObjectInBatch(PrismObject<T> object, RepoAddOptions options, Session session,
+            OrgClosureManager.Context closureContext, boolean updateClosure, OperationResult result)
+            throws ObjectAlreadyExistsException, SchemaException, DtoTranslationException {
+        PrismIdentifierGenerator.Operation operation = options.isOverwrite() ?
+                PrismIdentifierGenerator.Operation.ADD_WITH_OVERWRITE :
+                PrismIdentifierGenerator.Operation.ADD;
+        RObject rObject = createDataObjectFromJAXB(object, new PrismIdentifierGenerator<>(operation));
+        if (options.isOverwrite()) {
+            return overwriteAddObjectAttempt(object, rObject, object.getOid(), session, closureContext, updateClosure, result);
+        } else {
+            // OIDs were already checked for the whole batch
+            return nonOverwriteAddObjectAttempt(object, rObject, null, session, closureContext, updateClosure);
+        }
+    }
+
+    private void checkOidsUniqueness(List<? extends PrismObject<? extends ObjectType>> objects, Session session)
+            throws ObjectAlreadyExistsException {
+        Set<String> oids = new HashSet<>();
+        for (PrismObject<? extends ObjectType> object : objects) {
+            if (StringUtils.isNotEmpty(object.getOid()) && !oids.add(object.getOid())) {
+                throw new ObjectAlreadyExistsException("Object with oid '" + object.getOid() + "' is present more than once.");
+            }
+        }
+        if (oids.isEmpty()) {
+            return;
+        }
+        LOGGER.trace("Checking oid uniqueness.");
+        Query query = session.createQuery("select o.oid from RObject o where o.oid in (:oids)");
+        query.setParameterList("oids", oids);
+        List<?> existing = query.list();
+        if (!existing.isEmpty()) {
+            throw new ObjectAlreadyExistsException("Object with oid '" + existing.get(0) + "' already exists.");
+        }
+    }
+
+    private void restoreOriginalOids(List<? extends PrismObject<? extends ObjectType>> objects, List<String> originalOids) {
+        for (int i = 0; i < objects.size(); i++) {
+            if (StringUtils.isEmpty(originalOids.get(i))) {
+                objects.get(i).setOid(null);
+            }
+        }
+    }
+
+    /**
+     * Creates ext items for extension items, shadow attributes and assignment extension items of the object,
+     * so that the object can be converted without restarting the (batch) operation.
+     */
+    private void prepareExtItems(PrismObject<? extends ObjectType> object) throws SchemaException {
+        RAnyConverter converter = new RAnyConverter(prismContext, extItemDictionary);
+        PrismContainer<?> extension = object.getExtension();
+        if (extension != null && !extension.isEmpty()) {
+            converter.prepareExtItems(extension.getValue(), RObjectExtensionType.EXTENSION);
+        }
+        PrismContainer<?> attributes = object.findContainer(ShadowType.F_ATTRIBUTES);
+        if (attributes != null && !attributes.isEmpty() && ShadowType.class.isAssignableFrom(object.getCompileTimeClass())) {
+            converter.prepareExtItems(attributes.getValue(), RObjectExtensionType.ATTRIBUTES);
+        }
+        for (ItemName assignmentsName : Arrays.asList(FocusType.F_ASSIGNMENT, AbstractRoleType.F_INDUCEMENT)) {
+            PrismContainer<?> assignments = object.findContainer(assignmentsName);
+            if (assignments == null) {
+                continue;
+            }
+            for (PrismContainerValue<?> assignment : assignments.getValues()) {
+                PrismContainer<?> assignmentExtension = assignment.findContainer(AssignmentType.F_EXTENSION);
+                if (assignmentExtension != null && !assignmentExtension.isEmpty()) {
+                    converter.prepareExtItems(assignmentExtension.getValue(), RObjectExtensionType.EXTENSION);
+                }
+            }
+        }
+    }
+
+    private ObjectAlreadyExistsException createObjectAlreadyExistsException(ConstraintViolationException constEx) {
+        String constraintName = constEx.getConstraintName();
+        // Breaker to avoid long unreadable messages
+        if (constraintName != null && constraintName.length() > SqlRepositoryServiceImpl.MAX_CONSTRAINT_NAME_LENGTH) {
+            constraintName = null;
+        }
+        return new ObjectAlreadyExistsException("Conflicting object already exists"
+                + (constraintName == null ? "" : " (violated constraint '" + constraintName + "')"), constEx);
+    }
+
     private ConstraintViolationException findConstraintViolationException(PersistenceException ex) {
     	return ExceptionUtil.findException(ex, ConstraintViolationException.class);
     }
 
     private <T extends ObjectType> String overwriteAddObjectAttempt(PrismObject<T> object, RObject rObject,
-			String originalOid, Session session, OrgClosureManager.Context closureContext, OperationResult result)
-            throws SchemaException, DtoTranslationException {
+			String originalOid, Session session, OrgClosureManager.Context closureContext, boolean updateClosure,
+            OperationResult result) throws SchemaException, DtoTranslationException {
 
         PrismObject<T> oldObject = null;
 
@@ -199,7 +355,7 @@ public class ObjectUpdater {
         lookupTableHelper.addLookupTableRows(session, rObject, oldObject != null);
         caseHelper.addCertificationCampaignCases(session, rObject, oldObject != null);
 
-        if (closureManager.isEnabled()) {
+        if (updateClosure && closureManager.isEnabled()) {
             OrgClosureManager.Operation operation;
             if (modifications == null) {
                 operation = OrgClosureManager.Operation.ADD;
@@ -248,22 +404,147 @@ public class ObjectUpdater {
             savedObject.removeProperty(TaskType.F_RESULT);
         }
 
-        xml = prismContext.serializerFor(SqlRepositoryServiceImpl.DATA_LANGUAGE).serialize(savedObject);
-        byte[] fullObject = RUtil.getByteArrayFromXml(xml, getConfiguration().isUseZip());
+        byte[] fullObject = fullObjectCodec.encode(savedObject);
 
         object.setFullObject(fullObject);
 
         if (LOGGER.isTraceEnabled()) {
-            LOGGER.trace("Updating full object xml column finished. Xml:\n{}", xml);
+            LOGGER.trace("Updating full object xml column finished. Xml:\n{}", fullObjectCodec.toXml(fullObject));
         }
     }
 
+    /**
+     * Modifications that only add or delete values of containers or references (or change ordinary properties)
+     * can be appended to the journal in the full object column, avoiding serialization of the whole object.
+     * Items that are not stored in the full object, or that are stored elsewhere, are excluded.
+     */
+    private <T extends ObjectType> boolean isFullObjectJournalApplicable(Class<T> type, Collection<? extends ItemDelta> modifications) {
+        if (getConfiguration().getFullObjectJournalSize() <= 0
+                || LookupTableType.class.isAssignableFrom(type) || AccessCertificationCampaignType.class.isAssignableFrom(type)) {
+            return false;
+        }
+        for (ItemDelta<?, ?> modification : modifications) {
+            ItemPath path = modification.getPath();
+            if (containsExtension(path) || path.startsWith(ShadowType.F_ATTRIBUTES)
+                    || path.startsWith(FocusType.F_JPEG_PHOTO) || path.startsWith(TaskType.F_RESULT)) {
+                return false;       // dynamic definitions or items not stored in the full object
+            }
+            if ((modification instanceof ContainerDelta || modification instanceof ReferenceDelta) && modification.isReplace()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Extensions can be present also in containers, e.g. assignment/extension.
+     */
+    private boolean containsExtension(ItemPath path) {
+        for (Object segment : path.getSegments()) {
+            if (ItemPath.isName(segment) && QNameUtil.match(ObjectType.F_EXTENSION, ItemPath.toName(segment))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private <T extends ObjectType> Map<ItemDelta, Set<Long>> collectExistingContainerIds(PrismObject<T> prismObject,
+            Collection<? extends ItemDelta> modifications) {
+        Map<ItemDelta, Set<Long>> rv = new IdentityHashMap<>();
+        for (ItemDelta<?, ?> modification : modifications) {
+            if (modification instanceof ContainerDelta && modification.getValuesToAdd() != null) {
+                Set<Long> ids = new HashSet<>();
+                PrismContainer<?> container = prismObject.findContainer(modification.getPath());
+                if (container != null) {
+                    for (PrismContainerValue<?> value : container.getValues()) {
+                        ids.add(value.getId());
+                    }
+                }
+                rv.put(modification, ids);
+            }
+        }
+        return rv;
+    }
+
+    /**
+     * Appends the modifications to the full object journal. Added container values are taken from the modified
+     * object, because they have identifiers generated there; relations in added references are normalized the same
+     * way as in the object. Returns false if the full object has to be written as a whole.
+     */
+    private <T extends ObjectType> boolean appendToFullObjectJournal(RObject rObject, PrismObject<T> prismObject,
+            Collection<? extends ItemDelta> modifications, Map<ItemDelta, Set<Long>> existingContainerIds)
+            throws SchemaException {
+        List<ItemDelta<?, ?>> journalModifications = new ArrayList<>(modifications.size());
+        for (ItemDelta<?, ?> modification : modifications) {
+            ItemDelta<?, ?> journalModification = modification.clone();
+            if (modification instanceof ContainerDelta && modification.getValuesToAdd() != null) {
+                PrismContainer<?> container = prismObject.findContainer(modification.getPath());
+                Set<Long> existingIds = existingContainerIds.get(modification);
+                List<PrismContainerValue> storedValues = new ArrayList<>();
+                for (PrismContainerValue<?> added : ((ContainerDelta<?>) modification).getValuesToAdd()) {
+                    PrismContainerValue<?> stored = findAddedContainerValue(container, added, existingIds);
+                    if (stored == null) {
+                        LOGGER.trace("Couldn't find added value of {} in the object, journal will not be used", modification.getPath());
+                        return false;
+                    }
+                    storedValues.add(stored.clone());
+                }
+                journalModification.clearValuesToAdd();
+                //noinspection unchecked
+                ((ContainerDelta) journalModification).addValuesToAdd(storedValues);
+            } else if (modification instanceof ReferenceDelta && journalModification.getValuesToAdd() != null) {
+                for (PrismReferenceValue value : ((ReferenceDelta) journalModification).getValuesToAdd()) {
+                    ObjectTypeUtil.normalizeRelation(value, relationRegistry);
+                }
+            }
+            journalModifications.add(journalModification);
+        }
+
+        String version = Integer.toString(rObject.getVersion());
+        ObjectDelta<T> delta = prismContext.deltaFactory().object()
+                .createModifyDelta(prismObject.getOid(), journalModifications, prismObject.getCompileTimeClass());
+        byte[] fullObject = fullObjectCodec.appendToJournal(rObject.getFullObject(), version, delta,
+                getConfiguration().getFullObjectJournalSize());
+        if (fullObject == null) {
+            LOGGER.trace("Full object journal of {} is full, the object will be written as a whole", prismObject);
+            return false;
+        }
+        prismObject.setVersion(version);
+        rObject.setFullObject(fullObject);
+        LOGGER.trace("Modifications were appended to the full object journal:\n{}", delta.debugDumpLazily());
+        return true;
+    }
+
+    private PrismContainerValue<?> findAddedContainerValue(PrismContainer<?> container, PrismContainerValue<?> added,
+            Set<Long> existingIds) {
+        if (container == null) {
+            return null;
+        }
+        PrismContainerValue<?> found = null;
+        for (PrismContainerValue<?> value : container.getValues()) {
+            if (value.getId() == null || existingIds.contains(value.getId())) {
+                continue;
+            }
+            boolean matches = added.getId() != null
+                    ? added.getId().equals(value.getId())
+                    : value.equals(added, EquivalenceStrategy.IGNORE_METADATA);
+            if (matches) {
+                if (found != null) {
+                    return null;        // ambiguous
+                }
+                found = value;
+            }
+        }
+        return found;
+    }
+
     protected SqlRepositoryConfiguration getConfiguration() {
         return baseHelper.getConfiguration();
     }
 
     private <T extends ObjectType> String nonOverwriteAddObjectAttempt(PrismObject<T> object, RObject rObject,
-                                                                       String originalOid, Session session, OrgClosureManager.Context closureContext)
+                                                                       String originalOid, Session session, OrgClosureManager.Context closureContext,
+                                                                       boolean updateClosure)
             throws ObjectAlreadyExistsException, SchemaException, DtoTranslationException {
 
         // check name uniqueness (by type)
@@ -289,7 +570,7 @@ public class ObjectUpdater {
         lookupTableHelper.addLookupTableRows(session, rObject, false);
         caseHelper.addCertificationCampaignCases(session, rObject, false);
 
-        if (closureManager.isEnabled()) {
+        if (updateClosure && closureManager.isEnabled()) {
             Collection<ReferenceDelta> modifications = createAddParentRefDelta(object);
             closureManager.updateOrgClosure(null, modifications, session, oid, object.getCompileTimeClass(),
                     OrgClosureManager.Operation.ADD, closureContext);
@@ -429,6 +710,9 @@ public class ObjectUpdater {
                     // old implementation end
                 } else {
                     // new implementation start
+                    Map<ItemDelta, Set<Long>> existingContainerIds = isFullObjectJournalApplicable(type, modifications)
+                            ? collectExistingContainerIds(prismObject, modifications) : null;
+
                     RObject rObject = objectDeltaUpdater.modifyObject(type, oid, modifications, prismObject, session);
 
                     LOGGER.trace("OBJECT after:\n{}", prismObject.debugDumpLazily());
@@ -437,7 +721,10 @@ public class ObjectUpdater {
                     shouldPhotoBeRemoved =
                             containsFocusPhotoModification && ((FocusType) prismObject.asObjectable()).getJpegPhoto() == null;
 
-                    updateFullObject(rObject, prismObject);
+                    if (existingContainerIds == null
+                            || !appendToFullObjectJournal(rObject, prismObject, modifications, existingContainerIds)) {
+                        updateFullObject(rObject, prismObject);
+                    }
 
                     LOGGER.trace("Starting save.");
                     session.save(rObject);
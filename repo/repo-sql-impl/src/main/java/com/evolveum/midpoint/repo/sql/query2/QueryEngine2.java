@@ -47,13 +47,20 @@ public class QueryEngine2 {
     private ExtItemDictionary extItemDictionary;
     private PrismContext prismContext;
     private final RelationRegistry relationRegistry;
+    private final QueryInterpretationCache interpretationCache;
 
     public QueryEngine2(SqlRepositoryConfiguration config, ExtItemDictionary extItemDictionary, PrismContext prismContext,
             RelationRegistry relationRegistry) {
+        this(config, extItemDictionary, prismContext, relationRegistry, null);
+    }
+
+    public QueryEngine2(SqlRepositoryConfiguration config, ExtItemDictionary extItemDictionary, PrismContext prismContext,
+            RelationRegistry relationRegistry, QueryInterpretationCache interpretationCache) {
         this.repoConfiguration = config;
         this.extItemDictionary = extItemDictionary;
         this.prismContext = prismContext;
         this.relationRegistry = relationRegistry;
+        this.interpretationCache = interpretationCache;
     }
 
     public RQuery interpret(ObjectQuery query, Class<? extends Containerable> type,
@@ -62,6 +69,13 @@ public class QueryEngine2 {
 
         query = refineAssignmentHolderQuery(type, query);
 
+        if (interpretationCache != null && interpretationCache.isEnabled()) {
+            boolean distinct = GetOperationOptions.isDistinct(SelectorOptions.findRootOptions(options));
+            return interpretationCache.interpret(query, type, distinct, countingObjects, session,
+                    q -> new QueryInterpreter2(repoConfiguration, extItemDictionary)
+                            .interpret(q, type, options, prismContext, relationRegistry, countingObjects, session));
+        }
+
         QueryInterpreter2 interpreter = new QueryInterpreter2(repoConfiguration, extItemDictionary);
         RootHibernateQuery hibernateQuery = interpreter.interpret(query, type, options, prismContext, relationRegistry, countingObjects, session);
         Query hqlQuery = hibernateQuery.getAsHqlQuery(session);
@@ -0,0 +1,431 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.query2;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.polystring.PolyStringNormalizer;
+import com.evolveum.midpoint.prism.query.ObjectPaging;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.repo.sql.helpers.BaseHelper;
+import com.evolveum.midpoint.repo.sql.query.QueryException;
+import com.evolveum.midpoint.repo.sql.query.RQuery;
+import com.evolveum.midpoint.repo.sql.query2.hqm.QueryParameterValue;
+import com.evolveum.midpoint.repo.sql.query2.hqm.RootHibernateQuery;
+import com.evolveum.midpoint.util.DebugDumpable;
+import com.evolveum.midpoint.util.DebugUtil;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+import org.hibernate.transform.ResultTransformer;
+import org.hibernate.type.Type;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Node-wide cache of query interpretations. Queries that differ only in literal values (e.g. searching for shadows
+ * by different identifier values or for users by different names) get the same HQL text; only the parameters differ.
+ * So the HQL text is remembered for each query shape (see {@link QueryShape}) and only the parameters are bound
+ * for the next query with the same shape.
+ *
+ * How the parameters are computed from the literals is determined when the shape is seen for the first time:
+ * the query is interpreted once more, with the literals replaced by artificial "probe" values. Each HQL parameter
+ * is then either a constant (the same in both interpretations), or it is derived from one of the literals
+ * (the value itself, polystring orig/norm, optionally lowercased or normalized and with a constant prefix and suffix,
+ * e.g. for "like" conditions). Probe values are chosen so that lowercasing and normalization can be told apart;
+ * if they cannot (e.g. because of polystring normalizer configuration), the shape is not cacheable. The binding is checked against the original interpretation. If the HQL texts differ
+ * or any parameter cannot be explained in this way, the shape is remembered as not cacheable.
+ *
+ * The cache is disabled by default. It is enabled by setting queryInterpretationCacheSize (max number of cached
+ * shapes) in the repository configuration to a positive number. It is cleared when the system configuration
+ * changes, as the interpretation depends e.g. on the relations configured.
+ */
+@Component
+public class QueryInterpretationCache implements DebugDumpable {
+
+    private static final Trace LOGGER = TraceManager.getTrace(QueryInterpretationCache.class);
+
+    @Autowired private BaseHelper baseHelper;
+    @Autowired private PrismContext prismContext;
+
+    private final Map<String, CachedInterpretation> cache = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder notCacheable = new LongAdder();
+
+    private static final CachedInterpretation NOT_CACHEABLE = new CachedInterpretation(null, null, false, false, null);
+
+    @FunctionalInterface
+    public interface Interpreter {
+        RootHibernateQuery interpret(ObjectQuery query) throws QueryException;
+    }
+
+    public boolean isEnabled() {
+        return getMaxSize() > 0;
+    }
+
+    private int getMaxSize() {
+        return baseHelper.getConfiguration().getQueryInterpretationCacheSize();
+    }
+
+    public RQuery interpret(ObjectQuery query, Class<?> type, boolean distinct, boolean countingObjects, Session session,
+            Interpreter interpreter) throws QueryException {
+        QueryShape shape = QueryShape.create(query, type, distinct, countingObjects);
+        CachedInterpretation cached = shape != null ? cache.get(shape.getKey()) : NOT_CACHEABLE;
+        if (cached == NOT_CACHEABLE) {
+            notCacheable.increment();
+            return interpretDirectly(query, session, interpreter);
+        } else if (cached != null) {
+            hits.increment();
+            Query hqlQuery = cached.createQuery(session, shape.getLiterals(), query != null ? query.getPaging() : null);
+            LOGGER.trace("Query interpretation cache hit for {}, HQL:\n{}", shape, hqlQuery.getQueryString());
+            return new RQueryImpl(hqlQuery, null);
+        }
+
+        misses.increment();
+        RootHibernateQuery hibernateQuery = interpreter.interpret(query);
+        Query hqlQuery = hibernateQuery.getAsHqlQuery(session);
+        CachedInterpretation created = createCachedInterpretation(shape, query, hibernateQuery, hqlQuery.getQueryString(),
+                interpreter);
+        makeRoom();
+        cache.put(shape.getKey(), created);
+        return new RQueryImpl(hqlQuery, hibernateQuery);
+    }
+
+    private RQuery interpretDirectly(ObjectQuery query, Session session, Interpreter interpreter) throws QueryException {
+        RootHibernateQuery hibernateQuery = interpreter.interpret(query);
+        return new RQueryImpl(hibernateQuery.getAsHqlQuery(session), hibernateQuery);
+    }
+
+    private CachedInterpretation createCachedInterpretation(QueryShape shape, ObjectQuery query,
+            RootHibernateQuery hibernateQuery, String hqlText, Interpreter interpreter) {
+        if (!hibernateQuery.isCacheable()) {
+            LOGGER.debug("Query shape is not cacheable, because it depends on transient state: {}", shape);
+            return NOT_CACHEABLE;
+        }
+        ObjectPaging paging = query != null ? query.getPaging() : null;
+        Integer offset = paging != null ? paging.getOffset() : null;
+        Integer maxSize = paging != null ? paging.getMaxSize() : null;
+        if (hibernateQuery.getFirstResult() != null && !hibernateQuery.getFirstResult().equals(offset)
+                || hibernateQuery.getMaxResults() != null && !hibernateQuery.getMaxResults().equals(maxSize)) {
+            LOGGER.debug("Query shape is not cacheable, because of unexpected paging: {}", shape);
+            return NOT_CACHEABLE;
+        }
+
+        List<Object> probeLiterals = new ArrayList<>();
+        String probeHqlText;
+        Map<String, QueryParameterValue> probeParameters;
+        try {
+            ObjectQuery probeQuery = shape.createProbeQuery(query, prismContext, probeLiterals);
+            RootHibernateQuery probeHibernateQuery = interpreter.interpret(probeQuery);
+            probeHqlText = probeHibernateQuery.getAsHqlText(0, probeHibernateQuery.isDistinct());
+            probeParameters = probeHibernateQuery.getParameters();
+        } catch (QueryException | RuntimeException e) {
+            // e.g. the literal value is parsed by the interpreter
+            LOGGER.debug("Query shape is not cacheable, because probe interpretation failed: {}: {}", shape, e.getMessage(), e);
+            return NOT_CACHEABLE;
+        }
+        if (!hqlText.equals(probeHqlText)) {
+            LOGGER.debug("Query shape is not cacheable, because HQL text depends on literal values: {}", shape);
+            return NOT_CACHEABLE;
+        }
+
+        Map<String, QueryParameterValue> realParameters = hibernateQuery.getParameters();
+        if (!realParameters.keySet().equals(probeParameters.keySet())) {
+            LOGGER.debug("Query shape is not cacheable, because parameters differ: {}", shape);
+            return NOT_CACHEABLE;
+        }
+        List<ParameterBinding> bindings = new ArrayList<>(realParameters.size());
+        for (Map.Entry<String, QueryParameterValue> entry : realParameters.entrySet()) {
+            String name = entry.getKey();
+            QueryParameterValue real = entry.getValue();
+            QueryParameterValue probe = probeParameters.get(name);
+            ParameterBinding binding = Objects.equals(real.getType(), probe.getType())
+                    ? ParameterBinding.create(name, real, probe, probeLiterals, prismContext.getDefaultPolyStringNormalizer())
+                    : null;
+            if (binding == null || !Objects.equals(binding.getValue(probeLiterals), probe.getValue())
+                    || !Objects.equals(binding.getValue(shape.getLiterals()), real.getValue())) {
+                LOGGER.debug("Query shape is not cacheable, because parameter {} cannot be derived from literals "
+                        + "(real value: {}, probe value: {}): {}", name, real, probe, shape);
+                return NOT_CACHEABLE;
+            }
+            bindings.add(binding);
+        }
+        return new CachedInterpretation(hqlText, bindings, hibernateQuery.getFirstResult() != null,
+                hibernateQuery.getMaxResults() != null, hibernateQuery.getResultTransformer());
+    }
+
+    private void makeRoom() {
+        if (cache.size() < getMaxSize()) {
+            return;
+        }
+        // No LRU here: entries are evicted in an arbitrary order. It is expected that the limit is set so
+        // that all (frequently used) query shapes fit in.
+        Iterator<String> iterator = cache.keySet().iterator();
+        if (iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    public String getStatisticsDescription() {
+        return String.format("%d hits, %d misses, %d not cacheable, %d/%d entries", hits.sum(), misses.sum(),
+                notCacheable.sum(), cache.size(), getMaxSize());
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getNotCacheable() {
+        return notCacheable.sum();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    @Override
+    public String debugDump(int indent) {
+        StringBuilder sb = new StringBuilder();
+        DebugUtil.indentDebugDump(sb, indent);
+        sb.append("QueryInterpretationCache\n");
+        DebugUtil.debugDumpWithLabelLn(sb, "maxSize", getMaxSize(), indent + 1);
+        DebugUtil.debugDumpWithLabelLn(sb, "entries", cache.size(), indent + 1);
+        DebugUtil.debugDumpWithLabelLn(sb, "hits", hits.sum(), indent + 1);
+        DebugUtil.debugDumpWithLabelLn(sb, "misses", misses.sum(), indent + 1);
+        DebugUtil.debugDumpWithLabel(sb, "notCacheable", notCacheable.sum(), indent + 1);
+        return sb.toString();
+    }
+
+    private static class CachedInterpretation {
+        private final String hqlText;
+        private final List<ParameterBinding> parameters;
+        private final boolean useOffset;
+        private final boolean useMaxSize;
+        private final ResultTransformer resultTransformer;
+
+        private CachedInterpretation(String hqlText, List<ParameterBinding> parameters, boolean useOffset,
+                boolean useMaxSize, ResultTransformer resultTransformer) {
+            this.hqlText = hqlText;
+            this.parameters = parameters;
+            this.useOffset = useOffset;
+            this.useMaxSize = useMaxSize;
+            this.resultTransformer = resultTransformer;
+        }
+
+        private Query createQuery(Session session, List<Object> literals, ObjectPaging paging) {
+            Query query = session.createQuery(hqlText);
+            Map<String, QueryParameterValue> values = new HashMap<>();
+            for (ParameterBinding parameter : parameters) {
+                values.put(parameter.name, new QueryParameterValue(parameter.getValue(literals), parameter.type));
+            }
+            RootHibernateQuery.setParameters(query, values);
+            // paging is present if useOffset or useMaxSize is set, as these are part of the shape
+            if (useMaxSize) {
+                query.setMaxResults(paging.getMaxSize());
+            }
+            if (useOffset) {
+                query.setFirstResult(paging.getOffset());
+            }
+            if (resultTransformer != null) {
+                query.setResultTransformer(resultTransformer);
+            }
+            return query;
+        }
+    }
+
+    /**
+     * Describes how the value of an HQL parameter is computed: it is either a constant, a value derived
+     * from a literal, or a collection of such values.
+     */
+    private static class ParameterBinding {
+        private final String name;
+        private final Type type;
+        private final Object constant;
+        private final ValueBinding value;
+        private final List<ValueBinding> collection;
+        private final boolean set;
+
+        private ParameterBinding(String name, Type type, Object constant, ValueBinding value,
+                List<ValueBinding> collection, boolean set) {
+            this.name = name;
+            this.type = type;
+            this.constant = constant;
+            this.value = value;
+            this.collection = collection;
+            this.set = set;
+        }
+
+        private static ParameterBinding create(String name, QueryParameterValue real, QueryParameterValue probe,
+                List<Object> probeLiterals, PolyStringNormalizer normalizer) {
+            Object probeValue = probe.getValue();
+            if (probeValue instanceof Collection) {
+                List<ValueBinding> collection = new ArrayList<>();
+                for (Object item : (Collection<?>) probeValue) {
+                    ValueBinding itemBinding = ValueBinding.create(item, probeLiterals, normalizer);
+                    if (itemBinding == null) {
+                        return createConstant(name, real, probeValue);
+                    }
+                    collection.add(itemBinding);
+                }
+                return new ParameterBinding(name, real.getType(), null, null, collection, probeValue instanceof Set);
+            }
+            ValueBinding valueBinding = ValueBinding.create(probeValue, probeLiterals, normalizer);
+            if (valueBinding != null) {
+                return new ParameterBinding(name, real.getType(), null, valueBinding, null, false);
+            } else {
+                return createConstant(name, real, probeValue);
+            }
+        }
+
+        private static ParameterBinding createConstant(String name, QueryParameterValue real, Object probeValue) {
+            if (Objects.equals(real.getValue(), probeValue) && !ValueBinding.containsProbeValue(probeValue)) {
+                return new ParameterBinding(name, real.getType(), real.getValue(), null, null, false);
+            } else {
+                return null;
+            }
+        }
+
+        private Object getValue(List<Object> literals) {
+            if (value != null) {
+                return value.getValue(literals);
+            } else if (collection != null) {
+                Collection<Object> values = set ? new LinkedHashSet<>() : new ArrayList<>();
+                for (ValueBinding item : collection) {
+                    values.add(item.getValue(literals));
+                }
+                return values;
+            } else {
+                return constant;
+            }
+        }
+    }
+
+    /**
+     * How the literal is transformed. Normalization (by the default polystring normalizer) is used e.g. when
+     * a String value is used to search for a PolyString item: the interpreter computes the norm itself.
+     */
+    private enum Transformation {
+        NONE, LOWER_CASE, NORMALIZE
+    }
+
+    private static class ValueBinding {
+        private final int literal;
+        private final boolean norm;
+        private final Transformation transformation;
+        private final PolyStringNormalizer normalizer;
+        private final String prefix;
+        private final String suffix;
+
+        private ValueBinding(int literal, boolean norm, Transformation transformation, PolyStringNormalizer normalizer,
+                String prefix, String suffix) {
+            this.literal = literal;
+            this.norm = norm;
+            this.transformation = transformation;
+            this.normalizer = normalizer;
+            this.prefix = prefix;
+            this.suffix = suffix;
+        }
+
+        private static ValueBinding create(Object probeValue, List<Object> probeLiterals, PolyStringNormalizer normalizer) {
+            if (!(probeValue instanceof String)) {
+                return null;
+            }
+            String probeString = (String) probeValue;
+            for (int i = 0; i < probeLiterals.size(); i++) {
+                for (boolean norm : new boolean[] { false, true }) {
+                    String literal = getString(probeLiterals.get(i), norm);
+                    if (literal == null) {
+                        continue;
+                    }
+                    for (Transformation transformation : Transformation.values()) {
+                        String expected = transform(literal, transformation, normalizer);
+                        int index = probeString.indexOf(expected);
+                        if (index >= 0) {
+                            if (isAmbiguous(literal, transformation, expected, normalizer)) {
+                                return null;
+                            }
+                            String prefix = probeString.substring(0, index);
+                            String suffix = probeString.substring(index + expected.length());
+                            return containsProbeValue(prefix) || containsProbeValue(suffix) ? null :
+                                    new ValueBinding(i, norm, transformation, normalizer, prefix, suffix);
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * If two transformations give the same result for the probe literal, we do not know which one
+         * the interpreter used, and they can give different results for real literals.
+         */
+        private static boolean isAmbiguous(String literal, Transformation transformation, String expected,
+                PolyStringNormalizer normalizer) {
+            for (Transformation other : Transformation.values()) {
+                if (other != transformation && expected.equals(transform(literal, other, normalizer))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static String transform(String string, Transformation transformation, PolyStringNormalizer normalizer) {
+            switch (transformation) {
+                case LOWER_CASE: return string.toLowerCase();
+                case NORMALIZE: return normalizer.normalize(string);
+                default: return string;
+            }
+        }
+
+        private static boolean containsProbeValue(Object value) {
+            return value instanceof String && ((String) value).toLowerCase().contains(QueryShape.PROBE_PREFIX.toLowerCase())
+                    || value instanceof Collection && ((Collection<?>) value).stream().anyMatch(ValueBinding::containsProbeValue);
+        }
+
+        private static String getString(Object literal, boolean norm) {
+            if (literal instanceof PolyString) {
+                return norm ? ((PolyString) literal).getNorm() : ((PolyString) literal).getOrig();
+            } else {
+                return norm ? null : (String) literal;
+            }
+        }
+
+        private Object getValue(List<Object> literals) {
+            String string = getString(literals.get(literal), norm);
+            if (string == null) {
+                return null;
+            }
+            return prefix + transform(string, transformation, normalizer) + suffix;
+        }
+    }
+}
@@ -174,6 +174,9 @@ public class QueryInterpreter2 {
 				wrapperQuery.getConditions().add(wrapperQuery.createIn(inVariablesString, subqueryText));
 			}
 			wrapperQuery.addParametersFrom(hibernateQuery.getParameters());
+			if (!hibernateQuery.isCacheable()) {
+				wrapperQuery.setNotCacheable();
+			}
 			return wrapperQuery;
 		} else {
 			interpretPagingAndSorting(context, query, false);
@@ -313,7 +316,10 @@ public class QueryInterpreter2 {
         }
 
         if (!countingObjects && query != null && query.getPaging() != null) {
-            if (query.getPaging().hasCookie()) {
+            if (query.getPaging().hasCookie() && query.getPaging().hasOrdering()) {
+                updatePagingAndSorting(context, query.getPaging());                // keyset paging - explicit ordering with OID as a tie-breaker
+                addOidOrdering(hibernateQuery);
+            } else if (query.getPaging().hasCookie()) {
                 updatePagingAndSortingByOid(hibernateQuery, query.getPaging());                // very special case - ascending ordering by OID (nothing more)
             } else {
                 updatePagingAndSorting(context, query.getPaging());
@@ -322,18 +328,22 @@ public class QueryInterpreter2 {
     }
 
     private void updatePagingAndSortingByOid(RootHibernateQuery hibernateQuery, ObjectPaging paging) {
-        String rootAlias = hibernateQuery.getPrimaryEntityAlias();
         if (paging.getOrderBy() != null || paging.getDirection() != null || paging.getOffset() != null) {
             throw new IllegalArgumentException("orderBy, direction nor offset is allowed on ObjectPaging with cookie");
         }
+        addOidOrdering(hibernateQuery);
+        if (paging.getMaxSize() != null) {
+            hibernateQuery.setMaxResults(paging.getMaxSize());
+        }
+    }
+
+    private void addOidOrdering(RootHibernateQuery hibernateQuery) {
+        String rootAlias = hibernateQuery.getPrimaryEntityAlias();
         if (repoConfiguration.isUsingOracle()) {
 	        hibernateQuery.addOrdering("NLSSORT(" + rootAlias + ".oid, 'NLS_SORT=BINARY_AI')", OrderDirection.ASCENDING);
         } else {
 	        hibernateQuery.addOrdering(rootAlias + ".oid", OrderDirection.ASCENDING);
         }
-        if (paging.getMaxSize() != null) {
-            hibernateQuery.setMaxResults(paging.getMaxSize());
-        }
     }
 
     private void updatePagingAndSorting(InterpretationContext context, ObjectPaging paging) throws QueryException {
@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.query2;
+
+import com.evolveum.midpoint.prism.ItemDefinition;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismPropertyDefinition;
+import com.evolveum.midpoint.prism.PrismPropertyValue;
+import com.evolveum.midpoint.prism.PrismReferenceValue;
+import com.evolveum.midpoint.prism.PrismValue;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.query.*;
+import com.evolveum.midpoint.repo.sql.helpers.ObjectRetriever;
+import org.jetbrains.annotations.NotNull;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Shape of a query: everything that influences the generated HQL text, i.e. the type, filter structure, item paths,
+ * definitions, matching rules and ordering. Literal values that end up as HQL parameters (strings, polystrings,
+ * OIDs and the paging cookie) are not part of the shape; they are collected as "literals", in the order
+ * in which they were found.
+ *
+ * Other values (numbers, enums, dates, ...) are kept in the shape, as they are often converted by the interpreter
+ * in various ways. Filters that are not known to this class make the query not cacheable.
+ *
+ * @see QueryInterpretationCache
+ */
+class QueryShape {
+
+    static final String PROBE_PREFIX = "QcProbe";
+    private static final char PROBE_DIACRITIC = '\u00e9';
+
+    @NotNull private final String key;
+    @NotNull private final List<Object> literals;
+
+    private QueryShape(@NotNull String key, @NotNull List<Object> literals) {
+        this.key = key;
+        this.literals = literals;
+    }
+
+    /**
+     * @return Shape of the query or null if the query cannot be described by a shape.
+     */
+    static QueryShape create(ObjectQuery query, Class<?> type, boolean distinct, boolean countingObjects) {
+        Walker walker = new Walker(null);
+        walker.key.append(type.getName()).append(distinct ? ";distinct" : "").append(countingObjects ? ";count" : "")
+                .append(';');
+        walker.visitQuery(query);
+        return walker.supported ? new QueryShape(walker.key.toString(), walker.literals) : null;
+    }
+
+    @NotNull
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * String, PolyString or OID (String) values.
+     */
+    @NotNull
+    List<Object> getLiterals() {
+        return literals;
+    }
+
+    /**
+     * Creates a query of the same shape, with all literals replaced by distinct artificial values
+     * (returned in probeLiterals).
+     */
+    ObjectQuery createProbeQuery(ObjectQuery query, PrismContext prismContext, List<Object> probeLiterals) {
+        if (query == null) {
+            return null;
+        }
+        Walker walker = new Walker(prismContext);
+        ObjectQuery probe = query.clone();
+        walker.visitQuery(probe);
+        if (!walker.supported || !key.endsWith(walker.key.toString())) {
+            throw new IllegalStateException("Probe query has a different shape than the original one");
+        }
+        probeLiterals.addAll(walker.literals);
+        return probe;
+    }
+
+    @Override
+    public String toString() {
+        return key + " with " + literals;
+    }
+
+    /**
+     * Computes the key and collects the literals. If prismContext is set, the (cloned) query is modified
+     * so that the literals are replaced by probe values.
+     */
+    private static class Walker {
+
+        private final PrismContext probingContext;
+        private final StringBuilder key = new StringBuilder();
+        private final List<Object> literals = new ArrayList<>();
+        private boolean supported = true;
+
+        private Walker(PrismContext probingContext) {
+            this.probingContext = probingContext;
+        }
+
+        private boolean isProbing() {
+            return probingContext != null;
+        }
+
+        /**
+         * Mixed case, so case conversions can be detected. The terminating letter ensures that no probe value
+         * is a substring of another one. The accented letter at the end is there to tell polystring normalization
+         * (which removes diacritics) from simple lowercasing.
+         */
+        private String nextProbeValue(char terminator) {
+            return PROBE_PREFIX + literals.size() + terminator + PROBE_DIACRITIC;
+        }
+
+        private void visitQuery(ObjectQuery query) {
+            if (query == null) {
+                key.append("null");
+                return;
+            }
+            ObjectFilter filter = visit(query.getFilter());
+            if (isProbing() && filter != query.getFilter()) {
+                query.setFilter(filter);
+            }
+            visitPaging(query.getPaging());
+        }
+
+        private ObjectFilter visit(ObjectFilter filter) {
+            if (filter == null) {
+                key.append('-');
+                return null;
+            }
+            key.append(filter.getClass().getSimpleName()).append('(');
+            ObjectFilter result = filter;
+            if (filter instanceof LogicalFilter) {
+                List<ObjectFilter> conditions = ((LogicalFilter) filter).getConditions();
+                for (int i = 0; i < conditions.size(); i++) {
+                    ObjectFilter condition = conditions.get(i);
+                    ObjectFilter newCondition = visit(condition);
+                    if (newCondition != condition) {
+                        conditions.set(i, newCondition);
+                    }
+                    key.append(',');
+                }
+            } else if (filter instanceof ValueFilter) {
+                visitValueFilter((ValueFilter<?, ?>) filter);
+            } else if (filter instanceof InOidFilter) {
+                visitInOidFilter((InOidFilter) filter);
+            } else if (filter instanceof OrgFilter) {
+                result = visitOrgFilter((OrgFilter) filter);
+            } else if (filter instanceof TypeFilter) {
+                TypeFilter typeFilter = (TypeFilter) filter;
+                key.append(typeFilter.getType()).append(',');
+                ObjectFilter inner = visit(typeFilter.getFilter());
+                if (inner != typeFilter.getFilter()) {
+                    typeFilter.setFilter(inner);
+                }
+            } else if (filter instanceof ExistsFilter) {
+                ExistsFilter existsFilter = (ExistsFilter) filter;
+                key.append(existsFilter.getFullPath()).append(',');
+                appendDefinition(existsFilter.getDefinition());
+                key.append(',');
+                ObjectFilter inner = visit(existsFilter.getFilter());
+                if (inner != existsFilter.getFilter()) {
+                    existsFilter.setFilter(inner);
+                }
+            } else if (filter instanceof FullTextFilter) {
+                // values are split into words, so they influence the HQL text
+                FullTextFilter fullTextFilter = (FullTextFilter) filter;
+                if (fullTextFilter.getExpression() != null) {
+                    supported = false;
+                }
+                key.append(fullTextFilter.getValues());
+            } else if (!(filter instanceof AllFilter) && !(filter instanceof NoneFilter) && !(filter instanceof UndefinedFilter)) {
+                supported = false;
+            }
+            key.append(')');
+            return result;
+        }
+
+        private void visitValueFilter(ValueFilter<?, ?> filter) {
+            if (filter.getExpression() != null) {
+                supported = false;
+                return;
+            }
+            key.append(filter.getFullPath()).append(',');
+            appendDefinition(filter.getDefinition());
+            key.append(',').append(filter.getMatchingRule())
+                    .append(',').append(filter.getRightHandSidePath());
+            if (filter instanceof SubstringFilter) {
+                SubstringFilter<?> substringFilter = (SubstringFilter<?>) filter;
+                key.append(',').append(substringFilter.isAnchorStart()).append(',').append(substringFilter.isAnchorEnd());
+            }
+            List<? extends PrismValue> values = filter.getValues();
+            if (values == null) {
+                key.append(",null");
+                return;
+            }
+            key.append(",[");
+            for (PrismValue value : values) {
+                if (value instanceof PrismPropertyValue) {
+                    visitPropertyValue((PrismPropertyValue<?>) value);
+                } else if (value instanceof PrismReferenceValue) {
+                    visitReferenceValue((PrismReferenceValue) value);
+                } else {
+                    supported = false;
+                }
+                key.append(';');
+            }
+            key.append(']');
+        }
+
+        @SuppressWarnings("unchecked")
+        private void visitPropertyValue(PrismPropertyValue<?> value) {
+            if (value.getExpression() != null) {
+                supported = false;
+                return;
+            }
+            Object realValue = value.getRealValue();
+            if (realValue instanceof String) {
+                key.append("?s");
+                addLiteral(realValue, isProbing() ? nextProbeValue('Z') : null);
+                if (isProbing()) {
+                    ((PrismPropertyValue<Object>) value).setValue(literals.get(literals.size() - 1));
+                }
+            } else if (realValue instanceof PolyString) {
+                PolyString polyString = (PolyString) realValue;
+                key.append(polyString.getNorm() != null ? "?p" : "?o");
+                if (isProbing()) {
+                    String orig = nextProbeValue('O');
+                    String norm = polyString.getNorm() != null ? nextProbeValue('N') : null;
+                    addLiteral(realValue, new PolyString(orig, norm));
+                    ((PrismPropertyValue<Object>) value).setValue(literals.get(literals.size() - 1));
+                } else {
+                    addLiteral(realValue, null);
+                }
+            } else if (realValue instanceof Number || realValue instanceof Boolean || realValue instanceof Enum
+                    || realValue instanceof QName || realValue instanceof XMLGregorianCalendar) {
+                key.append(realValue.getClass().getName()).append('=').append(realValue);
+            } else {
+                supported = false;
+            }
+        }
+
+        private void visitReferenceValue(PrismReferenceValue value) {
+            key.append(value.getOid() != null ? "?r" : "null").append(',')
+                    .append(value.getRelation()).append(',').append(value.getTargetType());
+            if (value.getOid() != null) {
+                addLiteral(value.getOid(), isProbing() ? nextProbeValue('Z') : null);
+                if (isProbing()) {
+                    value.setOid((String) literals.get(literals.size() - 1));
+                }
+            }
+        }
+
+        private void visitInOidFilter(InOidFilter filter) {
+            if (filter.getExpression() != null) {
+                supported = false;
+                return;
+            }
+            Collection<String> oids = filter.getOids();
+            key.append(filter.isConsiderOwner()).append(',').append(oids != null ? oids.size() : -1);
+            if (oids != null) {
+                List<String> probeOids = new ArrayList<>(oids.size());
+                for (String oid : oids) {
+                    addLiteral(oid, isProbing() ? nextProbeValue('Z') : null);
+                    probeOids.add((String) literals.get(literals.size() - 1));
+                }
+                if (isProbing()) {
+                    filter.setOids(probeOids);
+                }
+            }
+        }
+
+        private ObjectFilter visitOrgFilter(OrgFilter filter) {
+            if (filter.isRoot()) {
+                key.append("root");
+                return filter;
+            }
+            PrismReferenceValue orgRef = filter.getOrgRef();
+            if (orgRef == null || orgRef.getOid() == null) {
+                supported = false;     // will fail anyway
+                return filter;
+            }
+            key.append(filter.getScope()).append(',').append(orgRef.getRelation());
+            addLiteral(orgRef.getOid(), isProbing() ? nextProbeValue('Z') : null);
+            if (isProbing()) {
+                // the reference is shared with the original filter, so it must not be modified
+                PrismReferenceValue probeRef = orgRef.clone();
+                probeRef.setOid((String) literals.get(literals.size() - 1));
+                return probingContext.queryFactory().createOrg(probeRef, filter.getScope());
+            } else {
+                return filter;
+            }
+        }
+
+        private void visitPaging(ObjectPaging paging) {
+            if (paging == null) {
+                return;
+            }
+            key.append(";paging(");
+            for (ObjectOrdering ordering : paging.getOrderingInstructions()) {
+                key.append(ordering.getOrderBy()).append(' ').append(ordering.getDirection()).append(',');
+            }
+            key.append(';');
+            if (paging.getGroupingInstructions() != null) {
+                for (ObjectGrouping grouping : paging.getGroupingInstructions()) {
+                    key.append(grouping.getGroupBy()).append(',');
+                }
+            }
+            key.append(';').append(paging.getOffset() != null).append(',').append(paging.getMaxSize() != null);
+            String cookie = paging.getCookie();
+            //noinspection StringEquality
+            if (cookie == ObjectRetriever.NULL_OID_MARKER) {
+                key.append(",nullCookie");
+            } else if (cookie != null) {
+                key.append(",?c");
+                addLiteral(cookie, isProbing() ? nextProbeValue('Z') : null);
+                if (isProbing()) {
+                    paging.setCookie((String) literals.get(literals.size() - 1));
+                }
+            }
+            key.append(')');
+        }
+
+        private void addLiteral(Object realValue, Object probeValue) {
+            literals.add(isProbing() ? probeValue : realValue);
+        }
+
+        private void appendDefinition(ItemDefinition<?> definition) {
+            if (definition == null) {
+                key.append('-');
+                return;
+            }
+            key.append(definition.getName()).append(':').append(definition.getTypeName())
+                    .append(':').append(definition.getMaxOccurs()).append(':').append(definition.isDynamic());
+            if (definition instanceof PrismPropertyDefinition) {
+                key.append(':').append(((PrismPropertyDefinition<?>) definition).isIndexed());
+            }
+        }
+    }
+}
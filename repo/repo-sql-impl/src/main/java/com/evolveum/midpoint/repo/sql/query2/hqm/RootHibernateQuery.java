@@ -43,6 +43,7 @@ public class RootHibernateQuery extends HibernateQuery {
     private Integer firstResult;
     private ResultTransformer resultTransformer;
     private boolean distinct;
+    private boolean cacheable = true;      // false if the interpretation depends on transient state (e.g. non-existing ext item)
 
     public RootHibernateQuery(JpaEntityDefinition primaryEntityDef) {
         super(primaryEntityDef);
@@ -94,6 +95,20 @@ public class RootHibernateQuery extends HibernateQuery {
         String text = getAsHqlText(0, distinct);
         LOGGER.trace("HQL text generated:\n{}", text);
         Query query = session.createQuery(text);
+        setParameters(query, parameters);
+        if (maxResults != null) {
+            query.setMaxResults(maxResults);
+        }
+        if (firstResult != null) {
+            query.setFirstResult(firstResult);
+        }
+        if (resultTransformer != null) {
+            query.setResultTransformer(resultTransformer);
+        }
+        return query;
+    }
+
+    public static void setParameters(Query query, Map<String, QueryParameterValue> parameters) {
         for (Map.Entry<String,QueryParameterValue> parameter : parameters.entrySet()) {
             String name = parameter.getKey();
             QueryParameterValue parameterValue = parameter.getValue();
@@ -113,16 +128,6 @@ public class RootHibernateQuery extends HibernateQuery {
                 }
             }
         }
-        if (maxResults != null) {
-            query.setMaxResults(maxResults);
-        }
-        if (firstResult != null) {
-            query.setFirstResult(firstResult);
-        }
-        if (resultTransformer != null) {
-            query.setResultTransformer(resultTransformer);
-        }
-        return query;
     }
 
     @Override
@@ -142,6 +147,26 @@ public class RootHibernateQuery extends HibernateQuery {
         this.resultTransformer = resultTransformer;
     }
 
+    public Integer getMaxResults() {
+        return maxResults;
+    }
+
+    public Integer getFirstResult() {
+        return firstResult;
+    }
+
+    public ResultTransformer getResultTransformer() {
+        return resultTransformer;
+    }
+
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
+    public void setNotCacheable() {
+        this.cacheable = false;
+    }
+
 	public void setDistinct(boolean distinct) {
 		this.distinct = distinct;
 	}
@@ -156,6 +156,7 @@ public class ItemPathResolver {
             } else {
                 // there are no rows referencing this item, because it does not exist in RExtItem (yet)
                 conjunction.add(hibernateQuery.createFalse());
+                hibernateQuery.setNotCacheable();       // the item can be created later
             }
             condition = conjunction;
         }
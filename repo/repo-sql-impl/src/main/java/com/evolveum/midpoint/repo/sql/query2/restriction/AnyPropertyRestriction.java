@@ -16,6 +16,8 @@
 
 package com.evolveum.midpoint.repo.sql.query2.restriction;
 
+import com.evolveum.midpoint.prism.PrismPropertyValue;
+import com.evolveum.midpoint.prism.query.EqualFilter;
 import com.evolveum.midpoint.prism.query.PropertyValueFilter;
 import com.evolveum.midpoint.repo.sql.data.common.any.RAnyConverter;
 import com.evolveum.midpoint.repo.sql.query.QueryException;
@@ -26,6 +28,9 @@ import com.evolveum.midpoint.repo.sql.query2.hqm.condition.Condition;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @author lazyman
  */
@@ -45,6 +50,15 @@ public class AnyPropertyRestriction extends PropertyRestriction {
 
         if (filter.getRightHandSidePath() != null) {
             return createPropertyVsPropertyCondition(propertyValuePath);
+        } else if (filter instanceof EqualFilter && filter.getValues() != null && filter.getValues().size() > 1) {
+            // any of the values (e.g. shadows looked up by a batch of identifiers); all of them use the same join
+            List<Condition> conditions = new ArrayList<>();
+            for (Object propertyValue : filter.getValues()) {
+                Object value = RAnyConverter.getAggregatedRepoObject(((PrismPropertyValue<?>) propertyValue).getValue());
+                conditions.add(createPropertyVsConstantCondition(propertyValuePath, value, filter));
+            }
+            Condition c = getContext().getHibernateQuery().createOr(conditions.toArray(new Condition[0]));
+            return addIsNotNullIfNecessary(c, propertyValuePath);
         } else {
             Object value = RAnyConverter.getAggregatedRepoObject(getValue(filter));
             Condition c = createPropertyVsConstantCondition(propertyValuePath, value, filter);
@@ -467,6 +467,32 @@ public final class RUtil {
         return array;
     }
 
+    /**
+     * Returns the data as a stream, decompressing it on the fly if needed. As opposed to
+     * {@link #getXmlFromByteArray(byte[], boolean)}, no intermediate String is created.
+     * Data that are not gzip-compressed are returned as they are, even if compression is expected.
+     */
+    public static InputStream getInputStreamFromByteArray(byte[] array, boolean compressed) {
+        if (array == null) {
+            return null;
+        }
+        ByteArrayInputStream in = new ByteArrayInputStream(array);
+        if (!compressed || !isGzipped(array)) {
+            return in;
+        }
+        try {
+            return new GZIPInputStream(in);
+        } catch (IOException ex) {
+            throw new SystemException("Couldn't read data from full object column, reason: " + ex.getMessage(), ex);
+        }
+    }
+
+    private static boolean isGzipped(byte[] array) {
+        return array.length >= 2
+                && (array[0] & 0xff) == (GZIPInputStream.GZIP_MAGIC & 0xff)
+                && (array[1] & 0xff) == ((GZIPInputStream.GZIP_MAGIC >> 8) & 0xff);
+    }
+
     public static String getXmlFromByteArray(byte[] array, boolean compressed) {
         return getXmlFromByteArray(array, compressed, false);
     }
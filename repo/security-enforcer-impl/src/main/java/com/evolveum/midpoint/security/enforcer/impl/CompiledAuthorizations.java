@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.security.enforcer.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.xml.namespace.QName;
+
+import com.evolveum.midpoint.prism.query.ObjectFilter;
+import com.evolveum.midpoint.security.api.Authorization;
+import com.evolveum.midpoint.security.api.AuthorizationConstants;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AuthorizationPhaseType;
+import com.evolveum.prism.xml.ns._public.query_3.SearchFilterType;
+
+/**
+ * Authorizations of a principal, compiled for repeated evaluation by SecurityEnforcerImpl.
+ *
+ * Contains authorizations indexed by action URL and phase, parsed filters of object selectors, and security
+ * filters computed for searches (per object type, actions and phase). Everything is computed lazily, on first use.
+ *
+ * Instances are bound to a principal object. When the principal is refreshed (i.e. a new principal object
+ * is created), new compiled authorizations are created for it. They are also discarded when the collection
+ * of authorizations of the principal is changed.
+ *
+ * Thread safe, as one principal can be used by several threads at once.
+ */
+class CompiledAuthorizations {
+
+	@FunctionalInterface
+	interface FilterParser {
+		ObjectFilter parse() throws SchemaException;
+	}
+
+	private final List<Authorization> authorizations;
+
+	private final Map<ActionPhaseKey, List<Authorization>> byActionAndPhase = new ConcurrentHashMap<>();
+	private final Map<List<String>, List<Authorization>> byActions = new ConcurrentHashMap<>();
+	private final Map<SelectorFilterKey, ObjectFilter> parsedFilters = new ConcurrentHashMap<>();
+	private final Map<SecurityFilterKey, AutzSecurityFilters> securityFilters = new ConcurrentHashMap<>();
+	private final LongAdder securityFiltersHits = new LongAdder();
+
+	CompiledAuthorizations(Collection<Authorization> authorizations) {
+		this.authorizations = new ArrayList<>(authorizations);
+	}
+
+	/**
+	 * Are these compiled authorizations still valid for (current) authorizations of the principal?
+	 * The authorizations are compared by identity, so this check is cheap.
+	 */
+	boolean isValidFor(Collection<Authorization> currentAuthorizations) {
+		if (currentAuthorizations.size() != authorizations.size()) {
+			return false;
+		}
+		Iterator<Authorization> iterator = authorizations.iterator();
+		for (Authorization current : currentAuthorizations) {
+			if (current != iterator.next()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Authorizations applicable to given action (directly or via "all" action) and phase (explicitly or by having no phase),
+	 * in their original order.
+	 */
+	List<Authorization> getAuthorizations(String operationUrl, AuthorizationPhaseType phase) {
+		return byActionAndPhase.computeIfAbsent(new ActionPhaseKey(operationUrl, phase), key -> {
+			List<Authorization> rv = new ArrayList<>();
+			for (Authorization autz : authorizations) {
+				if (isApplicableForAction(autz, key.operationUrl) && (autz.getPhase() == null || autz.getPhase() == key.phase)) {
+					rv.add(autz);
+				}
+			}
+			return rv;
+		});
+	}
+
+	/**
+	 * Authorizations applicable to any of given actions (directly or via "all" action), in their original order.
+	 */
+	List<Authorization> getAuthorizations(String[] operationUrls) {
+		return byActions.computeIfAbsent(Arrays.asList(operationUrls.clone()), key -> {
+			List<Authorization> rv = new ArrayList<>();
+			for (Authorization autz : authorizations) {
+				for (String operationUrl : key) {
+					if (isApplicableForAction(autz, operationUrl)) {
+						rv.add(autz);
+						break;
+					}
+				}
+			}
+			return rv;
+		});
+	}
+
+	private boolean isApplicableForAction(Authorization autz, String operationUrl) {
+		List<String> autzActions = autz.getAction();
+		return autzActions.contains(operationUrl) || autzActions.contains(AuthorizationConstants.AUTZ_ALL_URL);
+	}
+
+	/**
+	 * Returns parsed (but not evaluated) filter of an object selector. The filter must not be modified by the caller.
+	 */
+	ObjectFilter getParsedFilter(SearchFilterType filterBean, QName objectTypeName, FilterParser parser) throws SchemaException {
+		SelectorFilterKey key = new SelectorFilterKey(filterBean, objectTypeName);
+		ObjectFilter filter = parsedFilters.get(key);
+		if (filter == null) {
+			filter = parser.parse();
+			if (filter != null) {
+				parsedFilters.put(key, filter);
+			}
+		}
+		return filter;
+	}
+
+	AutzSecurityFilters getSecurityFilters(SecurityFilterKey key) {
+		AutzSecurityFilters filters = securityFilters.get(key);
+		if (filters != null) {
+			securityFiltersHits.increment();
+		}
+		return filters;
+	}
+
+	void putSecurityFilters(SecurityFilterKey key, AutzSecurityFilters filters) {
+		securityFilters.put(key, filters);
+	}
+
+	int getSecurityFiltersCount() {
+		return securityFilters.size();
+	}
+
+	long getSecurityFiltersHits() {
+		return securityFiltersHits.sum();
+	}
+
+	private static class ActionPhaseKey {
+
+		private final String operationUrl;
+		private final AuthorizationPhaseType phase;
+
+		private ActionPhaseKey(String operationUrl, AuthorizationPhaseType phase) {
+			this.operationUrl = operationUrl;
+			this.phase = phase;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof ActionPhaseKey)) {
+				return false;
+			}
+			ActionPhaseKey that = (ActionPhaseKey) o;
+			return Objects.equals(operationUrl, that.operationUrl) && phase == that.phase;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(operationUrl, phase);
+		}
+	}
+
+	/**
+	 * Filter bean is compared by identity: it is a part of (immutable) authorization of the principal.
+	 */
+	private static class SelectorFilterKey {
+
+		private final SearchFilterType filterBean;
+		private final QName objectTypeName;
+
+		private SelectorFilterKey(SearchFilterType filterBean, QName objectTypeName) {
+			this.filterBean = filterBean;
+			this.objectTypeName = objectTypeName;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof SelectorFilterKey)) {
+				return false;
+			}
+			SelectorFilterKey that = (SelectorFilterKey) o;
+			return filterBean == that.filterBean && Objects.equals(objectTypeName, that.objectTypeName);
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(filterBean) * 31 + Objects.hashCode(objectTypeName);
+		}
+	}
+
+	/**
+	 * Parameters of search security filter computation (for searches not related to a specific object).
+	 */
+	static class SecurityFilterKey {
+
+		private final Class<?> objectType;
+		private final List<String> operationUrls;
+		private final AuthorizationPhaseType phase;
+		private final boolean includeNullPhase;
+		private final boolean includeSpecial;
+		private final String limitAuthorizationAction;
+
+		SecurityFilterKey(Class<?> objectType, String[] operationUrls, AuthorizationPhaseType phase,
+				boolean includeNullPhase, boolean includeSpecial, String limitAuthorizationAction) {
+			this.objectType = objectType;
+			this.operationUrls = Arrays.asList(operationUrls.clone());
+			this.phase = phase;
+			this.includeNullPhase = includeNullPhase;
+			this.includeSpecial = includeSpecial;
+			this.limitAuthorizationAction = limitAuthorizationAction;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof SecurityFilterKey)) {
+				return false;
+			}
+			SecurityFilterKey that = (SecurityFilterKey) o;
+			return includeNullPhase == that.includeNullPhase && includeSpecial == that.includeSpecial &&
+					objectType == that.objectType && operationUrls.equals(that.operationUrls) && phase == that.phase &&
+					Objects.equals(limitAuthorizationAction, that.limitAuthorizationAction);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(objectType, operationUrls, phase, includeNullPhase, includeSpecial, limitAuthorizationAction);
+		}
+	}
+
+	/**
+	 * Result of evaluating authorizations for a search: the part that does not depend on the search filter itself.
+	 * Filters must be cloned before use (they are shared when cached).
+	 */
+	static class AutzSecurityFilters {
+
+		boolean denyAll;
+		boolean hasAllowAll;
+		ObjectFilter allowFilter;
+		ObjectFilter denyFilter;
+
+		/**
+		 * Allowing authorizations whose items are to be checked against the items required by the search filter.
+		 */
+		final List<Authorization> itemAuthorizations = new ArrayList<>();
+
+		/**
+		 * False if the filters depend on something other than the principal and the key, e.g. on the search filter
+		 * or on values of expressions.
+		 */
+		boolean cacheable = true;
+
+		ObjectFilter getAllowFilter() {
+			return cloneFilter(allowFilter);
+		}
+
+		ObjectFilter getDenyFilter() {
+			return cloneFilter(denyFilter);
+		}
+
+		private ObjectFilter cloneFilter(ObjectFilter filter) {
+			return filter != null ? filter.clone() : null;
+		}
+	}
+}
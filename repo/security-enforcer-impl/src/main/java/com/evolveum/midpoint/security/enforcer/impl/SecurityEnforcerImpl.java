@@ -17,7 +17,10 @@ package com.evolveum.midpoint.security.enforcer.impl;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.function.Consumer;
 
 import javax.xml.namespace.QName;
@@ -63,6 +66,8 @@ import com.evolveum.midpoint.security.enforcer.api.AuthorizationParameters;
 import com.evolveum.midpoint.security.enforcer.api.ItemSecurityConstraints;
 import com.evolveum.midpoint.security.enforcer.api.ObjectSecurityConstraints;
 import com.evolveum.midpoint.security.enforcer.api.SecurityEnforcer;
+import com.evolveum.midpoint.security.enforcer.impl.CompiledAuthorizations.AutzSecurityFilters;
+import com.evolveum.midpoint.security.enforcer.impl.CompiledAuthorizations.SecurityFilterKey;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.task.api.TaskManager;
 import com.evolveum.midpoint.util.DebugUtil;
@@ -122,6 +127,13 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 	@Qualifier("securityContextManager")
 	private SecurityContextManager securityContextManager;
 
+	/**
+	 * Compiled authorizations of principals. Principals are compared by identity, so a refreshed principal
+	 * gets its authorizations compiled again; entries of principals no longer in use are removed by GC.
+	 */
+	private final Map<MidPointPrincipal, CompiledAuthorizations> compiledAuthorizationsMap =
+			Collections.synchronizedMap(new WeakHashMap<>());
+
 	@Override
 	public <O extends ObjectType, T extends ObjectType> boolean isAuthorized(String operationUrl, AuthorizationPhaseType phase,
 			AuthorizationParameters<O,T> params, OwnerResolver ownerResolver, Task task, OperationResult result)
@@ -163,7 +175,9 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 				getUsername(midPointPrincipal), operationUrl, phase, params.shortDump());
 		}
 		final AutzItemPaths allowedItems = new AutzItemPaths();
-		Collection<Authorization> authorities = getAuthorities(midPointPrincipal);
+		CompiledAuthorizations compiledAuthorizations = getCompiledAuthorizations(midPointPrincipal);
+		Collection<Authorization> authorities = compiledAuthorizations != null ?
+				compiledAuthorizations.getAuthorizations(operationUrl, phase) : getAuthorities(midPointPrincipal);
 		if (authorities != null) {
 			for (GrantedAuthority authority: authorities) {
 				if (authority instanceof Authorization) {
@@ -803,14 +817,18 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 		};
 	}
 	
-	private <O extends ObjectType> ObjectFilter parseAndEvaluateFilter(MidPointPrincipal principal, PrismObjectDefinition<O> objectDefinition, 
-			SearchFilterType specFilterType, String objectTargetDesc, String autzHumanReadableDesc, Task task, OperationResult result) throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
-		ObjectFilter specFilter = prismContext.getQueryConverter().createObjectFilter(objectDefinition, specFilterType);
-		if (specFilter == null) {
-			return null;
-		}
-		ObjectFilterExpressionEvaluator filterEvaluator = createFilterEvaluator(principal, objectTargetDesc, autzHumanReadableDesc, task, result);
-		return filterEvaluator.evaluate(specFilter);
+	/**
+	 * Parsed filter is memoized in compiled authorizations of the principal. It must not be modified
+	 * (evaluation of the filter expressions creates a copy of it).
+	 */
+	private <O extends ObjectType> ObjectFilter parseFilter(MidPointPrincipal principal, PrismObjectDefinition<O> objectDefinition,
+			SearchFilterType specFilterType) throws SchemaException {
+		CompiledAuthorizations compiledAuthorizations = getCompiledAuthorizations(principal);
+		if (compiledAuthorizations == null) {
+			return prismContext.getQueryConverter().createObjectFilter(objectDefinition, specFilterType);
+		}
+		return compiledAuthorizations.getParsedFilter(specFilterType, objectDefinition.getTypeName(),
+				() -> prismContext.getQueryConverter().createObjectFilter(objectDefinition, specFilterType));
 	}
 
 
@@ -1027,6 +1045,47 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 		}
 	}
 
+	/**
+	 * Returns compiled authorizations of the principal (creating them if needed), or null for anonymous access.
+	 */
+	private CompiledAuthorizations getCompiledAuthorizations(MidPointPrincipal principal) {
+		if (principal == null) {
+			return null;
+		}
+		Collection<Authorization> authorizations = principal.getAuthorities();
+		CompiledAuthorizations compiledAuthorizations = compiledAuthorizationsMap.get(principal);
+		if (compiledAuthorizations == null || !compiledAuthorizations.isValidFor(authorizations)) {
+			compiledAuthorizations = new CompiledAuthorizations(authorizations);
+			compiledAuthorizationsMap.put(principal, compiledAuthorizations);
+		}
+		return compiledAuthorizations;
+	}
+
+	/**
+	 * Returns number of search security filters cached for the principal. FOR DIAGNOSTICS AND TESTING ONLY.
+	 */
+	public int getCachedSecurityFiltersCount(MidPointPrincipal principal) {
+		CompiledAuthorizations compiledAuthorizations = getCurrentCompiledAuthorizations(principal);
+		return compiledAuthorizations != null ? compiledAuthorizations.getSecurityFiltersCount() : 0;
+	}
+
+	/**
+	 * Returns number of searches that used security filters cached for the principal. FOR DIAGNOSTICS AND TESTING ONLY.
+	 */
+	public long getCachedSecurityFiltersHits(MidPointPrincipal principal) {
+		CompiledAuthorizations compiledAuthorizations = getCurrentCompiledAuthorizations(principal);
+		return compiledAuthorizations != null ? compiledAuthorizations.getSecurityFiltersHits() : 0;
+	}
+
+	/**
+	 * Compiled authorizations of the principal, if they exist and are still valid. Nothing is compiled here.
+	 */
+	private CompiledAuthorizations getCurrentCompiledAuthorizations(MidPointPrincipal principal) {
+		CompiledAuthorizations compiledAuthorizations = compiledAuthorizationsMap.get(principal);
+		return compiledAuthorizations != null && compiledAuthorizations.isValidFor(principal.getAuthorities()) ?
+				compiledAuthorizations : null;
+	}
+
 	@Override
 	public <O extends ObjectType> ObjectSecurityConstraints compileSecurityConstraints(PrismObject<O> object, OwnerResolver ownerResolver, Task task, OperationResult result) throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
 		MidPointPrincipal principal = getMidPointPrincipal();
@@ -1151,18 +1210,114 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 			AuthorizationPhaseType phase, boolean includeNullPhase,
 			Class<T> objectType, PrismObject<O> object, boolean includeSpecial, ObjectFilter origFilter, String limitAuthorizationAction, List<OrderConstraintsType> paramOrderConstraints, String desc, Task task, OperationResult result) throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
 
-		Collection<Authorization> authorities = getAuthorities(principal);
-
-		ObjectFilter securityFilterAllow = null;
-		ObjectFilter securityFilterDeny = null;
-
 		QueryAutzItemPaths queryItemsSpec = new QueryAutzItemPaths();
 		queryItemsSpec.addRequiredItems(origFilter); // MID-3916
 		if (LOGGER.isTraceEnabled()) {
 			LOGGER.trace("  phase={}, initial query items spec {}", phase, queryItemsSpec.shortDump());
 		}
 
-		boolean hasAllowAll = false;
+		// Filters for searches that are not related to a specific object are cached per principal,
+		// unless they depend on the original filter or on expressions.
+		CompiledAuthorizations compiledAuthorizations = getCompiledAuthorizations(principal);
+		SecurityFilterKey cacheKey = null;
+		AutzSecurityFilters filters = null;
+		if (compiledAuthorizations != null && object == null && (paramOrderConstraints == null || paramOrderConstraints.isEmpty())) {
+			cacheKey = new SecurityFilterKey(objectType, operationUrls, phase, includeNullPhase, includeSpecial, limitAuthorizationAction);
+			filters = compiledAuthorizations.getSecurityFilters(cacheKey);
+			if (filters != null) {
+				LOGGER.trace("  phase={}, using cached security filters", phase);
+			}
+		}
+		if (filters == null) {
+			Collection<Authorization> authorities = compiledAuthorizations != null ?
+					compiledAuthorizations.getAuthorizations(operationUrls) : getAuthorities(principal);
+			filters = computeAutzSecurityFilters(principal, authorities, operationUrls, phase, includeNullPhase, objectType, object,
+					includeSpecial, origFilter, limitAuthorizationAction, paramOrderConstraints, queryItemsSpec, task, result);
+			if (cacheKey != null && filters.cacheable) {
+				compiledAuthorizations.putSecurityFilters(cacheKey, filters);
+			}
+		}
+
+		if (filters.denyAll) {
+			if (LOGGER.isTraceEnabled()) {
+				LOGGER.trace("  phase={} done: principal={}, operation={}, {}: deny all",
+						phase, getUsername(principal), prettyActionUrl(operationUrls), desc);
+			}
+			NoneFilter secFilter = FilterCreationUtil.createNone(prismContext);
+			traceFilter("secFilter", null, secFilter);
+			return secFilter;
+		}
+
+		for (Authorization autz : filters.itemAuthorizations) {
+			queryItemsSpec.collectItems(autz);
+		}
+		ObjectFilter securityFilterAllow = filters.getAllowFilter();
+		ObjectFilter securityFilterDeny = filters.getDenyFilter();
+
+		traceFilter("securityFilterAllow", null, securityFilterAllow);
+		traceFilter("securityFilterDeny", null, securityFilterDeny);
+
+		if (LOGGER.isTraceEnabled()) {
+			LOGGER.trace("  final items: {}", queryItemsSpec.shortDump());
+		}
+		List<ItemPath> unsatisfiedItems = queryItemsSpec.evaluateUnsatisfierItems();
+		if (!unsatisfiedItems.isEmpty()) {
+			if (LOGGER.isTraceEnabled()) {
+				LOGGER.trace("  phase={} done: principal={}, operation={}, {}: deny because items {} are not allowed",
+						phase, getUsername(principal), prettyActionUrl(operationUrls), desc, unsatisfiedItems);
+			}
+			NoneFilter secFilter = FilterCreationUtil.createNone(prismContext);
+			traceFilter("secFilter", null, secFilter);
+			return secFilter;
+		}
+
+		if (filters.hasAllowAll) {
+			securityFilterAllow = FilterCreationUtil.createAll(prismContext);
+		} else if (securityFilterAllow == null) {
+			// Nothing has been allowed. This means default deny.
+			if (LOGGER.isTraceEnabled()) {
+				LOGGER.trace("  phase={} {} done: principal={}, operation={}, {}: default deny", 
+						phase, getUsername(principal), prettyActionUrl(operationUrls), desc);
+			}
+			NoneFilter secFilter = FilterCreationUtil.createNone(prismContext);
+			traceFilter("secFilter", null, secFilter);
+			return secFilter;
+		}
+
+		if (securityFilterDeny == null) {
+			if (LOGGER.isTraceEnabled()) {
+				LOGGER.trace("  phase={} done: principal={}, operation={}, {}: allow\n  Filter:\n{}", 
+						phase, getUsername(principal), prettyActionUrl(operationUrls), desc, 
+						securityFilterAllow==null?"null":securityFilterAllow.debugDump(2));
+			}
+			traceFilter("securityFilterAllow", null, securityFilterAllow);
+			return securityFilterAllow;
+		} else {
+			ObjectFilter secFilter = ObjectQueryUtil.filterAnd(securityFilterAllow, prismContext.queryFactory().createNot(securityFilterDeny),
+					prismContext);
+			if (LOGGER.isTraceEnabled()) {
+				LOGGER.trace("  phase={} done: principal={}, operation={}, {}: allow (with deny clauses)\n  Filter:\n{}", 
+						phase, getUsername(principal), prettyActionUrl(operationUrls), desc,
+						secFilter==null?"null":secFilter.debugDump(2));
+			}
+			traceFilter("secFilter", null, secFilter);
+			return secFilter;
+		}
+	}
+
+	/**
+	 * Evaluates the authorizations for a search. The result does not depend on items required by the original filter;
+	 * these are checked by the caller.
+	 */
+	private <T extends ObjectType, O extends ObjectType> AutzSecurityFilters computeAutzSecurityFilters(MidPointPrincipal principal,
+			Collection<Authorization> authorities, String[] operationUrls, AuthorizationPhaseType phase, boolean includeNullPhase,
+			Class<T> objectType, PrismObject<O> object, boolean includeSpecial, ObjectFilter origFilter, String limitAuthorizationAction,
+			List<OrderConstraintsType> paramOrderConstraints, QueryAutzItemPaths queryItemsSpec, Task task, OperationResult result)
+			throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
+
+		AutzSecurityFilters filters = new AutzSecurityFilters();
+		ObjectFilter securityFilterAllow = null;
+		ObjectFilter securityFilterDeny = null;
 		if (authorities != null) {
 			for (GrantedAuthority authority: authorities) {
 				if (authority instanceof Authorization) {
@@ -1322,7 +1477,13 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 								if (objectDefinition == null) {
 									objectDefinition = prismContext.getSchemaRegistry().findObjectDefinitionByCompileTimeClass(objectType);
 								}
-								ObjectFilter specFilter = parseAndEvaluateFilter(principal, objectDefinition, specFilterType, objectTargetSpec, autzHumanReadableDesc, task, result);
+								ObjectFilter parsedSpecFilter = parseFilter(principal, objectDefinition, specFilterType);
+								if (ExpressionUtil.hasExpressions(parsedSpecFilter)) {
+									// the result of the expressions is not guaranteed to be the same next time
+									filters.cacheable = false;
+								}
+								ObjectFilter specFilter = parsedSpecFilter != null ?
+										createFilterEvaluator(principal, objectTargetSpec, autzHumanReadableDesc, task, result).evaluate(parsedSpecFilter) : null;
 								if (specFilter != null) {
 									ObjectQueryUtil.assertNotRaw(specFilter, "Filter in authorization object has undefined items. Maybe a 'type' specification is missing in the authorization?");
 									ObjectQueryUtil.assertPropertyOnly(specFilter, "Filter in authorization object is not property-only filter");
@@ -1345,6 +1506,8 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 
 							// orgRelation
 							if (specOrgRelation != null) {
+								// the filter depends on parent orgs of the principal's user, which are not part of the authorizations
+								filters.cacheable = false;
 								ObjectFilter objSpecOrgRelationFilter = null;
 								QName subjectRelation = specOrgRelation.getSubjectRelation();
 								for (ObjectReferenceType subjectParentOrgRef: principal.getUser().getParentOrgRef()) {
@@ -1380,6 +1543,8 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 							// roleRelation
 							if (specRoleRelation != null) {
 								ObjectFilter objSpecRoleRelationFilter = processRoleRelationFilter(principal, autz, specRoleRelation, queryItemsSpec, origFilter);
+								// the filter depends on the original filter
+								filters.cacheable = false;
 								if (objSpecRoleRelationFilter == null) {
 									if (autz.maySkipOnSearch()) {
 										LOGGER.trace("      not applying roleRelation filter {} because it is not efficient and maySkipOnSearch is set", objSpecRoleRelationFilter);
@@ -1439,13 +1604,13 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 							// allow
 							if (ObjectQueryUtil.isAll(autzObjSecurityFilter)) {
 								// this is "allow all" authorization.
-								hasAllowAll = true;
+								filters.hasAllowAll = true;
 							} else {
 								securityFilterAllow = ObjectQueryUtil.filterOr(securityFilterAllow, autzObjSecurityFilter,
 										prismContext);
 							}
 							if (!ObjectQueryUtil.isNone(autzObjSecurityFilter)) {
-								queryItemsSpec.collectItems(autz);
+								filters.itemAuthorizations.add(autz);
 							}
 						} else {
 							// deny
@@ -1457,13 +1622,8 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 								if (ObjectQueryUtil.isAll(autzObjSecurityFilter)) {
 									// This is "deny all". We cannot have anything stronger than that.
 									// There is no point in continuing the evaluation.
-									if (LOGGER.isTraceEnabled()) {
-										LOGGER.trace("  phase={} done: principal={}, operation={}, {}: deny all",
-												phase, getUsername(principal), prettyActionUrl(operationUrls), desc);
-									}
-									NoneFilter secFilter = FilterCreationUtil.createNone(prismContext);
-									traceFilter("secFilter", null, secFilter);
-									return secFilter;
+									filters.denyAll = true;
+									return filters;
 								}
 								securityFilterDeny = ObjectQueryUtil.filterOr(securityFilterDeny, autzObjSecurityFilter,
 										prismContext);
@@ -1480,55 +1640,9 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 			}
 		}
 
-		traceFilter("securityFilterAllow", null, securityFilterAllow);
-		traceFilter("securityFilterDeny", null, securityFilterDeny);
-
-		if (LOGGER.isTraceEnabled()) {
-			LOGGER.trace("  final items: {}", queryItemsSpec.shortDump());
-		}
-		List<ItemPath> unsatisfiedItems = queryItemsSpec.evaluateUnsatisfierItems();
-		if (!unsatisfiedItems.isEmpty()) {
-			if (LOGGER.isTraceEnabled()) {
-				LOGGER.trace("  phase={} done: principal={}, operation={}, {}: deny because items {} are not allowed",
-						phase, getUsername(principal), prettyActionUrl(operationUrls), desc, unsatisfiedItems);
-			}
-			NoneFilter secFilter = FilterCreationUtil.createNone(prismContext);
-			traceFilter("secFilter", null, secFilter);
-			return secFilter;
-		}
-
-		if (hasAllowAll) {
-			securityFilterAllow = FilterCreationUtil.createAll(prismContext);
-		} else if (securityFilterAllow == null) {
-			// Nothing has been allowed. This means default deny.
-			if (LOGGER.isTraceEnabled()) {
-				LOGGER.trace("  phase={} {} done: principal={}, operation={}, {}: default deny", 
-						phase, getUsername(principal), prettyActionUrl(operationUrls), desc);
-			}
-			NoneFilter secFilter = FilterCreationUtil.createNone(prismContext);
-			traceFilter("secFilter", null, secFilter);
-			return secFilter;
-		}
-
-		if (securityFilterDeny == null) {
-			if (LOGGER.isTraceEnabled()) {
-				LOGGER.trace("  phase={} done: principal={}, operation={}, {}: allow\n  Filter:\n{}", 
-						phase, getUsername(principal), prettyActionUrl(operationUrls), desc, 
-						securityFilterAllow==null?"null":securityFilterAllow.debugDump(2));
-			}
-			traceFilter("securityFilterAllow", null, securityFilterAllow);
-			return securityFilterAllow;
-		} else {
-			ObjectFilter secFilter = ObjectQueryUtil.filterAnd(securityFilterAllow, prismContext.queryFactory().createNot(securityFilterDeny),
-					prismContext);
-			if (LOGGER.isTraceEnabled()) {
-				LOGGER.trace("  phase={} done: principal={}, operation={}, {}: allow (with deny clauses)\n  Filter:\n{}", 
-						phase, getUsername(principal), prettyActionUrl(operationUrls), desc,
-						secFilter==null?"null":secFilter.debugDump(2));
-			}
-			traceFilter("secFilter", null, secFilter);
-			return secFilter;
-		}
+		filters.allowFilter = securityFilterAllow;
+		filters.denyFilter = securityFilterDeny;
+		return filters;
 	}
 	
 	private boolean isApplicableForActions(Authorization autz, String[] requiredActions) {
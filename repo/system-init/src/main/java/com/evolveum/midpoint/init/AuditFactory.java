@@ -32,7 +32,9 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author lazyman
@@ -46,6 +48,7 @@ public class AuditFactory implements ApplicationContextAware, RuntimeConfigurati
     @Autowired
     MidpointConfiguration midpointConfiguration;
     private List<AuditServiceFactory> serviceFactories = new ArrayList<>();
+    private Map<AuditService, AuditServiceFactory> createdServices = new LinkedHashMap<>();
     private AuditService auditService;
 
     public void init() {
@@ -92,7 +95,14 @@ public class AuditFactory implements ApplicationContextAware, RuntimeConfigurati
     }
 
     public void destroy() {
-
+        for (Map.Entry<AuditService, AuditServiceFactory> entry : createdServices.entrySet()) {
+            try {
+                entry.getValue().destroyService(entry.getKey());
+            } catch (Exception ex) {
+                LoggingUtils.logUnexpectedException(LOGGER, "Couldn't destroy audit service {}", ex, entry.getKey());
+            }
+        }
+        createdServices.clear();
     }
 
     public AuditService getAuditService() {
@@ -105,6 +115,7 @@ public class AuditFactory implements ApplicationContextAware, RuntimeConfigurati
                     applicationContext.getAutowireCapableBeanFactory().autowireBean(service);
 
                     proxy.registerService(service);
+                    createdServices.put(service, factory);
                 } catch (Exception ex) {
                     LoggingUtils.logException(LOGGER, "Couldn't get audit service from factory '{}'", ex, factory);
                     throw new SystemException(ex.getMessage(), ex);
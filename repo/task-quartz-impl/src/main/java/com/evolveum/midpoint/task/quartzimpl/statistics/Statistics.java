@@ -54,10 +54,17 @@ public class Statistics {
 		this.prismContext = prismContext;
 	}
 
-	private EnvironmentalPerformanceInformation environmentalPerformanceInformation = new EnvironmentalPerformanceInformation();
-	private SynchronizationInformation synchronizationInformation;                // has to be explicitly enabled
-	private IterativeTaskInformation iterativeTaskInformation;                    // has to be explicitly enabled
-	private ActionsExecutedInformation actionsExecutedInformation;            // has to be explicitly enabled
+	/*
+	 * The statistics are updated by threads executing the task (there can be more of them, e.g. when projections are
+	 * processed in parallel) and read by observers. The individual information objects are thread safe and their
+	 * updates do not lock (except for actions executed), so we don't lock here either. The fields themselves are
+	 * volatile because they are replaced when the task (re)starts collecting the statistics. So methods that check
+	 * a field for null read it only once, into a local variable: a second read could see null.
+	 */
+	private volatile EnvironmentalPerformanceInformation environmentalPerformanceInformation = new EnvironmentalPerformanceInformation();
+	private volatile SynchronizationInformation synchronizationInformation;                // has to be explicitly enabled
+	private volatile IterativeTaskInformation iterativeTaskInformation;                    // has to be explicitly enabled
+	private volatile ActionsExecutedInformation actionsExecutedInformation;            // has to be explicitly enabled
 
 	private EnvironmentalPerformanceInformation getEnvironmentalPerformanceInformation() {
 		return environmentalPerformanceInformation;
@@ -77,10 +84,12 @@ public class Statistics {
 
 	@NotNull
 	public List<String> getLastFailures() {
+		IterativeTaskInformation iterativeTaskInformation = this.iterativeTaskInformation;
 		return iterativeTaskInformation != null ? iterativeTaskInformation.getLastFailures() : Collections.emptyList();
 	}
 
 	private EnvironmentalPerformanceInformationType getAggregateEnvironmentalPerformanceInformation(Collection<Statistics> children) {
+		EnvironmentalPerformanceInformation environmentalPerformanceInformation = this.environmentalPerformanceInformation;
 		if (environmentalPerformanceInformation == null) {
 			return null;
 		}
@@ -96,6 +105,7 @@ public class Statistics {
 	}
 
 	private IterativeTaskInformationType getAggregateIterativeTaskInformation(Collection<Statistics> children) {
+		IterativeTaskInformation iterativeTaskInformation = this.iterativeTaskInformation;
 		if (iterativeTaskInformation == null) {
 			return null;
 		}
@@ -111,6 +121,7 @@ public class Statistics {
 	}
 
 	private SynchronizationInformationType getAggregateSynchronizationInformation(Collection<Statistics> children) {
+		SynchronizationInformation synchronizationInformation = this.synchronizationInformation;
 		if (synchronizationInformation == null) {
 			return null;
 		}
@@ -126,6 +137,7 @@ public class Statistics {
 	}
 
 	private ActionsExecutedInformationType getAggregateActionsExecutedInformation(Collection<Statistics> children) {
+		ActionsExecutedInformation actionsExecutedInformation = this.actionsExecutedInformation;
 		if (actionsExecutedInformation == null) {
 			return null;
 		}
@@ -182,10 +194,11 @@ public class Statistics {
 		environmentalPerformanceInformation.recordMappingOperation(objectOid, objectName, objectTypeName, mappingName, duration);
 	}
 
-	public synchronized void recordSynchronizationOperationEnd(String objectName, String objectDisplayName, QName objectType,
+	public void recordSynchronizationOperationEnd(String objectName, String objectDisplayName, QName objectType,
 			String objectOid,
 			long started, Throwable exception, SynchronizationInformation.Record originalStateIncrement,
 			SynchronizationInformation.Record newStateIncrement) {
+		SynchronizationInformation synchronizationInformation = this.synchronizationInformation;
 		if (synchronizationInformation != null) {
 			synchronizationInformation
 					.recordSynchronizationOperationEnd(objectName, objectDisplayName, objectType, objectOid, started, exception,
@@ -193,15 +206,17 @@ public class Statistics {
 		}
 	}
 
-	public synchronized void recordSynchronizationOperationStart(String objectName, String objectDisplayName, QName objectType,
+	public void recordSynchronizationOperationStart(String objectName, String objectDisplayName, QName objectType,
 			String objectOid) {
+		SynchronizationInformation synchronizationInformation = this.synchronizationInformation;
 		if (synchronizationInformation != null) {
 			synchronizationInformation.recordSynchronizationOperationStart(objectName, objectDisplayName, objectType, objectOid);
 		}
 	}
 
-	public synchronized void recordIterativeOperationEnd(String objectName, String objectDisplayName, QName objectType,
+	public void recordIterativeOperationEnd(String objectName, String objectDisplayName, QName objectType,
 			String objectOid, long started, Throwable exception) {
+		IterativeTaskInformation iterativeTaskInformation = this.iterativeTaskInformation;
 		if (iterativeTaskInformation != null) {
 			iterativeTaskInformation.recordOperationEnd(objectName, objectDisplayName, objectType, objectOid, started, exception);
 		}
@@ -217,8 +232,9 @@ public class Statistics {
 				ShadowType.COMPLEX_TYPE, shadow.getOid());
 	}
 
-	public synchronized void recordIterativeOperationStart(String objectName, String objectDisplayName, QName objectType,
+	public void recordIterativeOperationStart(String objectName, String objectDisplayName, QName objectType,
 			String objectOid) {
+		IterativeTaskInformation iterativeTaskInformation = this.iterativeTaskInformation;
 		if (iterativeTaskInformation != null) {
 			iterativeTaskInformation.recordOperationStart(objectName, objectDisplayName, objectType, objectOid);
 		}
@@ -226,6 +242,7 @@ public class Statistics {
 
 	public void recordObjectActionExecuted(String objectName, String objectDisplayName, QName objectType, String objectOid,
 			ChangeType changeType, String channel, Throwable exception) {
+		ActionsExecutedInformation actionsExecutedInformation = this.actionsExecutedInformation;
 		if (actionsExecutedInformation != null) {
 			actionsExecutedInformation
 					.recordObjectActionExecuted(objectName, objectDisplayName, objectType, objectOid, changeType, channel,
@@ -239,6 +256,7 @@ public class Statistics {
 
 	public <T extends ObjectType> void recordObjectActionExecuted(PrismObject<T> object, Class<T> objectTypeClass,
 			String defaultOid, ChangeType changeType, String channel, Throwable exception) {
+		ActionsExecutedInformation actionsExecutedInformation = this.actionsExecutedInformation;
 		if (actionsExecutedInformation != null) {
 			String name, displayName, oid;
 			PrismObjectDefinition definition;
@@ -274,6 +292,7 @@ public class Statistics {
 	}
 
 	public void markObjectActionExecutedBoundary() {
+		ActionsExecutedInformation actionsExecutedInformation = this.actionsExecutedInformation;
 		if (actionsExecutedInformation != null) {
 			actionsExecutedInformation.markObjectActionExecutedBoundary();
 		}
@@ -62,6 +62,7 @@ import org.springframework.stereotype.Component;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -92,6 +93,13 @@ public class WorkStateManager {
 
 	private Long freeBucketWaitIntervalOverride = null;
 
+	// Cumulative statistics related to the contention on coordinator tasks; reported via CONTENTION_LOGGER.
+	private final LongAdder allocationRequests = new LongAdder();
+	private final LongAdder allocationConflicts = new LongAdder();
+	private final LongAdder allocationConflictsWaitTime = new LongAdder();
+	private final LongAdder bucketsAllocated = new LongAdder();
+	private final LongAdder deferredCompletions = new LongAdder();
+
 	private class Context {
 		Task workerTask;
 		Task coordinatorTask;           // null for standalone worker tasks
@@ -158,7 +166,11 @@ public class WorkStateManager {
 			if (executeInitialWait) {
 				executeInitialDelayForMultiNode(ctx);
 			}
-			return getWorkBucketMultiNode(ctx, freeBucketWaitTime, result);
+			try {
+				return getWorkBucketMultiNode(ctx, freeBucketWaitTime, result);
+			} finally {
+				logContentionStatistics();
+			}
 		}
 	}
 
@@ -181,9 +193,12 @@ public class WorkStateManager {
 			throws SchemaException, ObjectAlreadyExistsException, ObjectNotFoundException, InterruptedException {
 		long start = System.currentTimeMillis();
 		int globalAttempt = 0;      // just for statistics
+		allocationRequests.increment();
 		TaskWorkManagementType workManagement = ctx.coordinatorTask.getWorkManagement();
 		WorkSegmentationStrategy workStateStrategy = strategyFactory.createStrategy(workManagement);
 		setOrUpdateEstimatedNumberOfBuckets(ctx.coordinatorTask, workStateStrategy, result);
+		int allocationBatch = getBucketAllocationBatch(workManagement);
+		boolean leasing = allocationBatch > 1 || isDeferredBucketCompletion(workManagement);
 
 waitForAvailableBucket:    // this cycle exits when something is found OR when a definite 'no more buckets' answer is received
 	    for (;;) {
@@ -193,9 +208,20 @@ waitForConflictLessUpdate: // this cycle exits when coordinator task update succ
 			for (;;) {
 				TaskWorkStateType coordinatorWorkState = getWorkStateOrNew(ctx.coordinatorTask);
 				globalAttempt++;
-				GetBucketResult response = workStateStrategy.getBucket(coordinatorWorkState);
-				LOGGER.trace("getWorkBucketMultiNode: workStateStrategy returned {} for worker task {}, coordinator {}", response, ctx.workerTask, ctx.coordinatorTask);
 				try {
+					GetBucketResult response;
+					if (leasing) {
+						List<WorkBucketType> leased = new ArrayList<>();
+						response = leaseBuckets(ctx, workStateStrategy, coordinatorWorkState, allocationBatch, leased, result);
+						if (!leased.isEmpty()) {
+							bucketsAllocated.add(leased.size());
+							CONTENTION_LOGGER.trace("{} bucket(s) leased after {} ms (attempt #{}) in {}", leased.size(), System.currentTimeMillis() - start, globalAttempt, ctx.workerTask);
+							return leased.get(0);
+						}
+					} else {
+						response = workStateStrategy.getBucket(coordinatorWorkState);
+					}
+					LOGGER.trace("getWorkBucketMultiNode: workStateStrategy returned {} for worker task {}, coordinator {}", response, ctx.workerTask, ctx.coordinatorTask);
 					if (response instanceof NewBuckets) {
 						NewBuckets newBucketsResponse = (NewBuckets) response;
 						int selected = newBucketsResponse.selected;
@@ -212,6 +238,7 @@ waitForConflictLessUpdate: // this cycle exits when coordinator task update succ
 								bucketsReplacePrecondition(coordinatorWorkState.getBucket()), null, result);
 						repositoryService.modifyObject(TaskType.class, ctx.workerTask.getOid(),
 								bucketsAddDeltas(newBucketsResponse.newBuckets.subList(selected, selected+1)), null, result);
+						bucketsAllocated.increment();
 						CONTENTION_LOGGER.trace("New bucket(s) acquired after {} ms (attempt #{}) in {}", System.currentTimeMillis() - start, globalAttempt, ctx.workerTask);
 						return newBucketsResponse.newBuckets.get(selected);
 					} else if (response instanceof FoundExisting) {
@@ -222,6 +249,7 @@ waitForConflictLessUpdate: // this cycle exits when coordinator task update succ
 						WorkBucketType foundBucket = existingResponse.bucket.clone();
 						repositoryService.modifyObject(TaskType.class, ctx.workerTask.getOid(),
 								bucketsAddDeltas(singletonList(foundBucket)), null, result);
+						bucketsAllocated.increment();
 						CONTENTION_LOGGER.trace("Existing bucket acquired after {} ms (attempt #{}) in {}", System.currentTimeMillis() - start, globalAttempt, ctx.workerTask);
 						return foundBucket;
 					} else if (response instanceof NothingFound) {
@@ -266,6 +294,8 @@ waitForConflictLessUpdate: // this cycle exits when coordinator task update succ
 						CONTENTION_LOGGER.error(message, e1);
 						throw new SystemException(message, e1);
 					}
+					allocationConflicts.increment();
+					allocationConflictsWaitTime.add(delay);
 					String message = "getWorkBucketMultiNode: conflict; continuing as retry #{}; waiting {} ms in {}, worker {}";
 					Object[] objects = { retry, delay, ctx.coordinatorTask, ctx.workerTask, e };
 					CONTENTION_LOGGER.debug(message, objects);
@@ -280,6 +310,104 @@ waitForConflictLessUpdate: // this cycle exits when coordinator task update succ
 		}
 	}
 
+	/**
+	 * Allocates up to allocationBatch buckets to the worker using a single (optimistically locked) modification
+	 * of the coordinator task. Buckets whose completion was deferred by the worker are marked as complete
+	 * in the same modification; completed buckets are compressed as well.
+	 *
+	 * Allocated buckets are put into "leased" list. If nothing could be allocated, the last response of the
+	 * segmentation strategy is returned.
+	 */
+	private GetBucketResult leaseBuckets(Context ctx, WorkSegmentationStrategy workStateStrategy,
+			TaskWorkStateType coordinatorWorkState, int allocationBatch, List<WorkBucketType> leased, OperationResult result)
+			throws SchemaException, PreconditionViolationException, ObjectNotFoundException, ObjectAlreadyExistsException {
+		TaskWorkStateType newWorkState = coordinatorWorkState.clone();
+		List<WorkBucketType> completedByWorker = getBucketsCompletedByWorker(ctx.workerTask);
+		for (WorkBucketType completed : completedByWorker) {
+			WorkBucketType bucket = findBucketByNumber(newWorkState.getBucket(), completed.getSequentialNumber());
+			if (bucket != null) {
+				bucket.setState(WorkBucketStateType.COMPLETE);
+			}
+		}
+		GetBucketResult response = null;
+		while (leased.size() < allocationBatch) {
+			response = workStateStrategy.getBucket(newWorkState);
+			LOGGER.trace("leaseBuckets: workStateStrategy returned {} for worker task {}, coordinator {}", response, ctx.workerTask, ctx.coordinatorTask);
+			if (response instanceof NewBuckets) {
+				NewBuckets newBucketsResponse = (NewBuckets) response;
+				for (int i = 0; i < newBucketsResponse.newBuckets.size(); i++) {
+					WorkBucketType newBucket = newBucketsResponse.newBuckets.get(i).clone();
+					if (i == newBucketsResponse.selected) {
+						leased.add(newBucket.clone());
+						newBucket.setState(WorkBucketStateType.DELEGATED);
+					}
+					newWorkState.getBucket().add(newBucket);
+				}
+			} else if (response instanceof FoundExisting) {
+				WorkBucketType foundBucket = ((FoundExisting) response).bucket;      // this is a bucket from newWorkState
+				leased.add(foundBucket.clone());
+				foundBucket.setState(WorkBucketStateType.DELEGATED);
+			} else if (response instanceof NothingFound) {
+				break;
+			} else {
+				throw new AssertionError(response);
+			}
+		}
+		if (leased.isEmpty() && completedByWorker.isEmpty()) {
+			return response;
+		}
+
+		List<WorkBucketType> toCompress = getBucketsToCompress(newWorkState.getBucket());
+		List<WorkBucketType> newCoordinatorBuckets = newWorkState.getBucket().stream()
+				.filter(b -> !toCompress.contains(b))
+				.collect(Collectors.toList());
+		repositoryService.modifyObject(TaskType.class, ctx.coordinatorTask.getOid(),
+				bucketsReplaceDeltas(newCoordinatorBuckets),
+				bucketsReplacePrecondition(coordinatorWorkState.getBucket()), null, result);
+
+		List<ItemDelta<?, ?>> workerModifications = new ArrayList<>();
+		if (!leased.isEmpty()) {
+			workerModifications.addAll(bucketsAddDeltas(leased));
+		}
+		for (WorkBucketType completed : completedByWorker) {
+			workerModifications.addAll(bucketDeleteDeltas(completed));
+		}
+		repositoryService.modifyObject(TaskType.class, ctx.workerTask.getOid(), workerModifications, result);
+		LOGGER.trace("Leased {} bucket(s) and reported {} completed one(s) for worker task {}, coordinator {}",
+				leased.size(), completedByWorker.size(), ctx.workerTask, ctx.coordinatorTask);
+		return response;
+	}
+
+	private List<WorkBucketType> getBucketsCompletedByWorker(Task workerTask) {
+		TaskWorkStateType workState = workerTask.getWorkState();
+		if (workState == null) {
+			return new ArrayList<>();
+		}
+		return workState.getBucket().stream()
+				.filter(b -> b.getState() == WorkBucketStateType.COMPLETE)
+				.collect(Collectors.toList());
+	}
+
+	private int getBucketAllocationBatch(TaskWorkManagementType workManagement) {
+		WorkAllocationConfigurationType ac = workManagement != null && workManagement.getBuckets() != null ?
+				workManagement.getBuckets().getAllocation() : null;
+		return ac != null && ac.getBucketAllocationBatch() != null ? Math.max(ac.getBucketAllocationBatch(), 1) : 1;
+	}
+
+	private boolean isDeferredBucketCompletion(TaskWorkManagementType workManagement) {
+		WorkAllocationConfigurationType ac = workManagement != null && workManagement.getBuckets() != null ?
+				workManagement.getBuckets().getAllocation() : null;
+		return ac != null && BooleanUtils.isTrue(ac.isDeferredBucketCompletion());
+	}
+
+	private void logContentionStatistics() {
+		if (CONTENTION_LOGGER.isDebugEnabled()) {
+			CONTENTION_LOGGER.debug("Work allocation statistics: {} request(s), {} bucket(s) allocated, {} conflict(s) "
+							+ "with {} ms of waiting, {} deferred completion(s)", allocationRequests.sum(), bucketsAllocated.sum(),
+					allocationConflicts.sum(), allocationConflictsWaitTime.sum(), deferredCompletions.sum());
+		}
+	}
+
 	private BackoffComputer createBackoffComputer(TaskWorkManagementType workManagement) {
 		WorkAllocationConfigurationType ac = workManagement != null && workManagement.getBuckets() != null ?
 				workManagement.getBuckets().getAllocation() : null;
@@ -354,8 +482,13 @@ waitForConflictLessUpdate: // this cycle exits when coordinator task update succ
 			if (bucket.getState() == WorkBucketStateType.DELEGATED) {
 				Task worker = TaskWorkStateUtil.findWorkerByBucketNumber(workers, bucket.getSequentialNumber());
 				if (worker == null || worker.getExecutionStatus() == TaskExecutionStatus.CLOSED) {
-					LOGGER.info("Reclaiming wrongly allocated work bucket {} from worker task {}", bucket, worker);
-					bucket.setState(WorkBucketStateType.READY);
+					if (worker != null && isCompletedByWorker(worker, bucket.getSequentialNumber())) {
+						LOGGER.info("Recording deferred completion of work bucket {} from worker task {}", bucket, worker);
+						bucket.setState(WorkBucketStateType.COMPLETE);
+					} else {
+						LOGGER.info("Reclaiming wrongly allocated work bucket {} from worker task {}", bucket, worker);
+						bucket.setState(WorkBucketStateType.READY);
+					}
 					// TODO modify also the worker if it exists (maybe)
 					reclaiming++;
 				}
@@ -377,6 +510,11 @@ waitForConflictLessUpdate: // this cycle exits when coordinator task update succ
 		return reclaiming > 0;
 	}
 
+	private boolean isCompletedByWorker(Task worker, int sequentialNumber) {
+		return getBucketsCompletedByWorker(worker).stream()
+				.anyMatch(b -> b.getSequentialNumber() == sequentialNumber);
+	}
+
 	private WorkBucketType getWorkBucketStandalone(Context ctx, OperationResult result)
 			throws SchemaException, ObjectAlreadyExistsException, ObjectNotFoundException {
 		WorkSegmentationStrategy workStateStrategy = strategyFactory.createStrategy(ctx.workerTask.getWorkManagement());
@@ -450,6 +588,10 @@ waitForConflictLessUpdate: // this cycle exits when coordinator task update succ
 
 	private void completeWorkBucketMultiNode(Context ctx, int sequentialNumber, OperationResult result)
 			throws SchemaException, ObjectAlreadyExistsException, ObjectNotFoundException {
+		if (isDeferredBucketCompletion(ctx.coordinatorTask.getWorkManagement())) {
+			completeWorkBucketDeferred(ctx, sequentialNumber, result);
+			return;
+		}
 		TaskWorkStateType workState = getWorkState(ctx.coordinatorTask);
 		WorkBucketType bucket = TaskWorkStateTypeUtil.findBucketByNumber(workState.getBucket(), sequentialNumber);
 		if (bucket == null) {
@@ -480,6 +622,27 @@ waitForConflictLessUpdate: // this cycle exits when coordinator task update succ
 		repositoryService.modifyObject(TaskType.class, ctx.workerTask.getOid(), bucketDeleteDeltas(workerBucket), result);
 	}
 
+	/**
+	 * Records the completion in the worker task only. The coordinator task is updated when the worker asks
+	 * for next buckets (or when the buckets are reclaimed after the worker is closed).
+	 */
+	private void completeWorkBucketDeferred(Context ctx, int sequentialNumber, OperationResult result)
+			throws SchemaException, ObjectAlreadyExistsException, ObjectNotFoundException {
+		TaskWorkStateType workerWorkState = getWorkState(ctx.workerTask);
+		WorkBucketType workerBucket = TaskWorkStateTypeUtil.findBucketByNumber(workerWorkState.getBucket(), sequentialNumber);
+		if (workerBucket == null) {
+			throw new IllegalStateException("No work bucket with sequential number of " + sequentialNumber + " in worker task " + ctx.workerTask);
+		}
+		if (workerBucket.getState() != WorkBucketStateType.READY && workerBucket.getState() != null) {
+			throw new IllegalStateException("Work bucket " + sequentialNumber + " in " + ctx.workerTask
+					+ " cannot be marked as complete, as it is not ready; its state = " + workerBucket.getState());
+		}
+		repositoryService.modifyObject(TaskType.class, ctx.workerTask.getOid(),
+				bucketStateChangeDeltas(workerBucket, WorkBucketStateType.COMPLETE), result);
+		deferredCompletions.increment();
+		CONTENTION_LOGGER.trace("Completion of bucket #{} recorded in worker {}", sequentialNumber, ctx.workerTask);
+	}
+
 	private void completeWorkBucketStandalone(Context ctx, int sequentialNumber, OperationResult result)
 			throws SchemaException, ObjectAlreadyExistsException, ObjectNotFoundException {
 		TaskWorkStateType workState = getWorkState(ctx.workerTask);
@@ -545,20 +708,15 @@ waitForConflictLessUpdate: // this cycle exits when coordinator task update succ
 
 	private void compressCompletedBuckets(Task task, OperationResult result)
 			throws SchemaException, ObjectAlreadyExistsException, ObjectNotFoundException {
-		List<WorkBucketType> buckets = new ArrayList<>(getWorkState(task).getBucket());
-		TaskWorkStateTypeUtil.sortBucketsBySequentialNumber(buckets);
-		List<WorkBucketType> completeBuckets = buckets.stream()
-				.filter(b -> b.getState() == WorkBucketStateType.COMPLETE)
-				.collect(Collectors.toList());
-		if (completeBuckets.size() <= 1) {
-			LOGGER.trace("Compression of completed buckets: # of complete buckets is too small ({}) in {}, exiting",
-					completeBuckets.size(), task);
+		List<WorkBucketType> toCompress = getBucketsToCompress(getWorkState(task).getBucket());
+		if (toCompress.isEmpty()) {
+			LOGGER.trace("Compression of completed buckets: # of complete buckets is too small in {}, exiting", task);
 			return;
 		}
 
 		List<ItemDelta<?, ?>> deleteItemDeltas = new ArrayList<>();
-		for (int i = 0; i < completeBuckets.size() - 1; i++) {
-			deleteItemDeltas.addAll(bucketDeleteDeltas(completeBuckets.get(i)));
+		for (WorkBucketType bucket : toCompress) {
+			deleteItemDeltas.addAll(bucketDeleteDeltas(bucket));
 		}
 		LOGGER.trace("Compression of completed buckets: deleting {} buckets before last completed one in {}", deleteItemDeltas.size(), task);
 		// these buckets should not be touched by anyone (as they are already completed); so we can execute without preconditions
@@ -567,6 +725,18 @@ waitForConflictLessUpdate: // this cycle exits when coordinator task update succ
 		}
 	}
 
+	/**
+	 * Returns all complete buckets except for the last one.
+	 */
+	private List<WorkBucketType> getBucketsToCompress(List<WorkBucketType> allBuckets) {
+		List<WorkBucketType> buckets = new ArrayList<>(allBuckets);
+		TaskWorkStateTypeUtil.sortBucketsBySequentialNumber(buckets);
+		List<WorkBucketType> completeBuckets = buckets.stream()
+				.filter(b -> b.getState() == WorkBucketStateType.COMPLETE)
+				.collect(Collectors.toList());
+		return completeBuckets.size() > 1 ? completeBuckets.subList(0, completeBuckets.size() - 1) : new ArrayList<>();
+	}
+
 	private Collection<ItemDelta<?, ?>> bucketsReplaceDeltas(List<WorkBucketType> buckets) throws SchemaException {
 		return prismContext.deltaFor(TaskType.class)
 				.item(TaskType.F_WORK_STATE, TaskWorkStateType.F_BUCKET)
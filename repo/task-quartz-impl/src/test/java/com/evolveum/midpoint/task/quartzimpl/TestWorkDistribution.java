@@ -522,6 +522,86 @@ public class TestWorkDistribution extends AbstractTaskManagerTest {
         }
 	}
 
+	@Test
+	public void test140LeaseBucketsWithDeferredCompletion() throws Exception {
+		final String TEST_NAME = "test140LeaseBucketsWithDeferredCompletion";
+		OperationResult result = createResult(TEST_NAME, LOGGER);
+		addObjectFromFile(coordinatorTaskFilename(TEST_NAME));
+		addObjectFromFile(workerTaskFilename(TEST_NAME));
+
+		try {
+			TaskQuartzImpl worker = taskManager.getTask(workerTaskOid(TEST_NAME), result);
+
+			// WHEN
+			WorkBucketType bucket1 = workStateManager.getWorkBucket(worker.getOid(), 0, null, result);
+
+			// THEN
+			Task coordinator = taskManager.getTask(coordinatorTaskOid(TEST_NAME), result);
+			worker = taskManager.getTask(worker.getOid(), result);
+			display("coordinator after leasing 1st and 2nd bucket", coordinator);
+			display("worker after leasing 1st and 2nd bucket", worker);
+
+			assertNumericBucket(bucket1, null, 1, 0, 1);
+			List<WorkBucketType> buckets = new ArrayList<>(coordinator.getWorkState().getBucket());
+			sortBucketsBySequentialNumber(buckets);
+			assertEquals(2, buckets.size());
+			assertNumericBucket(buckets.get(0), WorkBucketStateType.DELEGATED, 1, 0, 1);
+			assertNumericBucket(buckets.get(1), WorkBucketStateType.DELEGATED, 2, 1, 2);
+			buckets = new ArrayList<>(worker.getWorkState().getBucket());
+			sortBucketsBySequentialNumber(buckets);
+			assertEquals(2, buckets.size());
+			assertNumericBucket(buckets.get(0), WorkBucketStateType.READY, 1, 0, 1);
+			assertNumericBucket(buckets.get(1), WorkBucketStateType.READY, 2, 1, 2);
+
+			// WHEN
+			workStateManager.completeWorkBucket(worker.getOid(), 1, result);
+			WorkBucketType bucket2 = workStateManager.getWorkBucket(worker.getOid(), 0, null, result);
+			workStateManager.completeWorkBucket(worker.getOid(), 2, result);
+
+			// THEN
+			coordinator = taskManager.getTask(coordinator.getOid(), result);
+			worker = taskManager.getTask(worker.getOid(), result);
+			display("coordinator after completing 1st and 2nd bucket", coordinator);
+			display("worker after completing 1st and 2nd bucket", worker);
+
+			assertNumericBucket(bucket2, null, 2, 1, 2);
+			buckets = new ArrayList<>(coordinator.getWorkState().getBucket());
+			sortBucketsBySequentialNumber(buckets);
+			assertEquals(2, buckets.size());
+			assertNumericBucket(buckets.get(0), WorkBucketStateType.DELEGATED, 1, 0, 1);      // completion is deferred
+			assertNumericBucket(buckets.get(1), WorkBucketStateType.DELEGATED, 2, 1, 2);
+			buckets = new ArrayList<>(worker.getWorkState().getBucket());
+			sortBucketsBySequentialNumber(buckets);
+			assertEquals(2, buckets.size());
+			assertNumericBucket(buckets.get(0), WorkBucketStateType.COMPLETE, 1, 0, 1);
+			assertNumericBucket(buckets.get(1), WorkBucketStateType.COMPLETE, 2, 1, 2);
+
+			// WHEN
+			WorkBucketType bucket3 = workStateManager.getWorkBucket(worker.getOid(), 0, null, result);
+
+			// THEN
+			coordinator = taskManager.getTask(coordinator.getOid(), result);
+			worker = taskManager.getTask(worker.getOid(), result);
+			display("coordinator after leasing 3rd and 4th bucket", coordinator);
+			display("worker after leasing 3rd and 4th bucket", worker);
+
+			assertNumericBucket(bucket3, null, 3, 2, 3);
+			buckets = new ArrayList<>(coordinator.getWorkState().getBucket());
+			sortBucketsBySequentialNumber(buckets);
+			assertEquals(3, buckets.size());
+			assertNumericBucket(buckets.get(0), WorkBucketStateType.COMPLETE, 2, 1, 2);
+			assertNumericBucket(buckets.get(1), WorkBucketStateType.DELEGATED, 3, 2, 3);
+			assertNumericBucket(buckets.get(2), WorkBucketStateType.DELEGATED, 4, 3, 4);
+			buckets = new ArrayList<>(worker.getWorkState().getBucket());
+			sortBucketsBySequentialNumber(buckets);
+			assertEquals(2, buckets.size());
+			assertNumericBucket(buckets.get(0), WorkBucketStateType.READY, 3, 2, 3);
+			assertNumericBucket(buckets.get(1), WorkBucketStateType.READY, 4, 3, 4);
+		} finally {
+			suspendAndDeleteTasks(coordinatorTaskOid(TEST_NAME));
+		}
+	}
+
 	@Test
 	public void test200OneWorkerTask() throws Exception {
 		final String TEST_NAME = "test200OneWorkerTask";
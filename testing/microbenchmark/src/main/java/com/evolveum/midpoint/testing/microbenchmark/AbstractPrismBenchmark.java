@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.testing.microbenchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.testing.microbenchmark.BenchmarkObjects.ObjectKind;
+import com.evolveum.midpoint.testing.microbenchmark.BenchmarkObjects.Size;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Common state of the prism benchmarks: the prism context (with the full midPoint schema) and the object
+ * that is being processed. The object kind and size are benchmark parameters, so each benchmark method
+ * is measured for every combination of them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class AbstractPrismBenchmark {
+
+	private static PrismContext prismContext;
+
+	@Param({ "USER", "ROLE", "SHADOW" })
+	public ObjectKind kind;
+
+	@Param({ "SMALL", "MEDIUM", "LARGE" })
+	public Size size;
+
+	protected PrismObject<? extends ObjectType> object;
+
+	@Setup
+	public void setupObject() throws Exception {
+		object = new BenchmarkObjects(getPrismContext()).create(kind, size);
+	}
+
+	/**
+	 * Schema initialization takes seconds, so the context is created only once per (forked) JVM.
+	 */
+	protected static synchronized PrismContext getPrismContext() throws Exception {
+		if (prismContext == null) {
+			prismContext = new MidPointPrismContextFactory().createInitializedPrismContext();
+		}
+		return prismContext;
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.testing.microbenchmark;
+
+import javax.xml.namespace.QName;
+
+import com.evolveum.midpoint.prism.MutablePrismPropertyDefinition;
+import com.evolveum.midpoint.prism.PrismContainer;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.schema.constants.MidPointConstants;
+import com.evolveum.midpoint.util.DOMUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+import com.evolveum.prism.xml.ns._public.types_3.ItemPathType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+
+/**
+ * Creates objects used in the benchmarks. The objects are generated (instead of being read from files)
+ * so their size can be scaled: from a typical small object up to objects with thousands of assignments
+ * or attribute values that are known to cause trouble in real deployments.
+ */
+public class BenchmarkObjects {
+
+	public enum ObjectKind {
+		USER, ROLE, SHADOW
+	}
+
+	public enum Size {
+
+		SMALL(2, 2), MEDIUM(50, 20), LARGE(1000, 200);
+
+		/**
+		 * Number of assignments (users), inducements (roles) or multi-valued attributes (shadows).
+		 */
+		private final int containers;
+
+		/**
+		 * Number of values in multi-valued properties.
+		 */
+		private final int values;
+
+		Size(int containers, int values) {
+			this.containers = containers;
+			this.values = values;
+		}
+	}
+
+	private static final String NS_RI = MidPointConstants.NS_RI;
+	private static final String RESOURCE_OID = "10000000-0000-0000-0000-000000000004";
+
+	private final PrismContext prismContext;
+
+	public BenchmarkObjects(PrismContext prismContext) {
+		this.prismContext = prismContext;
+	}
+
+	public PrismObject<? extends ObjectType> create(ObjectKind kind, Size size) throws SchemaException {
+		switch (kind) {
+			case USER: return createUser(size);
+			case ROLE: return createRole(size);
+			case SHADOW: return createShadow(size);
+			default: throw new IllegalArgumentException("Unknown kind: " + kind);
+		}
+	}
+
+	private PrismObject<UserType> createUser(Size size) {
+		UserType user = new UserType(prismContext)
+				.oid(oid(1))
+				.name("jack")
+				.fullName("Jack Sparrow")
+				.givenName("Jack")
+				.familyName("Sparrow")
+				.emailAddress("jack@caribbean.example.com");
+		for (int i = 0; i < size.values; i++) {
+			user.employeeType("type-" + i);
+			user.organizationalUnit("Unit " + i);
+		}
+		for (int i = 0; i < size.containers; i++) {
+			user.assignment(new AssignmentType(prismContext)
+					.id((long) i + 1)
+					.description("Assignment " + i)
+					.targetRef(oid(i + 100), RoleType.COMPLEX_TYPE));
+		}
+		return user.asPrismObject();
+	}
+
+	private PrismObject<RoleType> createRole(Size size) {
+		RoleType role = new RoleType(prismContext)
+				.oid(oid(2))
+				.name("pirate")
+				.roleType("business")
+				.riskLevel("low");
+		for (int i = 0; i < size.containers; i++) {
+			ConstructionType construction = new ConstructionType(prismContext)
+					.resourceRef(RESOURCE_OID, ResourceType.COMPLEX_TYPE)
+					.kind(ShadowKindType.ENTITLEMENT)
+					.intent("group")
+					.attribute(new ResourceAttributeDefinitionType(prismContext)
+							// unqualified, as prefixed paths cannot be reliably parsed from JSON/YAML
+						.ref(new ItemPathType(ItemPath.create(new QName("description"))))
+							.outbound(new MappingType(prismContext)
+									.strength(MappingStrengthType.STRONG)
+									.expression(new ExpressionType()
+											.expressionEvaluator(new ObjectFactory().createScript(
+													new ScriptExpressionEvaluatorType().code("'Pirate group " + i + "'"))))));
+			role.inducement(new AssignmentType(prismContext)
+					.id((long) i + 1)
+					.construction(construction));
+		}
+		return role.asPrismObject();
+	}
+
+	private PrismObject<ShadowType> createShadow(Size size) throws SchemaException {
+		ShadowType shadow = new ShadowType(prismContext)
+				.oid(oid(3))
+				.name("uid=jack,ou=people,dc=example,dc=com")
+				.resourceRef(RESOURCE_OID, ResourceType.COMPLEX_TYPE)
+				.objectClass(new QName(NS_RI, "inetOrgPerson"))
+				.kind(ShadowKindType.ACCOUNT)
+				.intent("default");
+		PrismObject<ShadowType> object = shadow.asPrismObject();
+		PrismContainer<ShadowAttributesType> attributes = object.findOrCreateContainer(ShadowType.F_ATTRIBUTES);
+		addAttribute(attributes, "uid", "jack");
+		addAttribute(attributes, "cn", "Jack Sparrow");
+		// Shadows in the repository have no resource schema applied, so the attributes are dynamic
+		// (exactly as when they are read from the repository).
+		for (int i = 0; i < size.containers; i++) {
+			String[] values = new String[size.values];
+			for (int j = 0; j < size.values; j++) {
+				values[j] = "cn=group-" + i + "-" + j + ",ou=groups,dc=example,dc=com";
+			}
+			addAttribute(attributes, "memberOf" + i, (Object[]) values);
+		}
+		return object;
+	}
+
+	private void addAttribute(PrismContainer<ShadowAttributesType> attributes, String name, Object... values)
+			throws SchemaException {
+		MutablePrismPropertyDefinition<Object> definition = prismContext.definitionFactory()
+				.createPropertyDefinition(new QName(NS_RI, name), DOMUtil.XSD_STRING);
+		definition.setMaxOccurs(-1);
+		definition.setDynamic(true);
+		PrismProperty<Object> attribute = definition.instantiate();
+		for (Object value : values) {
+			attribute.addRealValue(value);
+		}
+		attributes.getValue().add(attribute);
+	}
+
+	/**
+	 * Creates a modified copy of the object, as typically seen when a change is computed or applied:
+	 * a few single-valued properties change and a few values of the big multi-valued items are added
+	 * and removed.
+	 */
+	public <O extends ObjectType> PrismObject<O> modify(PrismObject<O> original) throws SchemaException {
+		PrismObject<O> modified = original.clone();
+		O bean = modified.asObjectable();
+		bean.setDescription("Modified");
+		if (bean instanceof UserType) {
+			UserType user = (UserType) bean;
+			user.setFullName(new PolyStringType("Captain Jack Sparrow"));
+			user.getEmployeeType().remove(0);
+			user.getEmployeeType().add("captain");
+			user.getAssignment().remove(0);
+			user.getAssignment().add(new AssignmentType(prismContext)
+					.targetRef(oid(99), RoleType.COMPLEX_TYPE));
+		} else if (bean instanceof RoleType) {
+			RoleType role = (RoleType) bean;
+			role.setRiskLevel("high");
+			role.getInducement().remove(0);
+		} else if (bean instanceof ShadowType) {
+			PrismProperty<Object> memberOf = modified.findProperty(
+					ItemPath.create(ShadowType.F_ATTRIBUTES, new QName(NS_RI, "memberOf0")));
+			if (memberOf != null) {
+				memberOf.getValues().remove(0);
+				memberOf.addRealValue("cn=captains,ou=groups,dc=example,dc=com");
+			}
+		}
+		return modified;
+	}
+
+	private static String oid(int number) {
+		return String.format("c0c010c0-d34d-b33f-f00d-%012d", number);
+	}
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.testing.microbenchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+import com.evolveum.midpoint.prism.PrismObject;
+
+/**
+ * Deep cloning of the object, as done e.g. when objects are put into or taken from the repository cache.
+ */
+public class CloneBenchmark extends AbstractPrismBenchmark {
+
+	@Benchmark
+	public PrismObject<?> cloneObject() {
+		return object.clone();
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.testing.microbenchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Application of a modify delta (ObjectDelta.applyTo) to the object.
+ *
+ * The delta changes the object, so a fresh copy is prepared before each invocation. This is done outside
+ * of the measured code, but it adds some timing overhead; so the results for small objects should be taken
+ * with a grain of salt.
+ */
+public class DeltaApplyBenchmark extends AbstractPrismBenchmark {
+
+	private PrismObject<ObjectType> original;
+	private ObjectDelta<ObjectType> delta;
+	private PrismObject<ObjectType> target;
+
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void createDelta() throws Exception {
+		original = (PrismObject<ObjectType>) object;
+		delta = original.diff(new BenchmarkObjects(getPrismContext()).modify(original));
+	}
+
+	@Setup(Level.Invocation)
+	public void createTarget() {
+		target = original.clone();
+	}
+
+	@Benchmark
+	public PrismObject<ObjectType> applyDelta() throws Exception {
+		delta.applyTo(target);
+		return target;
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.testing.microbenchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Setup;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Computation of the delta between the object and its slightly modified copy.
+ */
+public class DiffBenchmark extends AbstractPrismBenchmark {
+
+	private PrismObject<ObjectType> original;
+	private PrismObject<ObjectType> modified;
+
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void modify() throws Exception {
+		original = (PrismObject<ObjectType>) object;
+		modified = new BenchmarkObjects(getPrismContext()).modify(original);
+	}
+
+	@Benchmark
+	public ObjectDelta<ObjectType> diff() {
+		return original.diff(modified);
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.testing.microbenchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Parsing of the serialized object (PrismParser) in all supported languages.
+ */
+public class ParseBenchmark extends AbstractPrismBenchmark {
+
+	@Param({ PrismContext.LANG_XML, PrismContext.LANG_JSON, PrismContext.LANG_YAML })
+	public String language;
+
+	private String serialized;
+
+	@Setup
+	public void serialize() throws Exception {
+		serialized = getPrismContext().serializerFor(language).serialize(object);
+	}
+
+	@Benchmark
+	public PrismObject<ObjectType> parse() throws Exception {
+		return getPrismContext().parserFor(serialized).language(language).parse();
+	}
+}
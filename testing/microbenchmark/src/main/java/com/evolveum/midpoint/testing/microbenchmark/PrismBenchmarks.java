@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.testing.microbenchmark;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the prism microbenchmarks.
+ *
+ * Build with <code>mvn clean install -P microbenchmark</code> (in testing/microbenchmark) and run e.g.
+ * <pre>
+ *     java -jar target/benchmarks.jar                              (all benchmarks)
+ *     java -jar target/benchmarks.jar Parse -p size=LARGE          (parsing of large objects only)
+ *     java -jar target/benchmarks.jar -h                           (all JMH options)
+ * </pre>
+ *
+ * Unlike plain JMH, the results are stored in JSON format by default (prism-benchmarks-TIMESTAMP.json
+ * in the current directory), so the results of two builds can be compared side by side, e.g. using
+ * JMH Compare GUI or JMH Visualizer. Use standard -rf and -rff options to override this.
+ */
+public class PrismBenchmarks {
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+		if (commandLineOptions.shouldHelp() || commandLineOptions.shouldList() || commandLineOptions.shouldListProfilers()
+				|| commandLineOptions.shouldListResultFormats()) {
+			Main.main(args);
+			return;
+		}
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions);
+		if (!commandLineOptions.getResultFormat().hasValue()) {
+			options.resultFormat(ResultFormatType.JSON);
+		}
+		if (!commandLineOptions.getResult().hasValue()) {
+			options.result("prism-benchmarks-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".json");
+		}
+		new Runner(options.build()).run();
+	}
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2010-2019 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.testing.microbenchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+import com.evolveum.midpoint.prism.PrismContext;
+
+/**
+ * Serialization of the object (PrismSerializer) into all supported languages.
+ */
+public class SerializeBenchmark extends AbstractPrismBenchmark {
+
+	@Param({ PrismContext.LANG_XML, PrismContext.LANG_JSON, PrismContext.LANG_YAML })
+	public String language;
+
+	@Benchmark
+	public String serialize() throws Exception {
+		return getPrismContext().serializerFor(language).serialize(object);
+	}
+}
@@ -32,6 +32,7 @@ import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.constants.ObjectTypes;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 
@@ -52,11 +53,21 @@ public abstract class AbstractRepositorySearchAction<OP extends ExportOptions> e
 
     private static final int QUEUE_CAPACITY_PER_THREAD = 100;
     private static final long CONSUMERS_WAIT_FOR_START = 2000L;
+
+    // the same as for OID-based work segmentation of tasks
+    private static final String OID_BOUNDARY_CHARACTERS = "0123456789abcdef";
     
     protected abstract String getOperationShortName();
     
     protected abstract Runnable createConsumer(BlockingQueue<PrismObject> queue, OperationStatus operation);
 
+    /**
+     * Consumers of the objects found. There is only one by default.
+     */
+    protected List<Runnable> createConsumers(BlockingQueue<PrismObject> queue, OperationStatus operation) {
+        return Collections.singletonList(createConsumer(queue, operation));
+    }
+
     protected String getOperationName() {
     	return this.getClass().getName() + "." + getOperationShortName();
     }
@@ -66,12 +77,13 @@ public abstract class AbstractRepositorySearchAction<OP extends ExportOptions> e
         OperationResult result = new OperationResult(getOperationName());
         OperationStatus operation = new OperationStatus(context, result);
 
-        // "+ 2" will be used for consumer and progress reporter
-        ExecutorService executor = Executors.newFixedThreadPool(options.getMultiThread() + 2);
-
         BlockingQueue<PrismObject> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY_PER_THREAD * options.getMultiThread());
 
         List<SearchProducerWorker> producers = createProducers(queue, operation);
+        List<Runnable> consumers = createConsumers(queue, operation);
+
+        // "+ 1" will be used for progress reporter
+        ExecutorService executor = Executors.newFixedThreadPool(options.getMultiThread() + consumers.size() + 1);
 
         log.info("Starting " + getOperationShortName());
         operation.start();
@@ -85,8 +97,7 @@ public abstract class AbstractRepositorySearchAction<OP extends ExportOptions> e
 
         executor.execute(new ProgressReporterWorker(context, options, queue, operation));
 
-        Runnable consumer = createConsumer(queue, operation);
-        executor.execute(consumer);
+        consumers.forEach(executor::execute);
 
         // execute rest of the producers
         for (int i = options.getMultiThread(); i < producers.size(); i++) {
@@ -129,14 +140,13 @@ public abstract class AbstractRepositorySearchAction<OP extends ExportOptions> e
         List<ObjectTypes> types = NinjaUtils.getTypes(options.getType());
         for (ObjectTypes type : types) {
             ObjectFilter filter = NinjaUtils.createObjectFilter(options.getFilter(), context, type.getClassDefinition());
-            ObjectQuery query = queryFactory.createQuery(filter);
             if (ObjectTypes.SHADOW.equals(type)) {
                 List<SearchProducerWorker> shadowProducers = createProducersForShadows(context, queue, operation, producers, filter);
                 producers.addAll(shadowProducers);
                 continue;
             }
 
-            producers.add(new SearchProducerWorker(context, options, queue, operation, producers, type, query));
+            producers.addAll(createPartitionedProducers(queue, operation, producers, type, filter));
         }
 
         return producers;
@@ -166,7 +176,7 @@ public abstract class AbstractRepositorySearchAction<OP extends ExportOptions> e
 
             List<PrismObject<ResourceType>> list = resultList.getList();
             if (list == null || list.isEmpty()) {
-                shadowProducers.add(createProducer(queue, operation, producers, ObjectTypes.SHADOW, filter));
+                shadowProducers.addAll(createPartitionedProducers(queue, operation, producers, ObjectTypes.SHADOW, filter));
                 return shadowProducers;
             }
 
@@ -180,7 +190,7 @@ public abstract class AbstractRepositorySearchAction<OP extends ExportOptions> e
                     fullFilter = queryFactory.createAnd(fullFilter, filter);
                 }
 
-                shadowProducers.add(createProducer(queue, operation, producers, ObjectTypes.SHADOW, fullFilter));
+                shadowProducers.addAll(createPartitionedProducers(queue, operation, producers, ObjectTypes.SHADOW, fullFilter));
             }
 
             // all other shadows (no resourceRef or non existing resourceRef)
@@ -195,11 +205,11 @@ public abstract class AbstractRepositorySearchAction<OP extends ExportOptions> e
                 fullFilter = queryFactory.createAnd(fullFilter, filter);
             }
 
-            shadowProducers.add(createProducer(queue, operation, producers, ObjectTypes.SHADOW, fullFilter));
+            shadowProducers.addAll(createPartitionedProducers(queue, operation, producers, ObjectTypes.SHADOW, fullFilter));
         } catch (Exception ex) {
             shadowProducers.clear();
 
-            shadowProducers.add(createProducer(queue, operation, producers, ObjectTypes.SHADOW, filter));
+            shadowProducers.addAll(createPartitionedProducers(queue, operation, producers, ObjectTypes.SHADOW, filter));
         }
 
         return shadowProducers;
@@ -224,4 +234,64 @@ public abstract class AbstractRepositorySearchAction<OP extends ExportOptions> e
         ObjectQuery query = context.getPrismContext().queryFactory().createQuery(filter);
         return new SearchProducerWorker(context, options, queue, operation, producers, type, query);
     }
+
+    /**
+     * If partitioning is requested, objects are split into OID ranges the same way as when using OID-based work
+     * segmentation of tasks (interval marking): (none, "0"), ("0", "1"), ..., ("f", none) for the depth of 1.
+     * Each range is searched by its own producer, so the ranges are read concurrently.
+     */
+    private List<SearchProducerWorker> createPartitionedProducers(BlockingQueue<PrismObject> queue, OperationStatus operation,
+            List<SearchProducerWorker> producers, ObjectTypes type, ObjectFilter filter) {
+
+        if (options.getPartitionDepth() <= 0) {
+            return Collections.singletonList(createProducer(queue, operation, producers, type, filter));
+        }
+
+        QueryFactory queryFactory = context.getPrismContext().queryFactory();
+        List<SearchProducerWorker> partitionedProducers = new ArrayList<>();
+
+        List<String> boundaries = createOidBoundaries(options.getPartitionDepth());
+        for (int i = 0; i <= boundaries.size(); i++) {
+            String from = i > 0 ? boundaries.get(i - 1) : null;
+            String to = i < boundaries.size() ? boundaries.get(i) : null;
+
+            ObjectFilter fullFilter = createOidRangeFilter(type, from, to);
+            if (filter != null) {
+                fullFilter = queryFactory.createAnd(fullFilter, filter);
+            }
+
+            partitionedProducers.add(createProducer(queue, operation, producers, type, fullFilter));
+        }
+
+        return partitionedProducers;
+    }
+
+    private ObjectFilter createOidRangeFilter(ObjectTypes type, String from, String to) {
+        PrismContext prismContext = context.getPrismContext();
+        Class<? extends ObjectType> clazz = type.getClassDefinition();
+        if (from == null) {
+            return prismContext.queryFor(clazz).item(PrismConstants.T_ID).lt(to).buildFilter();
+        } else if (to == null) {
+            return prismContext.queryFor(clazz).item(PrismConstants.T_ID).ge(from).buildFilter();
+        } else {
+            return prismContext.queryFor(clazz)
+                    .item(PrismConstants.T_ID).ge(from)
+                    .and().item(PrismConstants.T_ID).lt(to)
+                    .buildFilter();
+        }
+    }
+
+    private List<String> createOidBoundaries(int depth) {
+        List<String> boundaries = Collections.singletonList("");
+        for (int i = 0; i < depth; i++) {
+            List<String> longer = new ArrayList<>(boundaries.size() * OID_BOUNDARY_CHARACTERS.length());
+            for (String boundary : boundaries) {
+                for (char c : OID_BOUNDARY_CHARACTERS.toCharArray()) {
+                    longer.add(boundary + c);
+                }
+            }
+            boundaries = longer;
+        }
+        return boundaries;
+    }
 }
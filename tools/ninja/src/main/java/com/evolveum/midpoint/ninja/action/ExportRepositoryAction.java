@@ -15,10 +15,14 @@
  */
 package com.evolveum.midpoint.ninja.action;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 
 import com.evolveum.midpoint.ninja.action.worker.ExportConsumerWorker;
 import com.evolveum.midpoint.ninja.impl.NinjaContext;
+import com.evolveum.midpoint.ninja.impl.NinjaException;
 import com.evolveum.midpoint.ninja.opts.ExportOptions;
 import com.evolveum.midpoint.ninja.util.OperationStatus;
 import com.evolveum.midpoint.prism.PrismObject;
@@ -38,4 +42,35 @@ public class ExportRepositoryAction extends AbstractRepositorySearchAction<Expor
 		return new ExportConsumerWorker(context, options, queue, operation);
 	}
 
+	@Override
+	protected List<Runnable> createConsumers(BlockingQueue<PrismObject> queue, OperationStatus operation) {
+		if (!options.isSplit()) {
+			return super.createConsumers(queue, operation);
+		}
+
+		File output = options.getOutput();
+		if (output == null) {
+			throw new NinjaException("Output file has to be defined when export is split");
+		}
+
+		List<ExportConsumerWorker> consumers = new ArrayList<>();
+		for (int i = 1; i <= options.getMultiThread(); i++) {
+			consumers.add(new ExportConsumerWorker(context, options, queue, operation, createSplitOutput(output, i), consumers));
+		}
+
+		return new ArrayList<>(consumers);
+	}
+
+	/**
+	 * Number of the file is added before the extension, e.g. "export.xml" -> "export.1.xml".
+	 */
+	private File createSplitOutput(File output, int number) {
+		String name = output.getName();
+		int dot = name.lastIndexOf('.');
+		String splitName = dot > 0 ?
+				name.substring(0, dot) + "." + number + name.substring(dot) : name + "." + number;
+
+		return new File(output.getAbsoluteFile().getParentFile(), splitName);
+	}
+
 }
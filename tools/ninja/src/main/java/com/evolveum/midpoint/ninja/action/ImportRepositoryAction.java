@@ -25,6 +25,7 @@ public class ImportRepositoryAction extends RepositoryAction<ImportOptions> {
     private static final String DOT_CLASS = ImportProducerWorker.class.getName() + ".";
 
     private static final String OPERATION_IMPORT = DOT_CLASS + "import";
+    private static final String OPERATION_REBUILD_ORG_CLOSURE = DOT_CLASS + "rebuildOrgClosure";
 
     private static final int QUEUE_CAPACITY_PER_THREAD = 100;
     private static final long CONSUMERS_WAIT_FOR_START = 2000L;
@@ -60,9 +61,27 @@ public class ImportRepositoryAction extends RepositoryAction<ImportOptions> {
         executor.shutdown();
         executor.awaitTermination(NinjaUtils.WAIT_FOR_EXECUTOR_FINISH, TimeUnit.DAYS);
 
+        if (options.isDeferOrgClosure()) {
+            rebuildOrgClosure(result);
+        }
+
         handleResultOnFinish(progress, "Import finished");
     }
 
+    /**
+     * Org. closure was not maintained by the consumers, so it's computed once for all the imported objects.
+     */
+    private void rebuildOrgClosure(OperationResult parentResult) {
+        log.info("Rebuilding org. closure");
+        long start = System.currentTimeMillis();
+
+        OperationResult result = parentResult.createSubresult(OPERATION_REBUILD_ORG_CLOSURE);
+        context.getRepository().testOrgClosureConsistency(true, result);
+        result.computeStatusIfUnknown();
+
+        log.info("Org. closure rebuilt in {}s", NinjaUtils.DECIMAL_FORMAT.format((System.currentTimeMillis() - start) / 1000.0));
+    }
+
     @Override
     public LogTarget getInfoLogTarget() {
         if (options.getInput() != null) {
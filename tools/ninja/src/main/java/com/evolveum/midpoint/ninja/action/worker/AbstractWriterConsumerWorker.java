@@ -28,8 +28,10 @@ import com.evolveum.midpoint.prism.SerializationOptions;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 
@@ -43,12 +45,15 @@ public abstract class AbstractWriterConsumerWorker<OP extends ExportOptions> ext
         super(context, options, queue, operation);
     }
 
+    public AbstractWriterConsumerWorker(NinjaContext context, OP options, BlockingQueue<PrismObject> queue,
+                                OperationStatus operation, List<? extends AbstractWriterConsumerWorker> workers) {
+        super(context, options, queue, operation, workers);
+    }
+
     @Override
     public void run() {
         Log log = context.getLog();
 
-        // todo handle split option
-        
         init();
 
         try (Writer writer = createWriter()) {
@@ -91,9 +96,16 @@ public abstract class AbstractWriterConsumerWorker<OP extends ExportOptions> ext
     protected abstract <O extends ObjectType> void write(Writer writer, PrismObject<O> object) throws SchemaException, IOException;
 
     protected abstract String getEpilog();
-    
+
+    /**
+     * File this worker writes to, null means standard output.
+     */
+    protected File getOutput() {
+        return options.getOutput();
+    }
+
 	private Writer createWriter() throws IOException {
-        Writer writer = NinjaUtils.createWriter(options.getOutput(), context.getCharset(), options.isZip());
+        Writer writer = NinjaUtils.createWriter(getOutput(), context.getCharset(), options.isZip());
         String prolog = getProlog();
         if (prolog != null) {
         	writer.write(prolog);
@@ -28,8 +28,10 @@ import com.evolveum.midpoint.prism.SerializationOptions;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 
@@ -40,9 +42,23 @@ public class ExportConsumerWorker extends AbstractWriterConsumerWorker<ExportOpt
 	
 	private PrismSerializer<String> serializer;
 
+    private File output;
+
     public ExportConsumerWorker(NinjaContext context, ExportOptions options, BlockingQueue<PrismObject> queue,
                                 OperationStatus operation) {
         super(context, options, queue, operation);
+
+        this.output = options.getOutput();
+    }
+
+    /**
+     * Used when the export is split, i.e. there are more workers, each writing its own file.
+     */
+    public ExportConsumerWorker(NinjaContext context, ExportOptions options, BlockingQueue<PrismObject> queue,
+                                OperationStatus operation, File output, List<ExportConsumerWorker> workers) {
+        super(context, options, queue, operation, workers);
+
+        this.output = output;
     }
     
     @Override
@@ -68,4 +84,9 @@ public class ExportConsumerWorker extends AbstractWriterConsumerWorker<ExportOpt
 		return NinjaUtils.XML_OBJECTS_SUFFIX;
 	}
 
+    @Override
+    protected File getOutput() {
+        return output;
+    }
+
 }
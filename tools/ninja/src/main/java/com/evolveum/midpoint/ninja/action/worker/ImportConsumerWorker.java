@@ -25,8 +25,10 @@ import com.evolveum.midpoint.prism.crypto.Protector;
 import com.evolveum.midpoint.repo.api.RepoAddOptions;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import org.springframework.context.ApplicationContext;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -46,31 +48,35 @@ public class ImportConsumerWorker extends BaseWorker<ImportOptions, PrismObject>
         ApplicationContext ctx = context.getApplicationContext();
         Protector protector = ctx.getBean(Protector.class);
 
+        RepoAddOptions opts = createRepoAddOptions(options);
+        List<PrismObject<? extends ObjectType>> batch = new ArrayList<>();
         try {
             while (!shouldConsumerStop()) {
                 PrismObject object = null;
                 try {
                     object = queue.poll(CONSUMER_POLL_TIMEOUT, TimeUnit.SECONDS);
                     if (object == null) {
+                        // nothing came in time, don't keep the objects waiting
+                        addObjects(batch, opts);
                         continue;
                     }
 
-                    RepoAddOptions opts = createRepoAddOptions(options);
-
                     if (!opts.isAllowUnencryptedValues()) {
                         CryptoUtil.encryptValues(protector, object);
                     }
 
-                    RepositoryService repository = context.getRepository();
-                    repository.addObject(object, opts, new OperationResult("Import object"));
-
-                    operation.incrementTotal();
+                    batch.add(object);
+                    if (batch.size() >= options.getBatchSize()) {
+                        addObjects(batch, opts);
+                    }
                 } catch (Exception ex) {
                     context.getLog().error("Couldn't add object {}, reason: {}", ex, object, ex.getMessage());
                     operation.incrementError();
                 }
             }
         } finally {
+            addObjects(batch, opts);
+
             markDone();
 
             if (isWorkersDone()) {
@@ -79,10 +85,46 @@ public class ImportConsumerWorker extends BaseWorker<ImportOptions, PrismObject>
         }
     }
 
+    /**
+     * Adds the batch in one repository operation. If it fails, objects are added one by one, so that the problematic
+     * ones are reported (and the others added).
+     */
+    private void addObjects(List<PrismObject<? extends ObjectType>> batch, RepoAddOptions opts) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        RepositoryService repository = context.getRepository();
+        if (batch.size() > 1) {
+            try {
+                repository.addObjects(batch, opts, new OperationResult("Import objects"));
+                batch.forEach(o -> operation.incrementTotal());
+                batch.clear();
+                return;
+            } catch (Exception ex) {
+                context.getLog().debug("Couldn't add batch of {} objects, adding them one by one, reason: {}",
+                        batch.size(), ex.getMessage());
+            }
+        }
+
+        for (PrismObject<? extends ObjectType> object : batch) {
+            try {
+                repository.addObject(object, opts, new OperationResult("Import object"));
+
+                operation.incrementTotal();
+            } catch (Exception ex) {
+                context.getLog().error("Couldn't add object {}, reason: {}", ex, object, ex.getMessage());
+                operation.incrementError();
+            }
+        }
+        batch.clear();
+    }
+
     private RepoAddOptions createRepoAddOptions(ImportOptions options) {
         RepoAddOptions opts = new RepoAddOptions();
         opts.setOverwrite(options.isOverwrite());
         opts.setAllowUnencryptedValues(options.isAllowUnencryptedValues());
+        opts.setDeferOrgClosureUpdate(options.isDeferOrgClosure());
 
         return opts;
     }
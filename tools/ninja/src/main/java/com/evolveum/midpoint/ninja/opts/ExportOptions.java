@@ -30,19 +30,29 @@ public class ExportOptions extends BaseImportExportOptions {
     public static final String P_OUTPUT_LONG = "--output";
 
     public static final String P_SPLIT = "-n";
-    public static final String P_SPLIT_LONG = "-split";
+    public static final String P_SPLIT_LONG = "--split";
+
+    public static final String P_PARTITION_DEPTH = "-d";
+    public static final String P_PARTITION_DEPTH_LONG = "--partition-depth";
 
     @Parameter(names = {P_OUTPUT, P_OUTPUT_LONG}, descriptionKey = "export.output")
     private File output;
 
-//    @Parameter(names = {P_SPLIT, P_SPLIT_LONG}, descriptionKey = "export.split")
-//    private boolean split;
+    @Parameter(names = {P_SPLIT, P_SPLIT_LONG}, descriptionKey = "export.split")
+    private boolean split;
+
+    @Parameter(names = {P_PARTITION_DEPTH, P_PARTITION_DEPTH_LONG}, descriptionKey = "export.partitionDepth")
+    private int partitionDepth;
 
     public File getOutput() {
         return output;
     }
 
-//    public boolean isSplit() {
-//        return split;
-//    }
+    public boolean isSplit() {
+        return split;
+    }
+
+    public int getPartitionDepth() {
+        return partitionDepth;
+    }
 }
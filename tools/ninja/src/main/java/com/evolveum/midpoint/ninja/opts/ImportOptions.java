@@ -20,6 +20,12 @@ public class ImportOptions extends BaseImportExportOptions {
     public static final String P_ALLOW_UNENCRYPTED_VALUES = "-e";
     public static final String P_ALLOW_UNENCRYPTED_VALUES_LONG = "--allowUnencryptedValues";
 
+    public static final String P_BATCH_SIZE = "-b";
+    public static final String P_BATCH_SIZE_LONG = "--batch-size";
+
+    public static final String P_DEFER_ORG_CLOSURE = "-d";
+    public static final String P_DEFER_ORG_CLOSURE_LONG = "--defer-org-closure";
+
     @Parameter(names = {P_INPUT, P_INPUT_LONG}, descriptionKey = "import.input")
     private File input;
 
@@ -30,6 +36,12 @@ public class ImportOptions extends BaseImportExportOptions {
             descriptionKey = "import.allowUnencryptedValues")
     private boolean allowUnencryptedValues;
 
+    @Parameter(names = {P_BATCH_SIZE, P_BATCH_SIZE_LONG}, descriptionKey = "import.batchSize")
+    private int batchSize = 1;
+
+    @Parameter(names = {P_DEFER_ORG_CLOSURE, P_DEFER_ORG_CLOSURE_LONG}, descriptionKey = "import.deferOrgClosure")
+    private boolean deferOrgClosure;
+
     public File getInput() {
         return input;
     }
@@ -41,4 +53,12 @@ public class ImportOptions extends BaseImportExportOptions {
     public boolean isAllowUnencryptedValues() {
         return allowUnencryptedValues;
     }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public boolean isDeferOrgClosure() {
+        return deferOrgClosure;
+    }
 }
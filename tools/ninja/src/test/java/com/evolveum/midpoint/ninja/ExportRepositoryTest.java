@@ -1,11 +1,33 @@
 package com.evolveum.midpoint.ninja;
 
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import org.apache.commons.io.FileUtils;
+import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
  * Created by Viliam Repan (lazyman).
  */
-public class ExportRepositoryTest {
+public class ExportRepositoryTest extends BaseTest {
+
+    private static final File EXPORT_FOLDER = new File("./target/export");
+
+    @Override
+    protected void beforeMethodInternal(Method method) throws Exception {
+        setupMidpointHome();
+
+        FileUtils.deleteDirectory(EXPORT_FOLDER);
+        EXPORT_FOLDER.mkdirs();
+    }
 
     @Test
     public void exportByOid() throws Exception {
@@ -26,4 +48,43 @@ public class ExportRepositoryTest {
     public void exportToZipFileByFilterAllowOverwrite() throws Exception {
 
     }
+
+    @Test
+    public void exportSplitByOidRanges() throws Exception {
+        executeTest("-m", getMidpointHome(), "import", "-i", RESOURCES_FOLDER + "/org-monkey-island-simple.xml.zip", "-z");
+
+        String[] input = new String[]{"-m", getMidpointHome(), "export", "-d", "1", "-l", "2", "-n",
+                "-O", new File(EXPORT_FOLDER, "export.xml").getPath()};
+
+        executeTest(null,
+                context -> {
+                    RepositoryService repo = context.getRepository();
+
+                    OperationResult result = new OperationResult("count objects");
+                    int count = repo.countObjects(ObjectType.class, null, null, result);
+
+                    AssertJUnit.assertEquals(17, count);
+                },
+                context -> {
+                    AssertJUnit.assertFalse(new File(EXPORT_FOLDER, "export.xml").exists());
+
+                    Set<String> oids = new HashSet<>();
+                    int count = 0;
+                    for (String name : new String[]{"export.1.xml", "export.2.xml"}) {
+                        File file = new File(EXPORT_FOLDER, name);
+                        AssertJUnit.assertTrue("File " + name + " doesn't exist", file.exists());
+
+                        List<PrismObject<?>> objects = (List) context.getPrismContext().parserFor(file).parseObjects();
+                        for (PrismObject<?> object : objects) {
+                            oids.add(object.getOid());
+                        }
+                        count += objects.size();
+                    }
+
+                    // each object has to be exported exactly once
+                    AssertJUnit.assertEquals(17, count);
+                    AssertJUnit.assertEquals(17, oids.size());
+                },
+                false, false, input);
+    }
 }
@@ -9,6 +9,7 @@ import org.testng.annotations.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -118,6 +119,41 @@ public class ImportRepositoryTest extends BaseTest {
         AssertJUnit.assertTrue(getSystemErr().isEmpty());
     }
 
+    @Test
+    public void test125ImportInBatchesWithDeferredOrgClosure() throws Exception {
+        String[] input = new String[]{"-m", getMidpointHome(), "import", "-b", "5", "-d",
+                "-i", RESOURCES_FOLDER + "/org-monkey-island-simple.xml.zip", "-z"};
+
+        executeTest(null,
+                context -> {
+                    RepositoryService repo = context.getRepository();
+
+                    OperationResult result = new OperationResult("count objects");
+                    int count = repo.countObjects(ObjectType.class, null, null, result);
+
+                    AssertJUnit.assertEquals(0, count);
+                },
+                context -> {
+                    RepositoryService repo = context.getRepository();
+
+                    OperationResult result = new OperationResult("count objects");
+                    int count = repo.countObjects(ObjectType.class, null, null, result);
+
+                    AssertJUnit.assertEquals(17, count);
+
+                    count = repo.countObjects(OrgType.class, null, null, result);
+
+                    AssertJUnit.assertEquals(9, count);
+
+                    // org. closure was rebuilt after the import
+                    AssertJUnit.assertTrue(repo.isAnySubordinate("00000000-8888-6666-0000-100000000001",
+                            Collections.singletonList("00000000-8888-6666-0000-100000000006")));
+                },
+                true, true, input);
+
+        AssertJUnit.assertTrue(getSystemErr().isEmpty());
+    }
+
     @Test
     public void test130ImportRaw() throws Exception {
         // todo implement